@@ -0,0 +1,106 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine.benchmarks;
+
+import com.norcane.carmine.CarmineCodec;
+import com.norcane.carmine.CarmineManager;
+import com.norcane.carmine.CarmineRequest;
+import com.norcane.carmine.CarmineResponse;
+import com.norcane.carmine.CarmineTransport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.net.URL;
+import java.util.HashMap;
+
+/**
+ * Helper methods shared by the benchmarks.
+ */
+final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Returns the request created by the <i>Carmine</i> proxy for the
+     * {@link EchoService#echo(Object)} call with the given payload (i.e. the
+     * request exactly as sent by the local side).
+     *
+     * @param payload payload passed to the remote method
+     * @return captured request
+     * @throws IOException thrown if the request cannot be captured
+     */
+    static CarmineRequest captureRequest(Object payload) throws IOException {
+        final CarmineRequest[] captured = new CarmineRequest[1];
+        CarmineManager cm = new CarmineManager(new URL("http://localhost/"));
+        cm.setTransport(new CarmineTransport() {
+            @Override
+            public CarmineResponse send(CarmineRequest request,
+                                        CarmineCodec codec) {
+                captured[0] = request;
+                return new CarmineResponse(request.getMethodArguments()[0],
+                        new HashMap<String, Object>());
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        EchoService service = cm.getRemote(EchoService.class);
+        service.echo(payload);
+        cm.close();
+        return captured[0];
+    }
+
+    /**
+     * Serializes the object using the given codec.
+     *
+     * @param codec serialization codec
+     * @param obj   object to serialize
+     * @return serialized object
+     * @throws IOException thrown if the serialization fails
+     */
+    static byte[] write(CarmineCodec codec, Object obj) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutput out = codec.createOutput(bytes);
+        out.writeObject(obj);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserializes the object using the given codec.
+     *
+     * @param codec serialization codec
+     * @param bytes serialized object
+     * @return deserialized object
+     * @throws IOException            thrown if the deserialization fails
+     * @throws ClassNotFoundException thrown if any class cannot be found
+     */
+    static Object read(CarmineCodec codec, byte[] bytes)
+            throws IOException, ClassNotFoundException {
+        ObjectInput in = codec.createInput(new ByteArrayInputStream(bytes));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+}
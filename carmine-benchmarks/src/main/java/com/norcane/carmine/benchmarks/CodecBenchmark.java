@@ -0,0 +1,102 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine.benchmarks;
+
+import com.norcane.carmine.CarmineCodec;
+import com.norcane.carmine.CarmineRequest;
+import com.norcane.carmine.CarmineResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the serialization round trips of the {@link CarmineRequest} and
+ * {@link CarmineResponse} objects using the particular codecs, for payloads
+ * of various shapes and sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param
+    private CodecType codecType;
+
+    @Param
+    private PayloadShape shape;
+
+    @Param({"1", "100", "10000"})
+    private int size;
+
+    private CarmineCodec codec;
+    private CarmineRequest request;
+    private CarmineResponse response;
+    private byte[] requestBytes;
+    private byte[] responseBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        codec = codecType.create();
+        Object payload = shape.create(size);
+        request = Benchmarks.captureRequest(payload);
+        response = new CarmineResponse(payload, new HashMap<String, Object>());
+        requestBytes = Benchmarks.write(codec, request);
+        responseBytes = Benchmarks.write(codec, response);
+    }
+
+    @Benchmark
+    public byte[] writeRequest() throws IOException {
+        return Benchmarks.write(codec, request);
+    }
+
+    @Benchmark
+    public Object readRequest() throws IOException, ClassNotFoundException {
+        return Benchmarks.read(codec, requestBytes);
+    }
+
+    @Benchmark
+    public Object requestRoundTrip()
+            throws IOException, ClassNotFoundException {
+        return Benchmarks.read(codec, Benchmarks.write(codec, request));
+    }
+
+    @Benchmark
+    public Object responseRoundTrip()
+            throws IOException, ClassNotFoundException {
+        return Benchmarks.read(codec, Benchmarks.write(codec, response));
+    }
+
+    @Benchmark
+    public Object readResponse() throws IOException, ClassNotFoundException {
+        return Benchmarks.read(codec, responseBytes);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine.benchmarks;
+
+import com.norcane.carmine.CarmineBinaryCodec;
+import com.norcane.carmine.CarmineCodec;
+import com.norcane.carmine.CarmineJavaCodec;
+
+/**
+ * Serialization codecs compared by the benchmarks.
+ */
+public enum CodecType {
+
+    /**
+     * The {@link CarmineJavaCodec}.
+     */
+    JAVA {
+        @Override
+        public CarmineCodec create() {
+            return new CarmineJavaCodec();
+        }
+    },
+
+    /**
+     * The {@link CarmineBinaryCodec}.
+     */
+    BINARY {
+        @Override
+        public CarmineCodec create() {
+            return new CarmineBinaryCodec();
+        }
+    };
+
+    /**
+     * Creates new codec of this type.
+     *
+     * @return new codec
+     */
+    public abstract CarmineCodec create();
+}
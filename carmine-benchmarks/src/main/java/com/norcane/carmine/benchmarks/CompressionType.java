@@ -0,0 +1,65 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine.benchmarks;
+
+import com.norcane.carmine.CarmineCompression;
+import com.norcane.carmine.CarmineDeflateCompression;
+import com.norcane.carmine.CarmineGzipCompression;
+
+/**
+ * Compressions compared by the benchmarks.
+ */
+public enum CompressionType {
+
+    /**
+     * No compression.
+     */
+    NONE {
+        @Override
+        public CarmineCompression create() {
+            return null;
+        }
+    },
+
+    /**
+     * The {@link CarmineGzipCompression}.
+     */
+    GZIP {
+        @Override
+        public CarmineCompression create() {
+            return new CarmineGzipCompression();
+        }
+    },
+
+    /**
+     * The {@link CarmineDeflateCompression} with the fastest compression
+     * level.
+     */
+    DEFLATE_FAST {
+        @Override
+        public CarmineCompression create() {
+            return new CarmineDeflateCompression(1);
+        }
+    };
+
+    /**
+     * Creates new compression of this type.
+     *
+     * @return new compression or {@code null} for no compression
+     */
+    public abstract CarmineCompression create();
+}
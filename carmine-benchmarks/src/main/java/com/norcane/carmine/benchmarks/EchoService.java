@@ -0,0 +1,40 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine.benchmarks;
+
+/**
+ * Remote service used by the benchmarks.
+ */
+public interface EchoService {
+
+    /**
+     * Returns the given payload back.
+     *
+     * @param payload payload to return
+     * @return the same payload
+     */
+    Object echo(Object payload);
+
+    /**
+     * Returns the number of elements of the given payload (so only the
+     * request carries the payload).
+     *
+     * @param payload payload to measure
+     * @return number of elements
+     */
+    int size(Object payload);
+}
@@ -0,0 +1,44 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine.benchmarks;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Implementation of the {@link EchoService}.
+ */
+public class EchoServiceImpl implements EchoService {
+
+    @Override
+    public Object echo(Object payload) {
+        return payload;
+    }
+
+    @Override
+    public int size(Object payload) {
+        if (payload instanceof Collection) {
+            return ((Collection<?>) payload).size();
+        } else if (payload instanceof Map) {
+            return ((Map<?, ?>) payload).size();
+        } else if (payload != null && payload.getClass().isArray()) {
+            return Array.getLength(payload);
+        }
+        return (payload != null) ? 1 : 0;
+    }
+}
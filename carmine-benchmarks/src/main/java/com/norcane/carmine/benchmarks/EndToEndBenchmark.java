@@ -0,0 +1,148 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine.benchmarks;
+
+import com.norcane.carmine.CarmineEncodedResponse;
+import com.norcane.carmine.CarmineInvoker;
+import com.norcane.carmine.CarmineManager;
+import com.norcane.carmine.CarmineSingletonProvider;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the full remote method calls from the <i>Carmine</i> proxy to the
+ * {@link CarmineInvoker} running within the local embedded <i>HTTP</i>
+ * server, using the particular transports, codecs and compressions. The
+ * number of calling threads can be set by the {@code -t} option of the
+ * <i>JMH</i>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+public class EndToEndBenchmark {
+
+    @Param
+    private TransportType transportType;
+
+    @Param
+    private CodecType codecType;
+
+    @Param({"NONE", "GZIP"})
+    private CompressionType compressionType;
+
+    @Param({"OBJECTS"})
+    private PayloadShape shape;
+
+    @Param({"1", "1000"})
+    private int size;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private CarmineManager cm;
+    private EchoService service;
+    private Object payload;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final CarmineInvoker invoker = new CarmineInvoker();
+        invoker.addProvider(EchoService.class,
+                new CarmineSingletonProvider(new EchoServiceImpl()));
+
+        server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), 0), 0);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.createContext("/carmine", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                Headers headers = exchange.getRequestHeaders();
+                CarmineEncodedResponse result = invoker.processRequest(
+                        exchange.getRequestBody(),
+                        headers.getFirst(CarmineEncodedResponse.CONTENT_TYPE),
+                        headers.getFirst(
+                                CarmineEncodedResponse.CONTENT_ENCODING),
+                        headers.getFirst(
+                                CarmineEncodedResponse.ACCEPT_ENCODING));
+                exchange.getResponseHeaders().set(
+                        CarmineEncodedResponse.CONTENT_TYPE,
+                        result.getContentType());
+                if (result.getContentEncoding() != null) {
+                    exchange.getResponseHeaders().set(
+                            CarmineEncodedResponse.CONTENT_ENCODING,
+                            result.getContentEncoding());
+                }
+                // zero length means chunked body for the JDK HTTP server
+                exchange.sendResponseHeaders(200,
+                        Math.max(0, result.getContentLength()));
+                result.writeTo(exchange.getResponseBody());
+                exchange.close();
+            }
+        });
+        server.start();
+
+        URL url = new URL("http", server.getAddress().getHostString(),
+                server.getAddress().getPort(), "/carmine");
+        cm = new CarmineManager(url);
+        cm.setCodec(codecType.create());
+        cm.setTransport(transportType.create(url, compressionType.create()));
+        service = cm.getRemote(EchoService.class);
+        payload = shape.create(size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cm.close();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public Object echo() {
+        return service.echo(payload);
+    }
+
+    @Benchmark
+    public int size() {
+        return service.size(payload);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine.benchmarks;
+
+import com.norcane.carmine.CarmineCodec;
+import com.norcane.carmine.CarmineInvoker;
+import com.norcane.carmine.CarmineSingletonProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the server side processing of the request by the
+ * {@link CarmineInvoker} (reading the request, method dispatch and writing
+ * the response) against in-memory streams.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvokerBenchmark {
+
+    @Param
+    private CodecType codecType;
+
+    @Param
+    private PayloadShape shape;
+
+    @Param({"1", "100", "10000"})
+    private int size;
+
+    @Param({"false", "true"})
+    private boolean methodHandles;
+
+    private CarmineInvoker invoker;
+    private CarmineCodec codec;
+    private byte[] requestBytes;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setup() throws IOException {
+        invoker = new CarmineInvoker();
+        invoker.addProvider(EchoService.class,
+                new CarmineSingletonProvider(new EchoServiceImpl()));
+        invoker.setMethodHandles(methodHandles);
+        codec = codecType.create();
+        requestBytes = Benchmarks.write(
+                codec, Benchmarks.captureRequest(shape.create(size)));
+        out = new ByteArrayOutputStream();
+    }
+
+    @Benchmark
+    public int processRequest() {
+        out.reset();
+        invoker.processRequest(
+                new ByteArrayInputStream(requestBytes), out, codec);
+        return out.size();
+    }
+}
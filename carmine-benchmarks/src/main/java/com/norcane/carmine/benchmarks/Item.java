@@ -0,0 +1,45 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine.benchmarks;
+
+import java.io.Serializable;
+
+/**
+ * Simple serializable object used as the element of the benchmark payloads.
+ */
+public class Item implements Serializable {
+
+    private long id;
+    private String name;
+    private double price;
+    private boolean available;
+
+    /**
+     * Constructs new instance with given values.
+     *
+     * @param id        item identifier
+     * @param name      item name
+     * @param price     item price
+     * @param available whether the item is available
+     */
+    public Item(long id, String name, double price, boolean available) {
+        this.id = id;
+        this.name = name;
+        this.price = price;
+        this.available = available;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shapes of the payloads passed as the remote method argument (and returned
+ * as its result) in the benchmarks.
+ */
+public enum PayloadShape {
+
+    /**
+     * Array of primitive integers.
+     */
+    PRIMITIVES {
+        @Override
+        public Object create(int size) {
+            int[] values = new int[size];
+            for (int i = 0; i < size; i++) values[i] = i * 31;
+            return values;
+        }
+    },
+
+    /**
+     * List of short strings.
+     */
+    STRINGS {
+        @Override
+        public Object create(int size) {
+            List<String> values = new ArrayList<String>(size);
+            for (int i = 0; i < size; i++) values.add("value-" + i);
+            return values;
+        }
+    },
+
+    /**
+     * List of simple serializable objects.
+     */
+    OBJECTS {
+        @Override
+        public Object create(int size) {
+            List<Item> values = new ArrayList<Item>(size);
+            for (int i = 0; i < size; i++) values.add(item(i));
+            return values;
+        }
+    },
+
+    /**
+     * Map of lists of simple serializable objects (ten objects per entry).
+     */
+    NESTED {
+        @Override
+        public Object create(int size) {
+            Map<String, List<Item>> values = new HashMap<String, List<Item>>();
+            for (int i = 0; i < size; i++) {
+                String key = "group-" + (i / 10);
+                List<Item> group = values.get(key);
+                if (group == null) {
+                    group = new ArrayList<Item>();
+                    values.put(key, group);
+                }
+                group.add(item(i));
+            }
+            return values;
+        }
+    };
+
+    /**
+     * Creates new payload of this shape with the given number of elements.
+     *
+     * @param size number of elements
+     * @return new payload
+     */
+    public abstract Object create(int size);
+
+    private static Item item(int index) {
+        return new Item(index, "item-" + index, index * 0.25, index % 2 == 0);
+    }
+}
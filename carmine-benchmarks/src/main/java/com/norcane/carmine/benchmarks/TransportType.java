@@ -0,0 +1,65 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine.benchmarks;
+
+import com.norcane.carmine.CarmineCompression;
+import com.norcane.carmine.CarmineHttpTransport;
+import com.norcane.carmine.CarmineTransport;
+import com.norcane.carmine.CarmineUrlConnectionTransport;
+
+import java.net.URL;
+
+/**
+ * Transports compared by the benchmarks.
+ */
+public enum TransportType {
+
+    /**
+     * The {@link CarmineHttpTransport}.
+     */
+    HTTP {
+        @Override
+        public CarmineTransport create(URL url, CarmineCompression compression) {
+            CarmineHttpTransport transport = new CarmineHttpTransport(url);
+            transport.setCompression(compression);
+            return transport;
+        }
+    },
+
+    /**
+     * The {@link CarmineUrlConnectionTransport}.
+     */
+    URL_CONNECTION {
+        @Override
+        public CarmineTransport create(URL url, CarmineCompression compression) {
+            CarmineUrlConnectionTransport transport
+                    = new CarmineUrlConnectionTransport(url);
+            transport.setCompression(compression);
+            return transport;
+        }
+    };
+
+    /**
+     * Creates new transport of this type.
+     *
+     * @param url         remote service URL
+     * @param compression compression of the requests (may be {@code null})
+     * @return new transport
+     */
+    public abstract CarmineTransport create(URL url,
+                                            CarmineCompression compression);
+}
@@ -0,0 +1,43 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine.demo.client;
+
+import com.norcane.carmine.demo.RemoteTest;
+
+/**
+ * Stand-in implementation of the {@link RemoteTest} interface, served by the
+ * {@link LoadTest} within its own JVM if no remote service is available. It
+ * behaves the same as the implementation of the demo server.
+ */
+class EmbeddedRemoteTest implements RemoteTest {
+
+    @Override
+    public String getGreetings(String forName) {
+        return "Greetings from the remote server, "
+                + (forName.isEmpty() ? "unknown" : forName);
+    }
+
+    @Override
+    public byte[] echo(byte[] payload) {
+        return payload;
+    }
+
+    @Override
+    public byte[] download(int size) {
+        return new byte[size];
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine.demo.client;
+
+import com.norcane.carmine.CarmineBinaryCodec;
+import com.norcane.carmine.CarmineHttpTransport;
+import com.norcane.carmine.CarmineManager;
+import com.norcane.carmine.CarmineMuxServer;
+import com.norcane.carmine.CarmineMuxTransport;
+import com.norcane.carmine.CarmineServer;
+import com.norcane.carmine.demo.RemoteTest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator calling the {@link RemoteTest} service at the fixed rate,
+ * either the demo server or the stand-in service started within the same
+ * JVM, and reporting the throughput, the latency percentiles and the
+ * allocation rate (see {@link LoadTestReport}). The test is open-loop: the
+ * calls are scheduled at the fixed times regardless of how long the previous
+ * calls take, and executed by the pool of calling threads, so the slow calls
+ * delay the following ones the same way as in production instead of slowing
+ * the load down. The mix of the called operations and the payload sizes are
+ * configurable (see {@link LoadTestConfig#USAGE}).
+ * <p/>
+ * <dl>
+ * <dt><b>Example of usage:</b></dt>
+ * <dd><pre><code>
+ * java -cp carmine.jar:carmine-demo-client.jar \
+ *         com.norcane.carmine.demo.client.LoadTest --embedded \
+ *         --codec=binary --rate=5000 --mix=greet:8,echo:2 --payload=64,4096
+ * </code></pre></dd>
+ * </dl>
+ */
+public class LoadTest {
+
+    private final RemoteTest remote;
+    private final LoadTestConfig config;
+    private final Operation[] operations;
+    private final int[] payloads;
+    private final byte[][] bytes;
+    private final String[] names;
+    private final Random random = new Random(42);
+
+    /**
+     * Constructs new load test calling the given service.
+     *
+     * @param remote proxy of the called service
+     * @param config configuration of the test
+     */
+    public LoadTest(RemoteTest remote, LoadTestConfig config) {
+        this.remote = remote;
+        this.config = config;
+
+        // operations repeated by their weights, chosen uniformly
+        List<Operation> weighted = new ArrayList<Operation>();
+        for (Map.Entry<Operation, Integer> entry
+                : config.getMix().entrySet()) {
+            for (int i = 0; i < entry.getValue(); i++) {
+                weighted.add(entry.getKey());
+            }
+        }
+        this.operations = weighted.toArray(new Operation[weighted.size()]);
+
+        // payloads are created in advance, not to measure their creation
+        this.payloads = config.getPayloads();
+        this.bytes = new byte[payloads.length][];
+        this.names = new String[payloads.length];
+        for (int i = 0; i < payloads.length; i++) {
+            bytes[i] = new byte[payloads[i]];
+            random.nextBytes(bytes[i]);
+            char[] chars = new char[payloads[i]];
+            Arrays.fill(chars, 'x');
+            names[i] = new String(chars);
+        }
+    }
+
+    /**
+     * Runs the load test, printing the results to the standard output.
+     *
+     * @param args command line arguments (see {@link LoadTestConfig#USAGE})
+     * @throws Exception thrown if the test cannot be started
+     */
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config;
+        try {
+            config = LoadTestConfig.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(LoadTestConfig.USAGE);
+            System.exit(1);
+            return;
+        }
+
+        CarmineServer server = null;
+        CarmineMuxServer muxServer = null;
+        URL url = new URL(config.getUrl());
+        InetSocketAddress muxAddress = null;
+        if (config.isEmbedded()) {
+            server = new CarmineServer(0);
+            server.addImplementation(
+                    RemoteTest.class, new EmbeddedRemoteTest());
+            server.start();
+            url = new URL("http://localhost:" + server.getAddress().getPort()
+                    + CarmineServer.DEFAULT_PATH);
+            if ("mux".equals(config.getTransport())
+                    && config.getMux() == null) {
+                muxServer = new CarmineMuxServer(0);
+                muxServer.addImplementation(
+                        RemoteTest.class, new EmbeddedRemoteTest());
+                muxServer.start();
+                muxAddress = new InetSocketAddress(
+                        "localhost", muxServer.getAddress().getPort());
+            }
+        }
+        if (config.getMux() != null) {
+            String[] parts = config.getMux().split(":");
+            muxAddress = new InetSocketAddress(
+                    parts[0], Integer.parseInt(parts[1]));
+        }
+
+        CarmineManager cm = new CarmineManager(url);
+        if ("binary".equals(config.getCodec())) {
+            cm.setCodec(new CarmineBinaryCodec());
+        }
+        if ("http".equals(config.getTransport())) {
+            cm.setTransport(new CarmineHttpTransport(url));
+        } else if ("mux".equals(config.getTransport())) {
+            cm.setTransport(new CarmineMuxTransport(muxAddress));
+        }
+
+        System.out.printf("Calling %s at %d calls/s using %d threads, "
+                        + "%s codec, %s transport%n",
+                (muxAddress != null) ? muxAddress : url, config.getRate(),
+                config.getThreads(), config.getCodec(),
+                config.getTransport());
+        try {
+            LoadTest test = new LoadTest(
+                    cm.<RemoteTest>getRemote(RemoteTest.class), config);
+            if (config.getWarmup() > 0) {
+                System.out.printf("Warming up for %d s%n",
+                        config.getWarmup());
+                test.run(config.getWarmup());
+            }
+            System.out.printf("Measuring for %d s%n", config.getDuration());
+            test.run(config.getDuration()).print(
+                    System.out, config.getRate());
+        } finally {
+            cm.getTransport().close();
+            if (muxServer != null) muxServer.close();
+            if (server != null) server.close();
+        }
+    }
+
+    /**
+     * Makes the calls at the configured rate for the given time, and waits
+     * for all of them to finish.
+     *
+     * @param seconds time to make the calls for in seconds
+     * @return results of the run
+     * @throws InterruptedException thrown if interrupted while waiting
+     */
+    public LoadTestReport run(int seconds) throws InterruptedException {
+        final LoadTestReport report = new LoadTestReport();
+        ExecutorService callers = Executors.newFixedThreadPool(
+                config.getThreads(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "load-test");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        report.start();
+        long start = System.nanoTime();
+        long calls = (long) seconds * config.getRate();
+        for (long i = 0; i < calls; i++) {
+            // the schedule does not depend on the progress of the calls
+            final long scheduled = start + i * 1000000000L / config.getRate();
+            long delay;
+            while ((delay = scheduled - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(delay);
+            }
+
+            final Operation operation
+                    = operations[random.nextInt(operations.length)];
+            final int payload = random.nextInt(payloads.length);
+            report.issued();
+            callers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long started = System.nanoTime();
+                    try {
+                        operation.call(LoadTest.this, payload);
+                        report.completed(
+                                scheduled, started, System.nanoTime());
+                    } catch (Throwable t) {
+                        report.failed(t);
+                    }
+                }
+            });
+        }
+
+        // the threads must be alive when measuring their allocation
+        while (report.getFinished() < report.getIssued()) {
+            Thread.sleep(1);
+        }
+        report.stop();
+        callers.shutdown();
+        callers.awaitTermination(1, TimeUnit.MINUTES);
+        return report;
+    }
+
+    /**
+     * Operation of the {@link RemoteTest} called by the load test.
+     */
+    public enum Operation {
+
+        /**
+         * Calls {@link RemoteTest#getGreetings(String)} with the name of
+         * the payload size.
+         */
+        GREET {
+            @Override
+            void call(LoadTest test, int payload) {
+                test.remote.getGreetings(test.names[payload]);
+            }
+        },
+
+        /**
+         * Calls {@link RemoteTest#echo(byte[])} with the payload.
+         */
+        ECHO {
+            @Override
+            void call(LoadTest test, int payload) {
+                test.remote.echo(test.bytes[payload]);
+            }
+        },
+
+        /**
+         * Calls {@link RemoteTest#download(int)} with the payload size.
+         */
+        DOWNLOAD {
+            @Override
+            void call(LoadTest test, int payload) {
+                test.remote.download(test.payloads[payload]);
+            }
+        };
+
+        /**
+         * Returns the operation of the given name (case insensitive).
+         *
+         * @param name name of the operation
+         * @return operation
+         * @throws IllegalArgumentException thrown if there is no such
+         *                                  operation
+         */
+        public static Operation of(String name) {
+            for (Operation operation : values()) {
+                if (operation.name().equalsIgnoreCase(name.trim())) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operation: " + name);
+        }
+
+        abstract void call(LoadTest test, int payload) throws IOException;
+    }
+}
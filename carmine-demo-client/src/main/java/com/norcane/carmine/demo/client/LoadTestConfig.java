@@ -0,0 +1,261 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine.demo.client;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Configuration of the {@link LoadTest}, parsed from the command line
+ * arguments in the {@code --name=value} form (see {@link #USAGE}).
+ */
+public class LoadTestConfig {
+
+    /**
+     * Description of the supported command line arguments.
+     */
+    public static final String USAGE = "Usage: LoadTest [options]\n"
+            + "  --url=URL          remote service URL (default: "
+            + Main.REMOTE_URL + ")\n"
+            + "  --embedded         call the stand-in service started within"
+            + " this JVM\n"
+            + "  --transport=NAME   http, urlconnection or mux (default:"
+            + " http)\n"
+            + "  --mux=HOST:PORT    address of the multiplexing server (the"
+            + " embedded one\n"
+            + "                     by default)\n"
+            + "  --codec=NAME       java or binary (default: java)\n"
+            + "  --rate=N           scheduled calls per second (default:"
+            + " 1000)\n"
+            + "  --duration=N       measured time in seconds (default: 30)\n"
+            + "  --warmup=N         warm-up time in seconds (default: 5)\n"
+            + "  --threads=N        number of calling threads (default: 64)\n"
+            + "  --mix=OP:W,...     weights of the operations greet, echo and"
+            + " download\n"
+            + "                     (default: greet:1)\n"
+            + "  --payload=N,...    payload sizes in bytes, chosen randomly"
+            + " per call\n"
+            + "                     (default: 1024)";
+
+    private String url = Main.REMOTE_URL;
+    private boolean embedded;
+    private String transport = "http";
+    private String mux;
+    private String codec = "java";
+    private int rate = 1000;
+    private int duration = 30;
+    private int warmup = 5;
+    private int threads = 64;
+    private Map<LoadTest.Operation, Integer> mix
+            = new LinkedHashMap<LoadTest.Operation, Integer>();
+    private int[] payloads = {1024};
+
+    /**
+     * Parses the configuration from the given command line arguments.
+     *
+     * @param args command line arguments
+     * @return parsed configuration
+     * @throws IllegalArgumentException thrown if any argument is not valid
+     */
+    public static LoadTestConfig parse(String[] args) {
+        LoadTestConfig config = new LoadTestConfig();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            String name = (separator >= 0) ? arg.substring(0, separator) : arg;
+            String value = (separator >= 0) ? arg.substring(separator + 1) : "";
+            try {
+                config.set(name, value);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException(
+                        "Invalid number in argument: " + arg);
+            }
+        }
+        if (config.mix.isEmpty()) config.mix.put(LoadTest.Operation.GREET, 1);
+        if (config.mux != null && !"mux".equals(config.transport)) {
+            throw new IllegalArgumentException(
+                    "--mux requires the mux transport");
+        }
+        if ("mux".equals(config.transport) && config.mux == null
+                && !config.embedded) {
+            throw new IllegalArgumentException(
+                    "The mux transport requires --mux or --embedded");
+        }
+        return config;
+    }
+
+    private void set(String name, String value) {
+        if ("--url".equals(name)) {
+            url = value;
+        } else if ("--embedded".equals(name)) {
+            embedded = true;
+        } else if ("--transport".equals(name)) {
+            transport = oneOf(name, value, "http", "urlconnection", "mux");
+        } else if ("--mux".equals(name)) {
+            mux = value;
+        } else if ("--codec".equals(name)) {
+            codec = oneOf(name, value, "java", "binary");
+        } else if ("--rate".equals(name)) {
+            rate = positive(name, Integer.parseInt(value));
+        } else if ("--duration".equals(name)) {
+            duration = positive(name, Integer.parseInt(value));
+        } else if ("--warmup".equals(name)) {
+            warmup = Integer.parseInt(value);
+        } else if ("--threads".equals(name)) {
+            threads = positive(name, Integer.parseInt(value));
+        } else if ("--mix".equals(name)) {
+            for (String item : value.split(",")) {
+                String[] parts = item.split(":");
+                int weight = (parts.length > 1)
+                        ? Integer.parseInt(parts[1]) : 1;
+                if (weight > 0) {
+                    mix.put(LoadTest.Operation.of(parts[0]), weight);
+                }
+            }
+        } else if ("--payload".equals(name)) {
+            String[] sizes = value.split(",");
+            payloads = new int[sizes.length];
+            for (int i = 0; i < sizes.length; i++) {
+                payloads[i] = Integer.parseInt(sizes[i].trim());
+                if (payloads[i] < 0) {
+                    throw new IllegalArgumentException(
+                            "Negative payload size: " + payloads[i]);
+                }
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown argument: " + name);
+        }
+    }
+
+    private static String oneOf(String name, String value, String... allowed) {
+        if (!Arrays.asList(allowed).contains(value)) {
+            throw new IllegalArgumentException("Invalid value of " + name
+                    + ": " + value);
+        }
+        return value;
+    }
+
+    private static int positive(String name, int value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(name + " must be positive");
+        }
+        return value;
+    }
+
+    /**
+     * Returns the URL of the remote service.
+     *
+     * @return remote service URL
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Returns whether the stand-in service is started within the JVM of the
+     * load test (in which case the URL is ignored).
+     *
+     * @return {@code true} if the embedded service is called
+     */
+    public boolean isEmbedded() {
+        return embedded;
+    }
+
+    /**
+     * Returns the name of the transport ({@code http}, {@code urlconnection}
+     * or {@code mux}).
+     *
+     * @return name of the transport
+     */
+    public String getTransport() {
+        return transport;
+    }
+
+    /**
+     * Returns the address of the multiplexing server in the
+     * {@code host:port} form.
+     *
+     * @return address of the server or {@code null} for the embedded one
+     */
+    public String getMux() {
+        return mux;
+    }
+
+    /**
+     * Returns the name of the codec ({@code java} or {@code binary}).
+     *
+     * @return name of the codec
+     */
+    public String getCodec() {
+        return codec;
+    }
+
+    /**
+     * Returns the number of calls started per second.
+     *
+     * @return scheduled calls per second
+     */
+    public int getRate() {
+        return rate;
+    }
+
+    /**
+     * Returns the measured time in seconds.
+     *
+     * @return measured time in seconds
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    /**
+     * Returns the warm-up time in seconds, whose calls are not measured.
+     *
+     * @return warm-up time in seconds
+     */
+    public int getWarmup() {
+        return warmup;
+    }
+
+    /**
+     * Returns the number of threads making the calls.
+     *
+     * @return number of calling threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns the weights of the called operations.
+     *
+     * @return weights of the operations
+     */
+    public Map<LoadTest.Operation, Integer> getMix() {
+        return mix;
+    }
+
+    /**
+     * Returns the payload sizes in bytes, one of them is chosen randomly for
+     * each call.
+     *
+     * @return payload sizes in bytes
+     */
+    public int[] getPayloads() {
+        return payloads;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine.demo.client;
+
+import com.norcane.carmine.CarmineHistogram;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Results of the single run of the {@link LoadTest}. The response time of
+ * each call is measured from the time the call was scheduled to start, not
+ * from the time it actually started, so the time the call waited for the
+ * free calling thread is included (i.e. the results do not suffer from the
+ * coordinated omission). The service time, measured from the actual start,
+ * is reported too. The allocation rate includes all the threads of the JVM
+ * (e.g. the embedded service) alive at the start and the end of the run.
+ */
+public class LoadTestReport {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final CarmineHistogram responseTime = new CarmineHistogram();
+    private final CarmineHistogram serviceTime = new CarmineHistogram();
+    private final LongAdder failed = new LongAdder();
+    private final AtomicReference<Throwable> firstFailure
+            = new AtomicReference<Throwable>();
+    private long issued;
+    private long maxBacklog;
+    private long startTime;
+    private long endTime;
+    private long startAllocated;
+    private long endAllocated;
+    private long startCollections;
+    private long endCollections;
+    private long startCollectionTime;
+    private long endCollectionTime;
+
+    /**
+     * Records the successfully completed call.
+     *
+     * @param scheduled time the call was scheduled to start in nanoseconds
+     * @param started   time the call actually started in nanoseconds
+     * @param completed time the call completed in nanoseconds
+     */
+    void completed(long scheduled, long started, long completed) {
+        responseTime.record(completed - scheduled);
+        serviceTime.record(completed - started);
+    }
+
+    /**
+     * Records the failed call.
+     *
+     * @param failure exception thrown by the call
+     */
+    void failed(Throwable failure) {
+        failed.increment();
+        firstFailure.compareAndSet(null, failure);
+    }
+
+    /**
+     * Records the call scheduled by the dispatching thread.
+     */
+    void issued() {
+        issued++;
+        maxBacklog = Math.max(maxBacklog, issued - getFinished());
+    }
+
+    /**
+     * Returns the number of scheduled calls.
+     *
+     * @return number of scheduled calls
+     */
+    public long getIssued() {
+        return issued;
+    }
+
+    /**
+     * Returns the number of finished (either completed or failed) calls.
+     *
+     * @return number of finished calls
+     */
+    public long getFinished() {
+        return responseTime.getCount() + failed.sum();
+    }
+
+    /**
+     * Starts measuring the time, the allocation and the garbage collection.
+     */
+    void start() {
+        startAllocated = allocatedBytes();
+        startCollections = collections();
+        startCollectionTime = collectionTime();
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Stops measuring the time, the allocation and the garbage collection.
+     */
+    void stop() {
+        endTime = System.nanoTime();
+        endAllocated = allocatedBytes();
+        endCollections = collections();
+        endCollectionTime = collectionTime();
+    }
+
+    /**
+     * Prints the results.
+     *
+     * @param out  stream to print the results to
+     * @param rate scheduled calls per second
+     */
+    public void print(PrintStream out, int rate) {
+        double seconds = (endTime - startTime) / 1e9;
+        long completed = responseTime.getCount();
+        out.printf("calls          %d completed, %d failed%n",
+                completed, failed.sum());
+        out.printf("throughput     %.1f calls/s (%d calls/s scheduled)%n",
+                completed / seconds, rate);
+        out.println("response time  " + percentiles(responseTime));
+        out.println("service time   " + percentiles(serviceTime));
+        out.printf("max backlog    %d calls%n", maxBacklog);
+        if (startAllocated >= 0 && endAllocated >= 0) {
+            long allocated = endAllocated - startAllocated;
+            out.printf("allocation     %.1f MB/s, %d bytes/call%n",
+                    allocated / seconds / (1 << 20),
+                    allocated / Math.max(1, getFinished()));
+        } else {
+            out.println("allocation     not supported by the JVM");
+        }
+        out.printf("gc             %d collections, %d ms%n",
+                endCollections - startCollections,
+                endCollectionTime - startCollectionTime);
+        Throwable failure = firstFailure.get();
+        if (failure != null) out.println("first failure  " + failure);
+    }
+
+    private static String percentiles(CarmineHistogram histogram) {
+        StringBuilder result = new StringBuilder();
+        for (double percentile : PERCENTILES) {
+            result.append(String.format("p%s %.2f ms, ",
+                    (percentile == Math.rint(percentile))
+                            ? String.valueOf((long) percentile)
+                            : String.valueOf(percentile),
+                    histogram.getPercentile(percentile) / 1e6));
+        }
+        return result.append(String.format("max %.2f ms",
+                histogram.getMax() / 1e6)).toString();
+    }
+
+    /**
+     * Returns the number of bytes allocated by all the live threads, or
+     * {@code -1} if not supported.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+        com.sun.management.ThreadMXBean allocation
+                = (com.sun.management.ThreadMXBean) threads;
+        if (!allocation.isThreadAllocatedMemorySupported()
+                || !allocation.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : allocation.getThreadAllocatedBytes(
+                threads.getAllThreadIds())) {
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+
+    private static long collections() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector
+                : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, collector.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long collectionTime() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector
+                : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, collector.getCollectionTime());
+        }
+        return total;
+    }
+}
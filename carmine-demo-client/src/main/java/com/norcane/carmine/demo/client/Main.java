@@ -31,7 +31,7 @@ import java.util.Scanner;
  */
 public class Main {
 
-    private static final String REMOTE_URL
+    static final String REMOTE_URL
             = "http://localhost:8080/carmine-demo-server/CarmineServlet";
 
     public static void main(String[] args) throws Exception {
@@ -34,4 +34,22 @@ public interface RemoteTest {
      * @return greeting message
      */
     public String getGreetings(String forName);
+
+    /**
+     * Returns the given payload back, used to measure the calls transferring
+     * the data in both directions.
+     *
+     * @param payload payload to return
+     * @return the same payload
+     */
+    public byte[] echo(byte[] payload);
+
+    /**
+     * Returns the payload of the given size, used to measure the calls
+     * transferring the data from the remote side.
+     *
+     * @param size size of the payload in bytes
+     * @return payload of the given size
+     */
+    public byte[] download(int size);
 }
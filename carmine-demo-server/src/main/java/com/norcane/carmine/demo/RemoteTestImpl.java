@@ -29,4 +29,14 @@ public class RemoteTestImpl implements RemoteTest {
         return "Greetings from the remote server, "
                 + (forName.isEmpty() ? "unknown" : forName);
     }
+
+    @Override
+    public byte[] echo(byte[] payload) {
+        return payload;
+    }
+
+    @Override
+    public byte[] download(int size) {
+        return new byte[size];
+    }
 }
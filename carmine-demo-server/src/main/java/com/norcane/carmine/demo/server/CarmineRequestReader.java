@@ -0,0 +1,119 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine.demo.server;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the body of the request using the non-blocking servlet I/O, without
+ * holding the container thread while the (possibly slow) client sends the
+ * data. Once the whole body is read, it is passed to the {@link Callback}.
+ * The body is held in memory, so its size is limited: the body exceeding the
+ * limit is not read any further and the callback is notified instead. The
+ * content length claimed by the client is used only as the hint of the
+ * initial buffer size, up to {@value #MAX_INITIAL_SIZE} bytes.
+ */
+class CarmineRequestReader implements ReadListener {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_INITIAL_SIZE = 64 * 1024;
+
+    private final ServletInputStream in;
+    private final Callback callback;
+    private final int maxSize;
+    private final ByteArrayOutputStream body;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private boolean rejected;
+
+    /**
+     * Creates the reader of the request body.
+     *
+     * @param in            input stream of the request in async mode
+     * @param contentLength content length of the request or {@code -1} if
+     *                      unknown
+     * @param maxSize       maximum size of the body in bytes
+     * @param callback      callback receiving the body
+     */
+    CarmineRequestReader(ServletInputStream in, long contentLength,
+                         int maxSize, Callback callback) {
+        this.in = in;
+        this.maxSize = maxSize;
+        this.callback = callback;
+        this.body = new ByteArrayOutputStream((contentLength > 0)
+                ? (int) Math.min(contentLength,
+                Math.min(maxSize, MAX_INITIAL_SIZE)) : BUFFER_SIZE);
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+        // read only while it does not block, the container calls this method
+        // again when more data arrives
+        while (!rejected && in.isReady()) {
+            int read = in.read(buffer);
+            if (read < 0) break;
+            if (read > maxSize - body.size()) {
+                // the rest of the body is not read at all
+                rejected = true;
+                callback.tooLarge();
+                return;
+            }
+            body.write(buffer, 0, read);
+        }
+    }
+
+    @Override
+    public void onAllDataRead() throws IOException {
+        if (rejected) return;
+        callback.bodyRead(new ByteArrayInputStream(body.toByteArray()));
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        callback.failed(t);
+    }
+
+    /**
+     * Receives the body of the request once it is read.
+     */
+    interface Callback {
+
+        /**
+         * Called by the container thread when the whole body is read.
+         *
+         * @param body body of the request
+         */
+        void bodyRead(InputStream body);
+
+        /**
+         * Called by the container thread when the body exceeds the maximum
+         * size.
+         */
+        void tooLarge();
+
+        /**
+         * Called by the container thread when reading of the body fails.
+         *
+         * @param t cause of the failure
+         */
+        void failed(Throwable t);
+    }
+}
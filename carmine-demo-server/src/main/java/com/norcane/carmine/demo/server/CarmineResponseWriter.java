@@ -0,0 +1,215 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine.demo.server;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Output stream passing the written response to the client using the
+ * non-blocking servlet I/O. The response is written by the worker thread in
+ * chunks, which are queued and sent by whichever thread finds the servlet
+ * output stream ready - the worker thread itself, or the container thread
+ * notified by {@link #onWritePossible()}. Only a bounded number of chunks is
+ * queued, so the worker thread writing the streamed result to the slow client
+ * waits until the client catches up, without holding any container thread.
+ * Once the stream is closed and all the chunks are sent, the async context
+ * is completed.
+ * <p/>
+ * The state is guarded by the {@link ReentrantLock} rather than the monitor,
+ * so the virtual worker thread waiting for the client does not pin its
+ * carrier thread (before <i>Java</i> 24).
+ */
+class CarmineResponseWriter extends OutputStream implements WriteListener {
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final int MAX_PENDING_CHUNKS = 16;
+
+    private final AsyncContext context;
+    private final ServletOutputStream out;
+    private final Queue<byte[]> pending = new ArrayDeque<byte[]>();
+    private final byte[] buffer = new byte[CHUNK_SIZE];
+    private final Lock lock = new ReentrantLock();
+    private final Condition chunkSent = lock.newCondition();
+    private int count;
+
+    private boolean closed;
+    private boolean completed;
+    private boolean flushNeeded;
+    private IOException error;
+
+    /**
+     * Creates the writer of the response. The writer must be registered as
+     * the write listener of the given output stream.
+     *
+     * @param context async context of the request
+     * @param out     output stream of the response
+     */
+    CarmineResponseWriter(AsyncContext context, ServletOutputStream out) {
+        this.context = context;
+        this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) enqueue(false);
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == buffer.length) enqueue(false);
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // sends the elements of the streamed result written so far
+        enqueue(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        enqueue(false);
+        lock.lock();
+        try {
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        lock.lock();
+        try {
+            error = (t instanceof IOException)
+                    ? (IOException) t : new IOException(t);
+            pending.clear();
+            chunkSent.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        complete();
+    }
+
+    /**
+     * Aborts the response after the failure of the worker thread, sending
+     * nothing more to the client.
+     */
+    void abort() {
+        lock.lock();
+        try {
+            pending.clear();
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+        complete();
+    }
+
+    private void enqueue(boolean flush) throws IOException {
+        lock.lock();
+        try {
+            while (pending.size() >= MAX_PENDING_CHUNKS && error == null) {
+                try {
+                    chunkSent.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while writing", ex);
+                }
+            }
+            if (error != null) throw error;
+            if (count > 0) {
+                pending.add(Arrays.copyOf(buffer, count));
+                count = 0;
+            }
+            flushNeeded |= flush;
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    private void drain() throws IOException {
+        boolean done = false;
+        lock.lock();
+        try {
+            try {
+                // the output stream buffers the data written when it is ready
+                // instead of blocking, once it is not ready, the container
+                // calls onWritePossible() as soon as it is ready again
+                while (error == null && out.isReady()) {
+                    byte[] chunk = pending.poll();
+                    if (chunk != null) {
+                        out.write(chunk);
+                        chunkSent.signalAll();
+                    } else if (flushNeeded) {
+                        flushNeeded = false;
+                        out.flush();
+                    } else {
+                        done = closed && !completed;
+                        completed |= done;
+                        break;
+                    }
+                }
+            } catch (IOException ex) {
+                error = ex;
+                pending.clear();
+                chunkSent.signalAll();
+                done = !completed;
+                completed = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (done) context.complete();
+    }
+
+    private void complete() {
+        lock.lock();
+        try {
+            if (completed) return;
+            completed = true;
+        } finally {
+            lock.unlock();
+        }
+        context.complete();
+    }
+}
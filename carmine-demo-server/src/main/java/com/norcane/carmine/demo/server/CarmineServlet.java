@@ -16,60 +16,256 @@
  */
 package com.norcane.carmine.demo.server;
 
+import com.norcane.carmine.CarmineEncodedResponse;
 import com.norcane.carmine.CarmineInvoker;
+import com.norcane.carmine.CarmineSingletonProvider;
+import com.norcane.carmine.demo.RemoteTest;
+import com.norcane.carmine.demo.RemoteTestImpl;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
+import javax.servlet.annotation.WebInitParam;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.Map;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Represents example servlet, serving as <i>Carmine</i> remote service
  * endpoint, processing incoming method execution requests and passing back
  * responses with result object.
  *
+ * <p>The servlet uses the asynchronous processing and the non-blocking I/O
+ * of the Servlet 3.1, so the container thread is not held while the slow
+ * client sends the request or reads the response, nor while the remote method
+ * is executed. The request body is read by the {@link CarmineRequestReader},
+ * the remote method is executed by the worker thread of the executor, and the
+ * response is sent by the {@link CarmineResponseWriter}. The executor is
+ * configured by the init parameters:</p>
+ *
+ * <ul>
+ * <li>{@code executor} - {@code virtual} to execute each request in its own
+ * virtual thread (if supported by the running JVM, Java 21+), {@code pool} to
+ * use fixed pool of platform threads (default {@code virtual})</li>
+ * <li>{@code threads} - number of threads of the fixed pool (default
+ * {@value #DEFAULT_THREADS})</li>
+ * <li>{@code maxRequestSize} - maximum size of the request body in bytes,
+ * larger requests are rejected with the status 413 (default
+ * {@value #DEFAULT_MAX_REQUEST_SIZE})</li>
+ * </ul>
+ *
+ * <p>The whole request body is buffered by the {@link CarmineRequestReader}
+ * before the remote method is executed, so the {@link InputStream} arguments
+ * are not streamed through this servlet: their content is held in the memory
+ * and counts towards the {@code maxRequestSize}. Services accepting large
+ * streams should be served by the {@link com.norcane.carmine.CarmineServer}
+ * (or by the servlet reading the request in the blocking mode). The streamed
+ * results are not affected, they are written in chunks as the remote method
+ * produces them.</p>
+ *
  * @author Vaclav Svejcar (v.svejcar@norcane.cz)
  */
-@WebServlet(name = "CarmineServlet", urlPatterns = {"/CarmineServlet"})
+@WebServlet(name = "CarmineServlet", urlPatterns = {"/CarmineServlet"},
+        asyncSupported = true, initParams = {
+        @WebInitParam(name = "executor", value = "virtual")})
 public class CarmineServlet extends HttpServlet {
 
+    /**
+     * Default number of threads of the fixed pool.
+     */
+    public static final int DEFAULT_THREADS = 200;
+
+    /**
+     * Default maximum size of the request body in bytes.
+     */
+    public static final int DEFAULT_MAX_REQUEST_SIZE = 16 * 1024 * 1024;
+
+    private static final Logger LOGGER
+            = Logger.getLogger(CarmineServlet.class.getName());
+
+    private CarmineInvoker invoker;
+    private ExecutorService executor;
+    private int maxRequestSize;
+
     @Override
-    protected void doPost(HttpServletRequest request,
-                          HttpServletResponse response)
+    public void init() throws ServletException {
+
+        /*
+         * Creates the instance of the remote invoker once, so it can be
+         * shared by all requests. The implementation of each remote interface
+         * is registered together with its lifecycle:
+         *
+         *  - CarmineSingletonProvider - single thread safe instance
+         *  - CarminePoolProvider      - bounded pool of instances, each used
+         *                               by a single request at a time
+         *  - CarmineSessionProvider   - instance per session, identified by
+         *                               the value of the given property
+         *
+         * In real-world scenario, some security checks should be performed
+         * before the method is executed (e.g. whether the connected local
+         * side is allowed to access this class, or implement some kind of
+         * authorization using properties map), for example in the custom
+         * CarmineProvider implementation.
+         */
+        invoker = new CarmineInvoker();
+        invoker.addProvider(RemoteTest.class,
+                new CarmineSingletonProvider(new RemoteTestImpl()));
+
+        // the same executor also runs the independent requests of batches
+        executor = createExecutor(getInitParameter("executor"),
+                getInitParameter("threads"));
+        invoker.setExecutor(executor);
+
+        String maxSize = getInitParameter("maxRequestSize");
+        maxRequestSize = (maxSize != null)
+                ? Integer.parseInt(maxSize) : DEFAULT_MAX_REQUEST_SIZE;
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    @Override
+    protected void doPost(final HttpServletRequest request,
+                          final HttpServletResponse response)
             throws ServletException, IOException {
 
-        // creates the instance of the remote invoker, processing requests
-        CarmineInvoker invoker = new CarmineInvoker() {
-            @Override
-            public Object getImplementation(
-                    String interfaceName, Map<String, Object> properties)
-                    throws Exception {
-
-                /*
-                 * Represents very simple implementation of this method, trying
-                 * to instantiate an implementation class for the passed
-                 * interface name using the interface name + "Impl" postfix.
-                 *
-                 * Example:
-                 *      com.norcane.carmine.demo.RemoteTest
-                 *   -> com.norcane.carmine.demo.RemoteTestImpl
-                 *
-                 * In real-world scenario, some security checks should be
-                 * performed before returning the instance back (e.g. whether
-                 * the connected local side is allowed to access this class, or
-                 * implement some kind of authorization using properties map).
-                 */
-                String className = interfaceName + "Impl";
-                Class theClass = Class.forName(className);
-                return theClass.newInstance();
-            }
-        };
+        // the body is held in memory, so too large requests are rejected
+        // before reading them
+        if (request.getContentLengthLong() > maxRequestSize) {
+            response.setStatus(
+                    HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            return;
+        }
+
+        // the request is completed by the response writer, there is no limit
+        // of the execution time of the remote method
+        final AsyncContext context = request.startAsync();
+        context.setTimeout(0);
+
+        request.getInputStream().setReadListener(new CarmineRequestReader(
+                request.getInputStream(), request.getContentLengthLong(),
+                maxRequestSize, new CarmineRequestReader.Callback() {
+                    @Override
+                    public void bodyRead(final InputStream body) {
+                        try {
+                            executor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    process(context, request, response, body);
+                                }
+                            });
+                        } catch (RejectedExecutionException ex) {
+                            sendError(context, response,
+                                    HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                        }
+                    }
+
+                    @Override
+                    public void tooLarge() {
+                        sendError(context, response, HttpServletResponse
+                                .SC_REQUEST_ENTITY_TOO_LARGE);
+                    }
+
+                    @Override
+                    public void failed(Throwable t) {
+                        LOGGER.log(Level.FINE, "cannot read the request", t);
+                        sendError(context, response,
+                                HttpServletResponse.SC_BAD_REQUEST);
+                    }
+                }));
+    }
 
-        // connect input and output stream to the Carmine invoker
-        invoker.processRequest(
-                request.getInputStream(), response.getOutputStream());
+    private void process(AsyncContext context, HttpServletRequest request,
+                         HttpServletResponse response, InputStream body) {
+
+        // pass the request body with its headers (to choose the codec and
+        // compression used by the client) to the Carmine invoker, and send
+        // back the response body with the headers it requires
+        CarmineEncodedResponse result;
+        try {
+            result = invoker.processRequest(body, request.getContentType(),
+                    request.getHeader(CarmineEncodedResponse.CONTENT_ENCODING),
+                    request.getHeader(CarmineEncodedResponse.ACCEPT_ENCODING));
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "cannot process the request", ex);
+            sendError(context, response,
+                    HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return;
+        }
+        response.setContentType(result.getContentType());
+        if (result.getContentEncoding() != null) {
+            response.setHeader(CarmineEncodedResponse.CONTENT_ENCODING,
+                    result.getContentEncoding());
+        }
+        if (result.getContentLength() >= 0) {
+            // unknown for streamed results, sent using chunked encoding
+            response.setContentLength(result.getContentLength());
+        }
+
+        CarmineResponseWriter writer;
+        try {
+            writer = new CarmineResponseWriter(
+                    context, response.getOutputStream());
+            response.getOutputStream().setWriteListener(writer);
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, "cannot write the response", ex);
+            context.complete();
+            return;
+        }
+        try {
+            result.writeTo(writer);
+            writer.close();
+        } catch (IOException ex) {
+            // the client disconnected or failed while reading the response
+            LOGGER.log(Level.FINE, "cannot write the response", ex);
+            writer.abort();
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "cannot write the response", ex);
+            writer.abort();
+        }
+    }
+
+    private static void sendError(AsyncContext context,
+                                  HttpServletResponse response, int status) {
+        if (!response.isCommitted()) {
+            response.setStatus(status);
+        }
+        context.complete();
+    }
+
+    /**
+     * Creates the executor of the remote method calls.
+     *
+     * @param type    {@code virtual} or {@code pool} (default {@code
+     *                virtual})
+     * @param threads number of threads of the fixed pool
+     * @return executor of the remote method calls
+     */
+    private static ExecutorService createExecutor(String type, String threads) {
+        if (type == null || "virtual".equals(type)) {
+            try {
+                // virtual threads are available on Java 21+ only
+                Method factory = Executors.class.getMethod(
+                        "newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException ex) {
+                LOGGER.info("virtual threads are not supported, using "
+                        + "the fixed thread pool");
+            }
+        } else if (!"pool".equals(type)) {
+            throw new IllegalArgumentException("unknown executor: " + type);
+        }
+        return Executors.newFixedThreadPool((threads != null)
+                ? Integer.parseInt(threads) : DEFAULT_THREADS);
     }
 }
@@ -0,0 +1,150 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link CarmineLimiter} adjusting its limit according to the observed
+ * latency of the calls. The average latency of each window of calls is
+ * compared with the lowest average observed, i.e. the latency of the calls
+ * not waiting for any resources: while the calls are not significantly
+ * slower (by the half), the limit grows (by the square root of the limit per
+ * window), and once they become slower, the limit is lowered proportionally
+ * (at most to a half per window). The limit therefore settles where the
+ * calls start to queue for the resources of the server. It is kept within
+ * the given bounds, and it is not raised while the calls in progress use
+ * less than a half of it.
+ * <p/>
+ * The lowest latency is measured again after every
+ * {@value #PROBE_WINDOWS} windows, so the persistent changes of latency (e.g.
+ * caused by more expensive requests) are accepted over time.
+ * <p/>
+ * <dl>
+ * <dt><b>Example of usage:</b></dt>
+ * <dd><pre><code>
+ * invoker.setLimiter(RemoteTest.class,
+ *         new CarmineAdaptiveLimiter(10, 200, 50, 100));
+ * </code></pre></dd>
+ * </dl>
+ */
+public class CarmineAdaptiveLimiter extends CarmineLimiter {
+
+    /**
+     * Number of calls, whose average latency is compared with the long-term
+     * average.
+     */
+    public static final int WINDOW_SIZE = 50;
+
+    /**
+     * Number of windows, after which the lowest latency is measured again.
+     */
+    public static final int PROBE_WINDOWS = 200;
+
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    // lock instead of the monitor, sampled by the virtual threads as well
+    private final ReentrantLock sampleLock = new ReentrantLock();
+    private double estimate;
+    private double lowestLatency;
+    private int windows;
+    private long windowLatency;
+    private int windowCount;
+    private int windowInFlight;
+
+    /**
+     * Constructs new instance, rejecting calls over the limit immediately.
+     *
+     * @param minLimit minimum (and initial) limit of concurrent calls
+     * @param maxLimit maximum limit of concurrent calls
+     */
+    public CarmineAdaptiveLimiter(int minLimit, int maxLimit) {
+        this(minLimit, maxLimit, 0, 0L);
+    }
+
+    /**
+     * Constructs new instance with the queue of calls waiting over the limit.
+     *
+     * @param minLimit     minimum (and initial) limit of concurrent calls
+     * @param maxLimit     maximum limit of concurrent calls
+     * @param maxQueued    maximum number of calls waiting over the limit
+     * @param queueTimeout maximum time the call waits in the queue in
+     *                     milliseconds
+     */
+    public CarmineAdaptiveLimiter(int minLimit, int maxLimit, int maxQueued,
+                                  long queueTimeout) {
+        super(minLimit, maxQueued, queueTimeout);
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.estimate = this.minLimit;
+    }
+
+    /**
+     * Returns the minimum limit of concurrent calls.
+     *
+     * @return minimum limit
+     */
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    /**
+     * Returns the maximum limit of concurrent calls.
+     *
+     * @return maximum limit
+     */
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    @Override
+    protected void sample(long latency, int inFlight) {
+        sampleLock.lock();
+        try {
+            windowLatency += latency;
+            windowInFlight = Math.max(windowInFlight, inFlight);
+            if (++windowCount < WINDOW_SIZE) return;
+
+            double shortLatency = Math.max(1.0, (double) windowLatency
+                    / windowCount);
+            boolean limited = windowInFlight >= estimate / 2;
+            windowLatency = 0;
+            windowCount = 0;
+            windowInFlight = 0;
+
+            if (lowestLatency == 0 || ++windows >= PROBE_WINDOWS) {
+                lowestLatency = shortLatency;
+                windows = 0;
+            } else {
+                lowestLatency = Math.min(lowestLatency, shortLatency);
+            }
+            if (!limited) return;
+
+            double gradient = Math.max(0.5,
+                    Math.min(1.0, TOLERANCE * lowestLatency / shortLatency));
+            double target = estimate * gradient + Math.sqrt(estimate);
+            estimate = estimate * (1 - SMOOTHING) + target * SMOOTHING;
+            estimate = Math.max(minLimit, Math.min(maxLimit, estimate));
+            setLimit((int) estimate);
+        } finally {
+            sampleLock.unlock();
+        }
+    }
+}
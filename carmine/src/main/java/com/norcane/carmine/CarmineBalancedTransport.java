@@ -0,0 +1,369 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * Transport spreading the requests across more remote endpoints (i.e. nodes
+ * of the same remote service), chosen by the {@link CarmineBalancer}. The
+ * health of the endpoints is tracked passively: the endpoint whose requests
+ * fail repeatedly (see {@link #setFailureThreshold(int)}) is ejected for the
+ * ejection time (see {@link #setEjectionTime(long)}) and receives no requests
+ * until then, unless all the endpoints are ejected.
+ * <p/>
+ * If the request fails because of the communication error, it is retried on
+ * another endpoint (at most {@link #setMaxAttempts(int)} endpoints in total),
+ * if it is safe to do so, i.e.:
+ * <ul>
+ * <li>the remote method is idempotent (see {@link CarmineIdempotent}), or
+ * </li>
+ * <li>the request has not been sent at all (the connection to the endpoint
+ * could not be established)</li>
+ * </ul>
+ * Requests rejected by the overloaded endpoint (see
+ * {@link CarmineOverloadException}) were not processed at all, so they are
+ * retried on another endpoint regardless of the idempotency. Requests with
+ * streamed arguments (i.e. {@link java.io.InputStream}) are never retried.
+ * Exceptions thrown by the remote methods are passed to the local side as
+ * usual and do not affect the health of the endpoint.
+ * <p/>
+ * <dl>
+ * <dt><b>Example of usage:</b></dt>
+ * <dd><pre><code>
+ * CarmineManager cm = new CarmineManager(Arrays.asList(URL_1, URL_2),
+ *         new CarmineLeastOutstandingBalancer());
+ * CarmineBalancedTransport transport
+ *         = (CarmineBalancedTransport) cm.getTransport();
+ * transport.setEjectionTime(10000);
+ * </code></pre></dd>
+ * </dl>
+ */
+public class CarmineBalancedTransport implements CarmineTransport {
+
+    /**
+     * Default maximum number of endpoints tried by a single request.
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    /**
+     * Default number of consecutive failures ejecting the endpoint.
+     */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+
+    /**
+     * Default ejection time of the failing endpoint (in milliseconds).
+     */
+    public static final long DEFAULT_EJECTION_TIME = 30000;
+
+    private final CarmineBalancer balancer;
+    private final List<CarmineEndpoint> endpoints
+            = new CopyOnWriteArrayList<CarmineEndpoint>();
+    private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private volatile long ejectionTime = DEFAULT_EJECTION_TIME;
+
+    /**
+     * Constructs new transport without any endpoints, choosing the endpoints
+     * by the given balancer.
+     *
+     * @param balancer balancer choosing the endpoints
+     */
+    public CarmineBalancedTransport(CarmineBalancer balancer) {
+        this.balancer = balancer;
+    }
+
+    /**
+     * Adds the remote endpoint. The transport of the endpoint is closed
+     * together with this transport.
+     *
+     * @param name      name of the endpoint (e.g. its URL)
+     * @param transport transport to the remote endpoint
+     * @return added endpoint
+     */
+    public CarmineEndpoint addEndpoint(String name,
+                                       CarmineTransport transport) {
+        CarmineEndpoint endpoint = new CarmineEndpoint(transport, name);
+        endpoints.add(endpoint);
+        return endpoint;
+    }
+
+    /**
+     * Returns all the remote endpoints, including the ejected ones.
+     *
+     * @return unmodifiable list of the endpoints
+     */
+    public List<CarmineEndpoint> getEndpoints() {
+        return Collections.unmodifiableList(endpoints);
+    }
+
+    /**
+     * Returns the balancer choosing the endpoints.
+     *
+     * @return balancer
+     */
+    public CarmineBalancer getBalancer() {
+        return balancer;
+    }
+
+    /**
+     * Returns the maximum number of endpoints tried by a single request.
+     *
+     * @return maximum number of attempts
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Sets the maximum number of endpoints tried by a single request (by
+     * default {@value #DEFAULT_MAX_ATTEMPTS}), {@code 1} disables retrying.
+     *
+     * @param maxAttempts maximum number of attempts
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Returns the number of consecutive failures ejecting the endpoint.
+     *
+     * @return failure threshold
+     */
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    /**
+     * Sets the number of consecutive failures ejecting the endpoint (by
+     * default {@value #DEFAULT_FAILURE_THRESHOLD}).
+     *
+     * @param failureThreshold failure threshold
+     */
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    /**
+     * Returns the ejection time of the failing endpoint in milliseconds.
+     *
+     * @return ejection time in milliseconds
+     */
+    public long getEjectionTime() {
+        return ejectionTime;
+    }
+
+    /**
+     * Sets the ejection time of the failing endpoint in milliseconds (by
+     * default {@value #DEFAULT_EJECTION_TIME}).
+     *
+     * @param ejectionTime ejection time in milliseconds
+     */
+    public void setEjectionTime(long ejectionTime) {
+        this.ejectionTime = ejectionTime;
+    }
+
+    @Override
+    public CarmineResponse send(CarmineRequest request, CarmineCodec codec)
+            throws IOException, ClassNotFoundException {
+        List<CarmineEndpoint> tried = new ArrayList<CarmineEndpoint>(2);
+        while (true) {
+            CarmineEndpoint endpoint = select(tried);
+            long start = endpoint.started();
+            try {
+                CarmineResponse response
+                        = endpoint.getTransport().send(request, codec);
+                if (overloaded(request, response, tried)) {
+                    endpoint.completed();
+                    continue;
+                }
+                endpoint.succeeded(start);
+                return response;
+            } catch (IOException ex) {
+                failed(endpoint);
+                if (!retryable(request, ex, tried)) throw ex;
+            } catch (ClassNotFoundException ex) {
+                endpoint.completed();
+                throw ex;
+            } catch (RuntimeException ex) {
+                endpoint.completed();
+                throw ex;
+            } catch (Error ex) {
+                endpoint.completed();
+                throw ex;
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<CarmineResponse> sendAsync(
+            CarmineRequest request, CarmineCodec codec, Executor executor) {
+
+        final CompletableFuture<CarmineResponse> result
+                = new CompletableFuture<>();
+        final AtomicReference<CompletableFuture<CarmineResponse>> current
+                = new AtomicReference<>();
+        sendAsync(request, codec, executor, result, current,
+                new ArrayList<CarmineEndpoint>(2));
+
+        // aborts the current attempt when the result is cancelled
+        result.whenComplete(new BiConsumer<CarmineResponse, Throwable>() {
+            @Override
+            public void accept(CarmineResponse response, Throwable error) {
+                CompletableFuture<CarmineResponse> attempt = current.get();
+                if (error != null && attempt != null) attempt.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private void sendAsync(final CarmineRequest request,
+                           final CarmineCodec codec, final Executor executor,
+                           final CompletableFuture<CarmineResponse> result,
+                           final AtomicReference<CompletableFuture<
+                                   CarmineResponse>> current,
+                           final List<CarmineEndpoint> tried) {
+
+        final CarmineEndpoint endpoint;
+        try {
+            endpoint = select(tried);
+        } catch (IOException ex) {
+            result.completeExceptionally(ex);
+            return;
+        }
+        final long start = endpoint.started();
+        final CompletableFuture<CarmineResponse> attempt
+                = endpoint.getTransport().sendAsync(request, codec, executor);
+        current.set(attempt);
+        if (result.isDone()) attempt.cancel(true);
+
+        attempt.whenComplete(new BiConsumer<CarmineResponse, Throwable>() {
+            @Override
+            public void accept(CarmineResponse response, Throwable error) {
+                if (error == null) {
+                    if (!result.isDone()
+                            && overloaded(request, response, tried)) {
+                        endpoint.completed();
+                        sendAsync(request, codec, executor, result, current,
+                                tried);
+                        return;
+                    }
+                    endpoint.succeeded(start);
+                    result.complete(response);
+                    return;
+                }
+                Throwable cause = (error instanceof CompletionException
+                        && error.getCause() != null) ? error.getCause() : error;
+                if (!(cause instanceof IOException) || result.isDone()) {
+                    // cancelled, or failed for other than network reasons
+                    endpoint.completed();
+                    result.completeExceptionally(cause);
+                    return;
+                }
+                failed(endpoint);
+                if (retryable(request, (IOException) cause, tried)) {
+                    sendAsync(request, codec, executor, result, current, tried);
+                } else {
+                    result.completeExceptionally(cause);
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the transports of all the endpoints.
+     */
+    @Override
+    public void close() {
+        for (CarmineEndpoint endpoint : endpoints) {
+            endpoint.getTransport().close();
+        }
+    }
+
+    private CarmineEndpoint select(List<CarmineEndpoint> tried)
+            throws IOException {
+        List<CarmineEndpoint> candidates
+                = new ArrayList<CarmineEndpoint>(endpoints.size());
+        List<CarmineEndpoint> ejected = null;
+        for (CarmineEndpoint endpoint : endpoints) {
+            if (tried.contains(endpoint)) continue;
+            if (!endpoint.isEjected()) {
+                candidates.add(endpoint);
+            } else {
+                if (ejected == null) ejected = new ArrayList<CarmineEndpoint>();
+                ejected.add(endpoint);
+            }
+        }
+
+        // if all the endpoints are ejected, it is better to try them anyway
+        // than to fail without trying
+        if (candidates.isEmpty()) candidates = ejected;
+        if (candidates == null) {
+            throw new IOException("No remote endpoint available");
+        }
+        CarmineEndpoint endpoint = balancer.select(candidates);
+        tried.add(endpoint);
+        return endpoint;
+    }
+
+    private void failed(CarmineEndpoint endpoint) {
+        endpoint.failed(failureThreshold,
+                TimeUnit.MILLISECONDS.toNanos(ejectionTime));
+    }
+
+    private boolean retryable(CarmineRequest request, IOException ex,
+                              List<CarmineEndpoint> tried) {
+        if (!retryable(request, tried)) return false;
+        // the request was not sent if the connection was not established
+        return request.isIdempotent() || ex instanceof ConnectException
+                || ex instanceof NoRouteToHostException
+                || ex instanceof UnknownHostException;
+    }
+
+    private boolean retryable(CarmineRequest request,
+                              List<CarmineEndpoint> tried) {
+        return tried.size() < maxAttempts && tried.size() < endpoints.size()
+                && !request.isExpired()
+                && !CarmineStreams.hasStreams(request.getMethodArguments());
+    }
+
+    /**
+     * Returns whether the request was rejected by the overloaded endpoint and
+     * should be sent to another one. The rejected method was not invoked, so
+     * any request can be repeated.
+     */
+    private boolean overloaded(CarmineRequest request,
+                               CarmineResponse response,
+                               List<CarmineEndpoint> tried) {
+        return !response.isSuccessful()
+                && response.getException() instanceof CarmineOverloadException
+                && retryable(request, tried);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.util.List;
+
+/**
+ * Strategy choosing the remote endpoint of the
+ * {@link CarmineBalancedTransport} for the request. Available
+ * implementations:
+ * <ul>
+ * <li>{@link CarmineRoundRobinBalancer} - endpoints in turn</li>
+ * <li>{@link CarmineLeastOutstandingBalancer} - endpoint with the least
+ * outstanding requests</li>
+ * <li>{@link CarmineLatencyBalancer} - endpoints weighted by their latency
+ * and load</li>
+ * </ul>
+ * Implementations must be thread safe.
+ */
+public interface CarmineBalancer {
+
+    /**
+     * Chooses the endpoint for the request.
+     *
+     * @param candidates endpoints available for the request (never empty,
+     *                   without the ejected endpoints and the endpoints
+     *                   already tried by the request)
+     * @return chosen endpoint
+     */
+    CarmineEndpoint select(List<CarmineEndpoint> candidates);
+}
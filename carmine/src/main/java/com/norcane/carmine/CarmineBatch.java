@@ -0,0 +1,232 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+
+/**
+ * Batch of remote method calls, sent to the remote side in a single round
+ * trip as the {@link CarmineBatchRequest}. The batch is started by the
+ * {@link CarmineManager#startBatch()} and is bound to the current thread
+ * until closed: calls of asynchronous remote methods (returning
+ * {@link java.util.concurrent.Future} or
+ * {@link java.util.concurrent.CompletionStage}) are queued and their futures
+ * are completed once the batch is sent (by {@link #flush()} or
+ * {@link #close()}), while the call of synchronous remote method sends the
+ * batch immediately, together with all the queued calls, and waits for its
+ * result.
+ * <p/>
+ * <dl>
+ * <dt><b>Example of usage:</b></dt>
+ * <dd><pre><code>
+ * try (CarmineBatch batch = cm.startBatch()) {
+ *     CompletableFuture&lt;String&gt; first = remote.firstMethod();
+ *     CompletableFuture&lt;String&gt; second = remote.secondMethod();
+ * }
+ * </code></pre></dd>
+ * </dl>
+ */
+public class CarmineBatch implements Closeable {
+
+    private final CarmineManager cm;
+    private volatile boolean independent;
+    private List<Call> calls = new ArrayList<Call>();
+
+    /**
+     * Constructs new instance sending calls using the given
+     * {@link CarmineManager}.
+     *
+     * @param cm          Carmine manager instance
+     * @param independent whether the calls are independent of each other
+     */
+    CarmineBatch(CarmineManager cm, boolean independent) {
+        this.cm = cm;
+        this.independent = independent;
+    }
+
+    /**
+     * Returns whether the calls in this batch are independent of each other
+     * and can be executed by the remote side in parallel.
+     *
+     * @return {@code true} if the calls can be executed in parallel
+     */
+    public boolean isIndependent() {
+        return independent;
+    }
+
+    /**
+     * Sets whether the calls in this batch are independent of each other and
+     * can be executed by the remote side in parallel (by default
+     * {@code false}, i.e. the calls are executed one by one in the order they
+     * were made).
+     *
+     * @param independent {@code true} if the calls can be executed in
+     *                    parallel
+     */
+    public void setIndependent(boolean independent) {
+        this.independent = independent;
+    }
+
+    /**
+     * Returns the number of queued calls, not yet sent to the remote side.
+     *
+     * @return number of queued calls
+     */
+    public synchronized int size() {
+        return calls.size();
+    }
+
+    /**
+     * Queues the request to be sent with this batch.
+     *
+     * @param request request to send
+     * @return future completed with the response to the request
+     */
+    synchronized CompletableFuture<CarmineResponse> add(CarmineRequest request) {
+        Call call = new Call(request);
+        calls.add(call);
+        return call.future;
+    }
+
+    /**
+     * Sends all the queued calls to the remote side. The futures of the calls
+     * are completed once the response is received.
+     */
+    public void flush() {
+        final List<Call> sent = new ArrayList<Call>();
+        synchronized (this) {
+            for (Call call : calls) {
+                // skip the calls cancelled in the meantime
+                if (!call.future.isDone()) sent.add(call);
+            }
+            calls = new ArrayList<Call>();
+        }
+        if (sent.isEmpty()) return;
+
+        CarmineRequest request;
+        if (sent.size() == 1) {
+            request = sent.get(0).request;
+        } else {
+            Map<String, Object> none = Collections.emptyMap();
+            List<CarmineRequest> requests
+                    = new ArrayList<CarmineRequest>(sent.size());
+            boolean idempotent = true;
+            long timeout = 0L;
+            for (Call call : sent) {
+                CarmineRequest item = call.request;
+                CarmineRequest copy = new CarmineRequest(
+                        item.getInterfaceName(), item.getMethodName(),
+                        item.getMethodId(), item.getMethodArguments(), none);
+                copy.setTimeout(item.getRemainingTime());
+                requests.add(copy);
+                idempotent &= item.isIdempotent();
+                timeout = Math.max(timeout, item.getRemainingTime());
+            }
+            request = new CarmineBatchRequest(
+                    requests, independent, cm.getProperties());
+            request.setIdempotent(idempotent);
+            // the batch is awaited until the deadline of its last call
+            request.setTimeout(timeout);
+        }
+
+        cm.getTransport().sendAsync(request, cm.getCodec(), cm.getExecutor())
+                .whenComplete(new BiConsumer<CarmineResponse, Throwable>() {
+                    @Override
+                    public void accept(CarmineResponse response,
+                                       Throwable error) {
+                        complete(sent, response, error);
+                    }
+                });
+    }
+
+    /**
+     * Sends all the queued calls (see {@link #flush()}) and unbinds this batch
+     * from the current thread.
+     */
+    @Override
+    public void close() {
+        try {
+            flush();
+        } finally {
+            cm.endBatch(this);
+        }
+    }
+
+    private static void complete(List<Call> sent, CarmineResponse response,
+                                 Throwable error) {
+        if (error == null && sent.size() > 1) {
+            if (response instanceof CarmineBatchResponse) {
+                List<CarmineResponse> responses
+                        = ((CarmineBatchResponse) response).getResponses();
+                if (responses.size() == sent.size()) {
+                    for (int i = 0; i < responses.size(); i++) {
+                        sent.get(i).complete(
+                                responses.get(i), response.getProperties());
+                    }
+                    return;
+                }
+                error = new IOException("Invalid batch response size: "
+                        + responses.size() + ", expected: " + sent.size());
+            } else {
+                error = response.isSuccessful()
+                        ? new IOException("Batch requests not supported")
+                        : response.getException();
+            }
+        }
+
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        for (Call call : sent) {
+            if (error != null) {
+                call.future.completeExceptionally(error);
+            } else {
+                call.future.complete(response);
+            }
+        }
+    }
+
+    /**
+     * Queued call with the future of its response.
+     */
+    private static final class Call {
+
+        private final CarmineRequest request;
+        private final CompletableFuture<CarmineResponse> future
+                = new CompletableFuture<CarmineResponse>();
+
+        Call(CarmineRequest request) {
+            this.request = request;
+        }
+
+        void complete(CarmineResponse response,
+                      Map<String, Object> properties) {
+            // responses in the batch share the properties of the batch
+            future.complete(response.isSuccessful()
+                    ? new CarmineResponse(response.getResult(), properties)
+                    : new CarmineResponse(response.getException(), properties));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents the batch of requests sent to the remote side in a single round
+ * trip (see {@link CarmineBatch}). The requests in the batch are executed in
+ * the given order, or in parallel if marked as independent, and share the
+ * properties map of the batch (their own properties are ignored). The remote
+ * side replies with the {@link CarmineBatchResponse}.
+ */
+public class CarmineBatchRequest extends CarmineRequest {
+
+    private final List<CarmineRequest> requests;
+    private final boolean independent;
+
+    /**
+     * Constructs new immutable instance with given requests, independence
+     * flag and properties map.
+     *
+     * @param requests    requests to execute on the remote side
+     * @param independent whether the requests are independent of each other
+     *                    and can be executed in parallel
+     * @param properties  properties map shared within the connection
+     */
+    public CarmineBatchRequest(List<CarmineRequest> requests,
+                               boolean independent,
+                               Map<String, Object> properties) {
+        super(null, null, null, properties);
+        this.requests = requests;
+        this.independent = independent;
+    }
+
+    /**
+     * Returns unmodifiable list of requests in this batch.
+     *
+     * @return unmodifiable list of requests
+     */
+    public List<CarmineRequest> getRequests() {
+        return Collections.unmodifiableList(requests);
+    }
+
+    /**
+     * Returns whether the requests are independent of each other and can be
+     * executed in parallel.
+     *
+     * @return {@code true} if the requests can be executed in parallel
+     */
+    public boolean isIndependent() {
+        return independent;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents the response to the {@link CarmineBatchRequest}, encapsulating
+ * the responses of particular requests (in the same order as the requests)
+ * and the properties map shared by the whole batch.
+ */
+public class CarmineBatchResponse extends CarmineResponse {
+
+    private final List<CarmineResponse> responses;
+
+    /**
+     * Constructs new immutable instance with given responses and properties
+     * map.
+     *
+     * @param responses  responses of particular requests
+     * @param properties properties map shared within the connection
+     */
+    public CarmineBatchResponse(List<CarmineResponse> responses,
+                                Map<String, Object> properties) {
+        super((Object) null, properties);
+        this.responses = responses;
+    }
+
+    /**
+     * Returns unmodifiable list of responses of particular requests.
+     *
+     * @return unmodifiable list of responses
+     */
+    public List<CarmineResponse> getResponses() {
+        return Collections.unmodifiableList(responses);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+
+/**
+ * Implementation of the {@link CarmineCodec} using the compact binary format.
+ * Compared to the <i>Java</i> serialization, no class descriptors are written
+ * and values are written in the compact form (e.g. variable-length integers),
+ * so both the size of serialized data and the CPU time spent on serialization
+ * are significantly lower. The binary format natively supports:
+ * <ul>
+ * <li>primitive wrappers, {@link String}s and enums</li>
+ * <li>arrays of primitives and objects</li>
+ * <li>most common collections ({@link java.util.ArrayList},
+ * {@link java.util.LinkedList}, {@link java.util.HashSet},
+ * {@link java.util.LinkedHashSet}, {@link java.util.TreeSet},
+ * {@link java.util.HashMap}, {@link java.util.LinkedHashMap} and
+ * {@link java.util.TreeMap}, the sorted ones only with natural ordering)</li>
+ * <li>simple serializable objects with no custom serialization methods (e.g.
+ * {@code writeObject()} or {@code readResolve()}), whose fields are written
+ * one by one (objects without the no-argument constructor are instantiated
+ * the same way as by the <i>Java</i> serialization, where supported by the
+ * <i>JVM</i>)</li>
+ * <li>{@link CarmineRequest}, {@link CarmineResponse} and their batch
+ * variants</li>
+ * </ul>
+ * Any other serializable object (e.g. exceptions) is written using the
+ * <i>Java</i> serialization, embedded in the binary stream. Shared and
+ * circular references are preserved, same as when using the <i>Java</i>
+ * serialization. When used by the {@link CarmineMuxTransport}, the names of
+ * classes, remote interfaces, methods and properties are sent in full only
+ * once per connection, later only as the reference to it.
+ * <p/>
+ * The lengths of arrays, strings and collections read from the remote side
+ * are limited (see {@link #setMaxLength(int)}), and the memory for them is
+ * allocated only as their content is actually read, so the malformed input
+ * cannot make the codec allocate more memory than what it has received. The
+ * classes of read objects are checked by the class filter (see
+ * {@link #setClassFilter(CarmineClassFilter)}) and by the process-wide
+ * filter of the <i>Java</i> serialization ({@code jdk.serialFilter}), where
+ * available.
+ */
+public class CarmineBinaryCodec implements CarmineCodec {
+
+    /**
+     * Content type of the binary codec.
+     */
+    public static final String CONTENT_TYPE = "application/x-carmine-binary";
+
+    /**
+     * Default maximum length of read arrays, strings and collections.
+     */
+    public static final int DEFAULT_MAX_LENGTH = 64 * 1024 * 1024;
+
+    private final ClassLoader classLoader;
+    private final CarmineSymbols symbols;
+    private volatile int maxLength = DEFAULT_MAX_LENGTH;
+    private volatile CarmineClassFilter classFilter;
+
+    /**
+     * Constructs new instance, resolving the classes of deserialized objects
+     * using the context class loader of the current thread.
+     */
+    public CarmineBinaryCodec() {
+        this(null);
+    }
+
+    /**
+     * Constructs new instance, resolving the classes of deserialized objects
+     * using the given class loader.
+     *
+     * @param classLoader class loader used to resolve classes (if
+     *                    {@code null}, the context class loader of the current
+     *                    thread is used)
+     */
+    public CarmineBinaryCodec(ClassLoader classLoader) {
+        this(classLoader, null);
+    }
+
+    private CarmineBinaryCodec(ClassLoader classLoader,
+                               CarmineSymbols symbols) {
+        this.classLoader = classLoader;
+        this.symbols = symbols;
+    }
+
+    /**
+     * Returns the codec writing and reading the names using the given
+     * dictionary of the connection.
+     *
+     * @param symbols dictionary of the connection
+     * @return codec using the dictionary
+     */
+    CarmineBinaryCodec withSymbols(CarmineSymbols symbols) {
+        CarmineBinaryCodec codec = new CarmineBinaryCodec(classLoader, symbols);
+        codec.maxLength = maxLength;
+        codec.classFilter = classFilter;
+        return codec;
+    }
+
+    /**
+     * Returns the maximum length of arrays, strings and collections read
+     * from the remote side.
+     *
+     * @return maximum length (number of elements or characters)
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Sets the maximum length of arrays, strings and collections read from
+     * the remote side (by default {@value #DEFAULT_MAX_LENGTH}). Reading the
+     * longer one fails with the {@link java.io.StreamCorruptedException}. The
+     * same limit applies to the byte arrays sent as the raw segments (see
+     * {@link CarmineStreams}).
+     *
+     * @param maxLength maximum length (number of elements or characters)
+     */
+    public void setMaxLength(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Returns the filter of the classes of read objects, or {@code null} if
+     * not set.
+     *
+     * @return class filter or {@code null}
+     */
+    public CarmineClassFilter getClassFilter() {
+        return classFilter;
+    }
+
+    /**
+     * Sets the filter of the classes of read objects (by default
+     * {@code null}, i.e. only the process-wide filter of the <i>Java</i>
+     * serialization applies). Reading the object of rejected class fails
+     * with the {@link java.io.InvalidClassException}.
+     *
+     * @param classFilter class filter or {@code null}
+     */
+    public void setClassFilter(CarmineClassFilter classFilter) {
+        this.classFilter = classFilter;
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public ObjectOutput createOutput(OutputStream out) throws IOException {
+        return new CarmineBinaryOutput(out, symbols);
+    }
+
+    @Override
+    public ObjectInput createInput(InputStream in) throws IOException {
+        ClassLoader loader = classLoader;
+        if (loader == null) loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) loader = CarmineBinaryCodec.class.getClassLoader();
+        return new CarmineBinaryInput(in, loader, symbols, maxLength,
+                classFilter);
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.Externalizable;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Constants and shared logic of the binary format written by the
+ * {@link CarmineBinaryOutput} and read by the {@link CarmineBinaryInput}.
+ * Every value is written as the one byte type tag, followed by the value
+ * itself (if any). Classes are written by name only for their first
+ * occurrence within the stream, later only as a reference to it. Names of
+ * classes, remote interfaces, methods, enum constants and properties are
+ * written either in full, or as the reference to the dictionary of the
+ * connection (see {@link CarmineSymbols}). Objects written repeatedly are
+ * written only as the reference to their first occurrence, until the output
+ * is reset: the reset tag preceding the next object tells the input to
+ * forget the objects read so far.
+ */
+final class CarmineBinaryFormat {
+
+    static final int MAGIC = 0xCA;
+    static final int VERSION = 4;
+
+    static final int NULL = 0;
+    static final int TRUE = 1;
+    static final int FALSE = 2;
+    static final int BYTE = 3;
+    static final int SHORT = 4;
+    static final int CHAR = 5;
+    static final int INT = 6;
+    static final int LONG = 7;
+    static final int FLOAT = 8;
+    static final int DOUBLE = 9;
+    static final int STRING = 10;
+    static final int REFERENCE = 11;
+    static final int BOOLEAN_ARRAY = 12;
+    static final int BYTE_ARRAY = 13;
+    static final int SHORT_ARRAY = 14;
+    static final int CHAR_ARRAY = 15;
+    static final int INT_ARRAY = 16;
+    static final int LONG_ARRAY = 17;
+    static final int FLOAT_ARRAY = 18;
+    static final int DOUBLE_ARRAY = 19;
+    static final int OBJECT_ARRAY = 20;
+    static final int ARRAY_LIST = 21;
+    static final int LINKED_LIST = 22;
+    static final int HASH_SET = 23;
+    static final int LINKED_HASH_SET = 24;
+    static final int TREE_SET = 25;
+    static final int HASH_MAP = 26;
+    static final int LINKED_HASH_MAP = 27;
+    static final int TREE_MAP = 28;
+    static final int ENUM = 29;
+    static final int OBJECT = 30;
+    static final int SERIALIZED = 31;
+    static final int REQUEST = 32;
+    static final int RESPONSE = 33;
+    static final int BATCH_REQUEST = 34;
+    static final int BATCH_RESPONSE = 35;
+    static final int RESET = 36;
+
+    private static final Object REFLECTION_FACTORY;
+    private static final Method NEW_CONSTRUCTOR_FOR_SERIALIZATION;
+
+    static {
+        // the same factory is used by the Java serialization to create the
+        // instances of classes without no-argument constructor
+        Object factory = null;
+        Method method = null;
+        try {
+            Class<?> factoryClass = Class.forName("sun.reflect.ReflectionFactory");
+            factory = factoryClass.getMethod("getReflectionFactory").invoke(null);
+            method = factoryClass.getMethod("newConstructorForSerialization",
+                    Class.class, Constructor.class);
+        } catch (Exception ex) {
+            factory = null;
+            method = null;
+        } catch (LinkageError err) {
+            factory = null;
+            method = null;
+        }
+        REFLECTION_FACTORY = factory;
+        NEW_CONSTRUCTOR_FOR_SERIALIZATION = method;
+    }
+
+    private static final Method GET_SERIAL_FILTER;
+    private static final Method CHECK_INPUT;
+    private static final Class<?> FILTER_INFO;
+
+    static {
+        // the filter is in java.io since Java 9, and in sun.misc in the
+        // updates of Java 8; it cannot be referenced directly in Java 8
+        Method getSerialFilter = null;
+        Method checkInput = null;
+        Class<?> filterInfo = null;
+        for (String prefix : new String[]{"java.io.", "sun.misc."}) {
+            try {
+                Class<?> filter = Class.forName(prefix + "ObjectInputFilter");
+                filterInfo = Class.forName(
+                        prefix + "ObjectInputFilter$FilterInfo");
+                checkInput = filter.getMethod("checkInput", filterInfo);
+                getSerialFilter = Class.forName(
+                        prefix + "ObjectInputFilter$Config")
+                        .getMethod("getSerialFilter");
+                break;
+            } catch (Exception ex) {
+                getSerialFilter = null;
+            } catch (LinkageError err) {
+                getSerialFilter = null;
+            }
+        }
+        GET_SERIAL_FILTER = getSerialFilter;
+        CHECK_INPUT = checkInput;
+        FILTER_INFO = filterInfo;
+    }
+
+    private static final ObjectLayout UNSUPPORTED = new ObjectLayout(null, null);
+
+    private static final ClassValue<ObjectLayout> LAYOUTS
+            = new ClassValue<ObjectLayout>() {
+        @Override
+        protected ObjectLayout computeValue(Class<?> type) {
+            return createLayout(type);
+        }
+    };
+
+    private CarmineBinaryFormat() {
+    }
+
+    /**
+     * Returns the layout of the given class, if the class is the simple
+     * serializable object, whose fields can be written one by one (see
+     * {@link CarmineBinaryCodec}), otherwise {@code null}.
+     *
+     * @param type class to return the layout for
+     * @return layout of the class or {@code null} if not supported
+     */
+    static ObjectLayout layout(Class<?> type) {
+        ObjectLayout layout = LAYOUTS.get(type);
+        return (layout != UNSUPPORTED) ? layout : null;
+    }
+
+    /**
+     * Checks that the objects of the given class, read from the remote side,
+     * may be instantiated, both by the given class filter and by the
+     * process-wide filter of the <i>Java</i> serialization (if available).
+     *
+     * @param type   class to check
+     * @param filter class filter (may be {@code null})
+     * @throws InvalidClassException thrown if the class is rejected
+     */
+    static void checkClass(final Class<?> type, CarmineClassFilter filter)
+            throws InvalidClassException {
+        if (filter != null && !filter.accept(type)) {
+            throw new InvalidClassException(type.getName(),
+                    "rejected by the class filter");
+        }
+        if (GET_SERIAL_FILTER == null) return;
+
+        try {
+            Object serialFilter = GET_SERIAL_FILTER.invoke(null);
+            if (serialFilter == null) return;
+            Object info = Proxy.newProxyInstance(FILTER_INFO.getClassLoader(),
+                    new Class<?>[]{FILTER_INFO}, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method,
+                                             Object[] args) {
+                            String name = method.getName();
+                            if ("serialClass".equals(name)) return type;
+                            if ("arrayLength".equals(name)) return -1L;
+                            if ("depth".equals(name)) return 1L;
+                            if ("references".equals(name)
+                                    || "streamBytes".equals(name)) {
+                                return 0L;
+                            }
+                            if ("hashCode".equals(name)) {
+                                return System.identityHashCode(proxy);
+                            }
+                            if ("equals".equals(name)) return proxy == args[0];
+                            return "FilterInfo[" + type.getName() + "]";
+                        }
+                    });
+            Object status = CHECK_INPUT.invoke(serialFilter, info);
+            if ("REJECTED".equals(((Enum<?>) status).name())) {
+                throw new InvalidClassException(type.getName(),
+                        "rejected by the serialization filter");
+            }
+        } catch (InvocationTargetException ex) {
+            // same as the Java serialization, failed filter rejects the class
+            InvalidClassException ice = new InvalidClassException(
+                    type.getName(), "serialization filter failed");
+            ice.initCause(ex.getCause());
+            throw ice;
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(
+                    "Cannot apply the serialization filter", ex);
+        }
+    }
+
+    private static ObjectLayout createLayout(Class<?> type) {
+        if (!Serializable.class.isAssignableFrom(type)
+                || Externalizable.class.isAssignableFrom(type)
+                || type.isInterface() || type.isArray() || type.isEnum()
+                || Modifier.isAbstract(type.getModifiers())
+                || Proxy.isProxyClass(type)) {
+            return UNSUPPORTED;
+        }
+
+        List<Field> fields = new ArrayList<Field>();
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            if (hasMethod(c, "writeReplace") || hasMethod(c, "readResolve")) {
+                return UNSUPPORTED;
+            }
+            if (!Serializable.class.isAssignableFrom(c)) continue;
+            if (hasMethod(c, "writeObject", ObjectOutputStream.class)
+                    || hasMethod(c, "readObject", ObjectInputStream.class)
+                    || hasMethod(c, "readObjectNoData")
+                    || hasField(c, "serialPersistentFields")) {
+                return UNSUPPORTED;
+            }
+
+            List<Field> declared = new ArrayList<Field>();
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers)
+                        && !Modifier.isTransient(modifiers)) {
+                    declared.add(field);
+                }
+            }
+            // field order of the reflection API is not specified, sort them
+            // to get the same layout on both sides
+            Collections.sort(declared, new Comparator<Field>() {
+                @Override
+                public int compare(Field a, Field b) {
+                    return a.getName().compareTo(b.getName());
+                }
+            });
+            fields.addAll(0, declared);
+        }
+
+        try {
+            Constructor<?> constructor = constructor(type);
+            if (constructor == null) return UNSUPPORTED;
+            constructor.setAccessible(true);
+            for (Field field : fields) {
+                field.setAccessible(true);
+            }
+            return new ObjectLayout(
+                    constructor, fields.toArray(new Field[fields.size()]));
+        } catch (RuntimeException ex) {
+            // fields or constructor not accessible
+            return UNSUPPORTED;
+        }
+    }
+
+    /**
+     * Returns the constructor creating new instances of the given class
+     * without arguments, i.e. either its own no-argument constructor, or (as
+     * the <i>Java</i> serialization does) the constructor calling only the
+     * no-argument constructor of the first non-serializable superclass.
+     *
+     * @param type serializable class
+     * @return constructor or {@code null} if no such constructor exists
+     */
+    private static Constructor<?> constructor(Class<?> type) {
+        try {
+            return type.getDeclaredConstructor();
+        } catch (NoSuchMethodException ex) {
+            // use the serialization constructor below
+        }
+        if (NEW_CONSTRUCTOR_FOR_SERIALIZATION == null) return null;
+
+        Class<?> base = type;
+        while (Serializable.class.isAssignableFrom(base)) {
+            base = base.getSuperclass();
+        }
+        try {
+            Constructor<?> baseConstructor = base.getDeclaredConstructor();
+            int modifiers = baseConstructor.getModifiers();
+            if (Modifier.isPrivate(modifiers) || (!Modifier.isPublic(modifiers)
+                    && !Modifier.isProtected(modifiers)
+                    && !samePackage(base, type))) {
+                return null;
+            }
+            return (Constructor<?>) NEW_CONSTRUCTOR_FOR_SERIALIZATION.invoke(
+                    REFLECTION_FACTORY, type, baseConstructor);
+        } catch (NoSuchMethodException ex) {
+            return null;
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+
+    private static boolean samePackage(Class<?> a, Class<?> b) {
+        return a.getClassLoader() == b.getClassLoader()
+                && packageName(a).equals(packageName(b));
+    }
+
+    private static String packageName(Class<?> type) {
+        String name = type.getName();
+        int index = name.lastIndexOf('.');
+        return (index >= 0) ? name.substring(0, index) : "";
+    }
+
+    private static boolean hasMethod(Class<?> type, String name,
+                                     Class<?>... parameterTypes) {
+        try {
+            type.getDeclaredMethod(name, parameterTypes);
+            return true;
+        } catch (NoSuchMethodException ex) {
+            return false;
+        }
+    }
+
+    private static boolean hasField(Class<?> type, String name) {
+        try {
+            type.getDeclaredField(name);
+            return true;
+        } catch (NoSuchFieldException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Layout of the simple serializable object, i.e. its no-argument
+     * constructor and serialized fields, together with the fingerprint of the
+     * fields, used to detect incompatible class versions on both sides.
+     */
+    static final class ObjectLayout {
+
+        final Constructor<?> constructor;
+        final Field[] fields;
+        final int fingerprint;
+
+        ObjectLayout(Constructor<?> constructor, Field[] fields) {
+            this.constructor = constructor;
+            this.fields = fields;
+
+            String[] descriptors = new String[(fields != null) ? fields.length : 0];
+            for (int i = 0; i < descriptors.length; i++) {
+                descriptors[i] = fields[i].getName() + ':'
+                        + fields[i].getType().getName();
+            }
+            this.fingerprint = Arrays.hashCode(descriptors);
+        }
+    }
+}
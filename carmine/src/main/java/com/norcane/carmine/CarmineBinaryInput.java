@@ -0,0 +1,822 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static com.norcane.carmine.CarmineBinaryFormat.*;
+
+/**
+ * Implementation of the {@link ObjectInput} reading objects in the binary
+ * format of the {@link CarmineBinaryCodec}, written by the
+ * {@link CarmineBinaryOutput}. The input is buffered, using the buffer
+ * acquired from the shared {@link CarmineBufferPool} and returned back when
+ * the input is closed.
+ * <p/>
+ * Lengths declared by the input are checked against the maximum length, and
+ * the arrays, strings and collections longer than {@link #CHUNK} elements are
+ * grown as their content is read, so the memory allocated for them is
+ * proportional to the input actually received.
+ */
+class CarmineBinaryInput implements ObjectInput {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Number of elements allocated in advance for arrays and collections.
+     */
+    static final int CHUNK = 8192;
+
+    /**
+     * Placeholder handle of the object array, which is still being read.
+     */
+    private static final Object PENDING = new Object();
+
+    private final InputStream in;
+    private final ClassLoader classLoader;
+    private final CarmineSymbols symbols;
+    private final int maxLength;
+    private final CarmineClassFilter classFilter;
+    private byte[] buffer
+            = CarmineBufferPool.getInstance().acquire(BUFFER_SIZE);
+    private int position;
+    private int limit;
+
+    private List<Class<?>> classes;
+    private List<Object> handles;
+    private int depth;
+
+    /**
+     * Constructs new instance reading from the given input stream and reads
+     * the stream header.
+     *
+     * @param in          input stream to read from
+     * @param classLoader class loader used to resolve classes
+     * @param symbols     dictionary of the connection used to read the names
+     *                    (may be {@code null})
+     * @param maxLength   maximum length of arrays, strings and collections
+     * @param classFilter filter of the classes of read objects (may be
+     *                    {@code null})
+     * @throws IOException thrown if the stream header cannot be read or is not
+     *                     valid
+     */
+    CarmineBinaryInput(InputStream in, ClassLoader classLoader,
+                       CarmineSymbols symbols, int maxLength,
+                       CarmineClassFilter classFilter) throws IOException {
+        this.in = in;
+        this.classLoader = classLoader;
+        this.symbols = symbols;
+        this.maxLength = maxLength;
+        this.classFilter = classFilter;
+
+        int magic = readUnsignedByte();
+        int version = readUnsignedByte();
+        if (magic != MAGIC || version != VERSION) {
+            throw new StreamCorruptedException(String.format(
+                    "Invalid stream header: %02X%02X", magic, version));
+        }
+    }
+
+    @Override
+    public Object readObject() throws ClassNotFoundException, IOException {
+        int tag = readUnsignedByte();
+        while (tag == RESET) {
+            // handles of the objects being read must be kept
+            if (depth > 0) {
+                throw new StreamCorruptedException(
+                        "Unexpected reset within the object");
+            }
+            if (handles != null) handles.clear();
+            tag = readUnsignedByte();
+        }
+        switch (tag) {
+            case NULL:
+                return null;
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case BYTE:
+                return readByte();
+            case SHORT:
+                return readShort();
+            case CHAR:
+                return readChar();
+            case INT:
+                return unZigZag(readVarInt());
+            case LONG:
+                return unZigZag(readVarLong());
+            case FLOAT:
+                return readFloat();
+            case DOUBLE:
+                return readDouble();
+            case STRING:
+                return readString();
+            case REFERENCE:
+                return readReference();
+            case ENUM:
+                return readEnum();
+            case REQUEST:
+                return readRequest();
+            case RESPONSE:
+                return readResponse();
+            case BATCH_REQUEST:
+                return readBatchRequest();
+            case BATCH_RESPONSE:
+                return readBatchResponse();
+            default:
+                depth++;
+                try {
+                    return readTrackedObject(tag);
+                } finally {
+                    depth--;
+                }
+        }
+    }
+
+    private Object readTrackedObject(int tag)
+            throws ClassNotFoundException, IOException {
+        if (handles == null) handles = new ArrayList<Object>();
+        int handle = handles.size();
+        handles.add(null);
+
+        switch (tag) {
+            case BOOLEAN_ARRAY: {
+                int length = readLength();
+                boolean[] values = new boolean[Math.min(length, CHUNK)];
+                for (int i = 0; i < length; i++) {
+                    if (i == values.length) {
+                        values = Arrays.copyOf(values, grow(i, length));
+                    }
+                    values[i] = readBoolean();
+                }
+                handles.set(handle, values);
+                return values;
+            }
+            case BYTE_ARRAY: {
+                byte[] values = readBytes(this, readLength());
+                handles.set(handle, values);
+                return values;
+            }
+            case SHORT_ARRAY: {
+                int length = readLength();
+                short[] values = new short[Math.min(length, CHUNK)];
+                for (int i = 0; i < length; i++) {
+                    if (i == values.length) {
+                        values = Arrays.copyOf(values, grow(i, length));
+                    }
+                    values[i] = readShort();
+                }
+                handles.set(handle, values);
+                return values;
+            }
+            case CHAR_ARRAY: {
+                int length = readLength();
+                char[] values = new char[Math.min(length, CHUNK)];
+                for (int i = 0; i < length; i++) {
+                    if (i == values.length) {
+                        values = Arrays.copyOf(values, grow(i, length));
+                    }
+                    values[i] = readChar();
+                }
+                handles.set(handle, values);
+                return values;
+            }
+            case INT_ARRAY: {
+                int length = readLength();
+                int[] values = new int[Math.min(length, CHUNK)];
+                for (int i = 0; i < length; i++) {
+                    if (i == values.length) {
+                        values = Arrays.copyOf(values, grow(i, length));
+                    }
+                    values[i] = unZigZag(readVarInt());
+                }
+                handles.set(handle, values);
+                return values;
+            }
+            case LONG_ARRAY: {
+                int length = readLength();
+                long[] values = new long[Math.min(length, CHUNK)];
+                for (int i = 0; i < length; i++) {
+                    if (i == values.length) {
+                        values = Arrays.copyOf(values, grow(i, length));
+                    }
+                    values[i] = unZigZag(readVarLong());
+                }
+                handles.set(handle, values);
+                return values;
+            }
+            case FLOAT_ARRAY: {
+                int length = readLength();
+                float[] values = new float[Math.min(length, CHUNK)];
+                for (int i = 0; i < length; i++) {
+                    if (i == values.length) {
+                        values = Arrays.copyOf(values, grow(i, length));
+                    }
+                    values[i] = readFloat();
+                }
+                handles.set(handle, values);
+                return values;
+            }
+            case DOUBLE_ARRAY: {
+                int length = readLength();
+                double[] values = new double[Math.min(length, CHUNK)];
+                for (int i = 0; i < length; i++) {
+                    if (i == values.length) {
+                        values = Arrays.copyOf(values, grow(i, length));
+                    }
+                    values[i] = readDouble();
+                }
+                handles.set(handle, values);
+                return values;
+            }
+            case OBJECT_ARRAY:
+                return readObjectArray(handle);
+            case ARRAY_LIST: {
+                int size = readLength();
+                return readCollection(handle, size,
+                        new ArrayList<Object>(Math.min(size, CHUNK)));
+            }
+            case LINKED_LIST:
+                return readCollection(handle, readLength(),
+                        new LinkedList<Object>());
+            case HASH_SET: {
+                int size = readLength();
+                return readCollection(handle, size,
+                        new HashSet<Object>(capacity(size)));
+            }
+            case LINKED_HASH_SET: {
+                int size = readLength();
+                return readCollection(handle, size,
+                        new LinkedHashSet<Object>(capacity(size)));
+            }
+            case TREE_SET:
+                return readCollection(handle, readLength(),
+                        new TreeSet<Object>());
+            case HASH_MAP: {
+                int size = readLength();
+                return readMap(handle, size,
+                        new HashMap<Object, Object>(capacity(size)));
+            }
+            case LINKED_HASH_MAP: {
+                int size = readLength();
+                return readMap(handle, size,
+                        new LinkedHashMap<Object, Object>(capacity(size)));
+            }
+            case TREE_MAP:
+                return readMap(handle, readLength(),
+                        new TreeMap<Object, Object>());
+            case OBJECT:
+                return readPlainObject(handle);
+            case SERIALIZED: {
+                Object obj = readSerialized();
+                handles.set(handle, obj);
+                return obj;
+            }
+            default:
+                throw new StreamCorruptedException(
+                        String.format("Invalid type tag: %02X", tag));
+        }
+    }
+
+    private Object[] readObjectArray(int handle)
+            throws ClassNotFoundException, IOException {
+        Class<?> componentType = readClass();
+        int length = readLength();
+        if (length <= CHUNK) {
+            Object[] values = (Object[]) Array.newInstance(
+                    componentType, length);
+            handles.set(handle, values);
+            for (int i = 0; i < length; i++) values[i] = readObject();
+            return values;
+        }
+
+        // the longer array is grown as read, so it cannot be referenced by
+        // its own elements (which is rejected as the corrupted stream)
+        handles.set(handle, PENDING);
+        Object[] values = (Object[]) Array.newInstance(componentType, CHUNK);
+        for (int i = 0; i < length; i++) {
+            if (i == values.length) {
+                values = Arrays.copyOf(values, grow(i, length));
+            }
+            values[i] = readObject();
+        }
+        handles.set(handle, values);
+        return values;
+    }
+
+    private Object readReference() throws IOException {
+        int index = readVarInt();
+        if (handles == null || index < 0 || index >= handles.size()
+                || handles.get(index) == PENDING) {
+            throw new StreamCorruptedException("Invalid handle: " + index);
+        }
+        return handles.get(index);
+    }
+
+    private Class<?> readClass() throws ClassNotFoundException, IOException {
+        return readClass(null);
+    }
+
+    private Class<?> readClass(int[] fingerprint)
+            throws ClassNotFoundException, IOException {
+        if (classes == null) classes = new ArrayList<Class<?>>();
+
+        int index = readVarInt();
+        if (index > 0) {
+            if (index > classes.size()) {
+                throw new StreamCorruptedException(
+                        "Invalid class reference: " + index);
+            }
+            return classes.get(index - 1);
+        }
+
+        String name = readName();
+        if (name == null) {
+            throw new StreamCorruptedException("Missing class name");
+        }
+        Class<?> type = Class.forName(name, false, classLoader);
+        checkClass(type, classFilter);
+        classes.add(type);
+        if (fingerprint != null) fingerprint[0] = readInt();
+        return type;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object readEnum() throws ClassNotFoundException, IOException {
+        Class type = readClass();
+        if (!type.isEnum()) {
+            throw new InvalidClassException(type.getName(), "not an enum");
+        }
+        return Enum.valueOf(type, readName());
+    }
+
+    private CarmineRequest readRequest()
+            throws ClassNotFoundException, IOException {
+        String interfaceName = readName();
+        String methodName = readName();
+        long methodId = readLong();
+        Object[] methodArguments = readObjects();
+        Map<String, Object> properties = readProperties();
+        long timeout = readVarLong();
+        CarmineRequest request = new CarmineRequest(interfaceName, methodName,
+                methodId, methodArguments, properties);
+        if (timeout > 0) request.setTimeout(timeout - 1);
+        return request;
+    }
+
+    private CarmineResponse readResponse()
+            throws ClassNotFoundException, IOException {
+        boolean successful = readBoolean();
+        Object value = readObject();
+        Map<String, Object> properties = readProperties();
+        return successful
+                ? new CarmineResponse(value, properties)
+                : new CarmineResponse((Throwable) value, properties);
+    }
+
+    private CarmineBatchRequest readBatchRequest()
+            throws ClassNotFoundException, IOException {
+        boolean independent = readBoolean();
+        int size = readLength();
+        List<CarmineRequest> requests
+                = new ArrayList<CarmineRequest>(Math.min(size, CHUNK));
+        for (int i = 0; i < size; i++) {
+            expectTag(REQUEST);
+            requests.add(readRequest());
+        }
+        Map<String, Object> properties = readProperties();
+        return new CarmineBatchRequest(requests, independent, properties);
+    }
+
+    private CarmineBatchResponse readBatchResponse()
+            throws ClassNotFoundException, IOException {
+        int size = readLength();
+        List<CarmineResponse> responses
+                = new ArrayList<CarmineResponse>(Math.min(size, CHUNK));
+        for (int i = 0; i < size; i++) {
+            expectTag(RESPONSE);
+            responses.add(readResponse());
+        }
+        Map<String, Object> properties = readProperties();
+        return new CarmineBatchResponse(responses, properties);
+    }
+
+    private void expectTag(int tag) throws IOException {
+        int actual = readUnsignedByte();
+        if (actual != tag) {
+            throw new StreamCorruptedException(
+                    String.format("Invalid type tag: %02X", actual));
+        }
+    }
+
+    private Object[] readObjects() throws ClassNotFoundException, IOException {
+        int length = readVarInt() - 1;
+        if (length == -1) return null;
+        length = checkLength(length);
+
+        Object[] objects = new Object[Math.min(length, CHUNK)];
+        for (int i = 0; i < length; i++) {
+            if (i == objects.length) {
+                objects = Arrays.copyOf(objects, grow(i, length));
+            }
+            objects[i] = readObject();
+        }
+        return objects;
+    }
+
+    private Map<String, Object> readProperties()
+            throws ClassNotFoundException, IOException {
+        int size = readLength();
+        Map<String, Object> properties
+                = new HashMap<String, Object>(capacity(size));
+        for (int i = 0; i < size; i++) {
+            properties.put(readName(), readObject());
+        }
+        return properties;
+    }
+
+    private Collection<Object> readCollection(int handle, int size,
+                                              Collection<Object> collection)
+            throws ClassNotFoundException, IOException {
+        handles.set(handle, collection);
+        for (int i = 0; i < size; i++) {
+            collection.add(readObject());
+        }
+        return collection;
+    }
+
+    private Map<Object, Object> readMap(int handle, int size,
+                                        Map<Object, Object> map)
+            throws ClassNotFoundException, IOException {
+        handles.set(handle, map);
+        for (int i = 0; i < size; i++) {
+            Object key = readObject();
+            map.put(key, readObject());
+        }
+        return map;
+    }
+
+    private Object readPlainObject(int handle)
+            throws ClassNotFoundException, IOException {
+        int[] fingerprint = {0};
+        int classCount = (classes != null) ? classes.size() : 0;
+        Class<?> type = readClass(fingerprint);
+        ObjectLayout layout = layout(type);
+        if (layout == null || (classes.size() > classCount
+                && layout.fingerprint != fingerprint[0])) {
+            throw new InvalidClassException(type.getName(),
+                    "incompatible class layout on local and remote side");
+        }
+
+        try {
+            Object obj = layout.constructor.newInstance();
+            handles.set(handle, obj);
+            for (Field field : layout.fields) {
+                Class<?> fieldType = field.getType();
+                if (!fieldType.isPrimitive()) {
+                    field.set(obj, readObject());
+                } else if (fieldType == Integer.TYPE) {
+                    field.setInt(obj, unZigZag(readVarInt()));
+                } else if (fieldType == Long.TYPE) {
+                    field.setLong(obj, unZigZag(readVarLong()));
+                } else if (fieldType == Boolean.TYPE) {
+                    field.setBoolean(obj, readBoolean());
+                } else if (fieldType == Double.TYPE) {
+                    field.setDouble(obj, readDouble());
+                } else if (fieldType == Float.TYPE) {
+                    field.setFloat(obj, readFloat());
+                } else if (fieldType == Byte.TYPE) {
+                    field.setByte(obj, readByte());
+                } else if (fieldType == Short.TYPE) {
+                    field.setShort(obj, readShort());
+                } else {
+                    field.setChar(obj, readChar());
+                }
+            }
+            return obj;
+        } catch (ReflectiveOperationException ex) {
+            throw new InvalidClassException(type.getName(),
+                    "cannot instantiate: " + ex);
+        }
+    }
+
+    private Object readSerialized() throws ClassNotFoundException, IOException {
+        byte[] bytes = readBytes(this, readLength());
+
+        ObjectInputStream objIn = new ObjectInputStream(
+                new ByteArrayInputStream(bytes)) {
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc)
+                    throws IOException, ClassNotFoundException {
+                Class<?> type;
+                try {
+                    type = Class.forName(desc.getName(), false, classLoader);
+                } catch (ClassNotFoundException ex) {
+                    type = super.resolveClass(desc);
+                }
+                if (classFilter != null && !classFilter.accept(type)) {
+                    throw new InvalidClassException(type.getName(),
+                            "rejected by the class filter");
+                }
+                return type;
+            }
+        };
+        return objIn.readObject();
+    }
+
+    private String readName() throws IOException {
+        int index = readVarInt();
+        if (index == 0) return null;
+        if (index == 1) return readString();
+        if (symbols == null) {
+            throw new StreamCorruptedException("Symbol outside of connection");
+        }
+        return symbols.name(index - 2);
+    }
+
+    private String readString() throws IOException {
+        int length = readLength();
+        char[] chars = new char[Math.min(length, CHUNK)];
+        for (int i = 0; i < length; i++) {
+            if (i == chars.length) {
+                chars = Arrays.copyOf(chars, grow(i, length));
+            }
+            int b = readUnsignedByte();
+            if (b < 0x80) {
+                chars[i] = (char) b;
+            } else if ((b & 0xE0) == 0xC0) {
+                chars[i] = (char) (((b & 0x1F) << 6)
+                        | (readUnsignedByte() & 0x3F));
+            } else {
+                int b2 = readUnsignedByte();
+                chars[i] = (char) (((b & 0x0F) << 12) | ((b2 & 0x3F) << 6)
+                        | (readUnsignedByte() & 0x3F));
+            }
+        }
+        return new String(chars);
+    }
+
+    private int readLength() throws IOException {
+        return checkLength(readVarInt());
+    }
+
+    private int checkLength(int length) throws IOException {
+        if (length < 0 || length > maxLength) {
+            throw new StreamCorruptedException("Invalid length: "
+                    + (length & 0xFFFFFFFFL) + " (maximum " + maxLength + ")");
+        }
+        return length;
+    }
+
+    /**
+     * Returns the maximum length of arrays, strings and collections.
+     *
+     * @return maximum length
+     */
+    int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Reads the given number of bytes, allocating the memory for them as they
+     * are read, not in advance.
+     *
+     * @param in     input to read from
+     * @param length number of bytes to read
+     * @return read bytes
+     * @throws IOException thrown if the input ends before all bytes are read
+     */
+    static byte[] readBytes(ObjectInput in, int length) throws IOException {
+        byte[] bytes = new byte[Math.min(length, CHUNK)];
+        int count = 0;
+        while (count < length) {
+            if (count == bytes.length) {
+                bytes = Arrays.copyOf(bytes, grow(count, length));
+            }
+            int read = in.read(bytes, count, bytes.length - count);
+            if (read < 0) throw new EOFException();
+            count += read;
+        }
+        return bytes;
+    }
+
+    private static int grow(int size, int length) {
+        return (int) Math.min(length, 2L * size);
+    }
+
+    private int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new StreamCorruptedException("Malformed variable-length int");
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new StreamCorruptedException("Malformed variable-length long");
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int capacity(int size) {
+        return Math.max((int) (Math.min(size, CHUNK) / 0.75f) + 1, 16);
+    }
+
+    private boolean fill() throws IOException {
+        if (position < limit) return true;
+
+        int count = in.read(buffer, 0, BUFFER_SIZE);
+        if (count <= 0) return false;
+        position = 0;
+        limit = count;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return fill() ? (buffer[position++] & 0xFF) : -1;
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+
+        if (position < limit) {
+            int count = Math.min(len, limit - position);
+            System.arraycopy(buffer, position, b, off, count);
+            position += count;
+            return count;
+        }
+        if (len >= BUFFER_SIZE) return in.read(b, off, len);
+        if (!fill()) return -1;
+        return read(b, off, len);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = Math.min(n, limit - position);
+        position += (int) skipped;
+        if (skipped < n) skipped += in.skip(n - skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (limit - position) + in.available();
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int count = read(b, off, len);
+            if (count < 0) throw new EOFException();
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public int skipBytes(int n) throws IOException {
+        return (int) skip(n);
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return readUnsignedByte() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        return (byte) readUnsignedByte();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        if (position == limit && !fill()) throw new EOFException();
+        return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        return (short) readUnsignedShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return (readUnsignedByte() << 8) | readUnsignedByte();
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        return (char) readUnsignedShort();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        return (readUnsignedShort() << 16) | readUnsignedShort();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c = read();
+        if (c < 0) return null;
+        while (c >= 0 && c != '\n') {
+            if (c != '\r') sb.append((char) c);
+            c = read();
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return readString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) return;
+        try {
+            in.close();
+        } finally {
+            CarmineBufferPool.getInstance().release(buffer);
+            buffer = null;
+        }
+    }
+}
@@ -0,0 +1,566 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static com.norcane.carmine.CarmineBinaryFormat.*;
+
+/**
+ * Implementation of the {@link ObjectOutput} writing objects in the binary
+ * format of the {@link CarmineBinaryCodec}. The output is buffered, so it must
+ * be flushed or closed to write all the data into the underlying stream. The
+ * buffer is acquired from the shared {@link CarmineBufferPool} and returned
+ * back when the output is closed.
+ */
+class CarmineBinaryOutput implements ObjectOutput {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final OutputStream out;
+    private final CarmineSymbols symbols;
+    private byte[] buffer
+            = CarmineBufferPool.getInstance().acquire(BUFFER_SIZE);
+    private int position;
+
+    private Map<Class<?>, Integer> classes;
+    private Map<Object, Integer> handles;
+    private boolean resetPending;
+
+    /**
+     * Constructs new instance writing into the given output stream and writes
+     * the stream header.
+     *
+     * @param out     output stream to write to
+     * @param symbols dictionary of the connection used to write the names
+     *                (may be {@code null})
+     */
+    CarmineBinaryOutput(OutputStream out, CarmineSymbols symbols) {
+        this.out = out;
+        this.symbols = symbols;
+        buffer[position++] = (byte) MAGIC;
+        buffer[position++] = (byte) VERSION;
+    }
+
+    @Override
+    public void writeObject(Object obj) throws IOException {
+        if (resetPending) {
+            resetPending = false;
+            writeByte(RESET);
+        }
+        if (obj == null) {
+            writeByte(NULL);
+            return;
+        }
+
+        Class<?> type = obj.getClass();
+        if (type == String.class) {
+            writeByte(STRING);
+            writeString((String) obj);
+        } else if (type == Integer.class) {
+            writeByte(INT);
+            writeVarInt(zigZag((Integer) obj));
+        } else if (type == Long.class) {
+            writeByte(LONG);
+            writeVarLong(zigZag((Long) obj));
+        } else if (type == Boolean.class) {
+            writeByte((Boolean) obj ? TRUE : FALSE);
+        } else if (type == Double.class) {
+            writeByte(DOUBLE);
+            writeDouble((Double) obj);
+        } else if (type == Float.class) {
+            writeByte(FLOAT);
+            writeFloat((Float) obj);
+        } else if (type == Short.class) {
+            writeByte(SHORT);
+            writeShort((Short) obj);
+        } else if (type == Byte.class) {
+            writeByte(BYTE);
+            writeByte((Byte) obj);
+        } else if (type == Character.class) {
+            writeByte(CHAR);
+            writeChar((Character) obj);
+        } else if (type.isEnum() || (type.getSuperclass() != null
+                && type.getSuperclass().isEnum())) {
+            writeByte(ENUM);
+            writeClass(((Enum<?>) obj).getDeclaringClass());
+            writeName(((Enum<?>) obj).name());
+        } else if (type == CarmineRequest.class) {
+            writeRequest((CarmineRequest) obj);
+        } else if (type == CarmineResponse.class) {
+            writeResponse((CarmineResponse) obj);
+        } else if (type == CarmineBatchRequest.class) {
+            writeBatchRequest((CarmineBatchRequest) obj);
+        } else if (type == CarmineBatchResponse.class) {
+            writeBatchResponse((CarmineBatchResponse) obj);
+        } else if (!writeReference(obj)) {
+            writeTrackedObject(obj, type);
+        }
+    }
+
+    private void writeTrackedObject(Object obj, Class<?> type)
+            throws IOException {
+        if (type.isArray()) {
+            writeArray(obj, type);
+        } else if (type == ArrayList.class) {
+            writeCollection(ARRAY_LIST, (Collection<?>) obj);
+        } else if (type == HashMap.class) {
+            writeMap(HASH_MAP, (Map<?, ?>) obj);
+        } else if (type == HashSet.class) {
+            writeCollection(HASH_SET, (Collection<?>) obj);
+        } else if (type == LinkedHashMap.class) {
+            writeMap(LINKED_HASH_MAP, (Map<?, ?>) obj);
+        } else if (type == LinkedHashSet.class) {
+            writeCollection(LINKED_HASH_SET, (Collection<?>) obj);
+        } else if (type == LinkedList.class) {
+            writeCollection(LINKED_LIST, (Collection<?>) obj);
+        } else if (type == TreeSet.class
+                && ((TreeSet<?>) obj).comparator() == null) {
+            writeCollection(TREE_SET, (Collection<?>) obj);
+        } else if (type == TreeMap.class
+                && ((TreeMap<?, ?>) obj).comparator() == null) {
+            writeMap(TREE_MAP, (Map<?, ?>) obj);
+        } else {
+            ObjectLayout layout = layout(type);
+            if (layout != null) {
+                writePlainObject(obj, type, layout);
+            } else if (obj instanceof Serializable) {
+                writeSerialized(obj);
+            } else {
+                throw new NotSerializableException(type.getName());
+            }
+        }
+    }
+
+    private boolean writeReference(Object obj) throws IOException {
+        if (handles == null) handles = new IdentityHashMap<Object, Integer>();
+
+        Integer handle = handles.get(obj);
+        if (handle != null) {
+            writeByte(REFERENCE);
+            writeVarInt(handle);
+            return true;
+        }
+        handles.put(obj, handles.size());
+        return false;
+    }
+
+    private void writeClass(Class<?> type) throws IOException {
+        writeClass(type, null);
+    }
+
+    private void writeClass(Class<?> type, ObjectLayout layout)
+            throws IOException {
+        if (classes == null) classes = new IdentityHashMap<Class<?>, Integer>();
+
+        Integer index = classes.get(type);
+        if (index != null) {
+            writeVarInt(index + 1);
+        } else {
+            classes.put(type, classes.size());
+            writeVarInt(0);
+            writeName(type.getName());
+            if (layout != null) writeInt(layout.fingerprint);
+        }
+    }
+
+    private void writeRequest(CarmineRequest request) throws IOException {
+        writeByte(REQUEST);
+        writeName(request.getInterfaceName());
+        writeName(request.getMethodName());
+        writeLong(request.getMethodId());
+        writeObjects(request.getMethodArguments());
+        writeProperties(request.getProperties());
+        // remaining time plus one, zero if the request has no deadline
+        long remaining = request.getRemainingTime();
+        writeVarLong((remaining != Long.MAX_VALUE)
+                ? Math.max(0L, remaining) + 1 : 0L);
+    }
+
+    private void writeResponse(CarmineResponse response) throws IOException {
+        writeByte(RESPONSE);
+        writeBoolean(response.isSuccessful());
+        writeObject(response.isSuccessful()
+                ? response.getResult() : response.getException());
+        writeProperties(response.getProperties());
+    }
+
+    private void writeBatchRequest(CarmineBatchRequest request)
+            throws IOException {
+        writeByte(BATCH_REQUEST);
+        writeBoolean(request.isIndependent());
+        writeVarInt(request.getRequests().size());
+        for (CarmineRequest item : request.getRequests()) {
+            writeRequest(item);
+        }
+        writeProperties(request.getProperties());
+    }
+
+    private void writeBatchResponse(CarmineBatchResponse response)
+            throws IOException {
+        writeByte(BATCH_RESPONSE);
+        writeVarInt(response.getResponses().size());
+        for (CarmineResponse item : response.getResponses()) {
+            writeResponse(item);
+        }
+        writeProperties(response.getProperties());
+    }
+
+    private void writeObjects(Object[] objects) throws IOException {
+        if (objects == null) {
+            writeVarInt(0);
+            return;
+        }
+
+        writeVarInt(objects.length + 1);
+        for (Object obj : objects) {
+            writeObject(obj);
+        }
+    }
+
+    private void writeProperties(Map<String, Object> properties)
+            throws IOException {
+        writeVarInt(properties.size());
+        for (Map.Entry<String, Object> entry : properties.entrySet()) {
+            writeName(entry.getKey());
+            writeObject(entry.getValue());
+        }
+    }
+
+    private void writeArray(Object array, Class<?> type) throws IOException {
+        Class<?> componentType = type.getComponentType();
+        if (componentType == Byte.TYPE) {
+            byte[] values = (byte[]) array;
+            writeByte(BYTE_ARRAY);
+            writeVarInt(values.length);
+            write(values);
+        } else if (componentType == Integer.TYPE) {
+            int[] values = (int[]) array;
+            writeByte(INT_ARRAY);
+            writeVarInt(values.length);
+            for (int value : values) writeVarInt(zigZag(value));
+        } else if (componentType == Long.TYPE) {
+            long[] values = (long[]) array;
+            writeByte(LONG_ARRAY);
+            writeVarInt(values.length);
+            for (long value : values) writeVarLong(zigZag(value));
+        } else if (componentType == Double.TYPE) {
+            double[] values = (double[]) array;
+            writeByte(DOUBLE_ARRAY);
+            writeVarInt(values.length);
+            for (double value : values) writeDouble(value);
+        } else if (componentType == Float.TYPE) {
+            float[] values = (float[]) array;
+            writeByte(FLOAT_ARRAY);
+            writeVarInt(values.length);
+            for (float value : values) writeFloat(value);
+        } else if (componentType == Boolean.TYPE) {
+            boolean[] values = (boolean[]) array;
+            writeByte(BOOLEAN_ARRAY);
+            writeVarInt(values.length);
+            for (boolean value : values) writeBoolean(value);
+        } else if (componentType == Character.TYPE) {
+            char[] values = (char[]) array;
+            writeByte(CHAR_ARRAY);
+            writeVarInt(values.length);
+            for (char value : values) writeChar(value);
+        } else if (componentType == Short.TYPE) {
+            short[] values = (short[]) array;
+            writeByte(SHORT_ARRAY);
+            writeVarInt(values.length);
+            for (short value : values) writeShort(value);
+        } else {
+            Object[] values = (Object[]) array;
+            writeByte(OBJECT_ARRAY);
+            writeClass(componentType);
+            writeVarInt(values.length);
+            for (Object value : values) writeObject(value);
+        }
+    }
+
+    private void writeCollection(int tag, Collection<?> collection)
+            throws IOException {
+        writeByte(tag);
+        writeVarInt(collection.size());
+        for (Object element : collection) {
+            writeObject(element);
+        }
+    }
+
+    private void writeMap(int tag, Map<?, ?> map) throws IOException {
+        writeByte(tag);
+        writeVarInt(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeObject(entry.getKey());
+            writeObject(entry.getValue());
+        }
+    }
+
+    private void writePlainObject(Object obj, Class<?> type,
+                                  ObjectLayout layout) throws IOException {
+        writeByte(OBJECT);
+        writeClass(type, layout);
+        try {
+            for (Field field : layout.fields) {
+                Class<?> fieldType = field.getType();
+                if (!fieldType.isPrimitive()) {
+                    writeObject(field.get(obj));
+                } else if (fieldType == Integer.TYPE) {
+                    writeVarInt(zigZag(field.getInt(obj)));
+                } else if (fieldType == Long.TYPE) {
+                    writeVarLong(zigZag(field.getLong(obj)));
+                } else if (fieldType == Boolean.TYPE) {
+                    writeBoolean(field.getBoolean(obj));
+                } else if (fieldType == Double.TYPE) {
+                    writeDouble(field.getDouble(obj));
+                } else if (fieldType == Float.TYPE) {
+                    writeFloat(field.getFloat(obj));
+                } else if (fieldType == Byte.TYPE) {
+                    writeByte(field.getByte(obj));
+                } else if (fieldType == Short.TYPE) {
+                    writeShort(field.getShort(obj));
+                } else {
+                    writeChar(field.getChar(obj));
+                }
+            }
+        } catch (IllegalAccessException ex) {
+            throw new IOException("Cannot read field of " + type.getName(), ex);
+        }
+    }
+
+    private void writeSerialized(Object obj) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream objOut = new ObjectOutputStream(bytes);
+        objOut.writeObject(obj);
+        objOut.close();
+
+        writeByte(SERIALIZED);
+        writeVarInt(bytes.size());
+        flushBuffer();
+        bytes.writeTo(out);
+    }
+
+    private void writeName(String name) throws IOException {
+        if (name == null) {
+            writeVarInt(0);
+            return;
+        }
+        // index plus two, one for the name written in full
+        int index = (symbols != null) ? symbols.index(name) : -1;
+        if (index >= 0) {
+            writeVarInt(index + 2);
+        } else {
+            writeVarInt(1);
+            writeString(name);
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        int length = value.length();
+        writeVarInt(length);
+        for (int i = 0; i < length; i++) {
+            if (position + 3 > BUFFER_SIZE) flushBuffer();
+
+            char c = value.charAt(i);
+            if (c > 0 && c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        if (position + 5 > BUFFER_SIZE) flushBuffer();
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        if (position + 10 > BUFFER_SIZE) flushBuffer();
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (position == BUFFER_SIZE) flushBuffer();
+        buffer[position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len > BUFFER_SIZE - position) {
+            flushBuffer();
+            if (len >= BUFFER_SIZE) {
+                out.write(b, off, len);
+                return;
+            }
+        }
+        System.arraycopy(b, off, buffer, position, len);
+        position += len;
+    }
+
+    @Override
+    public void writeBoolean(boolean v) throws IOException {
+        write(v ? 1 : 0);
+    }
+
+    @Override
+    public void writeByte(int v) throws IOException {
+        write(v);
+    }
+
+    @Override
+    public void writeShort(int v) throws IOException {
+        if (position + 2 > BUFFER_SIZE) flushBuffer();
+        buffer[position++] = (byte) (v >>> 8);
+        buffer[position++] = (byte) v;
+    }
+
+    @Override
+    public void writeChar(int v) throws IOException {
+        writeShort(v);
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        if (position + 4 > BUFFER_SIZE) flushBuffer();
+        buffer[position++] = (byte) (v >>> 24);
+        buffer[position++] = (byte) (v >>> 16);
+        buffer[position++] = (byte) (v >>> 8);
+        buffer[position++] = (byte) v;
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+
+    @Override
+    public void writeFloat(float v) throws IOException {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    @Override
+    public void writeDouble(double v) throws IOException {
+        writeLong(Double.doubleToLongBits(v));
+    }
+
+    @Override
+    public void writeBytes(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            write(s.charAt(i));
+        }
+    }
+
+    @Override
+    public void writeChars(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            writeChar(s.charAt(i));
+        }
+    }
+
+    @Override
+    public void writeUTF(String s) throws IOException {
+        writeString(s);
+    }
+
+    /**
+     * Forgets all the objects written so far, so they are neither referenced
+     * by the objects written later, nor held by this output (which would
+     * otherwise grow with every object written). The input is told to forget
+     * them as well by the reset tag preceding the next object. Classes are
+     * still written only once, their number is limited anyway. Like the
+     * {@link java.io.ObjectOutputStream#reset()}, it must not be called
+     * while an object is being written.
+     */
+    void reset() {
+        if (handles != null && !handles.isEmpty()) {
+            handles.clear();
+            resetPending = true;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) return;
+        try {
+            flush();
+            out.close();
+        } finally {
+            CarmineBufferPool.getInstance().release(buffer);
+            buffer = null;
+        }
+    }
+}
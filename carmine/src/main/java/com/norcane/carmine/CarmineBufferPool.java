@@ -0,0 +1,208 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of reusable byte arrays, used to encode and decode requests and
+ * responses without allocating new buffers for each call. Buffers are pooled
+ * in power-of-two size classes from {@value #MIN_SIZE} bytes to
+ * {@value #MAX_SIZE} bytes, each class holding up to {@value #SLOTS} buffers.
+ * Larger buffers are never pooled. The total size of the buffers retained by
+ * the pool is limited (see {@link #setMaxRetained(long)}), buffers released
+ * above this limit are left to the garbage collector.
+ * <p/>
+ * Buffer acquired by {@link #acquire(int)} is owned by the caller until it is
+ * passed to {@link #release(byte[])}, and must not be used afterwards. Its
+ * content is not cleared, thus it may hold data of the previous owner. All
+ * methods are thread-safe and do not block.
+ * <p/>
+ * <dl>
+ * <dt><b>Example of usage:</b></dt>
+ * <dd><pre><code>
+ * CarmineBufferPool.getInstance().setMaxRetained(64L * 1024 * 1024);
+ * </code></pre></dd>
+ * </dl>
+ */
+public final class CarmineBufferPool {
+
+    /**
+     * Size of the smallest pooled buffer in bytes.
+     */
+    public static final int MIN_SIZE = 512;
+
+    /**
+     * Size of the largest pooled buffer in bytes.
+     */
+    public static final int MAX_SIZE = 1 << 20;
+
+    /**
+     * Default limit of the total size of retained buffers in bytes.
+     */
+    public static final long DEFAULT_MAX_RETAINED = 16L << 20;
+
+    /**
+     * Maximum number of retained buffers of each size class.
+     */
+    public static final int SLOTS = 64;
+
+    private static final int MIN_SHIFT = 9;
+    private static final int CLASSES = 12;
+    private static final CarmineBufferPool INSTANCE = new CarmineBufferPool();
+
+    private final AtomicReferenceArray<byte[]> buffers
+            = new AtomicReferenceArray<byte[]>(CLASSES * SLOTS);
+    private final AtomicLong retained = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile long maxRetained = DEFAULT_MAX_RETAINED;
+
+    /**
+     * Constructs new, empty pool retaining at most
+     * {@value #DEFAULT_MAX_RETAINED} bytes.
+     */
+    public CarmineBufferPool() {
+    }
+
+    /**
+     * Returns the pool shared by all the <i>Carmine</i> components.
+     *
+     * @return shared pool
+     */
+    public static CarmineBufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the buffer of at least the given size, either the pooled one
+     * or newly allocated. Buffers larger than {@value #MAX_SIZE} bytes are
+     * always allocated.
+     *
+     * @param size minimum size of the buffer in bytes
+     * @return buffer of at least the given size
+     */
+    public byte[] acquire(int size) {
+        int sizeClass = sizeClass(size);
+        if (sizeClass < 0) return new byte[size];
+
+        int base = sizeClass * SLOTS;
+        int start = probe();
+        for (int i = 0; i < SLOTS; i++) {
+            int index = base + ((start + i) & (SLOTS - 1));
+            byte[] buffer = buffers.get(index);
+            if (buffer != null && buffers.compareAndSet(index, buffer, null)) {
+                retained.addAndGet(-buffer.length);
+                hits.increment();
+                return buffer;
+            }
+        }
+        misses.increment();
+        return new byte[MIN_SIZE << sizeClass];
+    }
+
+    /**
+     * Returns the buffer previously acquired by {@link #acquire(int)} back to
+     * the pool. Buffers not matching any size class, or exceeding the limit
+     * of retained memory, are dropped.
+     *
+     * @param buffer buffer to release (may be {@code null})
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null) return;
+        int length = buffer.length;
+        int sizeClass = sizeClass(length);
+        if (sizeClass < 0 || (MIN_SIZE << sizeClass) != length) return;
+        if (retained.addAndGet(length) > maxRetained) {
+            retained.addAndGet(-length);
+            return;
+        }
+
+        int base = sizeClass * SLOTS;
+        int start = probe();
+        for (int i = 0; i < SLOTS; i++) {
+            int index = base + ((start + i) & (SLOTS - 1));
+            if (buffers.get(index) == null
+                    && buffers.compareAndSet(index, null, buffer)) {
+                return;
+            }
+        }
+        retained.addAndGet(-length);
+    }
+
+    /**
+     * Returns the limit of the total size of retained buffers.
+     *
+     * @return limit in bytes
+     */
+    public long getMaxRetained() {
+        return maxRetained;
+    }
+
+    /**
+     * Sets the limit of the total size of retained buffers. Setting the limit
+     * to {@code 0} disables pooling. Buffers already retained above the lowered
+     * limit are not dropped, but are not returned to the pool once released.
+     *
+     * @param maxRetained limit in bytes (default is
+     *                    {@value #DEFAULT_MAX_RETAINED})
+     */
+    public void setMaxRetained(long maxRetained) {
+        this.maxRetained = maxRetained;
+    }
+
+    /**
+     * Returns the total size of buffers currently retained by the pool.
+     *
+     * @return retained bytes
+     */
+    public long getRetained() {
+        return retained.get();
+    }
+
+    /**
+     * Returns the number of buffers acquired from the pool.
+     *
+     * @return number of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of buffers allocated because no pooled buffer was
+     * available (larger buffers than {@value #MAX_SIZE} bytes are not
+     * counted).
+     *
+     * @return number of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private static int sizeClass(int size) {
+        if (size > MAX_SIZE) return -1;
+        if (size <= MIN_SIZE) return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    private static int probe() {
+        return (int) Thread.currentThread().getId() & (SLOTS - 1);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * {@link ByteArrayOutputStream} providing direct access to its internal
+ * buffer, so the written data can be sent without copying. The buffer is
+ * acquired from the shared {@link CarmineBufferPool} (and grown by replacing
+ * it by the larger pooled one), and should be returned back by
+ * {@link #release()} once the written data are no longer needed. Streams
+ * which are not released are simply left to the garbage collector.
+ */
+final class CarmineByteArrayOutputStream extends ByteArrayOutputStream {
+
+    private static final byte[] RELEASED = new byte[0];
+
+    private final CarmineBufferPool pool = CarmineBufferPool.getInstance();
+
+    /**
+     * Constructs new instance with the default initial capacity.
+     */
+    CarmineByteArrayOutputStream() {
+        this(CarmineBufferPool.MIN_SIZE);
+    }
+
+    /**
+     * Constructs new instance with the given initial capacity.
+     *
+     * @param size initial capacity in bytes
+     */
+    CarmineByteArrayOutputStream(int size) {
+        super(0);
+        buf = pool.acquire(size);
+    }
+
+    @Override
+    public void write(int b) {
+        if (count == buf.length) grow(count + 1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len > buf.length - count) grow(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    /**
+     * Returns the internal buffer, holding the written data from the index
+     * {@code 0} to the {@link #size()}.
+     *
+     * @return internal buffer
+     */
+    byte[] buffer() {
+        return buf;
+    }
+
+    /**
+     * Returns the internal buffer back to the pool and resets this stream.
+     * The buffer previously returned by {@link #buffer()} must not be used
+     * afterwards. Releasing the stream more than once has no effect.
+     */
+    void release() {
+        byte[] buffer = buf;
+        buf = RELEASED;
+        count = 0;
+        pool.release(buffer);
+    }
+
+    private void grow(int minCapacity) {
+        if (minCapacity < 0) throw new OutOfMemoryError();
+        int capacity = Math.max(buf.length << 1, minCapacity);
+        if (capacity < 0) capacity = minCapacity;
+        byte[] grown = pool.acquire(capacity);
+        System.arraycopy(buf, 0, grown, 0, count);
+        pool.release(buf);
+        buf = grown;
+    }
+}
@@ -0,0 +1,552 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Local side cache of the results of idempotent remote methods, used by the
+ * {@link CarmineManager} (see {@link CarmineManager#setCache(CarmineCache)}).
+ * Only the methods annotated by the {@link CarmineCacheable}, or added by
+ * {@link #addMethod(Class, String, long)}, are cached. Results are cached by
+ * the remote interface, the method, its arguments (compared by
+ * {@link Arrays#deepEquals(Object[], Object[])}) and the properties of the
+ * manager sent with the call, therefore the arguments and the property values
+ * must have proper {@code equals} and {@code hashCode} and must not be
+ * modified afterwards.
+ * <p/>
+ * As the properties are part of the key, the calls made within different
+ * sessions (e.g. the session identifier held in the properties) or on behalf
+ * of different users never share the cached results, so the same cache can
+ * be used by more managers. If the properties contain values that change with
+ * every call, only the properties identifying the caller should be included
+ * (see {@link #setKeyProperties(String...)}).
+ * <p/>
+ * The number of cached results is limited by the maximum size, least
+ * recently used results are evicted first. Each result expires after its
+ * time to live. The remote side can invalidate the cached results (see
+ * {@link CarmineInvoker#invalidateCache(Class)}) by changing the version
+ * properties ({@link #VERSION_PROPERTY}, or the property of the particular
+ * interface, prefixed by {@link #VERSION_PROPERTY} and the dot), which are
+ * sent back with the response to any following call. Note that the local
+ * side whose calls are all answered from the cache receives no response,
+ * so it learns about the invalidation only once some result expires (or a
+ * method which is not cached is called). The results which never expire
+ * (the time to live {@code 0}) are therefore served until evicted, even if
+ * invalidated by the remote side.
+ * <p/>
+ * Every call answered from the cache receives its own copy of the cached
+ * result, created by the codec of the {@link CarmineManager}, so the callers
+ * cannot affect each other (or the cache) by modifying the result. Results
+ * of immutable types ({@link String}, primitive wrappers and enums) are not
+ * copied. If the results of the cached methods are immutable, copying can
+ * be disabled by {@link #setCopyResults(boolean)}, so all the callers share
+ * the same cached instance.
+ */
+public class CarmineCache {
+
+    /**
+     * Default maximum number of cached results.
+     */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /**
+     * Default time to live of cached results in milliseconds.
+     */
+    public static final long DEFAULT_TTL = 60 * 1000L;
+
+    /**
+     * Property holding the version of all the results, changed by the remote
+     * side to invalidate all the cached results. Version of results of the
+     * particular interface is held by the property named by this prefix,
+     * the dot and the fully qualified name of the interface.
+     */
+    public static final String VERSION_PROPERTY = "carmine.cache.version";
+
+    /**
+     * Returned by {@link #get(Key)} if the result is not cached.
+     */
+    static final Object MISSING = new Object();
+
+    private static final long NOT_CACHED = -1L;
+
+    private final int maxSize;
+    private final long defaultTtl;
+    private final LinkedHashMap<Key, Entry> entries
+            = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private final ConcurrentMap<String, Long> methods
+            = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentMap<Method, Long> ttls
+            = new ConcurrentHashMap<Method, Long>();
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile boolean copyResults = true;
+    private volatile Set<String> keyProperties;
+
+    /**
+     * Constructs new instance with the default maximum size
+     * ({@value #DEFAULT_MAX_SIZE}) and time to live ({@value #DEFAULT_TTL}
+     * milliseconds).
+     */
+    public CarmineCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL);
+    }
+
+    /**
+     * Constructs new instance with the given maximum size and default time
+     * to live.
+     *
+     * @param maxSize    maximum number of cached results
+     * @param defaultTtl default time to live of cached results in
+     *                   milliseconds ({@code 0} for no expiration, i.e. the
+     *                   results are not refreshed until evicted, see above)
+     */
+    public CarmineCache(int maxSize, long defaultTtl) {
+        this.maxSize = maxSize;
+        this.defaultTtl = defaultTtl;
+    }
+
+    /**
+     * Returns the maximum number of cached results.
+     *
+     * @return maximum size
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the default time to live of cached results in milliseconds.
+     *
+     * @return default time to live ({@code 0} for no expiration)
+     */
+    public long getDefaultTtl() {
+        return defaultTtl;
+    }
+
+    /**
+     * Returns whether every call answered from the cache receives its own
+     * copy of the cached result.
+     *
+     * @return {@code true} if the results are copied
+     */
+    public boolean isCopyResults() {
+        return copyResults;
+    }
+
+    /**
+     * Sets whether every call answered from the cache receives its own copy
+     * of the cached result (by default {@code true}). Copying should be
+     * disabled only if the results of all the cached methods are immutable,
+     * otherwise the caller modifying the result modifies it for all the
+     * following calls as well. Applies to the results cached afterwards.
+     *
+     * @param copyResults whether to copy the results
+     */
+    public void setCopyResults(boolean copyResults) {
+        this.copyResults = copyResults;
+    }
+
+    /**
+     * Returns the names of the properties the results are cached by.
+     *
+     * @return names of the properties, or {@code null} for all the properties
+     */
+    public Set<String> getKeyProperties() {
+        return keyProperties;
+    }
+
+    /**
+     * Sets the names of the properties the results are cached by (by default
+     * all the properties). The calls differing only in other properties share
+     * the cached results, therefore the given properties must identify the
+     * caller (e.g. the session or the user) if the cache is used by more
+     * managers. Applies to the results cached afterwards.
+     *
+     * @param names names of the properties, or {@code null} for all the
+     *              properties
+     */
+    public void setKeyProperties(String... names) {
+        this.keyProperties = (names != null)
+                ? Collections.unmodifiableSet(
+                new HashSet<String>(Arrays.asList(names))) : null;
+    }
+
+    /**
+     * Marks all the methods of the given name (i.e. all the overloaded
+     * variants) of the given interface as cacheable, the same way as the
+     * {@link CarmineCacheable} annotation does.
+     *
+     * @param theInterface interface of the remote service
+     * @param methodName   name of the method
+     * @param ttl          time to live of cached results in milliseconds
+     *                     ({@code 0} for the default time to live)
+     */
+    public void addMethod(Class<?> theInterface, String methodName, long ttl) {
+        methods.put(theInterface.getName() + "#" + methodName, ttl);
+        ttls.clear();
+    }
+
+    /**
+     * Returns the number of cached results.
+     *
+     * @return number of cached results
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of calls answered from the cache.
+     *
+     * @return number of cache hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of calls of cacheable methods, which have not been
+     * answered from the cache.
+     *
+     * @return number of cache misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of results evicted because the maximum size has
+     * been exceeded.
+     *
+     * @return number of evictions
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Removes all the cached results.
+     */
+    public void invalidate() {
+        synchronized (this) {
+            generation.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    /**
+     * Removes all the cached results of methods of the given interface, i.e.
+     * of the methods called through the proxy of the interface (including the
+     * methods inherited from its super-interfaces) and of the methods
+     * declared by the interface.
+     *
+     * @param theInterface interface of the remote service
+     */
+    public void invalidate(Class<?> theInterface) {
+        invalidate(theInterface.getName());
+    }
+
+    private synchronized void invalidate(String interfaceName) {
+        generation.incrementAndGet();
+        Iterator<Key> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            Key key = keys.next();
+            if (key.interfaceName.equals(interfaceName)
+                    || key.method.getDeclaringClass().getName()
+                    .equals(interfaceName)) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the time to live of results of the given method.
+     *
+     * @param method remote method
+     * @return time to live in milliseconds ({@code 0} for no expiration), or
+     * {@code -1} if the method is not cacheable
+     */
+    long getTtl(Method method) {
+        Long ttl = ttls.get(method);
+        if (ttl == null) {
+            CarmineCacheable annotation
+                    = method.getAnnotation(CarmineCacheable.class);
+            Long configured = methods.get(
+                    method.getDeclaringClass().getName() + "#"
+                            + method.getName());
+            if (annotation != null) {
+                ttl = annotation.unit().toMillis(annotation.value());
+            } else {
+                ttl = (configured != null) ? configured : NOT_CACHED;
+            }
+            if (ttl == 0) ttl = defaultTtl;
+            ttls.put(method, ttl);
+        }
+        return ttl;
+    }
+
+    /**
+     * Returns the generation of the cache, changed by every invalidation.
+     * Results of calls started before the invalidation are not cached.
+     *
+     * @return generation of the cache
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Creates the key of the call of the given method of the given remote
+     * interface (which may be a sub-interface of the declaring class of the
+     * method), with the given arguments and properties.
+     *
+     * @param interfaceName name of the proxied remote interface
+     * @param method        called method
+     * @param args          arguments of the call
+     * @param properties    properties sent with the call
+     * @return key of the call
+     */
+    Key key(String interfaceName, Method method, Object[] args,
+            Map<String, Object> properties) {
+        Set<String> names = keyProperties;
+        if (names != null && properties != null) {
+            Map<String, Object> selected = new HashMap<String, Object>();
+            for (String name : names) {
+                if (properties.containsKey(name)) {
+                    selected.put(name, properties.get(name));
+                }
+            }
+            properties = selected;
+        }
+        return new Key(interfaceName, method, args, properties);
+    }
+
+    /**
+     * Returns the cached result.
+     *
+     * @param key key of the call
+     * @return cached result, or {@link #MISSING} if not cached
+     */
+    Object get(Key key) {
+        Object result = MISSING;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expires != 0
+                        && entry.expires - System.nanoTime() < 0) {
+                    entries.remove(key);
+                } else {
+                    result = entry.value;
+                }
+            }
+        }
+        if (result instanceof Snapshot) {
+            try {
+                result = ((Snapshot) result).restore();
+            } catch (Exception ex) {
+                Logger.getLogger(getClass().getName()).log(Level.WARNING,
+                        "Cached result cannot be restored", ex);
+                synchronized (this) {
+                    entries.remove(key);
+                }
+                result = MISSING;
+            }
+        }
+        if (result != MISSING) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Caches the result of the call, unless the cache has been invalidated
+     * since the call started. Unless the copying is disabled, the result is
+     * held serialized by the given codec, and a new copy is returned by every
+     * {@link #get(Key)}.
+     *
+     * @param key        key of the call
+     * @param value      result of the call
+     * @param ttl        time to live in milliseconds ({@code 0} for no
+     *                   expiration)
+     * @param generation generation of the cache when the call started
+     * @param codec      codec used to copy the result
+     */
+    void put(Key key, Object value, long ttl, long generation,
+             CarmineCodec codec) {
+        if (copyResults && !isImmutable(value)) {
+            try {
+                value = new Snapshot(value, codec);
+            } catch (IOException ex) {
+                Logger.getLogger(getClass().getName()).log(Level.WARNING,
+                        "Result cannot be cached", ex);
+                return;
+            }
+        }
+
+        long expires = (ttl > 0)
+                ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttl) : 0L;
+        if (expires == 0 && ttl > 0) expires = 1;
+
+        synchronized (this) {
+            if (this.generation.get() != generation) return;
+            entries.put(key, new Entry(value, expires));
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (entries.size() > maxSize && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    private static boolean isImmutable(Object value) {
+        return value == null || value instanceof String
+                || value instanceof Boolean || value instanceof Character
+                || value instanceof Enum || (value instanceof Number
+                && value.getClass().getName().startsWith("java.lang."));
+    }
+
+    /**
+     * Invalidates the cached results if the given properties, changed by the
+     * remote side, contain any version property.
+     *
+     * @param changed properties changed by the remote side
+     */
+    void update(Map<String, Object> changed) {
+        for (String name : changed.keySet()) {
+            if (name.equals(VERSION_PROPERTY)) {
+                invalidate();
+            } else if (name.startsWith(VERSION_PROPERTY)
+                    && name.length() > VERSION_PROPERTY.length() + 1
+                    && name.charAt(VERSION_PROPERTY.length()) == '.') {
+                invalidate(name.substring(VERSION_PROPERTY.length() + 1));
+            }
+        }
+    }
+
+    /**
+     * Key of the cached result, i.e. the remote interface, the method, its
+     * arguments and the properties of the call.
+     */
+    static final class Key {
+
+        private final String interfaceName;
+        private final Method method;
+        private final Object[] args;
+        private final Map<String, Object> properties;
+        private final int hash;
+
+        private Key(String interfaceName, Method method, Object[] args,
+                    Map<String, Object> properties) {
+            this.interfaceName = interfaceName;
+            this.method = method;
+            this.args = args;
+            this.properties = properties;
+            int hash = interfaceName.hashCode();
+            hash = 31 * hash + method.hashCode();
+            hash = 31 * hash + Arrays.deepHashCode(args);
+            this.hash = 31 * hash
+                    + ((properties != null) ? properties.hashCode() : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return hash == other.hash
+                    && interfaceName.equals(other.interfaceName)
+                    && method.equals(other.method)
+                    && Arrays.deepEquals(args, other.args)
+                    && (properties != null
+                    ? properties.equals(other.properties)
+                    : other.properties == null);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Cached result serialized by the codec, restored for every call.
+     */
+    private static final class Snapshot {
+
+        private final CarmineCodec codec;
+        private final byte[] bytes;
+
+        Snapshot(Object value, CarmineCodec codec) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ObjectOutput objOut = codec.createOutput(out);
+            objOut.writeObject(value);
+            objOut.close();
+            this.codec = codec;
+            this.bytes = out.toByteArray();
+        }
+
+        Object restore() throws IOException, ClassNotFoundException {
+            ObjectInput in = codec.createInput(
+                    new ByteArrayInputStream(bytes));
+            try {
+                return in.readObject();
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Cached result with the time of its expiration.
+     */
+    private static final class Entry {
+
+        private final Object value;
+        private final long expires;
+
+        Entry(Object value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Marks the idempotent remote method, whose results can be cached on the
+ * local side by the {@link CarmineCache} of the {@link CarmineManager}. The
+ * result is cached for the method and equal arguments, until the time to
+ * live elapses, it is evicted or invalidated by the remote side (see
+ * {@link CarmineInvoker#invalidateCache(Class)}). Only the successful results
+ * are cached, streamed results are never cached. Every call answered from
+ * the cache receives its own copy of the result (see {@link CarmineCache}).
+ * <p/>
+ * <dl>
+ * <dt><b>Example of usage:</b></dt>
+ * <dd><pre><code>
+ * public interface RemoteClass {
+ *     &#64;CarmineCacheable(value = 30, unit = TimeUnit.SECONDS)
+ *     Country findCountry(String code);
+ * }
+ * </code></pre></dd>
+ * </dl>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface CarmineCacheable {
+
+    /**
+     * Time to live of the cached results ({@code 0} for the default time to
+     * live of the cache).
+     *
+     * @return time to live
+     */
+    long value() default 0;
+
+    /**
+     * Unit of the time to live (by default milliseconds).
+     *
+     * @return time unit
+     */
+    TimeUnit unit() default TimeUnit.MILLISECONDS;
+}
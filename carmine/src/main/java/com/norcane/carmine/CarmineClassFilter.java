@@ -0,0 +1,37 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+/**
+ * Decides which classes may be instantiated when reading the objects using
+ * the {@link CarmineBinaryCodec} (see
+ * {@link CarmineBinaryCodec#setClassFilter(CarmineClassFilter)}), the same
+ * way as the {@code ObjectInputFilter} does for the <i>Java</i>
+ * serialization. Implementations must be thread safe.
+ */
+public interface CarmineClassFilter {
+
+    /**
+     * Returns {@code true} if the objects of the given class, read from the
+     * remote side, may be instantiated.
+     *
+     * @param type class of the read object, of the array component or of the
+     *             enum constant
+     * @return {@code true} to accept the class, {@code false} to reject it
+     */
+    boolean accept(Class<?> type);
+}
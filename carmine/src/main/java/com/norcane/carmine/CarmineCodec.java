@@ -0,0 +1,70 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+
+/**
+ * Service provider interface of the serialization codec, used by both local
+ * ({@link CarmineManager}) and remote ({@link CarmineInvoker}) side to write
+ * and read the {@link CarmineRequest} and {@link CarmineResponse} objects
+ * (and all the objects they carry). Every codec is identified by its content
+ * type, which is sent within the request and response headers, so the remote
+ * side can choose the same codec the local side used. The
+ * {@link CarmineJavaCodec} is used as the fallback codec, if no other codec is
+ * specified.
+ * <p/>
+ * Implementations must be thread safe, whereas the created object input and
+ * output are used only by a single thread and only for a single request or
+ * response.
+ */
+public interface CarmineCodec {
+
+    /**
+     * Returns the content type identifying this codec (e.g.
+     * {@code application/x-java-serialized-object}).
+     *
+     * @return content type of this codec
+     */
+    String getContentType();
+
+    /**
+     * Creates new object output, writing the serialized objects into the given
+     * output stream. Closing the object output closes the stream as well.
+     *
+     * @param out output stream to write serialized objects to
+     * @return new object output
+     * @throws IOException thrown if the output cannot be created (e.g. if the
+     *                     stream header cannot be written)
+     */
+    ObjectOutput createOutput(OutputStream out) throws IOException;
+
+    /**
+     * Creates new object input, reading the serialized objects from the given
+     * input stream. Closing the object input closes the stream as well.
+     *
+     * @param in input stream to read serialized objects from
+     * @return new object input
+     * @throws IOException thrown if the input cannot be created (e.g. if the
+     *                     stream header is not valid)
+     */
+    ObjectInput createInput(InputStream in) throws IOException;
+}
@@ -0,0 +1,69 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Service provider interface of the compression of request and response
+ * bodies, used by both local (see
+ * {@link CarmineHttpTransport#setCompression(CarmineCompression)}) and remote
+ * (see {@link CarmineInvoker#addCompression(CarmineCompression)}) side. Every
+ * compression is identified by its content encoding, which is sent within the
+ * {@code Content-Encoding} and {@code Accept-Encoding} headers, so the remote
+ * side can decompress the request and compress the response the same way.
+ * The {@link CarmineGzipCompression} and {@link CarmineDeflateCompression}
+ * are supported by both sides out of the box.
+ * <p/>
+ * Implementations must be thread safe, whereas the created streams are used
+ * only by a single thread and only for a single request or response.
+ */
+public interface CarmineCompression {
+
+    /**
+     * Returns the content encoding identifying this compression (e.g.
+     * {@code gzip}).
+     *
+     * @return content encoding of this compression
+     */
+    String getEncoding();
+
+    /**
+     * Creates new output stream, compressing the data written into the given
+     * output stream. Closing the created stream finishes the compression and
+     * closes the given stream as well.
+     *
+     * @param out output stream to write compressed data to
+     * @return new compressing output stream
+     * @throws IOException thrown if the stream cannot be created
+     */
+    OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * Creates new input stream, decompressing the data read from the given
+     * input stream. Closing the created stream closes the given stream as
+     * well.
+     *
+     * @param in input stream to read compressed data from
+     * @return new decompressing input stream
+     * @throws IOException thrown if the stream cannot be created (e.g. if the
+     *                     compression header is not valid)
+     */
+    InputStream decompress(InputStream in) throws IOException;
+}
@@ -0,0 +1,391 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of persistent (keep-alive) <i>HTTP</i> connections, used by the
+ * {@link CarmineHttpTransport}. Connections are pooled per route (i.e. scheme,
+ * host and port of the remote URL) and the number of connections per route
+ * (either used or idle) is limited. If all the connections of the route are
+ * used, the request waits for the connection to be released, at most for the
+ * configured acquire timeout. Idle connections are closed after the
+ * configured idle timeout, and the idle connections reused after longer
+ * inactivity are checked whether not closed by the remote side.
+ * <p/>
+ * The pool collects simple statistics (number of created, reused and
+ * evicted connections), which can be used to monitor the effectiveness of
+ * connection reuse.
+ * <p/>
+ * The asynchronous requests of the {@link CarmineHttpTransport} use the
+ * non-blocking connections, which are held separately from the pooled ones,
+ * but are limited by the same settings and counted in the same statistics
+ * (except the numbers of leased and idle connections).
+ */
+public class CarmineConnectionPool {
+
+    /**
+     * Default maximum number of connections per route.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+
+    /**
+     * Default idle timeout in milliseconds.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 15000L;
+
+    private static final long VALIDATE_AFTER_INACTIVITY = 2000L;
+
+    private final ConcurrentMap<String, Route> routes
+            = new ConcurrentHashMap<String, Route>();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong reusedCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private volatile int maxConnectionsPerRoute
+            = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private volatile long acquireTimeout;
+    private volatile boolean closed;
+    private ScheduledFuture<?> evictionTask;
+
+    /**
+     * Returns the maximum number of connections (either used or idle) per
+     * route.
+     *
+     * @return maximum number of connections per route
+     */
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /**
+     * Sets the maximum number of connections (either used or idle) per route
+     * (by default {@value #DEFAULT_MAX_CONNECTIONS_PER_ROUTE}). The limit
+     * applies only to routes which haven't been used yet, so it should be set
+     * before the pool is used.
+     *
+     * @param maxConnectionsPerRoute maximum number of connections per route
+     */
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        if (maxConnectionsPerRoute < 1) {
+            throw new IllegalArgumentException(
+                    "Maximum number of connections must be positive");
+        }
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    /**
+     * Returns the time in milliseconds after which the idle connection is
+     * closed.
+     *
+     * @return idle timeout in milliseconds
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds after which the idle connection is closed
+     * (by default {@value #DEFAULT_IDLE_TIMEOUT}). It should be lower than
+     * the keep-alive timeout of the remote server.
+     *
+     * @param idleTimeout idle timeout in milliseconds
+     */
+    public synchronized void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        if (evictionTask != null) {
+            evictionTask.cancel(false);
+            evictionTask = null;
+            scheduleEviction();
+        }
+    }
+
+    /**
+     * Returns the maximum time in milliseconds to wait for the connection, if
+     * all the connections of the route are used ({@code 0} for no timeout).
+     *
+     * @return acquire timeout in milliseconds
+     */
+    public long getAcquireTimeout() {
+        return acquireTimeout;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds to wait for the connection, if all
+     * the connections of the route are used (by default {@code 0}, i.e. no
+     * timeout).
+     *
+     * @param acquireTimeout acquire timeout in milliseconds
+     */
+    public void setAcquireTimeout(long acquireTimeout) {
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    /**
+     * Returns the total number of connections opened by this pool.
+     *
+     * @return number of created connections
+     */
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * Returns the total number of requests which reused already open
+     * connection.
+     *
+     * @return number of connection reuses
+     */
+    public long getReusedCount() {
+        return reusedCount.get();
+    }
+
+    /**
+     * Returns the total number of idle connections closed because of the
+     * idle timeout, or because closed by the remote side.
+     *
+     * @return number of evicted connections
+     */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    /**
+     * Returns the number of connections currently used by requests.
+     *
+     * @return number of used connections
+     */
+    public int getLeasedCount() {
+        int count = 0;
+        for (Route route : routes.values()) {
+            count += route.maxConnections - route.permits.availablePermits();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of idle connections currently held by the pool.
+     *
+     * @return number of idle connections
+     */
+    public int getIdleCount() {
+        int count = 0;
+        for (Route route : routes.values()) {
+            synchronized (route) {
+                count += route.idle.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Acquires the connection for the given URL, either idle connection from
+     * the pool, or new connection.
+     *
+     * @param url            URL of the remote side
+     * @param connectTimeout connect timeout used to open new connection
+     * @return connection for the URL
+     * @throws IOException thrown if no connection is available within the
+     *                     acquire timeout, or new connection cannot be opened
+     */
+    CarmineHttpConnection acquire(URL url, int connectTimeout)
+            throws IOException {
+        if (closed) throw new IOException("Connection pool has been closed");
+
+        String key = CarmineHttpConnection.route(url);
+        Route route = routes.get(key);
+        if (route == null) {
+            route = new Route(maxConnectionsPerRoute);
+            Route existing = routes.putIfAbsent(key, route);
+            if (existing != null) route = existing;
+            scheduleEviction();
+        }
+
+        try {
+            if (acquireTimeout <= 0) {
+                route.permits.acquire();
+            } else if (!route.permits.tryAcquire(
+                    acquireTimeout, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timeout waiting for connection to "
+                        + key + " (all " + route.maxConnections
+                        + " connections are used)");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while waiting for connection to " + key);
+        }
+
+        try {
+            CarmineHttpConnection connection;
+            while ((connection = route.pollIdle()) != null) {
+                long idleTime = System.currentTimeMillis()
+                        - connection.getLastUsed();
+                if (idleTime > idleTimeout || (idleTime
+                        > VALIDATE_AFTER_INACTIVITY && connection.isStale())) {
+                    connection.close();
+                    evictedCount.incrementAndGet();
+                } else {
+                    reusedCount.incrementAndGet();
+                    return connection;
+                }
+            }
+
+            connection = CarmineHttpConnection.open(url, key, connectTimeout);
+            createdCount.incrementAndGet();
+            return connection;
+        } catch (IOException ex) {
+            route.permits.release();
+            throw ex;
+        } catch (RuntimeException ex) {
+            route.permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the connection acquired by the
+     * {@link #acquire(URL, int)} back to the pool.
+     *
+     * @param connection connection to return
+     * @param reusable   whether the connection can be reused by other
+     *                   requests (if not, the connection is closed)
+     */
+    void release(CarmineHttpConnection connection, boolean reusable) {
+        Route route = routes.get(connection.getRoute());
+        if (reusable && !closed && !connection.isClosed() && route != null) {
+            synchronized (route) {
+                route.idle.addFirst(connection);
+            }
+        } else {
+            connection.close();
+        }
+        if (route != null) route.permits.release();
+    }
+
+    /**
+     * Counts the connection opened outside the pool (see
+     * {@link CarmineHttpSelector}).
+     */
+    void countCreated() {
+        createdCount.incrementAndGet();
+    }
+
+    /**
+     * Counts the connection reused outside the pool.
+     */
+    void countReused() {
+        reusedCount.incrementAndGet();
+    }
+
+    /**
+     * Counts the idle connection evicted outside the pool.
+     */
+    void countEvicted() {
+        evictedCount.incrementAndGet();
+    }
+
+    /**
+     * Closes all idle connections whose idle timeout has expired.
+     */
+    public void closeExpired() {
+        long expiredBefore = System.currentTimeMillis() - idleTimeout;
+        for (Route route : routes.values()) {
+            synchronized (route) {
+                Iterator<CarmineHttpConnection> it
+                        = route.idle.descendingIterator();
+                while (it.hasNext()) {
+                    CarmineHttpConnection connection = it.next();
+                    if (connection.getLastUsed() >= expiredBefore) break;
+                    it.remove();
+                    connection.close();
+                    evictedCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes all idle connections and the pool itself. Connections currently
+     * used are closed once they are released.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (evictionTask != null) evictionTask.cancel(false);
+
+        for (Route route : routes.values()) {
+            synchronized (route) {
+                for (CarmineHttpConnection connection : route.idle) {
+                    connection.close();
+                }
+                route.idle.clear();
+            }
+        }
+    }
+
+    /*
+     * The eviction task references the pool only weakly, so the pool which
+     * hasn't been closed explicitly can still be garbage collected.
+     */
+    private synchronized void scheduleEviction() {
+        if (evictionTask != null || closed) return;
+
+        final WeakReference<CarmineConnectionPool> poolRef
+                = new WeakReference<CarmineConnectionPool>(this);
+        long period = Math.max(idleTimeout / 2, 100L);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                CarmineConnectionPool pool = poolRef.get();
+                if (pool == null) throw new IllegalStateException("Pool collected");
+                pool.closeExpired();
+            }
+        };
+        evictionTask = CarmineScheduler.get().scheduleWithFixedDelay(
+                task, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private static final class Route {
+
+        final int maxConnections;
+        final Semaphore permits;
+        final Deque<CarmineHttpConnection> idle
+                = new ArrayDeque<CarmineHttpConnection>();
+
+        Route(int maxConnections) {
+            this.maxConnections = maxConnections;
+            this.permits = new Semaphore(maxConnections);
+        }
+
+        synchronized CarmineHttpConnection pollIdle() {
+            return idle.pollFirst();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Implementation of the {@link CarmineCompression} using the <i>deflate</i>
+ * format (i.e. <i>zlib</i> format as specified for the <i>HTTP</i>
+ * {@code deflate} content encoding).
+ */
+public class CarmineDeflateCompression implements CarmineCompression {
+
+    /**
+     * Content encoding of the <i>deflate</i> compression.
+     */
+    public static final String ENCODING = "deflate";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int level;
+
+    /**
+     * Constructs new instance using the default compression level.
+     */
+    public CarmineDeflateCompression() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Constructs new instance using the given compression level (from
+     * {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}, or
+     * {@link Deflater#DEFAULT_COMPRESSION}).
+     *
+     * @param level compression level
+     */
+    public CarmineDeflateCompression(int level) {
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException(
+                    "Invalid compression level: " + level);
+        }
+        this.level = level;
+    }
+
+    /**
+     * Returns the compression level.
+     *
+     * @return compression level
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public String getEncoding() {
+        return ENCODING;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) throws IOException {
+        final Deflater deflater = new Deflater(level);
+        return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+        final Inflater inflater = new Inflater();
+        return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Serialized (and possibly compressed) response body, returned by the
+ * {@link CarmineInvoker#processRequest(java.io.InputStream, String, String,
+ * String)} together with the values of the headers, which must be sent with
+ * it (i.e. {@code Content-Type}, {@code Content-Encoding} and
+ * {@code Content-Length}). The body of the response with the streamed result
+ * is not known in advance, it is produced while written by
+ * {@link #writeTo(OutputStream)}, and its content length is {@code -1} (the
+ * response should be then sent using the chunked transfer encoding, which
+ * is the default behavior of the servlet containers).
+ */
+public class CarmineEncodedResponse {
+
+    /**
+     * Name of the header carrying the content type of the body.
+     */
+    public static final String CONTENT_TYPE = CarmineHeaders.CONTENT_TYPE;
+
+    /**
+     * Name of the header carrying the content encoding of the body.
+     */
+    public static final String CONTENT_ENCODING
+            = CarmineHeaders.CONTENT_ENCODING;
+
+    /**
+     * Name of the header carrying the content encodings accepted by the
+     * local side.
+     */
+    public static final String ACCEPT_ENCODING
+            = CarmineHeaders.ACCEPT_ENCODING;
+
+    private final String contentType;
+    private final String contentEncoding;
+    private final byte[] body;
+    private final int length;
+
+    /**
+     * Constructs new immutable instance with given content type, content
+     * encoding and body.
+     *
+     * @param contentType     content type of the body
+     * @param contentEncoding content encoding of the body ({@code null} if
+     *                        not encoded)
+     * @param body            array holding the body
+     * @param length          length of the body
+     */
+    public CarmineEncodedResponse(String contentType, String contentEncoding,
+                                  byte[] body, int length) {
+        this.contentType = contentType;
+        this.contentEncoding = contentEncoding;
+        this.body = body;
+        this.length = length;
+    }
+
+    /**
+     * Constructs new instance of the response with given content type, whose
+     * body is produced by the overridden {@link #writeTo(OutputStream)}.
+     *
+     * @param contentType content type of the body
+     */
+    protected CarmineEncodedResponse(String contentType) {
+        this(contentType, null, null, -1);
+    }
+
+    /**
+     * Returns the content type of the body (i.e. content type of the codec).
+     *
+     * @return content type
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Returns the content encoding of the body, or {@code null} if the body
+     * is not compressed.
+     *
+     * @return content encoding or {@code null}
+     */
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * Returns the length of the body in bytes, or {@code -1} if the length
+     * is not known in advance (i.e. the result is streamed).
+     *
+     * @return content length or {@code -1}
+     */
+    public int getContentLength() {
+        return length;
+    }
+
+    /**
+     * Writes the body into the given output stream. The response returned by
+     * the {@link CarmineInvoker} releases its pooled buffer (see
+     * {@link CarmineBufferPool}) once written, therefore it can be written
+     * only once.
+     *
+     * @param out output stream to write the body to
+     * @throws IOException thrown if writing fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(body, 0, length);
+    }
+}
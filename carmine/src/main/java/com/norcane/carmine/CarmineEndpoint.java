@@ -0,0 +1,194 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remote endpoint of the {@link CarmineBalancedTransport}, i.e. the transport
+ * to a single remote node together with the statistics used by the
+ * {@link CarmineBalancer} to choose the endpoint for the request: number of
+ * outstanding requests, moving average of the latency and the health of the
+ * endpoint. The endpoint failing repeatedly is ejected for a while, i.e. it
+ * does not receive any requests unless all the other endpoints are ejected as
+ * well. Once the ejection time elapses, the endpoint receives requests again,
+ * but it is ejected again after the first failure, until its request
+ * succeeds.
+ */
+public class CarmineEndpoint {
+
+    private final CarmineTransport transport;
+    private final String name;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong latency = new AtomicLong();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder ejections = new LongAdder();
+    private volatile long ejectedUntil;
+    private volatile boolean ejected;
+
+    /**
+     * Constructs new endpoint using the given transport.
+     *
+     * @param transport transport to the remote node
+     * @param name      name of the endpoint (e.g. its URL)
+     */
+    CarmineEndpoint(CarmineTransport transport, String name) {
+        this.transport = transport;
+        this.name = name;
+    }
+
+    /**
+     * Returns the transport to the remote node.
+     *
+     * @return transport
+     */
+    public CarmineTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Returns the name of the endpoint.
+     *
+     * @return name of the endpoint
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of requests sent to the endpoint and not completed
+     * yet.
+     *
+     * @return number of outstanding requests
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * Returns the exponentially weighted moving average of the latency of the
+     * successful requests.
+     *
+     * @return average latency in nanoseconds ({@code 0} if not known yet)
+     */
+    public long getLatency() {
+        return latency.get();
+    }
+
+    /**
+     * Returns the total number of requests sent to the endpoint.
+     *
+     * @return number of requests
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * Returns the total number of failed requests.
+     *
+     * @return number of failed requests
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * Returns how many times was the endpoint ejected.
+     *
+     * @return number of ejections
+     */
+    public long getEjections() {
+        return ejections.sum();
+    }
+
+    /**
+     * Returns {@code true} if the endpoint is currently ejected because of
+     * its failures.
+     *
+     * @return {@code true} if ejected
+     */
+    public boolean isEjected() {
+        return ejected && ejectedUntil - System.nanoTime() > 0;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Called before the request is sent to the endpoint.
+     *
+     * @return start time of the request
+     */
+    long started() {
+        outstanding.incrementAndGet();
+        requests.increment();
+        return System.nanoTime();
+    }
+
+    /**
+     * Called when the request succeeds, i.e. the response is received.
+     *
+     * @param start start time of the request
+     */
+    void succeeded(long start) {
+        long sample = System.nanoTime() - start;
+        outstanding.decrementAndGet();
+        consecutiveFailures.set(0);
+        ejected = false;
+
+        // moving average with weight 1/4 of the new sample
+        long current;
+        long next;
+        do {
+            current = latency.get();
+            next = (current == 0) ? sample : current + (sample - current) / 4;
+        } while (!latency.compareAndSet(current, next));
+    }
+
+    /**
+     * Called when the request fails because of the communication error.
+     *
+     * @param threshold     number of consecutive failures ejecting the
+     *                      endpoint
+     * @param ejectionNanos time of the ejection in nanoseconds
+     */
+    void failed(int threshold, long ejectionNanos) {
+        outstanding.decrementAndGet();
+        failures.increment();
+        if (consecutiveFailures.incrementAndGet() >= threshold
+                && !isEjected()) {
+            ejectedUntil = System.nanoTime() + ejectionNanos;
+            ejected = true;
+            ejections.increment();
+        }
+    }
+
+    /**
+     * Called when the request completes without telling anything about the
+     * health of the endpoint (e.g. it has been cancelled).
+     */
+    void completed() {
+        outstanding.decrementAndGet();
+    }
+}
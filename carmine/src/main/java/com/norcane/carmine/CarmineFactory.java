@@ -0,0 +1,39 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.util.Map;
+
+/**
+ * Creates new instances of the remote service implementation, used by the
+ * {@link CarmineProvider} implementations (e.g.
+ * {@code properties -> new RemoteTestImpl()}).
+ *
+ * @param <T> type of the created instances
+ */
+public interface CarmineFactory<T> {
+
+    /**
+     * Creates new instance of the remote service implementation.
+     *
+     * @param properties properties map shared within the communication, for
+     *                   which the instance is created
+     * @return new implementation instance
+     * @throws Exception thrown if the instance cannot be created
+     */
+    T create(Map<String, Object> properties) throws Exception;
+}
@@ -0,0 +1,292 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Frame of the multiplexed protocol used by the {@link CarmineMuxTransport}
+ * and the {@link CarmineMuxServer}. Each frame carries the single request or
+ * response, identified by the correlation identifier chosen by the local
+ * side, so more calls can be in progress over the same connection and their
+ * responses can be sent in any order. The frame consists of:
+ * <ul>
+ * <li>length of the rest of the frame ({@code int})</li>
+ * <li>correlation identifier ({@code long})</li>
+ * <li>length of the content type ({@code short}) and the content type
+ * itself (UTF-8), empty content type marks the failure of the remote side,
+ * described by the body</li>
+ * <li>body serialized by the codec of the content type</li>
+ * </ul>
+ * Frames with the {@link #SYMBOLS} content type are not dispatched to the
+ * calls, they define the names of the {@link CarmineSymbols} dictionary of
+ * the connection (the index of the first name as {@code int}, followed by
+ * the names written by {@link DataOutputStream#writeUTF(String)}).
+ * <p/>
+ * The length of the read frame is limited, longer frames are skipped without
+ * reading their body into the memory (see {@link #isTooLarge()}). The body is
+ * read in chunks, so the memory is allocated only as the data arrive.
+ */
+final class CarmineFrame {
+
+    /**
+     * Default maximum length of the read frame in bytes.
+     */
+    static final int DEFAULT_MAX_LENGTH = 16 << 20;
+
+    /**
+     * Content type of the frame defining the names of the dictionary.
+     */
+    static final String SYMBOLS = "application/x-carmine-symbols";
+
+    private static final int HEADER_LENGTH = 10;
+    private static final int CHUNK = 64 * 1024;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final long id;
+    private final String contentType;
+    private final byte[] body;
+    private final int offset;
+    private final CarmineSymbols symbols;
+    private final boolean tooLarge;
+
+    private CarmineFrame(long id, String contentType, byte[] body,
+                         int offset, CarmineSymbols symbols,
+                         boolean tooLarge) {
+        this.id = id;
+        this.contentType = contentType;
+        this.body = body;
+        this.offset = offset;
+        this.symbols = symbols;
+        this.tooLarge = tooLarge;
+    }
+
+    /**
+     * Returns the correlation identifier of the frame.
+     *
+     * @return correlation identifier
+     */
+    long getId() {
+        return id;
+    }
+
+    /**
+     * Returns the content type of the body, empty for the failure.
+     *
+     * @return content type
+     */
+    String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Returns {@code true} if the frame exceeded the maximum length, so its
+     * body has been skipped (and is empty).
+     *
+     * @return {@code true} if the frame has been too large
+     */
+    boolean isTooLarge() {
+        return tooLarge;
+    }
+
+    /**
+     * Returns the dictionary of the connection the frame has been read from.
+     *
+     * @return dictionary of the connection
+     */
+    CarmineSymbols getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Returns the length of the body in bytes.
+     *
+     * @return length of the body
+     */
+    int getLength() {
+        return body.length - offset;
+    }
+
+    /**
+     * Returns the body of the frame.
+     *
+     * @return input stream reading the body
+     */
+    InputStream getBody() {
+        return new ByteArrayInputStream(body, offset, body.length - offset);
+    }
+
+    /**
+     * Returns the message of the failure frame.
+     *
+     * @return failure message
+     */
+    String getFailure() {
+        return new String(body, offset, body.length - offset,
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the next frame, registering the names defined by the preceding
+     * frames into the dictionary of the connection.
+     *
+     * @param in        input stream of the connection
+     * @param symbols   dictionary of the connection
+     * @param maxLength maximum length of the frame in bytes
+     * @return read frame or {@code null} if the connection has been closed
+     * @throws IOException thrown if reading fails or the frame is corrupted
+     */
+    static CarmineFrame read(DataInputStream in, CarmineSymbols symbols,
+                             int maxLength) throws IOException {
+        CarmineFrame frame;
+        while ((frame = read(in, maxLength)) != null
+                && SYMBOLS.equals(frame.contentType)) {
+            if (frame.tooLarge) {
+                throw new IOException("Dictionary frame too large");
+            }
+            symbols.define(frame.body, frame.offset);
+        }
+        return (frame != null) ? new CarmineFrame(frame.id, frame.contentType,
+                frame.body, frame.offset, symbols, frame.tooLarge) : null;
+    }
+
+    private static CarmineFrame read(DataInputStream in, int maxLength)
+            throws IOException {
+        int first = in.read();
+        if (first < 0) return null;
+        try {
+            int length = (first << 24) | (in.readUnsignedByte() << 16)
+                    | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+            if (length < HEADER_LENGTH) {
+                throw new IOException("Invalid frame length: " + length);
+            }
+            long id = in.readLong();
+            int typeLength = in.readUnsignedShort();
+            if (typeLength > length - HEADER_LENGTH) {
+                throw new IOException("Invalid content type length: "
+                        + typeLength);
+            }
+            if (length > maxLength) {
+                byte[] type = new byte[typeLength];
+                in.readFully(type);
+                skip(in, length - HEADER_LENGTH - typeLength);
+                return new CarmineFrame(id, new String(type,
+                        StandardCharsets.UTF_8), EMPTY, 0, null, true);
+            }
+
+            // the content type is kept in the same array as the body
+            byte[] data = readFully(in, length - HEADER_LENGTH);
+            String contentType = new String(
+                    data, 0, typeLength, StandardCharsets.UTF_8);
+            return new CarmineFrame(
+                    id, contentType, data, typeLength, null, false);
+        } catch (EOFException ex) {
+            throw new EOFException("Connection closed within the frame");
+        }
+    }
+
+    /**
+     * Reads the given number of bytes, growing the array as the data arrive,
+     * so the corrupted length does not allocate the memory up front.
+     */
+    private static byte[] readFully(InputStream in, int length)
+            throws IOException {
+        byte[] data = new byte[Math.min(length, CHUNK)];
+        int count = 0;
+        while (count < length) {
+            if (count == data.length) {
+                data = Arrays.copyOf(data,
+                        (int) Math.min(length, 2L * data.length));
+            }
+            int read = in.read(data, count, data.length - count);
+            if (read < 0) throw new EOFException();
+            count += read;
+        }
+        return data;
+    }
+
+    private static void skip(InputStream in, long length) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(length, CHUNK)];
+        while (length > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(length, CHUNK));
+            if (read < 0) throw new EOFException();
+            length -= read;
+        }
+    }
+
+    /**
+     * Writes the frame (without flushing the stream).
+     *
+     * @param out         output stream of the connection
+     * @param id          correlation identifier
+     * @param contentType content type of the body
+     * @param body        body of the frame
+     * @param length      length of the body
+     * @throws IOException thrown if writing fails
+     */
+    static void write(DataOutputStream out, long id, String contentType,
+                      byte[] body, int length) throws IOException {
+        byte[] type = contentType.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(HEADER_LENGTH + type.length + length);
+        out.writeLong(id);
+        out.writeShort(type.length);
+        out.write(type);
+        out.write(body, 0, length);
+    }
+
+    /**
+     * Writes the frame describing the failure of the remote side.
+     *
+     * @param out     output stream of the connection
+     * @param id      correlation identifier
+     * @param message failure message
+     * @throws IOException thrown if writing fails
+     */
+    static void writeFailure(DataOutputStream out, long id, String message)
+            throws IOException {
+        byte[] body = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        write(out, id, "", body, body.length);
+    }
+
+    /**
+     * Writes the frame defining the names of the dictionary.
+     *
+     * @param out   output stream of the connection
+     * @param first index of the first name
+     * @param names names to define
+     * @throws IOException thrown if writing fails
+     */
+    static void writeSymbols(DataOutputStream out, int first,
+                             List<String> names) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(body);
+        data.writeInt(first);
+        for (String name : names) {
+            data.writeUTF(name);
+        }
+        write(out, 0L, SYMBOLS, body.toByteArray(), body.size());
+    }
+}
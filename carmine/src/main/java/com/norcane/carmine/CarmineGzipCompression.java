@@ -0,0 +1,90 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Implementation of the {@link CarmineCompression} using the <i>gzip</i>
+ * format ({@link GZIPOutputStream} and {@link GZIPInputStream}).
+ */
+public class CarmineGzipCompression implements CarmineCompression {
+
+    /**
+     * Content encoding of the <i>gzip</i> compression.
+     */
+    public static final String ENCODING = "gzip";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int level;
+
+    /**
+     * Constructs new instance using the default compression level.
+     */
+    public CarmineGzipCompression() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Constructs new instance using the given compression level (from
+     * {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}, or
+     * {@link Deflater#DEFAULT_COMPRESSION}).
+     *
+     * @param level compression level
+     */
+    public CarmineGzipCompression(int level) {
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException(
+                    "Invalid compression level: " + level);
+        }
+        this.level = level;
+    }
+
+    /**
+     * Returns the compression level.
+     *
+     * @return compression level
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public String getEncoding() {
+        return ENCODING;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) throws IOException {
+        return new GZIPOutputStream(out, BUFFER_SIZE) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+        return new GZIPInputStream(in, BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Names of the HTTP headers used by <i>Carmine</i> and helper methods to work
+ * with their values.
+ */
+final class CarmineHeaders {
+
+    static final String CONTENT_TYPE = "Content-Type";
+    static final String CONTENT_LENGTH = "Content-Length";
+    static final String CONTENT_ENCODING = "Content-Encoding";
+    static final String ACCEPT_ENCODING = "Accept-Encoding";
+    static final String IDENTITY = "identity";
+
+    private CarmineHeaders() {
+    }
+
+    /**
+     * Returns the media type of the given content type header value, i.e. the
+     * value without parameters (e.g. {@code charset}), trimmed and in lower
+     * case.
+     *
+     * @param contentType content type header value (may be {@code null})
+     * @return media type or {@code null} if the value is {@code null}
+     */
+    static String mediaType(String contentType) {
+        if (contentType == null) return null;
+
+        int index = contentType.indexOf(';');
+        if (index >= 0) contentType = contentType.substring(0, index);
+        return contentType.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns the content encoding header value trimmed and in lower case, or
+     * {@code null} for no encoding (i.e. {@code identity}).
+     *
+     * @param contentEncoding content encoding header value (may be
+     *                        {@code null})
+     * @return content encoding or {@code null} if not encoded
+     */
+    static String encoding(String contentEncoding) {
+        if (contentEncoding == null) return null;
+
+        String encoding = contentEncoding.trim().toLowerCase(Locale.ROOT);
+        return (encoding.isEmpty() || encoding.equals(IDENTITY))
+                ? null : encoding;
+    }
+
+    /**
+     * Returns the content encodings listed in the accept encoding header
+     * value, in the listed order, trimmed and in lower case. Encodings with
+     * zero quality (i.e. not acceptable) are omitted.
+     *
+     * @param acceptEncoding accept encoding header value (may be
+     *                       {@code null})
+     * @return list of acceptable content encodings
+     */
+    static List<String> acceptedEncodings(String acceptEncoding) {
+        if (acceptEncoding == null) return Collections.emptyList();
+
+        List<String> encodings = new ArrayList<String>();
+        for (String item : acceptEncoding.split(",")) {
+            String[] parts = item.split(";");
+            String encoding = parts[0].trim().toLowerCase(Locale.ROOT);
+            boolean acceptable = !encoding.isEmpty();
+            for (int i = 1; i < parts.length && acceptable; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        acceptable = Double.parseDouble(
+                                parameter.substring(2)) > 0;
+                    } catch (NumberFormatException ex) {
+                        acceptable = false;
+                    }
+                }
+            }
+            if (acceptable) encodings.add(encoding);
+        }
+        return encodings;
+    }
+}
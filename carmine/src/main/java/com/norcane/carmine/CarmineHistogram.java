@@ -0,0 +1,184 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe histogram of latencies in nanoseconds, with the fixed number of
+ * log-linear buckets: every power of two range is divided into 16 buckets,
+ * so the values are recorded with the relative precision of about 6%, up to
+ * {@link #MAX_VALUE} nanoseconds (larger values are recorded as the maximum
+ * one). Recording the value does not allocate any memory and takes only few
+ * atomic operations, so the histogram can be updated on every call.
+ */
+public final class CarmineHistogram {
+
+    /**
+     * Maximum value distinguished by the histogram (about 18 minutes in
+     * nanoseconds).
+     */
+    public static final long MAX_VALUE = (1L << 40) - 1;
+
+    /**
+     * Number of buckets of the histogram.
+     */
+    public static final int BUCKETS = bucket(MAX_VALUE) + 1;
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records the given value.
+     *
+     * @param value value in nanoseconds (negative values are recorded as
+     *              {@code 0})
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        total.add(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return number of recorded values
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the sum of all recorded values.
+     *
+     * @return sum of recorded values in nanoseconds
+     */
+    public long getTotal() {
+        return total.sum();
+    }
+
+    /**
+     * Returns the maximum recorded value.
+     *
+     * @return maximum value in nanoseconds ({@code 0} if empty)
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean of recorded values.
+     *
+     * @return mean value in nanoseconds ({@code 0} if empty)
+     */
+    public double getMean() {
+        long count = getCount();
+        return (count > 0) ? (double) getTotal() / count : 0;
+    }
+
+    /**
+     * Returns the value below which the given percentage of recorded values
+     * falls, i.e. the upper bound of the bucket containing such value (but
+     * not more than the maximum recorded value).
+     *
+     * @param percentile percentile between {@code 0} and {@code 100} (e.g.
+     *                   {@code 99.9})
+     * @return value at the given percentile in nanoseconds ({@code 0} if
+     * empty)
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(
+                Math.min(100, Math.max(0, percentile)) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(getMax(), upperBound(i));
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Returns the number of values recorded in the given bucket.
+     *
+     * @param bucket bucket index, between {@code 0} and
+     *               {@link #BUCKETS}{@code - 1}
+     * @return number of values in the bucket
+     */
+    public long getCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    /**
+     * Returns the lowest value recorded in the given bucket.
+     *
+     * @param bucket bucket index, between {@code 0} and
+     *               {@link #BUCKETS}{@code - 1}
+     * @return lower bound of the bucket in nanoseconds (inclusive)
+     */
+    public static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+        return ((long) bucket - ((long) shift << SUB_BUCKET_BITS)) << shift;
+    }
+
+    /**
+     * Returns the highest value recorded in the given bucket.
+     *
+     * @param bucket bucket index, between {@code 0} and
+     *               {@link #BUCKETS}{@code - 1}
+     * @return upper bound of the bucket in nanoseconds (inclusive)
+     */
+    public static long upperBound(int bucket) {
+        return (bucket < BUCKETS - 1) ? lowerBound(bucket + 1) - 1 : MAX_VALUE;
+    }
+
+    /**
+     * Returns the index of the bucket for the given value.
+     *
+     * @param value non-negative value in nanoseconds
+     * @return bucket index
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        if (value > MAX_VALUE) value = MAX_VALUE;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+}
@@ -0,0 +1,596 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Persistent <i>HTTP/1.1</i> connection to the remote side, used by the
+ * {@link CarmineHttpTransport} and pooled by the
+ * {@link CarmineConnectionPool}. Connection is not thread safe and is always
+ * used only by a single request at a time.
+ */
+class CarmineHttpConnection {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_DRAIN = 64 * 1024;
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_HEADERS = 100;
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final String route;
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private long lastUsed;
+    private int useCount;
+    private boolean responseStarted;
+    private volatile boolean closed;
+
+    private CarmineHttpConnection(String route, Socket socket)
+            throws IOException {
+        this.route = route;
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+        this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Opens new connection to the host specified by the given URL (either
+     * plain or <i>TLS</i> connection, depending on the URL protocol).
+     *
+     * @param url            URL of the remote side
+     * @param route          route (scheme, host and port) of the URL
+     * @param connectTimeout connect timeout in milliseconds ({@code 0} for no
+     *                       timeout)
+     * @return open connection
+     * @throws IOException thrown if the connection cannot be opened
+     */
+    static CarmineHttpConnection open(URL url, String route, int connectTimeout)
+            throws IOException {
+        String host = host(url);
+        int port = port(url);
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(host, port), connectTimeout);
+
+            if (isSecure(url)) {
+                SSLSocketFactory factory
+                        = (SSLSocketFactory) SSLSocketFactory.getDefault();
+                SSLSocket sslSocket = (SSLSocket) factory.createSocket(
+                        socket, host, port, true);
+                SSLParameters parameters = sslSocket.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                sslSocket.setSSLParameters(parameters);
+                sslSocket.startHandshake();
+                socket = sslSocket;
+            }
+            return new CarmineHttpConnection(route, socket);
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the route (scheme, host and port) of the given URL, used to
+     * identify the connections which can be reused for the URL.
+     *
+     * @param url URL to return the route for
+     * @return route of the URL
+     */
+    static String route(URL url) {
+        return url.getProtocol().toLowerCase(Locale.ROOT) + "://"
+                + host(url).toLowerCase(Locale.ROOT) + ":" + port(url);
+    }
+
+    /**
+     * Resolves the address of the remote side of the given URL.
+     *
+     * @param url URL to resolve the address of
+     * @return resolved address
+     * @throws IOException thrown if the host cannot be resolved
+     */
+    static InetSocketAddress address(URL url) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(host(url), port(url));
+        if (address.isUnresolved()) {
+            throw new UnknownHostException(host(url));
+        }
+        return address;
+    }
+
+    static boolean isSecure(URL url) {
+        return "https".equalsIgnoreCase(url.getProtocol());
+    }
+
+    private static String host(URL url) {
+        String host = url.getHost();
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        return host;
+    }
+
+    private static int port(URL url) {
+        return (url.getPort() != -1) ? url.getPort() : url.getDefaultPort();
+    }
+
+    /**
+     * Returns the route of this connection.
+     *
+     * @return route of this connection
+     */
+    String getRoute() {
+        return route;
+    }
+
+    /**
+     * Returns the time when the connection was used for the last time.
+     *
+     * @return time of last use in milliseconds
+     */
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    /**
+     * Returns {@code true} if the connection has been already used by some
+     * previous request.
+     *
+     * @return {@code true} if the connection is reused
+     */
+    boolean isReused() {
+        return useCount > 0;
+    }
+
+    /**
+     * Returns {@code true} if at least one byte of the response to the current
+     * request has been received.
+     *
+     * @return {@code true} if the response has been started
+     */
+    boolean isResponseStarted() {
+        return responseStarted;
+    }
+
+    /**
+     * Sets the timeout of reading the response.
+     *
+     * @param readTimeout read timeout in milliseconds ({@code 0} for no
+     *                    timeout)
+     * @throws IOException thrown if the timeout cannot be set
+     */
+    void setReadTimeout(int readTimeout) throws IOException {
+        socket.setSoTimeout(readTimeout);
+    }
+
+    /**
+     * Checks whether the idle connection has been closed by the remote side
+     * (or received any unexpected data). Blocks for at most one millisecond.
+     *
+     * @return {@code true} if the connection is no longer usable
+     */
+    boolean isStale() {
+        try {
+            if (in.available() > 0) return true;
+
+            int timeout = socket.getSoTimeout();
+            try {
+                socket.setSoTimeout(1);
+                in.mark(1);
+                if (in.read() == -1) return true;
+                in.reset();
+                return true;
+            } catch (SocketTimeoutException ex) {
+                return false;
+            } finally {
+                socket.setSoTimeout(timeout);
+            }
+        } catch (IOException ex) {
+            return true;
+        }
+    }
+
+    /**
+     * Writes the <i>POST</i> request with the given headers and body.
+     *
+     * @param url     request URL
+     * @param headers request headers
+     * @param body    buffer containing the request body
+     * @param length  length of the request body
+     * @throws IOException thrown if the request cannot be written
+     */
+    void writeRequest(URL url, Map<String, String> headers, byte[] body,
+                      int length) throws IOException {
+        writeHead(url, headers, "Content-Length: " + length);
+        out.write(body, 0, length);
+        out.flush();
+    }
+
+    /**
+     * Writes the request line and headers of the <i>POST</i> request with the
+     * body of unknown length, which must be written to the returned output
+     * stream using the chunked transfer encoding. Closing the returned stream
+     * completes the request, but does not close the connection.
+     *
+     * @param url     request URL
+     * @param headers request headers
+     * @return output stream of the request body
+     * @throws IOException thrown if the request cannot be written
+     */
+    OutputStream writeRequest(URL url, Map<String, String> headers)
+            throws IOException {
+        writeHead(url, headers, "Transfer-Encoding: chunked");
+        return new ChunkedBody();
+    }
+
+    private void writeHead(URL url, Map<String, String> headers,
+                           String framing) throws IOException {
+        responseStarted = false;
+        out.write(head(url, headers, framing));
+    }
+
+    /**
+     * Returns the request line and headers of the <i>POST</i> request.
+     *
+     * @param url     request URL
+     * @param headers request headers
+     * @param framing header specifying the length of the body
+     * @return request line and headers
+     */
+    static byte[] head(URL url, Map<String, String> headers, String framing) {
+        String path = url.getFile();
+        StringBuilder sb = new StringBuilder(256)
+                .append("POST ").append(path.isEmpty() ? "/" : path)
+                .append(" HTTP/1.1\r\nHost: ").append(url.getHost());
+        if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+            sb.append(':').append(url.getPort());
+        }
+        sb.append("\r\n").append(framing).append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            sb.append(header.getKey()).append(": ")
+                    .append(header.getValue()).append("\r\n");
+        }
+        sb.append("\r\n");
+        return sb.toString().getBytes(ASCII);
+    }
+
+    /**
+     * Reads the status line and headers of the response. The response body
+     * is available as the input stream of the returned response, which
+     * returns the connection to the given pool when closed.
+     *
+     * @param pool pool to return this connection to
+     * @return response
+     * @throws IOException thrown if the response cannot be read
+     */
+    Response readResponse(CarmineConnectionPool pool) throws IOException {
+        String statusLine;
+        int status;
+        do {
+            statusLine = readLine();
+            if (statusLine == null) {
+                throw new EOFException("Remote side closed the connection "
+                        + "without sending the response");
+            }
+            responseStarted = true;
+            if (!statusLine.startsWith("HTTP/") || statusLine.length() < 12) {
+                throw new ProtocolException(
+                        "Invalid status line: " + statusLine);
+            }
+            status = (int) parse(statusLine.substring(9, 12), 10);
+
+            Map<String, String> headers = readHeaders();
+            if (status >= 100 && status < 200) continue;
+
+            boolean keepAlive = statusLine.startsWith("HTTP/1.1")
+                    ? !"close".equalsIgnoreCase(headers.get("connection"))
+                    : "keep-alive".equalsIgnoreCase(headers.get("connection"));
+            long length = -1;
+            boolean chunked = "chunked".equalsIgnoreCase(
+                    headers.get("transfer-encoding"));
+            if (!chunked && headers.containsKey("content-length")) {
+                length = parse(headers.get("content-length"), 10);
+            } else if (!chunked) {
+                keepAlive = false;
+            }
+            return new Response(status, headers, new Body(
+                    pool, keepAlive, chunked, length));
+        } while (true);
+    }
+
+    private Map<String, String> readHeaders() throws IOException {
+        Map<String, String> headers = new HashMap<String, String>();
+        String line;
+        while ((line = readLine()) != null && !line.isEmpty()) {
+            if (headers.size() >= MAX_HEADERS) {
+                throw new ProtocolException("Too many response headers");
+            }
+            int index = line.indexOf(':');
+            if (index > 0) {
+                headers.put(line.substring(0, index).trim()
+                                .toLowerCase(Locale.ROOT),
+                        line.substring(index + 1).trim());
+            }
+        }
+        if (line == null) throw new EOFException("Unexpected end of headers");
+        return headers;
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder sb = new StringBuilder(64);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int length = sb.length();
+                if (length > 0 && sb.charAt(length - 1) == '\r') {
+                    sb.setLength(length - 1);
+                }
+                return sb.toString();
+            }
+            if (sb.length() >= MAX_LINE_LENGTH) {
+                throw new ProtocolException("Response line too long");
+            }
+            sb.append((char) b);
+        }
+        return (sb.length() > 0) ? sb.toString() : null;
+    }
+
+    private static long parse(String value, int radix)
+            throws ProtocolException {
+        try {
+            long result = Long.parseLong(value.trim(), radix);
+            if (result < 0) throw new NumberFormatException();
+            return result;
+        } catch (NumberFormatException ex) {
+            throw new ProtocolException("Invalid response: " + value);
+        }
+    }
+
+    /**
+     * Closes the connection.
+     */
+    void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            // nothing to do here
+        }
+    }
+
+    /**
+     * Returns {@code true} if the connection has been closed.
+     *
+     * @return {@code true} if the connection is closed
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Response status, headers and body.
+     */
+    static final class Response {
+
+        private final int status;
+        private final Map<String, String> headers;
+        private final InputStream body;
+
+        Response(int status, Map<String, String> headers, InputStream body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.ROOT));
+        }
+
+        InputStream getBody() {
+            return body;
+        }
+    }
+
+    /**
+     * Output stream of the request body, writing each flushed part of the
+     * body as a single chunk.
+     */
+    private final class ChunkedBody extends OutputStream {
+
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int count;
+        private boolean finished;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) writeChunk();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) writeChunk();
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeChunk();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (finished) return;
+            finished = true;
+            writeChunk();
+            out.write("0\r\n\r\n".getBytes(ASCII));
+            out.flush();
+        }
+
+        private void writeChunk() throws IOException {
+            if (count == 0) return;
+            out.write((Integer.toHexString(count) + "\r\n").getBytes(ASCII));
+            out.write(buffer, 0, count);
+            out.write(CRLF);
+            count = 0;
+        }
+    }
+
+    /**
+     * Input stream of the response body, delimited either by the content
+     * length, chunked transfer encoding or by closing the connection. When
+     * closed, the remaining body is drained (if not too large) and the
+     * connection is returned to the pool.
+     */
+    private final class Body extends InputStream {
+
+        private final CarmineConnectionPool pool;
+        private final boolean keepAlive;
+        private final boolean chunked;
+        private long remaining;
+        private boolean chunkStarted;
+        private boolean eof;
+        private boolean released;
+
+        Body(CarmineConnectionPool pool, boolean keepAlive, boolean chunked,
+             long length) {
+            this.pool = pool;
+            this.keepAlive = keepAlive;
+            this.chunked = chunked;
+            this.remaining = chunked ? 0 : length;
+            this.eof = (length == 0);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) == 1) ? (b[0] & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (eof || released) return -1;
+            if (len == 0) return 0;
+
+            if (chunked && remaining == 0) {
+                if (!nextChunk()) return -1;
+            }
+            int toRead = (remaining >= 0)
+                    ? (int) Math.min(len, remaining) : len;
+            int count = in.read(b, off, toRead);
+            if (count == -1) {
+                eof = true;
+                if (remaining > 0) {
+                    throw new EOFException("Unexpected end of response body");
+                }
+                return -1;
+            }
+            if (remaining > 0) {
+                remaining -= count;
+                if (remaining == 0 && !chunked) eof = true;
+            }
+            return count;
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (remaining == 0 && !eof && chunkStarted) {
+                readLine(); // CRLF after the previous chunk
+            }
+            chunkStarted = true;
+
+            String line = readLine();
+            if (line == null) throw new EOFException("Unexpected end of chunk");
+            int index = line.indexOf(';');
+            remaining = parse(
+                    (index >= 0) ? line.substring(0, index) : line, 16);
+            if (remaining == 0) {
+                readHeaders(); // trailers
+                eof = true;
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (eof || released) return 0;
+            int available = in.available();
+            return (remaining >= 0) ? (int) Math.min(available, remaining)
+                    : available;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (released) return;
+
+            boolean reusable = keepAlive;
+            if (reusable && !eof) {
+                try {
+                    byte[] skip = new byte[1024];
+                    long drained = 0;
+                    int count;
+                    while (drained < MAX_DRAIN
+                            && (count = read(skip, 0, skip.length)) != -1) {
+                        drained += count;
+                    }
+                    reusable = eof;
+                } catch (IOException ex) {
+                    reusable = false;
+                }
+            }
+            released = true;
+            useCount++;
+            lastUsed = System.currentTimeMillis();
+            pool.release(CarmineHttpConnection.this, reusable);
+        }
+    }
+}
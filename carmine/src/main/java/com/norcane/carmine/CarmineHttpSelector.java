@@ -0,0 +1,907 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Performs the asynchronous requests of the {@link CarmineHttpTransport} over
+ * plain <i>HTTP</i> using the non-blocking I/O. The single selector thread
+ * opens the connections, writes the requests and reads the responses of all
+ * the requests in progress, so the requests waiting for their response do
+ * not hold any thread, and the small executor serializing the requests and
+ * deserializing the responses can keep thousands of calls in progress.
+ * <p/>
+ * The connections are kept alive and reused, and their number per route is
+ * limited, according to the settings of the {@link CarmineConnectionPool}
+ * (but they are held separately from the connections of the synchronous
+ * requests). The requests exceeding the limit wait in the queue of the route,
+ * not in any thread. The body of the response with known length is received
+ * completely before the response is handed back, the body of other responses
+ * (i.e. streamed results) is handed back once the headers are received, and
+ * the connection is not read while too much of the body is buffered.
+ * <p/>
+ * The connect and read timeouts are checked periodically, so they are
+ * detected with the precision of {@value #CHECK_PERIOD} milliseconds.
+ */
+final class CarmineHttpSelector implements Runnable {
+
+    private static final ThreadFactory THREADS
+            = new CarmineThreadFactory("carmine-http-selector");
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_HEAD_SIZE = 64 * 1024;
+    private static final int MAX_BUFFERED = 64 * 1024;
+    private static final long CHECK_PERIOD = 100L;
+
+    private static final int STATUS = 0;
+    private static final int HEADERS = 1;
+    private static final int BODY = 2;
+    private static final int CHUNK_SIZE = 3;
+    private static final int CHUNK_DATA = 4;
+    private static final int CHUNK_END = 5;
+    private static final int TRAILERS = 6;
+
+    private final CarmineConnectionPool pool;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final Map<String, Route> routes = new HashMap<String, Route>();
+    private final Set<Connection> active = new HashSet<Connection>();
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private Selector selector;
+    private boolean closed;
+    private long lastCheck;
+
+    /**
+     * Constructs new instance, whose connections follow the settings of the
+     * given pool. The selector thread is started by the first request.
+     *
+     * @param pool pool whose limits and timeouts apply to the connections
+     */
+    CarmineHttpSelector(CarmineConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Sends the request asynchronously. The given body is released (see
+     * {@link CarmineByteArrayOutputStream#release()}) once no longer needed.
+     * Completing the returned future exceptionally (e.g. cancelling it)
+     * aborts the request.
+     *
+     * @param route          route of the remote side (see
+     *                       {@link CarmineHttpConnection#route(java.net.URL)})
+     * @param address        resolved address of the remote side
+     * @param head           request line and headers
+     * @param body           request body
+     * @param connectTimeout connect timeout in milliseconds ({@code 0} for
+     *                       no timeout)
+     * @param readTimeout    read timeout in milliseconds ({@code 0} for no
+     *                       timeout)
+     * @return future completed with the response, whose body must be closed
+     */
+    CompletableFuture<CarmineHttpConnection.Response> send(
+            String route, InetSocketAddress address, byte[] head,
+            CarmineByteArrayOutputStream body, int connectTimeout,
+            int readTimeout) {
+
+        final Exchange exchange = new Exchange(route, address, head, body,
+                connectTimeout, readTimeout);
+        exchange.future.whenComplete(
+                new BiConsumer<
+                        CarmineHttpConnection.Response, Throwable>() {
+                    @Override
+                    public void accept(CarmineHttpConnection.Response response,
+                                       Throwable error) {
+                        if (error != null) abortLater(exchange);
+                    }
+                });
+        try {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    start(exchange);
+                }
+            });
+        } catch (IOException ex) {
+            exchange.fail(ex);
+        }
+        return exchange.future;
+    }
+
+    /**
+     * Fails all the requests in progress, closes all the connections and
+     * stops the selector thread.
+     */
+    void close() {
+        Selector current;
+        synchronized (this) {
+            closed = true;
+            current = selector;
+        }
+        if (current != null) current.wakeup();
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void execute(Runnable task) throws IOException {
+        Selector current;
+        synchronized (this) {
+            if (closed) throw new IOException("Transport has been closed");
+            if (selector == null) {
+                selector = Selector.open();
+                THREADS.newThread(this).start();
+            }
+            tasks.add(task);
+            current = selector;
+        }
+        current.wakeup();
+    }
+
+    private void abortLater(final Exchange exchange) {
+        try {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    abort(exchange);
+                }
+            });
+        } catch (IOException ex) {
+            // the selector thread fails all the requests itself
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!isClosed()) {
+                selector.select(CHECK_PERIOD);
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) task.run();
+
+                Set<SelectionKey> keys = selector.selectedKeys();
+                for (SelectionKey key : keys) {
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid()) connection.ready();
+                    } catch (IOException ex) {
+                        connection.fail(ex);
+                    } catch (RuntimeException ex) {
+                        connection.fail(new IOException(ex));
+                    }
+                }
+                keys.clear();
+
+                long now = System.currentTimeMillis();
+                if (now - lastCheck >= CHECK_PERIOD) {
+                    lastCheck = now;
+                    check(now);
+                }
+            }
+        } catch (Throwable t) {
+            Logger.getLogger(getClass().getName()).log(Level.SEVERE,
+                    "Selector of asynchronous requests failed", t);
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void shutdown() {
+        synchronized (this) {
+            closed = true;
+        }
+        Runnable task;
+        while ((task = tasks.poll()) != null) task.run();
+
+        IOException failure = new IOException("Transport has been closed");
+        for (Connection connection : new ArrayList<Connection>(active)) {
+            connection.fail(failure);
+        }
+        for (Route route : routes.values()) {
+            for (Exchange exchange : route.waiting) exchange.fail(failure);
+            route.waiting.clear();
+            for (Connection connection : route.idle) connection.close();
+            route.idle.clear();
+        }
+        try {
+            selector.close();
+        } catch (IOException ex) {
+            // nothing to do here
+        }
+    }
+
+    private void start(Exchange exchange) {
+        if (exchange.future.isDone()) {
+            exchange.release();
+            return;
+        }
+        if (isClosed()) {
+            exchange.fail(new IOException("Transport has been closed"));
+            return;
+        }
+
+        Route route = routes.get(exchange.route);
+        if (route == null) {
+            route = new Route(exchange.route);
+            routes.put(exchange.route, route);
+        }
+        Connection connection = route.idle.pollFirst();
+        if (connection != null) {
+            pool.countReused();
+            connection.begin(exchange);
+        } else if (route.open < pool.getMaxConnectionsPerRoute()) {
+            open(route, exchange);
+        } else {
+            exchange.queued = System.currentTimeMillis();
+            route.waiting.addLast(exchange);
+        }
+    }
+
+    private void open(Route route, Exchange exchange) {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            Connection connection = new Connection(route, channel);
+            pool.countCreated();
+            connection.connect(exchange);
+        } catch (IOException ex) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException closeEx) {
+                    // nothing to do here
+                }
+            }
+            exchange.fail(ex);
+        }
+    }
+
+    private void abort(Exchange exchange) {
+        Connection connection = exchange.connection;
+        if (connection != null && connection.exchange == exchange) {
+            connection.fail(new IOException("Request aborted"));
+            return;
+        }
+        Route route = routes.get(exchange.route);
+        if (route != null) route.waiting.remove(exchange);
+        exchange.release();
+    }
+
+    /**
+     * Starts the requests waiting for the connection of the route, as long
+     * as the number of connections allows.
+     */
+    private void serveWaiting(Route route) {
+        if (isClosed()) return;
+        while (!route.waiting.isEmpty()) {
+            Connection connection = route.idle.pollFirst();
+            if (connection == null
+                    && route.open >= pool.getMaxConnectionsPerRoute()) {
+                return;
+            }
+            Exchange exchange = route.waiting.pollFirst();
+            if (exchange.future.isDone()) {
+                exchange.release();
+                if (connection != null) route.idle.addFirst(connection);
+            } else if (connection != null) {
+                pool.countReused();
+                connection.begin(exchange);
+            } else {
+                open(route, exchange);
+            }
+        }
+    }
+
+    private void check(long now) {
+        for (Connection connection : new ArrayList<Connection>(active)) {
+            connection.check(now);
+        }
+
+        long acquireTimeout = pool.getAcquireTimeout();
+        long idleTimeout = pool.getIdleTimeout();
+        for (Route route : routes.values()) {
+            while (acquireTimeout > 0 && !route.waiting.isEmpty()
+                    && now - route.waiting.peekFirst().queued
+                    > acquireTimeout) {
+                route.waiting.pollFirst().fail(new IOException(
+                        "Timeout waiting for connection to " + route.name
+                                + " (all " + route.open
+                                + " connections are used)"));
+            }
+            while (!route.idle.isEmpty()
+                    && now - route.idle.peekLast().lastUsed > idleTimeout) {
+                route.idle.pollLast().close();
+                pool.countEvicted();
+            }
+        }
+    }
+
+    /**
+     * Idle connections and waiting requests of the single route.
+     */
+    private static final class Route {
+
+        final String name;
+        final Deque<Connection> idle = new ArrayDeque<Connection>();
+        final Deque<Exchange> waiting = new ArrayDeque<Exchange>();
+        int open;
+
+        Route(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Single request and its response, possibly sent again using another
+     * connection, if the reused connection turns out to be closed.
+     */
+    private static final class Exchange {
+
+        final String route;
+        final InetSocketAddress address;
+        final byte[] head;
+        final CarmineByteArrayOutputStream body;
+        final int connectTimeout;
+        final int readTimeout;
+        final CompletableFuture<CarmineHttpConnection.Response> future
+                = new CompletableFuture<CarmineHttpConnection.Response>();
+        Connection connection;
+        int attempt;
+        long queued;
+        private boolean released;
+
+        Exchange(String route, InetSocketAddress address, byte[] head,
+                 CarmineByteArrayOutputStream body, int connectTimeout,
+                 int readTimeout) {
+            this.route = route;
+            this.address = address;
+            this.head = head;
+            this.body = body;
+            this.connectTimeout = connectTimeout;
+            this.readTimeout = readTimeout;
+        }
+
+        ByteBuffer[] buffers() {
+            return new ByteBuffer[]{ByteBuffer.wrap(head),
+                    ByteBuffer.wrap(body.buffer(), 0, body.size())};
+        }
+
+        synchronized void release() {
+            if (released) return;
+            released = true;
+            body.release();
+        }
+
+        void fail(Throwable error) {
+            release();
+            future.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Non-blocking connection, used only by the selector thread.
+     */
+    private final class Connection {
+
+        private final Route route;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private Exchange exchange;
+        private ByteBuffer[] output;
+        private boolean connecting;
+        private boolean closed;
+        private boolean paused;
+        private int useCount;
+        private long lastUsed;
+
+        private int state;
+        private final StringBuilder line = new StringBuilder(64);
+        private int headSize;
+        private boolean responseStarted;
+        private boolean dispatched;
+        private int status;
+        private boolean http11;
+        private Map<String, String> headers;
+        private boolean keepAlive;
+        private long remaining;
+        private Body body;
+
+        Connection(Route route, SocketChannel channel) throws IOException {
+            this.route = route;
+            this.channel = channel;
+            this.key = channel.register(selector, 0, this);
+            route.open++;
+        }
+
+        void connect(Exchange exchange) throws IOException {
+            attach(exchange);
+            connecting = true;
+            if (channel.connect(exchange.address)) {
+                connected();
+            } else {
+                key.interestOps(SelectionKey.OP_CONNECT);
+            }
+        }
+
+        void begin(Exchange exchange) {
+            attach(exchange);
+            connected();
+        }
+
+        private void attach(Exchange exchange) {
+            this.exchange = exchange;
+            exchange.connection = this;
+            lastUsed = System.currentTimeMillis();
+            state = STATUS;
+            line.setLength(0);
+            headSize = 0;
+            responseStarted = false;
+            dispatched = false;
+            paused = false;
+            body = null;
+            active.add(this);
+        }
+
+        private void connected() {
+            connecting = false;
+            output = exchange.buffers();
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        void ready() throws IOException {
+            if (key.isConnectable()) {
+                if (channel.finishConnect()) connected();
+                return;
+            }
+            if (key.isWritable()) write();
+            if (key.isValid() && key.isReadable()) read();
+        }
+
+        private void write() throws IOException {
+            channel.write(output);
+            lastUsed = System.currentTimeMillis();
+            if (!output[output.length - 1].hasRemaining()) {
+                output = null;
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        private void read() throws IOException {
+            buffer.clear();
+            int count = channel.read(buffer);
+            if (count == 0) return;
+            if (exchange == null) {
+                // idle connection closed by the remote side (or receiving
+                // unexpected data) is no longer usable
+                route.idle.remove(this);
+                close();
+                pool.countEvicted();
+                return;
+            }
+            lastUsed = System.currentTimeMillis();
+            if (count < 0) {
+                endOfStream();
+                return;
+            }
+            buffer.flip();
+            process(buffer);
+
+            if (exchange != null && body != null && body.isFull()) {
+                paused = true;
+                key.interestOps(0);
+            }
+        }
+
+        private void endOfStream() throws IOException {
+            if (state == BODY && remaining < 0) {
+                complete(false);
+            } else if (responseStarted) {
+                throw new EOFException("Unexpected end of response");
+            } else {
+                throw new EOFException("Remote side closed the connection "
+                        + "without sending the response");
+            }
+        }
+
+        private void process(ByteBuffer in) throws IOException {
+            while (in.hasRemaining()) {
+                if (state == BODY || state == CHUNK_DATA) {
+                    int count = (remaining < 0) ? in.remaining()
+                            : (int) Math.min(remaining, in.remaining());
+                    body.append(in.array(), in.position(), count);
+                    in.position(in.position() + count);
+                    if (remaining > 0) remaining -= count;
+                    if (remaining == 0) {
+                        if (state == BODY) {
+                            complete(!in.hasRemaining());
+                            return;
+                        }
+                        state = CHUNK_END;
+                    }
+                    continue;
+                }
+
+                String text = readLine(in);
+                if (text == null) return;
+                if (!processLine(text)) {
+                    complete(!in.hasRemaining());
+                    return;
+                }
+            }
+        }
+
+        private String readLine(ByteBuffer in) throws IOException {
+            while (in.hasRemaining()) {
+                char c = (char) (in.get() & 0xFF);
+                if (++headSize > MAX_HEAD_SIZE) {
+                    throw new ProtocolException("Response head too large");
+                }
+                if (c == '\n') {
+                    int length = line.length();
+                    if (length > 0 && line.charAt(length - 1) == '\r') {
+                        line.setLength(length - 1);
+                    }
+                    String text = line.toString();
+                    line.setLength(0);
+                    return text;
+                }
+                line.append(c);
+            }
+            return null;
+        }
+
+        /**
+         * Processes the line of the response head or of the chunked body,
+         * returns {@code false} once the response is complete.
+         */
+        private boolean processLine(String text) throws IOException {
+            switch (state) {
+                case STATUS:
+                    responseStarted = true;
+                    if (!text.startsWith("HTTP/") || text.length() < 12) {
+                        throw new ProtocolException(
+                                "Invalid status line: " + text);
+                    }
+                    http11 = text.startsWith("HTTP/1.1");
+                    status = (int) parse(text.substring(9, 12), 10);
+                    headers = new HashMap<String, String>();
+                    state = HEADERS;
+                    return true;
+                case HEADERS:
+                    if (text.isEmpty()) return headersReceived();
+                    int index = text.indexOf(':');
+                    if (index > 0) {
+                        headers.put(text.substring(0, index).trim()
+                                        .toLowerCase(Locale.ROOT),
+                                text.substring(index + 1).trim());
+                    }
+                    return true;
+                case CHUNK_SIZE:
+                    int extension = text.indexOf(';');
+                    remaining = parse((extension >= 0)
+                            ? text.substring(0, extension) : text, 16);
+                    headSize = 0;
+                    state = (remaining == 0) ? TRAILERS : CHUNK_DATA;
+                    return true;
+                case CHUNK_END:
+                    headSize = 0;
+                    state = CHUNK_SIZE;
+                    return true;
+                default:
+                    return !text.isEmpty();
+            }
+        }
+
+        private boolean headersReceived() throws IOException {
+            if (status >= 100 && status < 200) {
+                state = STATUS;
+                return true;
+            }
+
+            keepAlive = http11
+                    ? !"close".equalsIgnoreCase(headers.get("connection"))
+                    : "keep-alive".equalsIgnoreCase(headers.get("connection"));
+            boolean chunked = "chunked".equalsIgnoreCase(
+                    headers.get("transfer-encoding"));
+            long length = -1;
+            if (!chunked && headers.containsKey("content-length")) {
+                length = parse(headers.get("content-length"), 10);
+            } else if (!chunked) {
+                keepAlive = false;
+            }
+            headSize = 0;
+
+            // the body of unknown length is handed back before received
+            body = new Body(this, length < 0);
+            if (length == 0) return false;
+            if (chunked) {
+                state = CHUNK_SIZE;
+            } else {
+                state = BODY;
+                remaining = length;
+            }
+            if (length < 0) dispatch();
+            return true;
+        }
+
+        private long parse(String value, int radix) throws ProtocolException {
+            try {
+                long result = Long.parseLong(value.trim(), radix);
+                if (result < 0) throw new NumberFormatException();
+                return result;
+            } catch (NumberFormatException ex) {
+                throw new ProtocolException("Invalid response: " + value);
+            }
+        }
+
+        private void dispatch() throws IOException {
+            dispatched = true;
+            if (!exchange.future.complete(new CarmineHttpConnection.Response(
+                    status, headers, body))) {
+                throw new IOException("Request aborted");
+            }
+        }
+
+        /**
+         * Completes the response, returning the connection to the route
+         * (only if no unexpected data have been received after it).
+         */
+        private void complete(boolean clean) throws IOException {
+            body.finish();
+            Exchange completed = exchange;
+            if (!dispatched) dispatch();
+            exchange = null;
+            completed.release();
+            active.remove(this);
+
+            if (!keepAlive || !clean) {
+                close();
+                serveWaiting(route);
+                return;
+            }
+            useCount++;
+            lastUsed = System.currentTimeMillis();
+            body = null;
+            key.interestOps(SelectionKey.OP_READ);
+            route.idle.addFirst(this);
+            serveWaiting(route);
+        }
+
+        /**
+         * Resumes reading of the body, which has been paused while the
+         * body was buffered.
+         */
+        void resume(Body paused) {
+            if (closed || body != paused || !this.paused) return;
+            this.paused = false;
+            lastUsed = System.currentTimeMillis();
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        void check(long now) {
+            if (exchange == null || paused) return;
+            int timeout = connecting
+                    ? exchange.connectTimeout : exchange.readTimeout;
+            if (timeout > 0 && now - lastUsed > timeout) {
+                fail(new SocketTimeoutException(connecting
+                        ? "Connect timed out" : "Read timed out"));
+            }
+        }
+
+        /**
+         * Closes the connection and fails its request, or sends the request
+         * once again using another connection, if the reused connection has
+         * been closed before any response has been received.
+         */
+        void fail(IOException error) {
+            if (closed) return;
+            close();
+            Exchange failed = exchange;
+            exchange = null;
+            if (failed != null) {
+                if (dispatched) {
+                    body.fail(error);
+                    failed.release();
+                } else if (failed.attempt == 0 && useCount > 0
+                        && !responseStarted
+                        && !(error instanceof SocketTimeoutException)
+                        && !failed.future.isDone()) {
+                    failed.attempt++;
+                    failed.connection = null;
+                    start(failed);
+                } else {
+                    failed.fail(error);
+                }
+            }
+            serveWaiting(route);
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            route.open--;
+            active.remove(this);
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // nothing to do here
+            }
+        }
+    }
+
+    /**
+     * Body of the response, received by the selector thread and read by the
+     * thread deserializing the response.
+     */
+    private final class Body extends InputStream {
+
+        private final Connection connection;
+        private final boolean streamed;
+        private final Deque<byte[]> chunks = new ArrayDeque<byte[]>();
+        private int offset;
+        private long buffered;
+        private boolean finished;
+        private boolean closed;
+        private boolean paused;
+        private IOException failure;
+
+        Body(Connection connection, boolean streamed) {
+            this.connection = connection;
+            this.streamed = streamed;
+        }
+
+        synchronized void append(byte[] bytes, int off, int len) {
+            if (closed || len == 0) return;
+            chunks.addLast(Arrays.copyOfRange(bytes, off, off + len));
+            buffered += len;
+            notifyAll();
+        }
+
+        synchronized boolean isFull() {
+            if (streamed && !finished && buffered >= MAX_BUFFERED) {
+                paused = true;
+            }
+            return paused;
+        }
+
+        synchronized void finish() {
+            finished = true;
+            notifyAll();
+        }
+
+        synchronized void fail(IOException error) {
+            if (finished) return;
+            failure = error;
+            notifyAll();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) == 1) ? (b[0] & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            int count;
+            boolean resume = false;
+            synchronized (this) {
+                while (chunks.isEmpty()) {
+                    if (closed) throw new IOException("Stream closed");
+                    if (failure != null) throw failure;
+                    if (finished) return -1;
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException(
+                                "Interrupted while reading the response");
+                    }
+                }
+                byte[] chunk = chunks.peekFirst();
+                count = Math.min(len, chunk.length - offset);
+                System.arraycopy(chunk, offset, b, off, count);
+                offset += count;
+                if (offset == chunk.length) {
+                    chunks.pollFirst();
+                    offset = 0;
+                }
+                buffered -= count;
+                if (paused && buffered <= MAX_BUFFERED / 2) {
+                    paused = false;
+                    resume = true;
+                }
+            }
+            if (resume) {
+                try {
+                    execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            connection.resume(Body.this);
+                        }
+                    });
+                } catch (IOException ex) {
+                    // the selector thread fails the body itself
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public synchronized int available() {
+            return (int) Math.min(buffered, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+                chunks.clear();
+                buffered = 0;
+                if (finished || failure != null) return;
+            }
+            // the rest of the body is not needed, so the connection is
+            // closed instead of reading it
+            try {
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (connection.body == Body.this) {
+                            connection.fail(new IOException(
+                                    "Response body closed"));
+                        }
+                    }
+                });
+            } catch (IOException ex) {
+                // the selector thread closes the connection itself
+            }
+        }
+    }
+}
@@ -0,0 +1,768 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+
+/**
+ * Implementation of the {@link CarmineTransport} sending requests to the
+ * remote side using the <i>HTTP(S)</i> protocol over persistent connections,
+ * held by the {@link CarmineConnectionPool}. Idle connection is reused for
+ * subsequent requests, so the <i>TCP</i> (and <i>TLS</i>) handshake is
+ * performed only when no idle connection is available. If the reused
+ * connection turns out to be closed by the remote side before any response
+ * is received, the request is sent once again using new connection.
+ * <p/>
+ * Asynchronous requests (see
+ * {@link #sendAsync(CarmineRequest, CarmineCodec, Executor)}) to the plain
+ * <i>HTTP</i> URL are sent and received by the single selector thread using
+ * the non-blocking I/O, so the request waiting for its response holds no
+ * thread, and the executor is used only to serialize the request and to
+ * deserialize the response. Such requests use their own non-blocking
+ * connections, limited by the same settings of the connection pool. The
+ * asynchronous requests over <i>HTTPS</i>, and the requests with the
+ * {@link InputStream} arguments, still block the executor thread for the
+ * whole request. Asynchronous requests are aborted by closing their
+ * connection once the returned future is cancelled or otherwise completed
+ * before the response is received.
+ * <p/>
+ * Note that unlike the {@link CarmineUrlConnectionTransport} (used by the
+ * {@link CarmineManager} by default), this transport does not use the
+ * <i>Java</i> networking properties: the proxy settings, the
+ * {@link java.net.Authenticator}, the cookie handler, and the default socket
+ * factory and hostname verifier of the
+ * {@link javax.net.ssl.HttpsURLConnection} are all ignored. It has to be set
+ * on the manager explicitly.
+ * <p/>
+ * <dl>
+ * <dt><b>Example of usage:</b></dt>
+ * <dd><pre><code>
+ * CarmineManager cm = new CarmineManager(REMOTE_SERVICE_URL);
+ * cm.setTransport(new CarmineHttpTransport(REMOTE_SERVICE_URL));
+ * </code></pre></dd>
+ * </dl>
+ */
+public class CarmineHttpTransport implements CarmineTransport {
+
+    /**
+     * Default minimum size of the request body in bytes to be compressed.
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+    private static final CarmineCompression GZIP = new CarmineGzipCompression();
+    private static final CarmineCompression DEFLATE
+            = new CarmineDeflateCompression();
+
+    private final URL remoteUrl;
+    private final CarmineConnectionPool connectionPool;
+    private final CarmineHttpSelector selector;
+    private volatile int connectTimeout;
+    private volatile int readTimeout;
+    private volatile CarmineCompression compression;
+    private volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+    /**
+     * Constructs new instance sending requests to the given remote service
+     * URL, using its own connection pool.
+     *
+     * @param remoteUrl remote service URL
+     */
+    public CarmineHttpTransport(URL remoteUrl) {
+        this(remoteUrl, new CarmineConnectionPool());
+    }
+
+    /**
+     * Constructs new instance sending requests to the given remote service
+     * URL, using the given connection pool (which can be shared by more
+     * transports).
+     *
+     * @param remoteUrl      remote service URL
+     * @param connectionPool pool of persistent connections
+     */
+    public CarmineHttpTransport(URL remoteUrl,
+                                CarmineConnectionPool connectionPool) {
+        if (!"http".equalsIgnoreCase(remoteUrl.getProtocol())
+                && !"https".equalsIgnoreCase(remoteUrl.getProtocol())) {
+            throw new IllegalArgumentException(
+                    "Unsupported protocol: " + remoteUrl.getProtocol());
+        }
+        this.remoteUrl = remoteUrl;
+        this.connectionPool = connectionPool;
+        this.selector = new CarmineHttpSelector(connectionPool);
+    }
+
+    /**
+     * Returns the URL of the remote service.
+     *
+     * @return remote service URL
+     */
+    public URL getRemoteUrl() {
+        return remoteUrl;
+    }
+
+    /**
+     * Returns the pool of persistent connections used by this transport.
+     *
+     * @return connection pool
+     */
+    public CarmineConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Returns the connect timeout in milliseconds ({@code 0} for no timeout).
+     *
+     * @return connect timeout in milliseconds
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Sets the connect timeout in milliseconds (by default {@code 0}, i.e. no
+     * timeout).
+     *
+     * @param connectTimeout connect timeout in milliseconds
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Returns the timeout of reading the response in milliseconds
+     * ({@code 0} for no timeout).
+     *
+     * @return read timeout in milliseconds
+     */
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Sets the timeout of reading the response in milliseconds (by default
+     * {@code 0}, i.e. no timeout).
+     *
+     * @param readTimeout read timeout in milliseconds
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Returns the compression of request bodies, or {@code null} if the
+     * compression is disabled.
+     *
+     * @return compression or {@code null}
+     */
+    public CarmineCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Sets the compression of request bodies (by default {@code null}, i.e.
+     * disabled). Request bodies reaching the compression threshold (see
+     * {@link #setCompressionThreshold(int)}) are compressed, and the remote
+     * side is allowed to compress the response the same way. The remote side
+     * must support the compression (see
+     * {@link CarmineInvoker#addCompression(CarmineCompression)}).
+     *
+     * @param compression compression or {@code null} to disable
+     */
+    public void setCompression(CarmineCompression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Returns the minimum size of the request body in bytes to be compressed.
+     *
+     * @return compression threshold in bytes
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Sets the minimum size of the request body in bytes to be compressed (by
+     * default {@value #DEFAULT_COMPRESSION_THRESHOLD}).
+     *
+     * @param compressionThreshold compression threshold in bytes
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public CarmineResponse send(CarmineRequest request, CarmineCodec codec)
+            throws IOException, ClassNotFoundException {
+
+        return send(request, codec, null);
+    }
+
+    @Override
+    public CompletableFuture<CarmineResponse> sendAsync(
+            final CarmineRequest request, final CarmineCodec codec,
+            Executor executor) {
+
+        if (!CarmineHttpConnection.isSecure(remoteUrl)
+                && !CarmineStreams.hasStreams(request.getMethodArguments())) {
+            return sendNonBlocking(request, codec, executor);
+        }
+
+        final Exchange exchange = new Exchange();
+        final CompletableFuture<CarmineResponse> future
+                = new CompletableFuture<>();
+        future.whenComplete(new BiConsumer<CarmineResponse, Throwable>() {
+            @Override
+            public void accept(CarmineResponse response, Throwable error) {
+                if (error != null) exchange.abort();
+            }
+        });
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.isDone()) return;
+                    try {
+                        future.complete(send(request, codec, exchange));
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * Sends the request using the {@link CarmineHttpSelector}. The request is
+     * serialized and the response deserialized by the executor, which is not
+     * blocked while waiting for the response.
+     */
+    private CompletableFuture<CarmineResponse> sendNonBlocking(
+            final CarmineRequest request, final CarmineCodec codec,
+            final Executor executor) {
+
+        final CompletableFuture<CarmineResponse> future
+                = new CompletableFuture<>();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.isDone()) return;
+                    try {
+                        sendNonBlocking(request, codec, executor, future);
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    private void sendNonBlocking(
+            CarmineRequest request, final CarmineCodec codec,
+            final Executor executor,
+            final CompletableFuture<CarmineResponse> future)
+            throws IOException {
+
+        final CarmineMethodMetrics metrics = request.getMetrics();
+        long time = (metrics != null) ? System.nanoTime() : 0L;
+
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        final CarmineCompression compression = this.compression;
+        CarmineByteArrayOutputStream body
+                = serialize(request, codec, compression, headers);
+        final int length = body.size();
+        final CompletableFuture<CarmineHttpConnection.Response> sent;
+        try {
+            byte[] head = CarmineHttpConnection.head(
+                    remoteUrl, headers, "Content-Length: " + length);
+            sent = selector.send(CarmineHttpConnection.route(remoteUrl),
+                    CarmineHttpConnection.address(remoteUrl), head, body,
+                    timeout(connectTimeout, request),
+                    timeout(readTimeout, request));
+        } catch (IOException ex) {
+            body.release();
+            throw ex;
+        } catch (RuntimeException ex) {
+            body.release();
+            throw ex;
+        }
+        if (metrics != null) {
+            time = record(metrics, CarminePhase.SERIALIZE, time);
+        }
+        final long sentTime = time;
+
+        // aborts the request once the call is cancelled
+        future.whenComplete(new BiConsumer<CarmineResponse, Throwable>() {
+            @Override
+            public void accept(CarmineResponse response, Throwable error) {
+                if (error != null) sent.cancel(false);
+            }
+        });
+        sent.whenComplete(
+                new BiConsumer<CarmineHttpConnection.Response, Throwable>() {
+                    @Override
+                    public void accept(
+                            final CarmineHttpConnection.Response response,
+                            Throwable error) {
+                        if (error != null) {
+                            future.completeExceptionally(error);
+                            return;
+                        }
+                        received(response, codec, compression, executor,
+                                future, metrics, sentTime, length);
+                    }
+                });
+    }
+
+    /**
+     * Deserializes the response received by the {@link CarmineHttpSelector}
+     * using the executor (not to block the selector thread).
+     */
+    private void received(final CarmineHttpConnection.Response response,
+                          final CarmineCodec codec,
+                          final CarmineCompression compression,
+                          Executor executor,
+                          final CompletableFuture<CarmineResponse> future,
+                          final CarmineMethodMetrics metrics,
+                          final long time, final int length) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        long start = time;
+                        if (metrics != null) {
+                            start = record(
+                                    metrics, CarminePhase.NETWORK, start);
+                            metrics.transferred(contentLength(
+                                    response.getHeader(
+                                            CarmineHeaders.CONTENT_LENGTH)),
+                                    length);
+                        }
+                        CarmineResponse result = read(response, codec,
+                                compression, null, metrics, start);
+                        if (!future.complete(result) && result.isSuccessful()
+                                && result.getResult()
+                                instanceof CarmineRemoteIterator) {
+                            // nobody reads the streamed result
+                            ((CarmineRemoteIterator<?>) result.getResult())
+                                    .close();
+                        }
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            try {
+                response.getBody().close();
+            } catch (IOException closeEx) {
+                // nothing to do here
+            }
+            future.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * Serializes the request into the returned body, which is compressed if
+     * the compression is enabled and the body is large enough, and adds the
+     * headers describing the body.
+     */
+    private CarmineByteArrayOutputStream serialize(
+            CarmineRequest request, CarmineCodec codec,
+            CarmineCompression compression, Map<String, String> headers)
+            throws IOException {
+
+        CarmineByteArrayOutputStream body = new CarmineByteArrayOutputStream();
+        try {
+            ObjectOutput out = codec.createOutput(body);
+            CarmineStreams.writeRequest(request, out);
+            out.close();
+
+            headers.put(CarmineHeaders.CONTENT_TYPE, codec.getContentType());
+            if (compression != null) {
+                headers.put(CarmineHeaders.ACCEPT_ENCODING,
+                        compression.getEncoding());
+                if (body.size() >= compressionThreshold) {
+                    body = compress(compression, body);
+                    headers.put(CarmineHeaders.CONTENT_ENCODING,
+                            compression.getEncoding());
+                }
+            }
+            return body;
+        } catch (IOException ex) {
+            body.release();
+            throw ex;
+        } catch (RuntimeException ex) {
+            body.release();
+            throw ex;
+        }
+    }
+
+    private CarmineResponse send(CarmineRequest request, CarmineCodec codec,
+                                 Exchange exchange)
+            throws IOException, ClassNotFoundException {
+
+        if (CarmineStreams.hasStreams(request.getMethodArguments())) {
+            return sendStreams(request, codec, exchange);
+        }
+
+        CarmineMethodMetrics metrics = request.getMetrics();
+        long time = (metrics != null) ? System.nanoTime() : 0L;
+
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        CarmineCompression compression = this.compression;
+        CarmineByteArrayOutputStream body
+                = serialize(request, codec, compression, headers);
+        byte[] bytes = body.buffer();
+        int length = body.size();
+        if (metrics != null) {
+            time = record(metrics, CarminePhase.SERIALIZE, time);
+        }
+
+        // the body is sent with the fixed content length and its pooled
+        // buffer is released once the response has been received
+        try {
+            for (int attempt = 0; ; attempt++) {
+                CarmineHttpConnection connection
+                        = connectionPool.acquire(remoteUrl,
+                        timeout(connectTimeout, request));
+                if (exchange != null && !exchange.begin(connection)) {
+                    connectionPool.release(connection, true);
+                    throw new IOException("Request aborted");
+                }
+                if (metrics != null) {
+                    time = record(metrics, CarminePhase.CONNECT, time);
+                }
+                CarmineHttpConnection.Response response;
+                try {
+                    connection.setReadTimeout(timeout(readTimeout, request));
+                    connection.writeRequest(
+                            remoteUrl, headers, bytes, length);
+                    response = connection.readResponse(connectionPool);
+                } catch (IOException ex) {
+                    if (exchange != null) exchange.end();
+                    connectionPool.release(connection, false);
+                    if (exchange != null && exchange.isAborted()) throw ex;
+                    if (attempt == 0 && connection.isReused()
+                            && !connection.isResponseStarted()
+                            && !(ex instanceof SocketTimeoutException)) {
+                        continue;
+                    }
+                    throw ex;
+                } catch (RuntimeException ex) {
+                    if (exchange != null) exchange.end();
+                    connectionPool.release(connection, false);
+                    throw ex;
+                }
+                if (metrics != null) {
+                    time = record(metrics, CarminePhase.NETWORK, time);
+                    metrics.transferred(contentLength(response.getHeader(
+                            CarmineHeaders.CONTENT_LENGTH)), length);
+                }
+
+                return read(response, codec, compression, exchange,
+                        metrics, time);
+            }
+        } finally {
+            body.release();
+        }
+    }
+
+    /**
+     * Sends the request with the {@link java.io.InputStream} arguments, whose
+     * content is streamed after the request using the chunked transfer
+     * encoding. Such request is never compressed nor retried.
+     */
+    private CarmineResponse sendStreams(CarmineRequest request,
+                                        CarmineCodec codec, Exchange exchange)
+            throws IOException, ClassNotFoundException {
+
+        CarmineMethodMetrics metrics = request.getMetrics();
+        long time = (metrics != null) ? System.nanoTime() : 0L;
+
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put(CarmineHeaders.CONTENT_TYPE, codec.getContentType());
+        CarmineCompression compression = this.compression;
+        if (compression != null) {
+            headers.put(CarmineHeaders.ACCEPT_ENCODING,
+                    compression.getEncoding());
+        }
+
+        CarmineHttpConnection connection = connectionPool.acquire(
+                remoteUrl, timeout(connectTimeout, request));
+        if (exchange != null && !exchange.begin(connection)) {
+            connectionPool.release(connection, true);
+            throw new IOException("Request aborted");
+        }
+        if (metrics != null) {
+            time = record(metrics, CarminePhase.CONNECT, time);
+        }
+        CarmineHttpConnection.Response response;
+        try {
+            connection.setReadTimeout(timeout(readTimeout, request));
+            ObjectOutput out = codec.createOutput(
+                    connection.writeRequest(remoteUrl, headers));
+            CarmineStreams.writeRequest(request, out);
+            out.close();
+            response = connection.readResponse(connectionPool);
+        } catch (IOException ex) {
+            if (exchange != null) exchange.end();
+            connectionPool.release(connection, false);
+            throw ex;
+        } catch (RuntimeException ex) {
+            if (exchange != null) exchange.end();
+            connectionPool.release(connection, false);
+            throw ex;
+        }
+        if (metrics != null) {
+            time = record(metrics, CarminePhase.NETWORK, time);
+        }
+        return read(response, codec, compression, exchange, metrics, time);
+    }
+
+    /**
+     * Reads the response object from the response body. If the result of the
+     * remote method is streamed, the body is left open for the returned
+     * {@link CarmineRemoteIterator}, otherwise it is closed (returning the
+     * connection to the pool).
+     */
+    private CarmineResponse read(CarmineHttpConnection.Response response,
+                                 CarmineCodec codec,
+                                 CarmineCompression compression,
+                                 Exchange exchange,
+                                 CarmineMethodMetrics metrics, long time)
+            throws IOException, ClassNotFoundException {
+
+        InputStream responseBody = response.getBody();
+        ObjectInput in = null;
+        boolean streamed = false;
+        try {
+            if (response.getStatus() != 200) {
+                throw new IOException("Server returned HTTP response code: "
+                        + response.getStatus() + " for URL: " + remoteUrl);
+            }
+            CarmineCodec responseCodec = responseCodec(codec,
+                    response.getHeader(CarmineHeaders.CONTENT_TYPE));
+            in = responseCodec.createInput(decompress(
+                    responseBody, compression, response.getHeader(
+                            CarmineHeaders.CONTENT_ENCODING)));
+            CarmineResponse result = CarmineStreams.resolveSegment(
+                    (CarmineResponse) in.readObject(), in);
+            if (metrics != null) {
+                record(metrics, CarminePhase.DESERIALIZE, time);
+            }
+            streamed = result.isSuccessful()
+                    && CarmineStreams.isMarker(result.getResult());
+            return streamed ? new CarmineResponse(
+                    new CarmineRemoteIterator<Object>(in, responseBody),
+                    result.getProperties()) : result;
+        } finally {
+            if (exchange != null) exchange.end();
+            if (!streamed) {
+                // closing the input closes the body too, returning both the
+                // connection and the input buffer to their pools
+                if (in != null) in.close();
+                else responseBody.close();
+            }
+        }
+    }
+
+    /**
+     * Records the latency of the phase, which started at the given time.
+     *
+     * @param metrics metrics of the called method
+     * @param phase   phase of the call
+     * @param start   start of the phase in nanoseconds
+     * @return end of the phase in nanoseconds
+     */
+    static long record(CarmineMethodMetrics metrics, CarminePhase phase,
+                       long start) {
+        long end = System.nanoTime();
+        metrics.record(phase, end - start);
+        return end;
+    }
+
+    /**
+     * Returns the socket timeout limited by the time remaining until the
+     * deadline of the request (see {@link CarmineRequest#getRemainingTime()}).
+     *
+     * @param timeout configured timeout in milliseconds ({@code 0} for no
+     *                timeout)
+     * @param request request to be sent
+     * @return timeout in milliseconds ({@code 0} for no timeout)
+     * @throws SocketTimeoutException thrown if the deadline has passed
+     */
+    static int timeout(int timeout, CarmineRequest request)
+            throws SocketTimeoutException {
+        long remaining = request.getRemainingTime();
+        if (remaining == Long.MAX_VALUE) return timeout;
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("Deadline of the request passed");
+        }
+        return (timeout > 0 && timeout < remaining)
+                ? timeout : (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Parses the value of the {@code Content-Length} header.
+     *
+     * @param contentLength value of the header (may be {@code null})
+     * @return content length or {@code -1} if not known
+     */
+    static long contentLength(String contentLength) {
+        if (contentLength == null) return -1;
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the codec for reading the response with the given content type.
+     * The remote side replies using the same codec as used for the request,
+     * unless it does not support it and falls back to the <i>Java</i>
+     * serialization.
+     *
+     * @param codec       codec used for the request
+     * @param contentType content type of the response (may be {@code null})
+     * @return codec for reading the response
+     * @throws IOException thrown if the content type is not supported
+     */
+    static CarmineCodec responseCodec(CarmineCodec codec, String contentType)
+            throws IOException {
+        String mediaType = CarmineHeaders.mediaType(contentType);
+        if (mediaType == null || mediaType.equals(codec.getContentType())) {
+            return codec;
+        } else if (mediaType.equals(CarmineJavaCodec.CONTENT_TYPE)) {
+            return new CarmineJavaCodec();
+        }
+        throw new IOException("Unsupported response content type: "
+                + contentType);
+    }
+
+    /**
+     * Compresses the request body. The given body is released (see
+     * {@link CarmineByteArrayOutputStream#release()}), as it is replaced by
+     * the compressed one.
+     *
+     * @param compression compression to use
+     * @param body        request body
+     * @return compressed request body
+     * @throws IOException thrown if the compression fails
+     */
+    static CarmineByteArrayOutputStream compress(
+            CarmineCompression compression, CarmineByteArrayOutputStream body)
+            throws IOException {
+        CarmineByteArrayOutputStream compressed
+                = new CarmineByteArrayOutputStream(body.size() / 2);
+        OutputStream out = compression.compress(compressed);
+        body.writeTo(out);
+        out.close();
+        body.release();
+        return compressed;
+    }
+
+    /**
+     * Returns the stream decompressing the response body with the given
+     * content encoding. Besides the compression used for the request, the
+     * <i>gzip</i> and <i>deflate</i> encodings are always supported.
+     *
+     * @param body            response body
+     * @param compression     compression used for the request (may be
+     *                        {@code null})
+     * @param contentEncoding content encoding of the response (may be
+     *                        {@code null})
+     * @return decompressed response body
+     * @throws IOException thrown if the content encoding is not supported
+     */
+    static InputStream decompress(InputStream body,
+                                  CarmineCompression compression,
+                                  String contentEncoding) throws IOException {
+        String encoding = CarmineHeaders.encoding(contentEncoding);
+        if (encoding == null) {
+            return body;
+        } else if (compression != null
+                && encoding.equals(compression.getEncoding())) {
+            return compression.decompress(body);
+        } else if (encoding.equals(GZIP.getEncoding())) {
+            return GZIP.decompress(body);
+        } else if (encoding.equals(DEFLATE.getEncoding())) {
+            return DEFLATE.decompress(body);
+        }
+        throw new IOException("Unsupported response content encoding: "
+                + contentEncoding);
+    }
+
+    @Override
+    public void close() {
+        selector.close();
+        connectionPool.close();
+    }
+
+    /**
+     * Connection currently used by the asynchronous request, closed when the
+     * request is aborted.
+     */
+    private static final class Exchange {
+
+        private CarmineHttpConnection connection;
+        private boolean aborted;
+
+        synchronized boolean begin(CarmineHttpConnection connection) {
+            if (aborted) return false;
+            this.connection = connection;
+            return true;
+        }
+
+        synchronized void end() {
+            this.connection = null;
+        }
+
+        synchronized boolean isAborted() {
+            return aborted;
+        }
+
+        synchronized void abort() {
+            aborted = true;
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+        }
+    }
+}
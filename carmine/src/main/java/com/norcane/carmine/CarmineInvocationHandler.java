@@ -16,27 +16,42 @@
  */
 package com.norcane.carmine;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
-import java.net.URLConnection;
-import java.util.HashMap;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 
 /**
  * Implementation of the {@link java.lang.reflect.InvocationHandler},
  * transparently sending all the method invocations on the local proxy class
  * to the remote side, and returning the result of remote method execution.
+ * Methods returning {@link java.util.concurrent.Future} or
+ * {@link java.util.concurrent.CompletionStage} are invoked asynchronously and
+ * return the {@link CompletableFuture}, completed with the result of remote
+ * method execution.
  *
  * @author Vaclav Svejcar (v.svejcar@norcane.cz)
  */
 public class CarmineInvocationHandler implements InvocationHandler {
 
     private final CarmineManager cm;
+    private final ConcurrentMap<Method, MethodInfo> methods
+            = new ConcurrentHashMap<Method, MethodInfo>();
 
     /**
      * Constructs new instance with given
-     * {@link com.norcane.carmine.CarmineManager}.
+     * {@link com.norcane.carmine.CarmineManager}. The handler is thread safe
+     * and can be shared by the proxies of any remote interfaces.
      *
      * @param cm Carmine manager instance
      */
@@ -46,30 +61,287 @@ public class CarmineInvocationHandler implements InvocationHandler {
 
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-        // create the request object
+        // create the request object, using the metadata of the method
+        // computed on its first invocation
+        MethodInfo info = methodInfo(method);
         CarmineRequest request = new CarmineRequest(
-                method.getDeclaringClass().getName(), method.getName(), args,
-                new HashMap<String, Object>(cm.getProperties()));
+                info.interfaceName, info.methodName, info.methodId, args,
+                cm.getProperties());
+        request.setIdempotent(info.idempotent);
+        long timeout = timeout(info);
+        if (timeout > 0) request.setTimeout(timeout);
 
-        // setup connection to remote side
-        URLConnection connection = cm.getRemoteUrl().openConnection();
-        connection.setDoInput(true);
-        connection.setDoOutput(true);
+        // answer the cacheable method from the cache, if possible
+        CarmineCache cache = cm.getCache();
+        long ttl = (cache != null) ? cache.getTtl(method) : -1L;
+        CarmineCache.Key key = null;
+        long generation = 0L;
+        if (ttl >= 0) {
+            // keyed by the proxied interface, which may inherit the method
+            key = cache.key(proxy.getClass().getInterfaces()[0].getName(),
+                    method, args, request.getProperties());
+            Object cached = cache.get(key);
+            if (cached != CarmineCache.MISSING) {
+                return info.async
+                        ? CompletableFuture.completedFuture(cached) : cached;
+            }
+            generation = cache.getGeneration();
+        }
 
-        // send the request object to the remote side
-        ObjectOutputStream out = new ObjectOutputStream(connection.getOutputStream());
-        out.writeObject(request);
-        out.close();
+        CarmineMethodMetrics methodMetrics = info.metrics(cm.getMetrics());
+        long start = (methodMetrics != null) ? System.nanoTime() : 0L;
+        request.setMetrics(methodMetrics);
 
-        // read the response object from the remote side
-        ObjectInputStream in = new ObjectInputStream(connection.getInputStream());
-        CarmineResponse response = (CarmineResponse) in.readObject();
-        cm.setProperties(new HashMap<String, Object>(response.getProperties()));
-        in.close();
+        if (info.async) {
+            CompletableFuture<Object> result
+                    = invokeAsync(info, request, methodMetrics, start);
+            if (key != null) {
+                cacheResult(cache, key, result, ttl, generation,
+                        cm.getCodec());
+            }
+            return result;
+        }
+
+        boolean successful = false;
+        try {
+            Object result = call(info, request);
+            successful = true;
+            if (key != null && !CarmineStreams.isStreamed(result)) {
+                cache.put(key, result, ttl, generation, cm.getCodec());
+            }
+            return result;
+        } finally {
+            if (methodMetrics != null) {
+                methodMetrics.completed(System.nanoTime() - start, successful);
+            }
+        }
+    }
+
+    private static void cacheResult(final CarmineCache cache,
+                                    final CarmineCache.Key key,
+                                    CompletableFuture<Object> result,
+                                    final long ttl, final long generation,
+                                    final CarmineCodec codec) {
+        result.whenComplete(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object value, Throwable error) {
+                if (error == null && !CarmineStreams.isStreamed(value)) {
+                    cache.put(key, value, ttl, generation, codec);
+                }
+            }
+        });
+    }
+
+    private Object call(MethodInfo info, CarmineRequest request)
+            throws Throwable {
+        // send the request object to the remote side and read the response,
+        // requests with streamed or binary arguments are never batched
+        CarmineResponse response;
+        CarmineBatch batch = cm.currentBatch();
+        if ((batch != null || cm.getBatchWindow() > 0)
+                && !CarmineStreams.hasMarkers(request.getMethodArguments())) {
+            CompletableFuture<CarmineResponse> future = cm.sendAsync(request);
+            if (batch != null) batch.flush();
+            response = await(future);
+        } else {
+            response = cm.getTransport().send(request, cm.getCodec());
+        }
+        cm.mergeProperties(response.getProperties());
 
         // if an exception occurred on the remote side, unwrap and rethrow
         if (!response.isSuccessful()) throw response.getException();
 
-        return response.getResult();
+        return CarmineStreams.adapt(response.getResult(), info.valueType);
+    }
+
+    private CompletableFuture<Object> invokeAsync(
+            final MethodInfo info, final CarmineRequest request,
+            final CarmineMethodMetrics methodMetrics, final long start) {
+
+        final CompletableFuture<CarmineResponse> responseFuture
+                = cm.sendAsync(request);
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        responseFuture.whenComplete(
+                new BiConsumer<CarmineResponse, Throwable>() {
+                    @Override
+                    public void accept(CarmineResponse response,
+                                       Throwable error) {
+                        if (error != null) {
+                            // the transport may detect the deadline first
+                            Throwable cause = unwrap(error);
+                            if (cause instanceof SocketTimeoutException
+                                    && request.isExpired()) {
+                                cause = timedOut(info, timeout(info));
+                            }
+                            result.completeExceptionally(cause);
+                            return;
+                        }
+                        cm.mergeProperties(response.getProperties());
+                        if (response.isSuccessful()) {
+                            result.complete(CarmineStreams.adapt(
+                                    response.getResult(), info.valueType));
+                        } else {
+                            result.completeExceptionally(
+                                    response.getException());
+                        }
+                    }
+                });
+
+        final ScheduledFuture<?> timeoutTask = scheduleTimeout(info, result);
+        result.whenComplete(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object value, Throwable error) {
+                if (methodMetrics != null) {
+                    methodMetrics.completed(
+                            System.nanoTime() - start, error == null);
+                }
+                if (timeoutTask != null) timeoutTask.cancel(false);
+                // aborts the request if cancelled or timed out
+                if (error != null) responseFuture.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private ScheduledFuture<?> scheduleTimeout(
+            final MethodInfo info, final CompletableFuture<Object> result) {
+
+        final long timeoutMillis = timeout(info);
+        if (timeoutMillis <= 0 || result.isDone()) return null;
+
+        return CarmineScheduler.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                result.completeExceptionally(timedOut(info, timeoutMillis));
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static TimeoutException timedOut(MethodInfo info,
+                                             long timeoutMillis) {
+        return new TimeoutException("Remote method " + info.methodName
+                + " timed out after " + timeoutMillis + " ms");
+    }
+
+    private long timeout(MethodInfo info) {
+        return (info.timeout >= 0) ? info.timeout : cm.getTimeout();
+    }
+
+    private static CarmineResponse await(
+            CompletableFuture<CarmineResponse> future) throws Throwable {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            throw unwrap(ex.getCause());
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw ex;
+        }
+    }
+
+    private static boolean isAsync(Method method) {
+        Class<?> returnType = method.getReturnType();
+        return returnType != Object.class
+                && returnType.isAssignableFrom(CompletableFuture.class);
+    }
+
+    /**
+     * Returns the type of the value the future returned by the asynchronous
+     * method is completed with, {@code Object} if it cannot be determined.
+     */
+    private static Class<?> futureValueType(Method method) {
+        Type type = method.getGenericReturnType();
+        if (type instanceof ParameterizedType) {
+            Type value = ((ParameterizedType) type).getActualTypeArguments()[0];
+            if (value instanceof ParameterizedType) {
+                value = ((ParameterizedType) value).getRawType();
+            }
+            if (value instanceof Class) return (Class<?>) value;
+        }
+        return Object.class;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return (error instanceof CompletionException && error.getCause() != null)
+                ? error.getCause()
+                : error;
+    }
+
+    private MethodInfo methodInfo(Method method) {
+        MethodInfo info = methods.get(method);
+        if (info == null) {
+            info = new MethodInfo(method);
+            MethodInfo existing = methods.putIfAbsent(method, info);
+            if (existing != null) info = existing;
+        }
+        return info;
+    }
+
+    /**
+     * Immutable metadata of the invoked method, computed once per method, so
+     * the reflection is not used by the subsequent invocations.
+     */
+    private static final class MethodInfo {
+
+        private final Method method;
+        private final String interfaceName;
+        private final String methodName;
+        private final long methodId;
+        private final Class<?> valueType;
+        private final boolean async;
+        private final boolean idempotent;
+        private final long timeout;
+        private volatile MetricsBinding metricsBinding;
+
+        private MethodInfo(Method method) {
+            this.method = method;
+            this.interfaceName = method.getDeclaringClass().getName();
+            this.methodName = method.getName();
+            this.methodId = CarmineMethodId.of(method);
+            this.async = isAsync(method);
+            this.valueType = async
+                    ? futureValueType(method) : method.getReturnType();
+            this.idempotent
+                    = method.isAnnotationPresent(CarmineIdempotent.class)
+                    || method.isAnnotationPresent(CarmineCacheable.class)
+                    || method.getDeclaringClass().isAnnotationPresent(
+                    CarmineIdempotent.class);
+            CarmineTimeout annotation
+                    = method.getAnnotation(CarmineTimeout.class);
+            this.timeout = (annotation != null)
+                    ? annotation.unit().toMillis(annotation.value()) : -1L;
+        }
+
+        /**
+         * Returns the metrics of this method within the given metrics, which
+         * are looked up only when the metrics of the manager change.
+         */
+        private CarmineMethodMetrics metrics(CarmineMetrics metrics) {
+            if (metrics == null) return null;
+            MetricsBinding binding = metricsBinding;
+            if (binding == null || binding.metrics != metrics) {
+                binding = new MetricsBinding(
+                        metrics, metrics.get(interfaceName, method));
+                metricsBinding = binding;
+            }
+            return binding.methodMetrics;
+        }
+    }
+
+    /**
+     * Metrics of the method bound to the metrics of the manager.
+     */
+    private static final class MetricsBinding {
+
+        private final CarmineMetrics metrics;
+        private final CarmineMethodMetrics methodMetrics;
+
+        private MetricsBinding(CarmineMetrics metrics,
+                               CarmineMethodMetrics methodMetrics) {
+            this.metrics = metrics;
+            this.methodMetrics = methodMetrics;
+        }
     }
 }
@@ -17,32 +17,100 @@
 package com.norcane.carmine;
 
 import java.io.*;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Abstract class representing the remote side logic of the <i>Carmine</i>
+ * Class representing the remote side logic of the <i>Carmine</i>
  * connection, responsible for receiving remote method call requests,
  * executing the real remote method implementations and returning the result
- * (either return value or exception thrown) back to the local side. The only
- * method which must be implemented is the one whose input parameter is the
- * interface name, on which the method was executed on the client side, and
- * output is the instance of the actual implementation of this interface, on
- * which the method will be executed.
+ * (either return value or exception thrown) back to the local side. The
+ * instance of the actual implementation of the interface, on which the method
+ * was executed on the client side, is obtained from the
+ * {@link CarmineProvider} registered for this interface (see
+ * {@link #addProvider(Class, CarmineProvider)}), which manages the lifecycle
+ * of the implementation instances. For interfaces without registered
+ * provider, the {@link #getImplementation(String, Map)} method is called,
+ * which can be overridden to return the instance.
+ * <p/>
+ * The invoker should be created once and shared by all requests, so the
+ * implementation instances (and other cached data) can be reused.
  *
  * @author Vaclav Svejcar (v.svejcar@norcane.cz)
  */
-public abstract class CarmineInvoker {
+public class CarmineInvoker {
+
+    /**
+     * Default minimum size of the response body in bytes to be compressed.
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+    /**
+     * Default number of elements of the streamed result written before the
+     * response is flushed.
+     */
+    public static final int DEFAULT_STREAM_CHUNK_SIZE = 32;
+
+    private final Map<String, CarmineCodec> codecs
+            = new ConcurrentHashMap<String, CarmineCodec>();
+    private final CarmineCodec defaultCodec = new CarmineJavaCodec();
+    private final Map<String, CarmineProvider> providers
+            = new ConcurrentHashMap<String, CarmineProvider>();
+    private final Map<String, CarmineCompression> compressions
+            = new ConcurrentHashMap<String, CarmineCompression>();
+    private volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+    private volatile int streamChunkSize = DEFAULT_STREAM_CHUNK_SIZE;
+    private volatile boolean methodHandles;
+    private volatile Executor executor;
+    private volatile CarmineMetrics metrics;
+    private final Map<String, Long> cacheVersions
+            = new ConcurrentHashMap<String, Long>();
+    private final long cacheVersionBase = System.currentTimeMillis();
+    private final ConcurrentMap<String, Limiters> limiters
+            = new ConcurrentHashMap<String, Limiters>();
+
+    private static final ThreadLocal<CarmineRequest> CURRENT_REQUEST
+            = new ThreadLocal<CarmineRequest>();
+
+    /**
+     * Constructs new instance, supporting the {@link CarmineJavaCodec} (used
+     * as the fallback codec) and {@link CarmineBinaryCodec} codecs, and the
+     * {@link CarmineGzipCompression} and {@link CarmineDeflateCompression}
+     * compressions.
+     */
+    public CarmineInvoker() {
+        addCodec(defaultCodec);
+        addCodec(new CarmineBinaryCodec());
+        addCompression(new CarmineGzipCompression());
+        addCompression(new CarmineDeflateCompression());
+    }
 
     /**
      * Returns the instance of the actual implementation of the interface, on
      * which the method was invoked on the local side. On this implementation
      * instance the requested method will be executed, and the result (either
      * return value or exception thrown) will be sent back to the client side.
+     * This method is called only for interfaces without registered
+     * {@link CarmineProvider}, by default it throws the
+     * {@link ClassNotFoundException}.
      *
      * @param interfaceName fully qualified name of the interface, for which the
      *                      real implementation instance must be returned
@@ -51,67 +119,970 @@ public abstract class CarmineInvoker {
      * @throws Exception thrown when some problem occurs during the
      *                   instantiation of the interface implementation
      */
-    public abstract Object getImplementation(
+    public Object getImplementation(
             String interfaceName, Map<String, Object> properties)
-            throws Exception;
+            throws Exception {
+        throw new ClassNotFoundException(
+                "No implementation of the interface: " + interfaceName);
+    }
+
+    /**
+     * Registers the provider of the implementation instances for the given
+     * interface, replacing any previously registered provider.
+     *
+     * @param theInterface interface of the remote service
+     * @param provider     provider of the implementation instances
+     */
+    public void addProvider(Class<?> theInterface, CarmineProvider provider) {
+        providers.put(theInterface.getName(), provider);
+    }
+
+    /**
+     * Returns the provider of the implementation instances for the given
+     * interface name.
+     *
+     * @param interfaceName fully qualified name of the interface
+     * @return registered provider or {@code null} if none
+     */
+    public CarmineProvider getProvider(String interfaceName) {
+        return providers.get(interfaceName);
+    }
+
+    /**
+     * Returns whether the remote methods are invoked using the
+     * {@link java.lang.invoke.MethodHandle} instead of the reflection.
+     *
+     * @return {@code true} if method handles are used for the invocation
+     */
+    public boolean isMethodHandles() {
+        return methodHandles;
+    }
+
+    /**
+     * Sets whether the remote methods should be invoked using the
+     * {@link java.lang.invoke.MethodHandle} instead of the reflection
+     * (disabled by default). Method handles are usually faster for the
+     * frequently invoked methods, at the cost of slower first invocation.
+     *
+     * @param methodHandles {@code true} to use method handles
+     */
+    public void setMethodHandles(boolean methodHandles) {
+        this.methodHandles = methodHandles;
+    }
+
+    /**
+     * Returns the executor used to execute independent requests of the batch
+     * in parallel.
+     *
+     * @return executor for batch requests
+     */
+    public Executor getExecutor() {
+        Executor result = executor;
+        return (result != null) ? result : DefaultExecutor.INSTANCE;
+    }
+
+    /**
+     * Sets the executor used to execute independent requests of the batch
+     * (see {@link CarmineBatch#setIndependent(boolean)}) in parallel (by
+     * default shared cached thread pool of daemon threads).
+     *
+     * @param executor executor for batch requests
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the time remaining until the deadline of the remote method call
+     * processed by the current thread (see {@link CarmineTimeout}), allowing
+     * the implementation to give up the work whose result would not be
+     * awaited by the local side anyway. Calls whose deadline passes before
+     * they are dispatched are not invoked at all, and the results of the
+     * asynchronous methods are awaited only until the deadline.
+     *
+     * @return remaining time in milliseconds (zero or negative if the
+     * deadline has passed), or {@link Long#MAX_VALUE} if the call has no
+     * deadline or the current thread does not process any call
+     */
+    public static long getRemainingTime() {
+        CarmineRequest request = CURRENT_REQUEST.get();
+        return (request != null) ? request.getRemainingTime() : Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the limiter of the concurrent calls of the given interface.
+     *
+     * @param iface remote interface
+     * @return limiter or {@code null} if the calls are not limited
+     */
+    public CarmineLimiter getLimiter(Class<?> iface) {
+        Limiters result = limiters.get(iface.getName());
+        return (result != null) ? result.limiter : null;
+    }
+
+    /**
+     * Sets the limiter of the concurrent calls of all the methods of the given
+     * interface (by default the calls are not limited). Calls over the limit
+     * are rejected by the {@link CarmineOverloadException}, without invoking
+     * the method, so the interfaces with own limiters do not affect each other
+     * even when some of them become slow. The limiter must not be shared by
+     * more interfaces, unless they should be limited together.
+     * <p/>
+     * The call holds the permit until the method returns (or until its
+     * asynchronous result completes). Streamed results (e.g.
+     * {@link java.util.Iterator} or {@link java.util.stream.Stream}) are
+     * therefore not limited: the permit is released before the first element
+     * is produced, and the elements are produced and sent without any limit.
+     *
+     * @param iface   remote interface
+     * @param limiter limiter or {@code null} to remove the limit
+     */
+    public void setLimiter(Class<?> iface, CarmineLimiter limiter) {
+        limiters(iface).limiter = limiter;
+    }
+
+    /**
+     * Returns the limiter of the concurrent calls of the given method.
+     *
+     * @param iface      remote interface
+     * @param methodName name of the method
+     * @return limiter or {@code null} if the calls are not limited
+     */
+    public CarmineLimiter getLimiter(Class<?> iface, String methodName) {
+        Limiters result = limiters.get(iface.getName());
+        return (result != null) ? result.methods.get(methodName) : null;
+    }
+
+    /**
+     * Sets the limiter of the concurrent calls of the method of the given
+     * interface, applied together with the limiter of the whole interface
+     * (see {@link #setLimiter(Class, CarmineLimiter)}), if any. All the
+     * overloaded methods of the given name are limited together.
+     *
+     * @param iface      remote interface
+     * @param methodName name of the method
+     * @param limiter    limiter or {@code null} to remove the limit
+     */
+    public void setLimiter(Class<?> iface, String methodName,
+                           CarmineLimiter limiter) {
+        if (limiter != null) {
+            limiters(iface).methods.put(methodName, limiter);
+        } else {
+            limiters(iface).methods.remove(methodName);
+        }
+    }
+
+    private Limiters limiters(Class<?> iface) {
+        Limiters result = limiters.get(iface.getName());
+        if (result == null) {
+            result = new Limiters();
+            Limiters previous = limiters.putIfAbsent(iface.getName(), result);
+            if (previous != null) result = previous;
+        }
+        return result;
+    }
+
+    /**
+     * Invalidates all the results of the remote methods cached by the local
+     * sides (see {@link CarmineCache}). The local sides are notified by the
+     * response to their next remote method call.
+     */
+    public void invalidateCache() {
+        nextCacheVersion(CarmineCache.VERSION_PROPERTY);
+    }
+
+    /**
+     * Invalidates the results of the methods of the given remote interface
+     * cached by the local sides (see {@link CarmineCache}). The local sides
+     * are notified by the response to their next remote method call.
+     *
+     * @param iface remote interface
+     */
+    public void invalidateCache(Class<?> iface) {
+        nextCacheVersion(CarmineCache.VERSION_PROPERTY + "." + iface.getName());
+    }
+
+    private void nextCacheVersion(String property) {
+        // versions start at the startup time, so that the restarted remote
+        // side does not repeat the versions already seen by the local sides
+        Long current;
+        do {
+            current = cacheVersions.putIfAbsent(property, cacheVersionBase + 1);
+            if (current == null) return;
+        } while (!cacheVersions.replace(property, current, current + 1));
+    }
+
+    /**
+     * Returns the metrics of processed remote method calls.
+     *
+     * @return metrics or {@code null} if disabled
+     */
+    public CarmineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics of processed remote method calls (by default
+     * {@code null}, i.e. disabled). Besides the number of calls, errors and
+     * transferred bytes (known only for requests processed by
+     * {@link #processRequest(InputStream, String, String, String)}), the
+     * latencies of the whole call and of deserialization of the request,
+     * execution of the method and serialization of the response are recorded
+     * (see {@link CarminePhase}). Calls within the batch record only the
+     * execution of the method.
+     *
+     * @param metrics metrics or {@code null} to disable
+     */
+    public void setMetrics(CarmineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Adds the codec supported by this invoker, replacing any previously added
+     * codec with the same content type.
+     *
+     * @param codec serialization codec
+     */
+    public void addCodec(CarmineCodec codec) {
+        codecs.put(codec.getContentType(), codec);
+    }
+
+    /**
+     * Returns the codec for the given content type of the incoming request. If
+     * the content type is not specified or no such codec is supported, the
+     * {@link CarmineJavaCodec} is returned as the fallback codec. The response
+     * should be sent with the content type of the returned codec.
+     *
+     * @param contentType content type of the incoming request (may be
+     *                    {@code null})
+     * @return codec for the given content type
+     */
+    public CarmineCodec getCodec(String contentType) {
+        String mediaType = CarmineHeaders.mediaType(contentType);
+        CarmineCodec codec = (mediaType != null) ? codecs.get(mediaType) : null;
+        return (codec != null) ? codec : defaultCodec;
+    }
+
+    /**
+     * Adds the compression supported by this invoker, replacing any
+     * previously added compression with the same content encoding.
+     *
+     * @param compression compression of request and response bodies
+     */
+    public void addCompression(CarmineCompression compression) {
+        compressions.put(compression.getEncoding(), compression);
+    }
+
+    /**
+     * Returns the compression for the given content encoding of the incoming
+     * request.
+     *
+     * @param contentEncoding content encoding of the incoming request (may be
+     *                        {@code null})
+     * @return compression for the given content encoding, or {@code null} if
+     * the request is not compressed or no such compression is supported
+     */
+    public CarmineCompression getCompression(String contentEncoding) {
+        String encoding = CarmineHeaders.encoding(contentEncoding);
+        return (encoding != null) ? compressions.get(encoding) : null;
+    }
+
+    /**
+     * Returns the minimum size of the response body in bytes to be
+     * compressed.
+     *
+     * @return compression threshold in bytes
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Sets the minimum size of the response body in bytes to be compressed
+     * (by default {@value #DEFAULT_COMPRESSION_THRESHOLD}). Responses are
+     * compressed only if the local side accepts any of the supported
+     * compressions.
+     *
+     * @param compressionThreshold compression threshold in bytes
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Returns the number of elements of the streamed result written before
+     * the response is flushed.
+     *
+     * @return stream chunk size
+     */
+    public int getStreamChunkSize() {
+        return streamChunkSize;
+    }
+
+    /**
+     * Sets the number of elements of the streamed result (i.e. of the
+     * {@link java.util.Iterator} or {@link java.util.stream.Stream} returned
+     * by the remote method) written before the response is flushed to the
+     * local side (by default {@value #DEFAULT_STREAM_CHUNK_SIZE}). Smaller
+     * chunks let the local side receive the first elements sooner, larger
+     * chunks reduce the overhead of the transfer.
+     *
+     * @param streamChunkSize stream chunk size
+     */
+    public void setStreamChunkSize(int streamChunkSize) {
+        this.streamChunkSize = streamChunkSize;
+    }
 
     /**
      * Takes input and output stream used for communication with the local
      * side, receiving the method invocation requests and sending back the
      * response with invocation result (either successful with return value or
-     * unsuccessful with exception object)
+     * unsuccessful with exception object), using the <i>Java</i>
+     * serialization.
      *
      * @param in  input stream used to read incoming requests
      * @param out output stream used to send responses to local side
      */
     public void processRequest(InputStream in, OutputStream out) {
+        processRequest(in, out, defaultCodec);
+    }
+
+    /**
+     * Takes input and output stream used for communication with the local
+     * side, receiving the method invocation requests and sending back the
+     * response with invocation result (either successful with return value or
+     * unsuccessful with exception object), using the given codec (see
+     * {@link #getCodec(String)}).
+     *
+     * @param in    input stream used to read incoming requests
+     * @param out   output stream used to send responses to local side
+     * @param codec codec used to read requests and write responses
+     */
+    public void processRequest(InputStream in, OutputStream out,
+                               CarmineCodec codec) {
+        process(in, out, codec);
+    }
+
+    /**
+     * Processes the request read from the given input stream, writing the
+     * response to the given output stream.
+     *
+     * @param in    input stream used to read incoming requests
+     * @param out   output stream used to send responses to local side
+     * @param codec codec used to read requests and write responses
+     * @return processed request or {@code null} if it could not be read
+     */
+    private CarmineRequest process(InputStream in, OutputStream out,
+                                   CarmineCodec codec) {
+        Call call = call(in, codec);
+        if (call == null) return null;
+        try {
+            write(call, out, codec);
+        } catch (IOException ex) {
+            handleException(ex);
+        }
+        return call.request;
+    }
+
+    /**
+     * Reads the request from the given input stream and invokes the method.
+     *
+     * @param in    input stream used to read incoming requests
+     * @param codec codec used to read requests
+     * @return invoked call or {@code null} if the request could not be read
+     */
+    private Call call(InputStream in, CarmineCodec codec) {
+        Call call = new Call();
+        boolean measured = (metrics != null);
+        call.start = measured ? System.nanoTime() : 0L;
         try {
-            ObjectInputStream objIn = new ObjectInputStream(in);
-            CarmineRequest request = (CarmineRequest) objIn.readObject();
+            ObjectInput objIn = codec.createInput(in);
+            call.input = objIn;
+            call.request = (CarmineRequest) objIn.readObject();
+            CarmineStreams.resolveStreams(
+                    call.request.getMethodArguments(), objIn);
+        } catch (IOException ex) {
+            handleException(ex);
+            return null;
+        } catch (ClassNotFoundException ex) {
+            handleException(ex);
+            return null;
+        }
+        call.deserialized = measured ? System.nanoTime() : 0L;
 
-            String interfaceName = request.getInterfaceName();
-            Object[] methodArguments = request.getMethodArguments();
-            Map<String, Object> properties = new HashMap<String, Object>(
-                    request.getProperties());
-            Object instance = null;
-            CarmineResponse response = null;
+        if (call.request instanceof CarmineBatchRequest) {
+            call.response = processBatch((CarmineBatchRequest) call.request);
+        } else {
+            call.response = invoke(call.request, new HashMap<String, Object>(
+                    call.request.getProperties()));
+        }
+        call.response = withDelta(
+                call.response, call.request.getProperties());
+        call.dispatched = measured ? System.nanoTime() : 0L;
+        return call;
+    }
+
+    /**
+     * Processes the request passed by the local side running in the same JVM
+     * (see {@link CarmineLocalTransport}), without any serialization. The
+     * arguments and the result (including the streamed one) are passed by
+     * reference.
+     *
+     * @param request request of the local side
+     * @return response with the properties changed by the invocation
+     */
+    CarmineResponse process(CarmineRequest request) {
+        CarmineResponse response;
+        if (request instanceof CarmineBatchRequest) {
+            response = processBatch((CarmineBatchRequest) request);
+        } else {
+            response = invoke(request, new HashMap<String, Object>(
+                    request.getProperties()));
+        }
+        return withDelta(response, request.getProperties());
+    }
 
+    /**
+     * Writes the response of the invoked call to the given output stream,
+     * followed by the elements of the streamed result (if any).
+     *
+     * @param call  invoked call
+     * @param out   output stream used to send responses to local side
+     * @param codec codec used to write responses
+     * @throws IOException thrown if writing fails
+     */
+    private void write(Call call, OutputStream out, CarmineCodec codec)
+            throws IOException {
+        CarmineResponse response = call.response;
+        Object result = response.isSuccessful() ? response.getResult() : null;
+        boolean streamed = CarmineStreams.isStreamed(result);
+        ObjectOutput objOut = codec.createOutput(out);
+        if (streamed) {
+            // the result is closed (releasing its instance) even if the
+            // elements are never written
+            boolean started = false;
             try {
-                instance = getImplementation(interfaceName, properties);
-            } catch (Throwable t) {
-                response = new CarmineResponse(t, properties);
+                objOut.writeObject(new CarmineResponse(
+                        CarmineStreams.Marker.STREAM,
+                        response.getProperties()));
+                started = true;
+            } finally {
+                if (!started) CarmineStreams.close(result);
             }
+            CarmineStreams.writeElements(result, objOut, streamChunkSize);
+        } else {
+            if (CarmineStreams.isSegment(result)) {
+                // the binary result follows the response as the raw segment
+                objOut.writeObject(CarmineStreams.withMarker(response));
+                CarmineStreams.writeSegment(result, objOut);
+            } else {
+                objOut.writeObject(response);
+            }
+            if (out instanceof CarmineByteArrayOutputStream) {
+                // returns the buffer of the output to the pool
+                objOut.close();
+            } else {
+                objOut.flush();
+            }
+        }
 
-            if (instance != null) {
-                Class[] parameterTypes = null;
-                if (request.getMethodArguments() != null) {
-                    parameterTypes = new Class[methodArguments.length];
-                    for (int i = 0; i < methodArguments.length; i++) {
-                        parameterTypes[i] = methodArguments[i].getClass();
-                    }
+        CarmineMethodMetrics methodMetrics = call.request.getMetrics();
+        if (methodMetrics != null) {
+            long end = System.nanoTime();
+            methodMetrics.record(
+                    CarminePhase.DESERIALIZE, call.deserialized - call.start);
+            methodMetrics.record(CarminePhase.SERIALIZE, end - call.dispatched);
+            methodMetrics.completed(end - call.start, response.isSuccessful());
+        }
+    }
+
+    /**
+     * Reads the method invocation request from the given input stream and
+     * returns the serialized response with invocation result, using the codec
+     * specified by the content type (see {@link #getCodec(String)}). The
+     * request is decompressed according to its content encoding, and the
+     * response is compressed by the first supported compression accepted by
+     * the local side, if its size reaches the compression threshold (see
+     * {@link #setCompressionThreshold(int)}). The returned response specifies
+     * the values of the {@code Content-Type}, {@code Content-Encoding} and
+     * {@code Content-Length} headers, which must be sent with it.
+     *
+     * @param in              input stream used to read incoming request
+     * @param contentType     value of the {@code Content-Type} header of the
+     *                        request (may be {@code null})
+     * @param contentEncoding value of the {@code Content-Encoding} header of
+     *                        the request (may be {@code null})
+     * @param acceptEncoding  value of the {@code Accept-Encoding} header of
+     *                        the request (may be {@code null})
+     * @return serialized response
+     */
+    public CarmineEncodedResponse processRequest(
+            InputStream in, String contentType, String contentEncoding,
+            String acceptEncoding) {
+        return processRequest(in, getCodec(contentType), contentEncoding,
+                acceptEncoding);
+    }
+
+    /**
+     * Reads the method invocation request received over the persistent
+     * connection of the {@link CarmineMuxServer} and returns the serialized
+     * response, writing and reading the names using the dictionary of the
+     * connection (see {@link CarmineSymbols}).
+     *
+     * @param in          input stream used to read incoming request
+     * @param contentType content type of the request (may be {@code null})
+     * @param symbols     dictionary of the connection
+     * @return serialized response
+     */
+    CarmineEncodedResponse processRequest(InputStream in, String contentType,
+                                          CarmineSymbols symbols) {
+        return processRequest(in, symbols.bind(getCodec(contentType)),
+                null, null);
+    }
+
+    private CarmineEncodedResponse processRequest(
+            InputStream in, final CarmineCodec codec, String contentEncoding,
+            String acceptEncoding) {
+
+        CarmineByteArrayOutputStream body = new CarmineByteArrayOutputStream();
+        CountingInputStream counting = null;
+        if (metrics != null) in = counting = new CountingInputStream(in);
+        Call call = null;
+
+        CarmineCompression compression = getCompression(contentEncoding);
+        if (compression == null
+                && CarmineHeaders.encoding(contentEncoding) != null) {
+            writeResponse(new CarmineResponse(new IOException(
+                    "Unsupported content encoding: " + contentEncoding),
+                    new HashMap<String, Object>()), body, codec);
+        } else if (compression != null) {
+            try {
+                call = call(compression.decompress(in), codec);
+            } catch (IOException ex) {
+                handleException(ex);
+            }
+        } else {
+            call = call(in, codec);
+        }
+        if (call != null) {
+            // the request has been processed (including its streamed
+            // arguments), so the input can return its buffer to the pool
+            try {
+                call.input.close();
+            } catch (IOException ex) {
+                handleException(ex);
+            }
+        }
+
+        CarmineMethodMetrics methodMetrics
+                = (call != null) ? call.request.getMetrics() : null;
+        if (methodMetrics != null && counting != null) {
+            methodMetrics.transferred(counting.getCount(), -1);
+        }
+
+        // streamed result is written directly to the local side
+        if (call != null && call.response.isSuccessful()
+                && CarmineStreams.isStreamed(call.response.getResult())) {
+            final Call streamedCall = call;
+            return new CarmineEncodedResponse(codec.getContentType()) {
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    write(streamedCall, out, codec);
                 }
-                Method method = instance.getClass().getMethod(
-                        request.getMethodName(), parameterTypes);
+            };
+        }
 
-                try {
-                    Object result = method.invoke(instance, methodArguments);
-                    response = new CarmineResponse(result, properties);
-                } catch (InvocationTargetException ex) {
-                    response = new CarmineResponse(ex, properties);
+        if (call != null) {
+            try {
+                write(call, body, codec);
+            } catch (IOException ex) {
+                handleException(ex);
+            }
+        }
+        CarmineEncodedResponse response = encode(body, codec, acceptEncoding);
+        if (methodMetrics != null) {
+            methodMetrics.transferred(-1, response.getContentLength());
+        }
+        return response;
+    }
+
+    private CarmineEncodedResponse encode(CarmineByteArrayOutputStream body,
+                                          CarmineCodec codec,
+                                          String acceptEncoding) {
+        CarmineCompression responseCompression = (body.size()
+                >= compressionThreshold) ? accepted(acceptEncoding) : null;
+        if (responseCompression != null) {
+            CarmineByteArrayOutputStream compressed
+                    = new CarmineByteArrayOutputStream(body.size() / 2);
+            try {
+                OutputStream out = responseCompression.compress(compressed);
+                body.writeTo(out);
+                out.close();
+                if (compressed.size() < body.size()) {
+                    body.release();
+                    return new PooledResponse(codec.getContentType(),
+                            responseCompression.getEncoding(), compressed);
                 }
+            } catch (IOException ex) {
+                handleException(ex);
             }
+            compressed.release();
+        }
+        return new PooledResponse(codec.getContentType(), null, body);
+    }
+
+    private CarmineCompression accepted(String acceptEncoding) {
+        for (String encoding : CarmineHeaders.acceptedEncodings(acceptEncoding)) {
+            CarmineCompression compression = compressions.get(encoding);
+            if (compression != null) return compression;
+        }
+        return null;
+    }
 
-            ObjectOutputStream objOut = new ObjectOutputStream(out);
+    private void writeResponse(CarmineResponse response, OutputStream out,
+                               CarmineCodec codec) {
+        try {
+            ObjectOutput objOut = codec.createOutput(out);
             objOut.writeObject(response);
-            objOut.flush();
+            objOut.close();
         } catch (IOException ex) {
             handleException(ex);
-        } catch (ClassNotFoundException ex) {
-            handleException(ex);
-        } catch (NoSuchMethodException ex) {
-            handleException(ex);
-        } catch (IllegalAccessException ex) {
-            handleException(ex);
+        }
+    }
+
+    /**
+     * Executes all the requests of the batch, either one by one in the given
+     * order, or in parallel using the executor (see
+     * {@link #setExecutor(Executor)}) if the requests are independent. All the
+     * requests share the properties map of the batch.
+     *
+     * @param batch batch of requests
+     * @return response to the batch, with responses of particular requests
+     */
+    private CarmineResponse processBatch(CarmineBatchRequest batch) {
+        List<CarmineRequest> requests = batch.getRequests();
+        List<CarmineResponse> responses
+                = new ArrayList<CarmineResponse>(requests.size());
+
+        if (!batch.isIndependent() || requests.size() < 2) {
+            Map<String, Object> properties
+                    = new HashMap<String, Object>(batch.getProperties());
+            for (CarmineRequest request : requests) {
+                responses.add(withoutProperties(
+                        invokeCompleted(request, properties)));
+            }
+            return new CarmineBatchResponse(responses, properties);
+        }
+
+        final Map<String, Object> properties = Collections.synchronizedMap(
+                new HashMap<String, Object>(batch.getProperties()));
+        List<FutureTask<CarmineResponse>> tasks
+                = new ArrayList<FutureTask<CarmineResponse>>(requests.size());
+        for (final CarmineRequest request : requests) {
+            tasks.add(new FutureTask<CarmineResponse>(
+                    new Callable<CarmineResponse>() {
+                        @Override
+                        public CarmineResponse call() {
+                            return invokeCompleted(request, properties);
+                        }
+                    }));
+        }
+
+        // the first request is executed by the current thread
+        for (int i = 1; i < tasks.size(); i++) {
+            try {
+                getExecutor().execute(tasks.get(i));
+            } catch (RejectedExecutionException ex) {
+                tasks.get(i).run();
+            }
+        }
+        tasks.get(0).run();
+
+        for (FutureTask<CarmineResponse> task : tasks) {
+            responses.add(withoutProperties(awaitResponse(task, properties)));
+        }
+        return new CarmineBatchResponse(responses,
+                new HashMap<String, Object>(properties));
+    }
+
+    /**
+     * Invokes the method specified by the request of the batch, recording
+     * the completed call (see {@link #invoke(CarmineRequest, Map)}).
+     *
+     * @param request    method invocation request
+     * @param properties properties map shared within the communication
+     * @return response with the invocation result
+     */
+    private CarmineResponse invokeCompleted(CarmineRequest request,
+                                            Map<String, Object> properties) {
+        long start = (metrics != null) ? System.nanoTime() : 0L;
+        CarmineResponse response = invoke(request, properties);
+        CarmineMethodMetrics methodMetrics = request.getMetrics();
+        if (methodMetrics != null) {
+            methodMetrics.completed(
+                    System.nanoTime() - start, response.isSuccessful());
+        }
+        return response;
+    }
+
+    /**
+     * Invokes the method specified by the request on the implementation
+     * acquired from the registered provider, or returned by the
+     * {@link #getImplementation(String, Map)}, unless the concurrency limit of
+     * the method is reached (see {@link #setLimiter(Class, CarmineLimiter)}).
+     * If the metrics are enabled, the metrics of the invoked method are set to
+     * the request and the latency of the {@link CarminePhase#DISPATCH} is
+     * recorded.
+     *
+     * @param request    method invocation request
+     * @param properties properties map shared within the communication
+     * @return response with the invocation result
+     */
+    private CarmineResponse invoke(CarmineRequest request,
+                                   Map<String, Object> properties) {
+        CarmineMetrics metrics = this.metrics;
+        long start = (metrics != null) ? System.nanoTime() : 0L;
+        String interfaceName = request.getInterfaceName();
+        Object[] methodArguments = request.getMethodArguments();
+        CarmineProvider provider = (interfaceName != null)
+                ? providers.get(interfaceName) : null;
+        Object instance = null;
+        boolean released = false;
+        CarmineResponse response = null;
+
+        // expired calls and calls over the limit are rejected before the
+        // implementation is acquired or the method resolved
+        Limiters limits = (interfaceName != null && !limiters.isEmpty())
+                ? limiters.get(interfaceName) : null;
+        CarmineLimiter limiter = null;
+        CarmineLimiter methodLimiter = null;
+        long limited = 0L;
+        if (request.isExpired()) {
+            response = expired(properties);
+        } else if (limits != null) {
+            limiter = limits.limiter;
+            methodLimiter = limits.methods.get(request.getMethodName());
+            if (limiter != null && !limiter.acquire()) {
+                response = overloaded(interfaceName, properties);
+                limiter = methodLimiter = null;
+            } else if (methodLimiter != null) {
+                boolean acquired = false;
+                try {
+                    acquired = methodLimiter.acquire();
+                } finally {
+                    if (!acquired && limiter != null) limiter.release(-1);
+                }
+                if (!acquired) {
+                    response = overloaded(interfaceName + "."
+                            + request.getMethodName(), properties);
+                    limiter = methodLimiter = null;
+                }
+            }
+            limited = System.nanoTime();
+        }
+
+        // acquired permits are released whatever happens to the call
+        try {
+            // the call might have waited for the limiter until its deadline
+            if (response == null && limits != null && request.isExpired()) {
+                response = expired(properties);
+            }
+            if (response == null) {
+                try {
+                    instance = (provider != null)
+                            ? provider.acquire(properties)
+                            : getImplementation(interfaceName, properties);
+                } catch (Throwable t) {
+                    response = new CarmineResponse(t, properties);
+                }
+            }
+
+            if (instance != null) {
+                try {
+                    CarmineMethodCache.Target target
+                            = CarmineMethodCache.resolve(instance.getClass(),
+                            interfaceName, request.getMethodName(),
+                            request.getMethodId(), methodArguments);
+                    if (metrics != null) {
+                        request.setMetrics(
+                                metrics.get(interfaceName, target.getMethod()));
+                    }
+                    boolean timed
+                            = (request.getRemainingTime() != Long.MAX_VALUE);
+                    if (timed) CURRENT_REQUEST.set(request);
+                    try {
+                        Object result = target.invoke(
+                                instance, methodArguments, methodHandles);
+                        if (target.isAsync()) result = await(result, request);
+                        if (provider != null
+                                && CarmineStreams.isStreamed(result)) {
+                            // the instance produces the elements until the
+                            // result is written (and closed)
+                            result = CarmineStreams.onClose(result,
+                                    releaser(provider, instance, properties));
+                            released = true;
+                        }
+                        // nobody waits for the result, so it is not sent at all
+                        response = (timed && request.isExpired()
+                                && !CarmineStreams.isStreamed(result))
+                                ? expired(properties)
+                                : new CarmineResponse(result, properties);
+                    } finally {
+                        if (timed) CURRENT_REQUEST.remove();
+                    }
+                } catch (Throwable t) {
+                    response = new CarmineResponse(t, properties);
+                } finally {
+                    if (provider != null && !released) {
+                        provider.release(instance, properties);
+                    }
+                }
+            }
+        } finally {
+            if (limiter != null || methodLimiter != null) {
+                long latency = System.nanoTime() - limited;
+                try {
+                    if (methodLimiter != null) methodLimiter.release(latency);
+                } finally {
+                    if (limiter != null) limiter.release(latency);
+                }
+            }
+        }
+        if (metrics != null) {
+            CarmineMethodMetrics methodMetrics = request.getMetrics();
+            if (methodMetrics == null) {
+                methodMetrics = metrics.get(
+                        interfaceName, request.getMethodName());
+                request.setMetrics(methodMetrics);
+            }
+            methodMetrics.record(
+                    CarminePhase.DISPATCH, System.nanoTime() - start);
+        }
+        return response;
+    }
+
+    private static Runnable releaser(final CarmineProvider provider,
+                                     final Object instance,
+                                     final Map<String, Object> properties) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                provider.release(instance, properties);
+            }
+        };
+    }
+
+    private CarmineResponse expired(Map<String, Object> properties) {
+        return new CarmineResponse(new TimeoutException(
+                "Deadline of the call passed"), properties);
+    }
+
+    private CarmineResponse overloaded(String name,
+                                       Map<String, Object> properties) {
+        return new CarmineResponse(new CarmineOverloadException(
+                "Concurrency limit of " + name + " reached"), properties);
+    }
+
+    /**
+     * Returns the response with only the properties changed by the
+     * invocation (see {@link CarmineProperties#delta(Map, Map)}), including
+     * the changed cache versions.
+     *
+     * @param response response with all the properties
+     * @param before   properties of the request
+     * @return response with the changed properties
+     */
+    private CarmineResponse withDelta(CarmineResponse response,
+                                      Map<String, Object> before) {
+        Map<String, Object> after = response.getProperties();
+        if (!cacheVersions.isEmpty()) {
+            after = new HashMap<String, Object>(after);
+            after.putAll(cacheVersions);
+        }
+        Map<String, Object> delta = CarmineProperties.delta(before, after);
+        if (response instanceof CarmineBatchResponse) {
+            return new CarmineBatchResponse(
+                    ((CarmineBatchResponse) response).getResponses(), delta);
+        }
+        return response.isSuccessful()
+                ? new CarmineResponse(response.getResult(), delta)
+                : new CarmineResponse(response.getException(), delta);
+    }
+
+    /**
+     * Returns the response of the request within the batch, without the
+     * properties (shared by the whole batch), with the streamed result
+     * materialized into the list and the {@link ByteBuffer} result copied
+     * into the byte array.
+     */
+    private static CarmineResponse withoutProperties(CarmineResponse response) {
+        Map<String, Object> none = Collections.emptyMap();
+        if (!response.isSuccessful()) {
+            return new CarmineResponse(response.getException(), none);
+        }
+        Object result = response.getResult();
+        if (CarmineStreams.isStreamed(result)) {
+            try {
+                result = CarmineStreams.materialize(result);
+            } catch (Throwable t) {
+                return new CarmineResponse(t, none);
+            }
+        } else if (result instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) result).duplicate();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            result = bytes;
+        }
+        return new CarmineResponse(result, none);
+    }
+
+    private static CarmineResponse awaitResponse(
+            FutureTask<CarmineResponse> task, Map<String, Object> properties) {
+        try {
+            return task.get();
+        } catch (ExecutionException ex) {
+            return new CarmineResponse(ex.getCause(), properties);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return new CarmineResponse(ex, properties);
+        }
+    }
+
+    /**
+     * Waits for the result of the asynchronous method (returning the
+     * {@link Future} or {@link CompletionStage}).
+     *
+     * @param result future returned by the method (may be {@code null})
+     * @return result of the future
+     * @throws Throwable exception the future completed with
+     */
+    private static Object await(Object result, CarmineRequest request)
+            throws Throwable {
+        Future<?> future;
+        if (result instanceof Future) {
+            future = (Future<?>) result;
+        } else if (result instanceof CompletionStage) {
+            future = ((CompletionStage<?>) result).toCompletableFuture();
+        } else {
+            return result;
+        }
+
+        try {
+            long remaining = request.getRemainingTime();
+            if (remaining == Long.MAX_VALUE) return future.get();
+            try {
+                return future.get(Math.max(0L, remaining),
+                        TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                // the local side does not wait for the result anymore
+                future.cancel(true);
+                throw ex;
+            }
+        } catch (ExecutionException ex) {
+            throw (ex.getCause() != null) ? ex.getCause() : ex;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw ex;
         }
     }
 
@@ -119,4 +1090,103 @@ public abstract class CarmineInvoker {
         Logger.getLogger(getClass().getName()).log(Level.SEVERE,
                 "An exception thrown during Carmine remote invocation", ex);
     }
+
+    /**
+     * Response holding the pooled buffer of its body, which is released once
+     * the body is written.
+     */
+    private static final class PooledResponse extends CarmineEncodedResponse {
+
+        private final CarmineByteArrayOutputStream body;
+        private boolean written;
+
+        private PooledResponse(String contentType, String contentEncoding,
+                               CarmineByteArrayOutputStream body) {
+            super(contentType, contentEncoding, body.buffer(), body.size());
+            this.body = body;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            if (written) {
+                throw new IllegalStateException("Response already written");
+            }
+            written = true;
+            try {
+                super.writeTo(out);
+            } finally {
+                body.release();
+            }
+        }
+    }
+
+    /**
+     * Limiters of the interface and its methods.
+     */
+    private static final class Limiters {
+
+        private volatile CarmineLimiter limiter;
+        private final ConcurrentMap<String, CarmineLimiter> methods
+                = new ConcurrentHashMap<String, CarmineLimiter>();
+    }
+
+    /**
+     * Request read from the local side together with its response and the
+     * times of particular phases, used for the metrics.
+     */
+    private static final class Call {
+
+        private CarmineRequest request;
+        private CarmineResponse response;
+        private ObjectInput input;
+        private long start;
+        private long deserialized;
+        private long dispatched;
+    }
+
+    /**
+     * Input stream counting the bytes read from the underlying stream.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * Holder of the default executor, created on first use.
+     */
+    private static final class DefaultExecutor {
+
+        private static final Executor INSTANCE = Executors.newCachedThreadPool(
+                new CarmineThreadFactory("carmine-batch"));
+    }
 }
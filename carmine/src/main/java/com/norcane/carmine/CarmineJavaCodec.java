@@ -0,0 +1,55 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Implementation of the {@link CarmineCodec} using the standard <i>Java</i>
+ * serialization ({@link ObjectOutputStream} and {@link ObjectInputStream}).
+ * This codec supports any serializable object and is used as the fallback
+ * codec, if no other codec is specified or negotiated.
+ */
+public class CarmineJavaCodec implements CarmineCodec {
+
+    /**
+     * Content type of the <i>Java</i> serialization codec.
+     */
+    public static final String CONTENT_TYPE
+            = "application/x-java-serialized-object";
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public ObjectOutput createOutput(OutputStream out) throws IOException {
+        return new ObjectOutputStream(out);
+    }
+
+    @Override
+    public ObjectInput createInput(InputStream in) throws IOException {
+        return new ObjectInputStream(in);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * {@link CarmineMetricsListener} publishing the metrics of every called
+ * remote method as the <i>JMX</i> bean (see
+ * {@link CarmineMethodMetricsMXBean}), named
+ * {@code com.norcane.carmine:type=Metrics,name=<metrics name>,
+ * interface=<interface name>,method=<method name>}. The beans read the
+ * current values of the metrics, so the recording itself is not affected.
+ * Closing the exporter unregisters all its beans.
+ */
+public class CarmineJmxExporter implements CarmineMetricsListener, Closeable {
+
+    /**
+     * Domain of the names of registered beans.
+     */
+    public static final String DOMAIN = "com.norcane.carmine";
+
+    private static final double NANOS_PER_MICRO = 1000.0;
+
+    private final MBeanServer server;
+    private final List<ObjectName> names = new ArrayList<ObjectName>();
+
+    /**
+     * Constructs new instance registering the beans to the platform
+     * <i>MBean</i> server.
+     */
+    public CarmineJmxExporter() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    /**
+     * Constructs new instance registering the beans to the given <i>MBean</i>
+     * server.
+     *
+     * @param server MBean server
+     */
+    public CarmineJmxExporter(MBeanServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public void methodAdded(CarmineMethodMetrics method) {
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=Metrics"
+                    + ",name=" + quote(method.getMetrics().getName())
+                    + ",interface=" + quote(method.getInterfaceName())
+                    + ",method=" + quote(method.getMethodName()));
+            synchronized (names) {
+                if (server.isRegistered(name)) server.unregisterMBean(name);
+                server.registerMBean(new MethodMetricsBean(method), name);
+                names.add(name);
+            }
+        } catch (JMException ex) {
+            Logger.getLogger(getClass().getName()).log(Level.WARNING,
+                    "Cannot register metrics of " + method, ex);
+        }
+    }
+
+    /**
+     * Unregisters all the beans registered by this exporter.
+     */
+    @Override
+    public void close() {
+        synchronized (names) {
+            for (ObjectName name : names) {
+                try {
+                    if (server.isRegistered(name)) server.unregisterMBean(name);
+                } catch (JMException ex) {
+                    Logger.getLogger(getClass().getName()).log(Level.WARNING,
+                            "Cannot unregister " + name, ex);
+                }
+            }
+            names.clear();
+        }
+    }
+
+    private static String quote(String value) {
+        return ObjectName.quote(value);
+    }
+
+    private static double micros(double nanos) {
+        return nanos / NANOS_PER_MICRO;
+    }
+
+    /**
+     * Bean reading the metrics of the single method.
+     */
+    private static final class MethodMetricsBean
+            implements CarmineMethodMetricsMXBean {
+
+        private final CarmineMethodMetrics method;
+
+        MethodMetricsBean(CarmineMethodMetrics method) {
+            this.method = method;
+        }
+
+        @Override
+        public String getInterfaceName() {
+            return method.getInterfaceName();
+        }
+
+        @Override
+        public String getMethodName() {
+            return method.getMethodName();
+        }
+
+        @Override
+        public long getCalls() {
+            return method.getCalls();
+        }
+
+        @Override
+        public long getErrors() {
+            return method.getErrors();
+        }
+
+        @Override
+        public long getBytesIn() {
+            return method.getBytesIn();
+        }
+
+        @Override
+        public long getBytesOut() {
+            return method.getBytesOut();
+        }
+
+        @Override
+        public double getMeanLatency() {
+            CarmineHistogram histogram
+                    = method.getHistogram(CarminePhase.TOTAL);
+            return (histogram != null) ? micros(histogram.getMean()) : 0;
+        }
+
+        @Override
+        public double getMedianLatency() {
+            return percentile(CarminePhase.TOTAL.name(), 50);
+        }
+
+        @Override
+        public double getP99Latency() {
+            return percentile(CarminePhase.TOTAL.name(), 99);
+        }
+
+        @Override
+        public double getP999Latency() {
+            return percentile(CarminePhase.TOTAL.name(), 99.9);
+        }
+
+        @Override
+        public double getMaxLatency() {
+            CarmineHistogram histogram
+                    = method.getHistogram(CarminePhase.TOTAL);
+            return (histogram != null) ? micros(histogram.getMax()) : 0;
+        }
+
+        @Override
+        public Map<String, Double> getMeanPhaseLatencies() {
+            Map<String, Double> latencies = new LinkedHashMap<String, Double>();
+            for (CarminePhase phase : CarminePhase.values()) {
+                CarmineHistogram histogram = method.getHistogram(phase);
+                if (histogram != null) {
+                    latencies.put(phase.name(), micros(histogram.getMean()));
+                }
+            }
+            return latencies;
+        }
+
+        @Override
+        public double percentile(String phase, double percentile) {
+            CarmineHistogram histogram = method.getHistogram(
+                    CarminePhase.valueOf(phase));
+            return (histogram != null)
+                    ? micros(histogram.getPercentile(percentile)) : 0;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Balancer choosing the endpoints randomly, with the probability inversely
+ * proportional to their expected latency, i.e. the moving average of their
+ * latency multiplied by the number of their outstanding requests (plus one).
+ * Faster endpoints therefore receive more requests, until they become loaded.
+ * Endpoints without any measured latency yet are expected to be as fast as
+ * the fastest measured endpoint, so they receive the requests soon.
+ */
+public class CarmineLatencyBalancer implements CarmineBalancer {
+
+    @Override
+    public CarmineEndpoint select(List<CarmineEndpoint> candidates) {
+        int size = candidates.size();
+        if (size == 1) return candidates.get(0);
+
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            long latency = candidates.get(i).getLatency();
+            if (latency > 0 && latency < fastest) fastest = latency;
+        }
+        if (fastest == Long.MAX_VALUE) fastest = 1;
+
+        double[] weights = new double[size];
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            CarmineEndpoint endpoint = candidates.get(i);
+            long latency = endpoint.getLatency();
+            double cost = (double) ((latency > 0) ? latency : fastest)
+                    * (endpoint.getOutstanding() + 1);
+            weights[i] = 1.0 / cost;
+            total += weights[i];
+        }
+
+        double point = ThreadLocalRandom.current().nextDouble() * total;
+        for (int i = 0; i < size - 1; i++) {
+            point -= weights[i];
+            if (point < 0) return candidates.get(i);
+        }
+        return candidates.get(size - 1);
+    }
+}
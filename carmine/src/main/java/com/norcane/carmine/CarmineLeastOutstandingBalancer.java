@@ -0,0 +1,48 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Balancer choosing the endpoint with the least outstanding requests, so the
+ * slower endpoints, which complete their requests later, receive less
+ * requests. Endpoints with the same number of outstanding requests are chosen
+ * in turn.
+ */
+public class CarmineLeastOutstandingBalancer implements CarmineBalancer {
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public CarmineEndpoint select(List<CarmineEndpoint> candidates) {
+        int size = candidates.size();
+        int offset = (counter.getAndIncrement() & Integer.MAX_VALUE) % size;
+        CarmineEndpoint best = null;
+        int bestOutstanding = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            CarmineEndpoint endpoint = candidates.get((offset + i) % size);
+            int outstanding = endpoint.getOutstanding();
+            if (outstanding < bestOutstanding) {
+                best = endpoint;
+                bestOutstanding = outstanding;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limit of the concurrently processed remote method calls, used by the
+ * {@link CarmineInvoker} to isolate the interfaces or methods from each other
+ * (see {@link CarmineInvoker#setLimiter(Class, CarmineLimiter)}), so that one
+ * slow service cannot occupy all the threads of the server. Calls over the
+ * limit wait in the bounded queue for the limited time, and are rejected by
+ * the {@link CarmineOverloadException} if the queue is full or the time runs
+ * out. By default, the calls over the limit are rejected immediately.
+ * <p/>
+ * The limit is fixed, the {@link CarmineAdaptiveLimiter} adjusts it according
+ * to the observed latency.
+ * <p/>
+ * <dl>
+ * <dt><b>Example of usage:</b></dt>
+ * <dd><pre><code>
+ * // at most 20 calls in progress, another 50 calls wait up to 100 ms
+ * invoker.setLimiter(RemoteTest.class, new CarmineLimiter(20, 50, 100));
+ * </code></pre></dd>
+ * </dl>
+ */
+public class CarmineLimiter {
+
+    private final int maxQueued;
+    private final long queueTimeout;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    // lock instead of the monitor, which would pin the virtual threads
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private volatile int limit;
+
+    /**
+     * Constructs new instance with the given limit, rejecting calls over the
+     * limit immediately.
+     *
+     * @param limit maximum number of concurrent calls
+     */
+    public CarmineLimiter(int limit) {
+        this(limit, 0, 0L);
+    }
+
+    /**
+     * Constructs new instance with the given limit and the queue of calls
+     * waiting over the limit.
+     *
+     * @param limit        maximum number of concurrent calls
+     * @param maxQueued    maximum number of calls waiting over the limit
+     * @param queueTimeout maximum time the call waits in the queue in
+     *                     milliseconds
+     */
+    public CarmineLimiter(int limit, int maxQueued, long queueTimeout) {
+        this.limit = Math.max(1, limit);
+        this.maxQueued = maxQueued;
+        this.queueTimeout = queueTimeout;
+    }
+
+    /**
+     * Returns the current maximum number of concurrent calls.
+     *
+     * @return limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Sets the maximum number of concurrent calls. Calls already in progress
+     * are not affected when the limit is lowered.
+     *
+     * @param limit maximum number of concurrent calls (at least {@code 1})
+     */
+    public void setLimit(int limit) {
+        int previous = this.limit;
+        this.limit = Math.max(1, limit);
+        if (limit > previous && queued.get() > 0) signal(true);
+    }
+
+    /**
+     * Returns the maximum number of calls waiting over the limit.
+     *
+     * @return maximum queue size
+     */
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    /**
+     * Returns the maximum time the call waits in the queue in milliseconds.
+     *
+     * @return queue timeout in milliseconds
+     */
+    public long getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    /**
+     * Returns the number of calls in progress.
+     *
+     * @return calls in progress
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Returns the number of calls waiting in the queue.
+     *
+     * @return queued calls
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Returns the number of rejected calls.
+     *
+     * @return rejected calls
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Acquires the permit to process the call, waiting in the queue if the
+     * limit is reached. Every acquired permit must be released by
+     * {@link #release(long)}.
+     *
+     * @return {@code true} if the permit was acquired, {@code false} if the
+     * call must be rejected
+     */
+    public boolean acquire() {
+        if (tryAcquire()) return true;
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+
+        long remaining = TimeUnit.MILLISECONDS.toNanos(queueTimeout);
+        lock.lock();
+        try {
+            while (!tryAcquire()) {
+                if (remaining <= 0) {
+                    rejected.increment();
+                    return false;
+                }
+                remaining = available.awaitNanos(remaining);
+            }
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            rejected.increment();
+            return false;
+        } finally {
+            queued.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the permit acquired by {@link #acquire()}.
+     *
+     * @param latency latency of the processed call in nanoseconds, or
+     *                {@code -1} if the call has not been processed
+     */
+    public void release(long latency) {
+        int current = inFlight.decrementAndGet();
+        if (latency >= 0) sample(latency, current + 1);
+        if (queued.get() > 0) signal(false);
+    }
+
+    /**
+     * Called with the latency of each processed call, allowing the subclasses
+     * to adjust the limit (see {@link #setLimit(int)}). Does nothing by
+     * default.
+     *
+     * @param latency  latency of the call in nanoseconds
+     * @param inFlight number of calls in progress when the call completed
+     *                 (including the call itself)
+     */
+    protected void sample(long latency, int inFlight) {
+    }
+
+    private boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) return false;
+            if (inFlight.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    private void signal(boolean all) {
+        lock.lock();
+        try {
+            if (all) {
+                available.signalAll();
+            } else {
+                available.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
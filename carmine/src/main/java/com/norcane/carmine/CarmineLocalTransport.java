@@ -0,0 +1,164 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Transport passing the requests directly to the {@link CarmineInvoker}
+ * running in the same JVM, so the co-located services are called without
+ * any network communication. The properties are propagated and the
+ * exceptions are rethrown the same way as for the remote calls.
+ * <p/>
+ * By default, the requests are not serialized at all: the arguments and the
+ * results are passed by reference, just like for the local method calls, so
+ * the caller and the implementation must not modify the objects they share.
+ * If the pass-by-value semantics of the remote calls is required, the
+ * defensive copies can be enabled (see {@link #setCopy(boolean)}), the
+ * requests and the responses are then serialized in memory by the codec of
+ * the manager.
+ * <p/>
+ * <dl>
+ * <dt><b>Example of usage:</b></dt>
+ * <dd><pre><code>
+ * CarmineManager cm = new CarmineManager(carmineInvoker);
+ * RemoteClass remoteClass = cm.getRemote(RemoteClass.class);
+ * </code></pre></dd>
+ * </dl>
+ */
+public class CarmineLocalTransport implements CarmineTransport {
+
+    private final CarmineInvoker invoker;
+    private volatile boolean copy;
+
+    /**
+     * Constructs new instance passing the requests to the given invoker.
+     *
+     * @param invoker invoker in the same JVM
+     */
+    public CarmineLocalTransport(CarmineInvoker invoker) {
+        this.invoker = invoker;
+    }
+
+    /**
+     * Returns the invoker processing the requests.
+     *
+     * @return invoker in the same JVM
+     */
+    public CarmineInvoker getInvoker() {
+        return invoker;
+    }
+
+    /**
+     * Returns {@code true} if the requests and responses are copied.
+     *
+     * @return {@code true} if the defensive copies are enabled
+     */
+    public boolean isCopy() {
+        return copy;
+    }
+
+    /**
+     * Sets whether the requests and responses are copied by serializing them
+     * in memory (by default {@code false}, i.e. the arguments and the results
+     * are passed by reference).
+     *
+     * @param copy {@code true} to enable the defensive copies
+     */
+    public void setCopy(boolean copy) {
+        this.copy = copy;
+    }
+
+    @Override
+    public CarmineResponse send(CarmineRequest request, CarmineCodec codec)
+            throws IOException, ClassNotFoundException {
+        if (copy) return sendCopy(request, codec);
+
+        // the invoker sets its own metrics to the request, so the request of
+        // the local side is not passed directly
+        if (!(request instanceof CarmineBatchRequest)) {
+            CarmineRequest copy = new CarmineRequest(
+                    request.getInterfaceName(), request.getMethodName(),
+                    request.getMethodId(), request.getMethodArguments(),
+                    request.getProperties());
+            copy.setTimeout(request.getRemainingTime());
+            request = copy;
+        }
+        return invoker.process(request);
+    }
+
+    private CarmineResponse sendCopy(CarmineRequest request,
+                                     CarmineCodec codec)
+            throws IOException, ClassNotFoundException {
+        CarmineByteArrayOutputStream body = new CarmineByteArrayOutputStream();
+        CarmineEncodedResponse encoded;
+        try {
+            ObjectOutput out = codec.createOutput(body);
+            CarmineStreams.writeRequest(request, out);
+            out.close();
+            encoded = invoker.processRequest(
+                    new ByteArrayInputStream(body.buffer(), 0, body.size()),
+                    codec.getContentType(), null, null);
+        } finally {
+            body.release();
+        }
+
+        final CarmineByteArrayOutputStream responseBody
+                = new CarmineByteArrayOutputStream();
+        boolean streamed = false;
+        try {
+            encoded.writeTo(responseBody);
+            InputStream in = new ByteArrayInputStream(
+                    responseBody.buffer(), 0, responseBody.size());
+            ObjectInput objIn = CarmineHttpTransport.responseCodec(
+                    codec, encoded.getContentType()).createInput(in);
+            CarmineResponse response = CarmineStreams.resolveSegment(
+                    (CarmineResponse) objIn.readObject(), objIn);
+            if (response.isSuccessful()
+                    && CarmineStreams.isMarker(response.getResult())) {
+                // the buffer is released by the iterator once all the
+                // elements are read or the iterator is closed
+                streamed = true;
+                Closeable release = new Closeable() {
+                    @Override
+                    public void close() {
+                        responseBody.release();
+                    }
+                };
+                return new CarmineResponse(new CarmineRemoteIterator<Object>(
+                        objIn, release), response.getProperties());
+            }
+            objIn.close();
+            return response;
+        } finally {
+            if (!streamed) responseBody.release();
+        }
+    }
+
+    /**
+     * Does nothing, the invoker is not closed.
+     */
+    @Override
+    public void close() {
+        // nothing to release
+    }
+}
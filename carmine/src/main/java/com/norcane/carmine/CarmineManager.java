@@ -16,16 +16,32 @@
  */
 package com.norcane.carmine;
 
+import java.io.Closeable;
 import java.lang.reflect.Proxy;
 import java.net.URL;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Creates the connection to the remote <i>Carmine</i> service running on the
  * server specified by the given URL and provides method to obtain the instance
- * of the remote class.
+ * of the remote class. Requests are sent by the {@link CarmineTransport}
+ * (by default {@link CarmineUrlConnectionTransport}, honouring the <i>Java</i>
+ * networking properties). The {@link CarmineHttpTransport}, reusing its own
+ * pool of persistent connections, can be set instead (see
+ * {@link #setTransport(CarmineTransport)}); the manager should then be closed
+ * when no longer needed, to release the open connections.
  * <p/>
  * <dl>
  * <dt><b>Example of usage:</b></dt>
@@ -35,13 +51,65 @@ import java.util.Map;
  * remote.remoteMethod();
  * </code></pre></dd>
  * </dl>
+ * <p/>
+ * Remote methods returning {@link java.util.concurrent.Future},
+ * {@link java.util.concurrent.CompletionStage} or
+ * {@link java.util.concurrent.CompletableFuture} are invoked asynchronously,
+ * using the executor set by {@link #setExecutor(Executor)}, and return the
+ * {@link java.util.concurrent.CompletableFuture} immediately. Cancelling the
+ * returned future aborts the request. The {@link CarmineHttpTransport} waits
+ * for the response of the plain <i>HTTP</i> request without holding any
+ * thread of the executor, other transports (and the requests over
+ * <i>HTTPS</i>) hold the executor thread for the whole request.
+ * <p/>
+ * The manager and its proxies are thread safe. Properties shared within the
+ * connection are held as the immutable snapshot, sent with every call, and
+ * only the properties changed by the remote side are sent back and merged
+ * into the current snapshot. Note that this changes the response format of
+ * the earlier versions, which sent back all the properties, so the local and
+ * the remote side must be upgraded together.
+ * <p/>
+ * To save round trips, more remote method calls can be sent in a single
+ * request, either explicitly using the {@link CarmineBatch} (see
+ * {@link #startBatch()}), or automatically by coalescing all the calls made
+ * within the time window (see {@link #setBatchWindow(long)}).
  *
  * @author Vaclav Svejcar (v.svejcar@norcane.cz)
  */
-public class CarmineManager {
+public class CarmineManager implements Closeable {
+
+    /**
+     * Default maximum number of calls coalesced into a single request.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+    /**
+     * Minimum number of threads of the default executor for asynchronous
+     * calls.
+     */
+    public static final int DEFAULT_EXECUTOR_THREADS = 8;
 
     private final URL remoteUrl;
-    private Map<String, Object> properties;
+    private final AtomicReference<Map<String, Object>> properties
+            = new AtomicReference<Map<String, Object>>(
+            Collections.<String, Object>emptyMap());
+    private volatile CarmineCodec codec;
+    private volatile CarmineTransport transport;
+    private Executor executor;
+    private ExecutorService defaultExecutor;
+    private volatile long timeout;
+    private final ThreadLocal<CarmineBatch> batches
+            = new ThreadLocal<CarmineBatch>();
+    private final Object coalescingLock = new Object();
+    private CarmineBatch coalescingBatch;
+    private volatile long batchWindow;
+    private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private volatile CarmineMetrics metrics;
+    private volatile CarmineCache cache = new CarmineCache();
+    private final CarmineInvocationHandler invocationHandler
+            = new CarmineInvocationHandler(this);
+    private final ConcurrentMap<Class<?>, Object> proxies
+            = new ConcurrentHashMap<Class<?>, Object>();
 
     /**
      * Constructs new instance with the given remote service URL.
@@ -50,7 +118,50 @@ public class CarmineManager {
      */
     public CarmineManager(URL remoteUrl) {
         this.remoteUrl = remoteUrl;
-        this.properties = new HashMap<String, Object>();
+        this.codec = new CarmineJavaCodec();
+        this.transport = new CarmineUrlConnectionTransport(remoteUrl);
+    }
+
+    /**
+     * Constructs new instance calling the services of the given invoker
+     * running in the same JVM directly, without any network communication
+     * (see {@link CarmineLocalTransport}). The remote service URL of such
+     * manager is {@code null}.
+     *
+     * @param invoker invoker in the same JVM
+     */
+    public CarmineManager(CarmineInvoker invoker) {
+        this.remoteUrl = null;
+        this.codec = new CarmineJavaCodec();
+        this.transport = new CarmineLocalTransport(invoker);
+    }
+
+    /**
+     * Constructs new instance spreading the requests across more URLs of the
+     * same remote service (see {@link CarmineBalancedTransport}), using the
+     * given balancer, using the {@link CarmineUrlConnectionTransport} for
+     * each URL. To reuse the pooled connections, create the
+     * {@link CarmineBalancedTransport} of {@link CarmineHttpTransport}s
+     * sharing the single {@link CarmineConnectionPool} and set it using
+     * {@link #setTransport(CarmineTransport)}.
+     *
+     * @param remoteUrls URLs of the nodes of the remote service
+     * @param balancer   balancer choosing the node for each request
+     */
+    public CarmineManager(List<URL> remoteUrls, CarmineBalancer balancer) {
+        if (remoteUrls.isEmpty()) {
+            throw new IllegalArgumentException("No remote service URL");
+        }
+        this.remoteUrl = remoteUrls.get(0);
+        this.codec = new CarmineJavaCodec();
+
+        CarmineBalancedTransport balanced
+                = new CarmineBalancedTransport(balancer);
+        for (URL url : remoteUrls) {
+            balanced.addEndpoint(url.toString(),
+                    new CarmineUrlConnectionTransport(url));
+        }
+        this.transport = balanced;
     }
 
     /**
@@ -62,7 +173,8 @@ public class CarmineManager {
      * call. For the end user, the only difference between using common local
      * instances and <i>Carmine</i>-managed instances is in the way how the new
      * instance is created (i.e. {@code new} keyword vs
-     * {@link #getRemote(Class)}.
+     * {@link #getRemote(Class)}. The proxy is created once per interface and
+     * the same instance is returned by the subsequent calls.
      *
      * @param theInterface the interface of the remote service
      * @param <T>          return type of the returned object (not required to
@@ -71,32 +183,334 @@ public class CarmineManager {
      * service interface
      */
     public <T> T getRemote(Class theInterface) {
-        CarmineInvocationHandler invocationHandler
-                = new CarmineInvocationHandler(this);
+        Object proxy = proxies.get(theInterface);
+        if (proxy == null) {
+            proxy = Proxy.newProxyInstance(theInterface.getClassLoader(),
+                    new Class[]{theInterface}, invocationHandler);
+            Object existing = proxies.putIfAbsent(theInterface, proxy);
+            if (existing != null) proxy = existing;
+        }
 
         @SuppressWarnings("unchecked")
-        T proxy = (T) Proxy.newProxyInstance(theInterface.getClassLoader(),
-                new Class[]{theInterface}, invocationHandler);
-        return proxy;
+        T result = (T) proxy;
+        return result;
     }
 
     /**
-     * Returns the URL of the remote service.
+     * Returns the URL of the remote service (the first one, if more URLs are
+     * balanced).
      *
-     * @return remote service URL
+     * @return remote service URL or {@code null} for the local invoker
      */
     public URL getRemoteUrl() {
         return remoteUrl;
     }
 
     /**
-     * Returns the unmodifiable map of properties shared within the connection
-     * (for example to pass additional authentication key to the remote server side).
+     * Returns the codec used to serialize requests sent to the remote side.
+     *
+     * @return serialization codec
+     */
+    public CarmineCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Sets the codec used to serialize requests sent to the remote side (by
+     * default {@link CarmineJavaCodec}). The remote side must support this
+     * codec as well (see {@link CarmineInvoker#addCodec(CarmineCodec)}).
+     *
+     * @param codec serialization codec
+     */
+    public void setCodec(CarmineCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Returns the transport used to send requests to the remote side.
+     *
+     * @return transport
+     */
+    public CarmineTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets the transport used to send requests to the remote side (by default
+     * {@link CarmineUrlConnectionTransport} for the remote service URL). The
+     * previous transport is not closed.
+     * <p/>
+     * The {@link CarmineHttpTransport} keeps persistent connections in its
+     * own bounded pool and receives the asynchronous responses without
+     * holding a thread, but it ignores the <i>Java</i> networking properties
+     * (proxy, {@code Authenticator}, cookies, default <i>SSL</i> socket
+     * factory and hostname verifier).
+     *
+     * @param transport transport
+     */
+    public void setTransport(CarmineTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Returns the executor used to perform asynchronous remote method calls.
+     * If no executor has been set, the default bounded thread pool is
+     * created.
+     *
+     * @return executor for asynchronous calls
+     */
+    public synchronized Executor getExecutor() {
+        if (executor == null) {
+            int threads = Math.max(DEFAULT_EXECUTOR_THREADS,
+                    2 * Runtime.getRuntime().availableProcessors());
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads,
+                    threads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new CarmineThreadFactory("carmine-async"));
+            pool.allowCoreThreadTimeOut(true);
+            defaultExecutor = pool;
+            executor = defaultExecutor;
+        }
+        return executor;
+    }
+
+    /**
+     * Sets the executor used to perform asynchronous remote method calls (by
+     * default bounded pool of daemon threads, twice the number of processors
+     * but at least {@value #DEFAULT_EXECUTOR_THREADS}, shut down when this
+     * manager is closed). The calls exceeding the number of threads of the
+     * default pool wait in its queue. The given executor is not shut down by
+     * this manager.
+     *
+     * @param executor executor for asynchronous calls
+     */
+    public synchronized void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the default timeout of remote method calls in milliseconds
+     * ({@code 0} for no timeout).
+     *
+     * @return default timeout in milliseconds
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets the default timeout of remote method calls in milliseconds (by
+     * default {@code 0}, i.e. no timeout), which is also sent to the remote
+     * side as the deadline of the call. The timeout of particular method can
+     * be specified by the {@link CarmineTimeout} annotation.
+     *
+     * @param timeout default timeout in milliseconds
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the metrics of remote method calls made through this manager.
+     *
+     * @return metrics or {@code null} if disabled
+     */
+    public CarmineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics of remote method calls made through this manager (by
+     * default {@code null}, i.e. disabled). Besides the number of calls,
+     * errors and transferred bytes, the latencies of the whole call and of
+     * its serialization, connecting, network round trip and deserialization
+     * are recorded (see {@link CarminePhase}). The same metrics can be shared
+     * by more managers.
+     *
+     * @param metrics metrics or {@code null} to disable
+     */
+    public void setMetrics(CarmineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the cache of results of the cacheable remote methods.
+     *
+     * @return cache or {@code null} if disabled
+     */
+    public CarmineCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets the cache of results of the cacheable remote methods (by default
+     * the {@link CarmineCache} with the default size and time to live). Only
+     * the methods annotated by the {@link CarmineCacheable} or added by
+     * {@link CarmineCache#addMethod(Class, String, long)} are cached. The
+     * results are cached by the properties of the manager as well, so the
+     * same cache can be shared by more managers of the same remote service
+     * (e.g. one per session) without sharing their results.
+     *
+     * @param cache cache or {@code null} to disable caching
+     */
+    public void setCache(CarmineCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Starts the batch of remote method calls, bound to the current thread
+     * until closed (see {@link CarmineBatch}).
+     *
+     * @return new batch
+     * @throws IllegalStateException thrown if the batch has already been
+     *                               started by the current thread
+     */
+    public CarmineBatch startBatch() {
+        if (batches.get() != null) {
+            throw new IllegalStateException("Batch already started");
+        }
+        CarmineBatch batch = new CarmineBatch(this, false);
+        batches.set(batch);
+        return batch;
+    }
+
+    /**
+     * Unbinds the batch from the current thread.
+     *
+     * @param batch closed batch
+     */
+    void endBatch(CarmineBatch batch) {
+        if (batches.get() == batch) batches.remove();
+    }
+
+    /**
+     * Returns the batch bound to the current thread.
+     *
+     * @return current batch or {@code null} if no batch has been started
+     */
+    CarmineBatch currentBatch() {
+        return batches.get();
+    }
+
+    /**
+     * Returns the time window in milliseconds, within which the remote method
+     * calls are coalesced into a single request ({@code 0} if disabled).
+     *
+     * @return batch window in milliseconds
+     */
+    public long getBatchWindow() {
+        return batchWindow;
+    }
+
+    /**
+     * Sets the time window in milliseconds, within which the remote method
+     * calls (made by any thread, outside of the explicit
+     * {@link CarmineBatch}) are coalesced into a single request (by default
+     * {@code 0}, i.e. disabled). The first call in the window waits for the
+     * window to elapse (or for the {@link #getMaxBatchSize()} calls), so the
+     * window should be small compared to the round trip time. Coalesced calls
+     * are considered independent and may be executed by the remote side in
+     * parallel.
+     *
+     * @param batchWindow batch window in milliseconds
+     */
+    public void setBatchWindow(long batchWindow) {
+        this.batchWindow = batchWindow;
+    }
+
+    /**
+     * Returns the maximum number of calls coalesced into a single request.
+     *
+     * @return maximum batch size
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of calls coalesced into a single request (by
+     * default {@value #DEFAULT_MAX_BATCH_SIZE}). Once reached, the request is
+     * sent without waiting for the batch window to elapse.
+     *
+     * @param maxBatchSize maximum batch size
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Sends the request asynchronously, either within the current batch (see
+     * {@link #startBatch()}), coalesced with other calls (see
+     * {@link #setBatchWindow(long)}), or on its own (always if the request
+     * has any {@link java.io.InputStream} or binary arguments sent as the raw
+     * segments).
+     *
+     * @param request request to send
+     * @return future completed with the response
+     */
+    CompletableFuture<CarmineResponse> sendAsync(CarmineRequest request) {
+        if (CarmineStreams.hasMarkers(request.getMethodArguments())) {
+            return transport.sendAsync(request, codec, getExecutor());
+        }
+        CarmineBatch batch = batches.get();
+        if (batch != null) return batch.add(request);
+        if (batchWindow > 0) return coalesce(request);
+        return transport.sendAsync(request, codec, getExecutor());
+    }
+
+    private CompletableFuture<CarmineResponse> coalesce(CarmineRequest request) {
+        CompletableFuture<CarmineResponse> future;
+        CarmineBatch full = null;
+        synchronized (coalescingLock) {
+            if (coalescingBatch == null) {
+                final CarmineBatch batch = new CarmineBatch(this, true);
+                CarmineScheduler.get().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (coalescingLock) {
+                            if (coalescingBatch == batch) coalescingBatch = null;
+                        }
+                        batch.flush();
+                    }
+                }, batchWindow, TimeUnit.MILLISECONDS);
+                coalescingBatch = batch;
+            }
+            future = coalescingBatch.add(request);
+            if (coalescingBatch.size() >= maxBatchSize) {
+                full = coalescingBatch;
+                coalescingBatch = null;
+            }
+        }
+        if (full != null) full.flush();
+        return future;
+    }
+
+    /**
+     * Closes the transport, releasing all the open connections to the remote
+     * side, and shuts down the default executor for asynchronous calls (if
+     * created).
+     */
+    @Override
+    public void close() {
+        transport.close();
+        synchronized (this) {
+            if (defaultExecutor != null) {
+                defaultExecutor.shutdown();
+                if (executor == defaultExecutor) executor = null;
+                defaultExecutor = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the unmodifiable snapshot of properties shared within the
+     * connection (for example to pass additional authentication key to the
+     * remote server side). The snapshot does not reflect later changes.
      *
      * @return unmodifiable map of properties
      */
     public Map<String, Object> getProperties() {
-        return Collections.unmodifiableMap(properties);
+        return properties.get();
     }
 
     /**
@@ -105,7 +519,28 @@ public class CarmineManager {
      * @param properties map of properties
      */
     protected void setProperties(Map<String, Object> properties) {
-        this.properties = properties;
+        this.properties.set(Collections.unmodifiableMap(
+                new HashMap<String, Object>(properties)));
+    }
+
+    /**
+     * Applies the changes of properties made by the remote side (see
+     * {@link CarmineProperties#delta(Map, Map)}). Changes made concurrently
+     * by other calls are preserved.
+     *
+     * @param delta changed properties
+     */
+    void mergeProperties(Map<String, Object> delta) {
+        if (delta.isEmpty()) return;
+        Map<String, Object> current;
+        do {
+            current = properties.get();
+        } while (!properties.compareAndSet(
+                current, CarmineProperties.apply(current, delta)));
+
+        // changed version properties invalidate the cached results
+        CarmineCache cache = this.cache;
+        if (cache != null) cache.update(delta);
     }
 
     /**
@@ -115,7 +550,7 @@ public class CarmineManager {
      * @return property value
      */
     public Object getProperty(String key) {
-        return properties.get(key);
+        return properties.get().get(key);
     }
 
     /**
@@ -125,7 +560,7 @@ public class CarmineManager {
      * @param value property value
      */
     public void addProperty(String key, Object value) {
-        properties.put(key, value);
+        mergeProperties(Collections.singletonMap(key, value));
     }
 
     /**
@@ -134,6 +569,7 @@ public class CarmineManager {
      * @param key property key
      */
     public void removeProperty(String key) {
-        properties.remove(key);
+        mergeProperties(Collections.<String, Object>singletonMap(
+                key, CarmineProperties.Marker.REMOVED));
     }
 }
@@ -0,0 +1,434 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+
+/**
+ * Server-side cache of the remote methods resolved for the implementation
+ * classes, so the reflective method lookup is performed only once for every
+ * distinct method identifier (or call signature, if the identifier is not
+ * known) instead of once for every request. The cache is
+ * bound to the implementation class using {@link ClassValue}, therefore it
+ * does not prevent the implementation classes from being unloaded.
+ */
+final class CarmineMethodCache {
+
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    private static final ClassValue<ConcurrentMap<Signature, Target>> TARGETS
+            = new ClassValue<ConcurrentMap<Signature, Target>>() {
+        @Override
+        protected ConcurrentMap<Signature, Target> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<Signature, Target>();
+        }
+    };
+
+    private static final ClassValue<ConcurrentMap<MethodKey, Target>>
+            TARGETS_BY_ID = new ClassValue<ConcurrentMap<MethodKey, Target>>() {
+        @Override
+        protected ConcurrentMap<MethodKey, Target> computeValue(
+                Class<?> type) {
+            return new ConcurrentHashMap<MethodKey, Target>();
+        }
+    };
+
+    private CarmineMethodCache() {
+    }
+
+    /**
+     * Returns the invocation target for the method with the given identifier
+     * (see {@link CarmineMethodId}), declared by the interface with the given
+     * name (or by the implementation class itself). If the identifier is not
+     * known or no such method exists, the method is resolved using its name
+     * and arguments, as described in
+     * {@link #resolve(Class, String, String, Object[])}.
+     *
+     * @param implClass     class of the implementation instance
+     * @param interfaceName fully qualified name of the remote interface
+     * @param methodName    name of the invoked method
+     * @param methodId      identifier of the invoked method
+     * @param args          method arguments (may be {@code null})
+     * @return resolved invocation target
+     * @throws NoSuchMethodException if no applicable method is found, or the
+     *                               call is ambiguous
+     */
+    static Target resolve(Class<?> implClass, String interfaceName,
+                          String methodName, long methodId, Object[] args)
+            throws NoSuchMethodException {
+
+        if (methodId != CarmineMethodId.UNKNOWN) {
+            // the same identifier may denote different methods of the
+            // different interfaces implemented by the class
+            ConcurrentMap<MethodKey, Target> targets
+                    = TARGETS_BY_ID.get(implClass);
+            MethodKey key = new MethodKey(interfaceName, methodId);
+            Target target = targets.get(key);
+            if (target == null) {
+                Method method = findMethod(implClass, interfaceName, methodId);
+                if (method != null) {
+                    target = new Target(method);
+                    Target existing = targets.putIfAbsent(key, target);
+                    if (existing != null) target = existing;
+                }
+            }
+            if (target != null && target.parameterCount
+                    == ((args != null) ? args.length : 0)) {
+                return target;
+            }
+        }
+        return resolve(implClass, interfaceName, methodName, args);
+    }
+
+    /**
+     * Returns the invocation target for the method with the given name, which
+     * is applicable to the given arguments. If the implementation class
+     * implements the interface with the given name, the method is looked up
+     * on this interface, otherwise on the public methods of the implementation
+     * class itself. Primitive parameters accept their wrapper values, any
+     * supertype (including interfaces) accepts its subtypes and {@code null}
+     * is accepted by any non-primitive parameter. If more than one method is
+     * applicable, the most specific one is chosen.
+     *
+     * @param implClass     class of the implementation instance
+     * @param interfaceName fully qualified name of the remote interface
+     * @param methodName    name of the invoked method
+     * @param args          method arguments (may be {@code null})
+     * @return resolved invocation target
+     * @throws NoSuchMethodException if no applicable method is found, or the
+     *                               call is ambiguous
+     */
+    static Target resolve(Class<?> implClass, String interfaceName,
+                          String methodName, Object[] args)
+            throws NoSuchMethodException {
+
+        Class<?>[] argumentTypes = argumentTypes(args);
+        Signature signature = new Signature(
+                interfaceName, methodName, argumentTypes);
+        ConcurrentMap<Signature, Target> targets = TARGETS.get(implClass);
+
+        Target target = targets.get(signature);
+        if (target == null) {
+            Method method = findMethod(
+                    implClass, interfaceName, methodName, argumentTypes);
+            target = new Target(method);
+            Target existing = targets.putIfAbsent(signature, target);
+            if (existing != null) target = existing;
+        }
+        return target;
+    }
+
+    private static Class<?>[] argumentTypes(Object[] args) {
+        if (args == null) return new Class<?>[0];
+
+        Class<?>[] types = new Class<?>[args.length];
+        for (int i = 0; i < args.length; i++) {
+            types[i] = (args[i] != null) ? args[i].getClass() : null;
+        }
+        return types;
+    }
+
+    private static Method findMethod(Class<?> implClass, String interfaceName,
+                                     long methodId) {
+        Class<?> lookupClass = findInterface(implClass, interfaceName);
+        if (lookupClass == null) lookupClass = implClass;
+
+        for (Method method : lookupClass.getMethods()) {
+            if (!Modifier.isStatic(method.getModifiers()) && !method.isBridge()
+                    && CarmineMethodId.of(method) == methodId) {
+                return accessible(method);
+            }
+        }
+        return null;
+    }
+
+    private static Method findMethod(Class<?> implClass, String interfaceName,
+                                     String methodName, Class<?>[] argumentTypes)
+            throws NoSuchMethodException {
+
+        Class<?> lookupClass = findInterface(implClass, interfaceName);
+        if (lookupClass == null) lookupClass = implClass;
+
+        List<Method> applicable = new ArrayList<Method>();
+        for (Method method : lookupClass.getMethods()) {
+            if (method.getName().equals(methodName)
+                    && !Modifier.isStatic(method.getModifiers())
+                    && isApplicable(method.getParameterTypes(), argumentTypes)) {
+                applicable.add(method);
+            }
+        }
+
+        Method mostSpecific = null;
+        for (Method candidate : applicable) {
+            if (mostSpecific == null || isMoreSpecific(candidate, mostSpecific)) {
+                mostSpecific = candidate;
+            }
+        }
+        for (Method candidate : applicable) {
+            if (!isMoreSpecific(mostSpecific, candidate)) {
+                throw new NoSuchMethodException("Ambiguous remote method call "
+                        + describe(lookupClass, methodName, argumentTypes));
+            }
+        }
+        if (mostSpecific == null) {
+            throw new NoSuchMethodException(
+                    describe(lookupClass, methodName, argumentTypes));
+        }
+
+        return accessible(mostSpecific);
+    }
+
+    private static Method accessible(Method method) {
+        try {
+            method.setAccessible(true);
+        } catch (RuntimeException ex) {
+            // not fatal, public methods of public classes are still callable
+        }
+        return method;
+    }
+
+    private static Class<?> findInterface(Class<?> type, String interfaceName) {
+        if (type == null) return null;
+        if (type.isInterface() && type.getName().equals(interfaceName)) {
+            return type;
+        }
+
+        for (Class<?> superInterface : type.getInterfaces()) {
+            Class<?> found = findInterface(superInterface, interfaceName);
+            if (found != null) return found;
+        }
+        return findInterface(type.getSuperclass(), interfaceName);
+    }
+
+    private static boolean isApplicable(Class<?>[] parameterTypes,
+                                        Class<?>[] argumentTypes) {
+        if (parameterTypes.length != argumentTypes.length) return false;
+
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (argumentTypes[i] == null) {
+                if (parameterTypes[i].isPrimitive()) return false;
+            } else if (!wrap(parameterTypes[i]).isAssignableFrom(argumentTypes[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Method 'a' is more specific than (or equally specific as) method 'b' if
+     * each of its parameter types is assignable to the corresponding parameter
+     * type of 'b'. Bridge methods always lose against their real counterparts.
+     */
+    private static boolean isMoreSpecific(Method a, Method b) {
+        if (a == b) return true;
+
+        Class<?>[] aTypes = a.getParameterTypes();
+        Class<?>[] bTypes = b.getParameterTypes();
+        for (int i = 0; i < aTypes.length; i++) {
+            if (!wrap(bTypes[i]).isAssignableFrom(wrap(aTypes[i]))) return false;
+        }
+        return !a.isBridge() || b.isBridge() || !Arrays.equals(aTypes, bTypes);
+    }
+
+    private static Class<?> wrap(Class<?> type) {
+        if (!type.isPrimitive()) return type;
+        if (type == Integer.TYPE) return Integer.class;
+        if (type == Long.TYPE) return Long.class;
+        if (type == Boolean.TYPE) return Boolean.class;
+        if (type == Double.TYPE) return Double.class;
+        if (type == Float.TYPE) return Float.class;
+        if (type == Short.TYPE) return Short.class;
+        if (type == Byte.TYPE) return Byte.class;
+        if (type == Character.TYPE) return Character.class;
+        return Void.class;
+    }
+
+    private static String describe(Class<?> type, String methodName,
+                                   Class<?>[] argumentTypes) {
+        StringBuilder sb = new StringBuilder(type.getName())
+                .append('.').append(methodName).append('(');
+        for (int i = 0; i < argumentTypes.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(argumentTypes[i] != null
+                    ? argumentTypes[i].getName() : "null");
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * Resolved remote method, which can be invoked either using the
+     * reflection, or using the {@link MethodHandle} created on demand.
+     */
+    static final class Target {
+
+        private final Method method;
+        private final int parameterCount;
+        private final boolean async;
+        private volatile MethodHandle handle;
+
+        Target(Method method) {
+            this.method = method;
+            this.parameterCount = method.getParameterTypes().length;
+            Class<?> returnType = method.getReturnType();
+            this.async = Future.class.isAssignableFrom(returnType)
+                    || CompletionStage.class.isAssignableFrom(returnType);
+        }
+
+        /**
+         * Returns the resolved method.
+         *
+         * @return resolved method
+         */
+        Method getMethod() {
+            return method;
+        }
+
+        /**
+         * Returns {@code true} if the method returns the
+         * {@link Future} or {@link CompletionStage}, whose result must be
+         * awaited before sending the response.
+         *
+         * @return {@code true} for asynchronous methods
+         */
+        boolean isAsync() {
+            return async;
+        }
+
+        /**
+         * Invokes the method on the given instance. Exception thrown by the
+         * method itself is rethrown as is, i.e. not wrapped into the
+         * {@link InvocationTargetException}.
+         *
+         * @param instance      implementation instance
+         * @param args          method arguments (may be {@code null})
+         * @param methodHandles whether to use the method handle instead of
+         *                      the reflection
+         * @return method return value ({@code null} for {@code void} methods)
+         * @throws Throwable exception thrown by the method or the invocation
+         */
+        Object invoke(Object instance, Object[] args, boolean methodHandles)
+                throws Throwable {
+            if (args == null) args = NO_ARGUMENTS;
+
+            if (methodHandles) {
+                return (Object) handle().invokeExact(instance, args);
+            }
+
+            try {
+                return method.invoke(instance, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+
+        private MethodHandle handle() throws IllegalAccessException {
+            MethodHandle result = handle;
+            if (result == null) {
+                result = MethodHandles.lookup().unreflect(method)
+                        .asType(MethodType.genericMethodType(parameterCount + 1))
+                        .asSpreader(Object[].class, parameterCount);
+                handle = result;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Cache key, consisting of the interface name and the method identifier.
+     */
+    private static final class MethodKey {
+
+        private final String interfaceName;
+        private final long methodId;
+
+        MethodKey(String interfaceName, long methodId) {
+            this.interfaceName = interfaceName;
+            this.methodId = methodId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof MethodKey)) return false;
+
+            MethodKey other = (MethodKey) obj;
+            return methodId == other.methodId
+                    && (interfaceName == null
+                    ? other.interfaceName == null
+                    : interfaceName.equals(other.interfaceName));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * String.valueOf(interfaceName).hashCode()
+                    + (int) (methodId ^ (methodId >>> 32));
+        }
+    }
+
+    /**
+     * Cache key, consisting of the interface name, method name and the
+     * runtime classes of the arguments ({@code null} for {@code null}
+     * arguments).
+     */
+    private static final class Signature {
+
+        private final String interfaceName;
+        private final String methodName;
+        private final Class<?>[] argumentTypes;
+        private final int hash;
+
+        Signature(String interfaceName, String methodName,
+                  Class<?>[] argumentTypes) {
+            this.interfaceName = interfaceName;
+            this.methodName = methodName;
+            this.argumentTypes = argumentTypes;
+            this.hash = 31 * (31 * String.valueOf(interfaceName).hashCode()
+                    + methodName.hashCode()) + Arrays.hashCode(argumentTypes);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Signature)) return false;
+
+            Signature other = (Signature) obj;
+            return hash == other.hash
+                    && methodName.equals(other.methodName)
+                    && (interfaceName == null
+                    ? other.interfaceName == null
+                    : interfaceName.equals(other.interfaceName))
+                    && Arrays.equals(argumentTypes, other.argumentTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
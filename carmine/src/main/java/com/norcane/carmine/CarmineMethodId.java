@@ -0,0 +1,69 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.lang.reflect.Method;
+
+/**
+ * Computes the compact identifiers of the remote methods, used to identify
+ * the invoked method within the {@link CarmineRequest} without the need to
+ * resolve it by its name and runtime classes of the arguments. The identifier
+ * is the 64-bit FNV-1a hash of the method descriptor, consisting of the method
+ * name and fully qualified names of its declared parameter types, so the
+ * same method has the same identifier on both local and remote side, and all
+ * the overloaded variants of the method have different identifiers.
+ */
+final class CarmineMethodId {
+
+    /**
+     * Identifier used when the invoked method is not known.
+     */
+    static final long UNKNOWN = 0L;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private CarmineMethodId() {
+    }
+
+    /**
+     * Computes the identifier of the given method.
+     *
+     * @param method method to compute identifier for
+     * @return method identifier (never equal to {@link #UNKNOWN})
+     */
+    static long of(Method method) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = update(hash, method.getName());
+        hash = update(hash, "(");
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) hash = update(hash, ",");
+            hash = update(hash, parameterTypes[i].getName());
+        }
+        hash = update(hash, ")");
+        return (hash != UNKNOWN) ? hash : FNV_OFFSET_BASIS;
+    }
+
+    private static long update(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
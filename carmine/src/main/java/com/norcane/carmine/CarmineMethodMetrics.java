@@ -0,0 +1,182 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the single remote method, collected by the
+ * {@link CarmineMetrics}: number of calls and failed calls, number of bytes
+ * sent and received, and the {@link CarmineHistogram} of latencies for each
+ * {@link CarminePhase} of the call. Histogram of the phase is created when
+ * its first latency is recorded, all the other updates do not allocate any
+ * memory.
+ */
+public final class CarmineMethodMetrics {
+
+    private static final CarminePhase[] PHASES = CarminePhase.values();
+
+    private final CarmineMetrics metrics;
+    private final String interfaceName;
+    private final String methodName;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final AtomicReferenceArray<CarmineHistogram> histograms
+            = new AtomicReferenceArray<CarmineHistogram>(PHASES.length);
+
+    CarmineMethodMetrics(CarmineMetrics metrics, String interfaceName,
+                         String methodName) {
+        this.metrics = metrics;
+        this.interfaceName = interfaceName;
+        this.methodName = methodName;
+    }
+
+    /**
+     * Returns the metrics this method metrics belong to.
+     *
+     * @return owning metrics
+     */
+    public CarmineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the fully qualified name of the interface of the method.
+     *
+     * @return interface name
+     */
+    public String getInterfaceName() {
+        return interfaceName;
+    }
+
+    /**
+     * Returns the method name together with its parameter types (e.g.
+     * {@code find(java.lang.String,int)}), or only the method name if the
+     * method could not be resolved.
+     *
+     * @return method name
+     */
+    public String getMethodName() {
+        return methodName;
+    }
+
+    /**
+     * Returns the number of completed calls (including the failed ones).
+     *
+     * @return number of calls
+     */
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    /**
+     * Returns the number of calls which completed with the exception (either
+     * thrown by the remote method, or caused by the communication failure).
+     *
+     * @return number of failed calls
+     */
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * Returns the number of bytes received (i.e. response bodies on the local
+     * side, request bodies on the remote side), as transferred over the
+     * network (after compression). Calls sent within the batch are not
+     * included.
+     *
+     * @return number of received bytes
+     */
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    /**
+     * Returns the number of bytes sent (i.e. request bodies on the local side,
+     * response bodies on the remote side), as transferred over the network
+     * (after compression). Calls sent within the batch are not included.
+     *
+     * @return number of sent bytes
+     */
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * Returns the histogram of latencies of the given phase.
+     *
+     * @param phase phase of the call
+     * @return histogram of latencies, or {@code null} if no latency of the
+     * phase has been recorded yet
+     */
+    public CarmineHistogram getHistogram(CarminePhase phase) {
+        return histograms.get(phase.ordinal());
+    }
+
+    /**
+     * Records the latency of the given phase of the call.
+     *
+     * @param phase phase of the call
+     * @param nanos latency in nanoseconds
+     */
+    void record(CarminePhase phase, long nanos) {
+        histogram(phase).record(nanos);
+        metrics.recorded(this, phase, nanos);
+    }
+
+    /**
+     * Records the completed call.
+     *
+     * @param nanos      total latency of the call in nanoseconds
+     * @param successful {@code false} if the call failed
+     */
+    void completed(long nanos, boolean successful) {
+        calls.increment();
+        if (!successful) errors.increment();
+        histogram(CarminePhase.TOTAL).record(nanos);
+        metrics.completed(this, nanos, successful);
+    }
+
+    /**
+     * Records the number of bytes transferred by the call.
+     *
+     * @param in  number of received bytes (negative if not known)
+     * @param out number of sent bytes (negative if not known)
+     */
+    void transferred(long in, long out) {
+        if (in > 0) bytesIn.add(in);
+        if (out > 0) bytesOut.add(out);
+    }
+
+    private CarmineHistogram histogram(CarminePhase phase) {
+        int index = phase.ordinal();
+        CarmineHistogram histogram = histograms.get(index);
+        if (histogram == null) {
+            histograms.compareAndSet(index, null, new CarmineHistogram());
+            histogram = histograms.get(index);
+        }
+        return histogram;
+    }
+
+    @Override
+    public String toString() {
+        return interfaceName + "." + methodName;
+    }
+}
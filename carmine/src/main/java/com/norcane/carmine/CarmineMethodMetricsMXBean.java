@@ -0,0 +1,121 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link CarmineMethodMetrics}, registered by
+ * the {@link CarmineJmxExporter}. Latencies are in microseconds and, unless
+ * the phase is specified, of the {@link CarminePhase#TOTAL} phase.
+ */
+public interface CarmineMethodMetricsMXBean {
+
+    /**
+     * Returns the fully qualified name of the interface of the method.
+     *
+     * @return interface name
+     */
+    String getInterfaceName();
+
+    /**
+     * Returns the method name together with its parameter types.
+     *
+     * @return method name
+     */
+    String getMethodName();
+
+    /**
+     * Returns the number of completed calls.
+     *
+     * @return number of calls
+     */
+    long getCalls();
+
+    /**
+     * Returns the number of failed calls.
+     *
+     * @return number of failed calls
+     */
+    long getErrors();
+
+    /**
+     * Returns the number of received bytes.
+     *
+     * @return number of received bytes
+     */
+    long getBytesIn();
+
+    /**
+     * Returns the number of sent bytes.
+     *
+     * @return number of sent bytes
+     */
+    long getBytesOut();
+
+    /**
+     * Returns the mean latency of the call.
+     *
+     * @return mean latency in microseconds
+     */
+    double getMeanLatency();
+
+    /**
+     * Returns the median latency of the call.
+     *
+     * @return median latency in microseconds
+     */
+    double getMedianLatency();
+
+    /**
+     * Returns the 99th percentile of the latency of the call.
+     *
+     * @return 99th percentile latency in microseconds
+     */
+    double getP99Latency();
+
+    /**
+     * Returns the 99.9th percentile of the latency of the call.
+     *
+     * @return 99.9th percentile latency in microseconds
+     */
+    double getP999Latency();
+
+    /**
+     * Returns the maximum latency of the call.
+     *
+     * @return maximum latency in microseconds
+     */
+    double getMaxLatency();
+
+    /**
+     * Returns the mean latencies of all the recorded phases, by the phase
+     * name.
+     *
+     * @return mean latencies of phases in microseconds
+     */
+    Map<String, Double> getMeanPhaseLatencies();
+
+    /**
+     * Returns the latency of the given phase at the given percentile.
+     *
+     * @param phase      name of the phase (see {@link CarminePhase})
+     * @param percentile percentile between {@code 0} and {@code 100}
+     * @return latency in microseconds ({@code 0} if not recorded)
+     */
+    double percentile(String phase, double percentile);
+}
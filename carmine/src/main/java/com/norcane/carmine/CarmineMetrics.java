@@ -0,0 +1,202 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Collects the metrics of the remote method calls, either on the local side
+ * (see {@link CarmineManager#setMetrics(CarmineMetrics)}) or on the remote
+ * side (see {@link CarmineInvoker#setMetrics(CarmineMetrics)}). For each
+ * remote method, the {@link CarmineMethodMetrics} hold the number of calls,
+ * errors and transferred bytes, and the latency histograms of particular
+ * {@link CarminePhase phases} of the call. Once the metrics of the method are
+ * created, recording the call does not allocate any memory.
+ * <p/>
+ * Collected metrics can be read at any time using {@link #getMethods()}, or
+ * observed by the registered {@link CarmineMetricsListener}s, e.g. the
+ * {@link CarmineJmxExporter} publishing the metrics as the <i>JMX</i> beans.
+ * <p/>
+ * <dl>
+ * <dt><b>Example of usage:</b></dt>
+ * <dd><pre><code>
+ * CarmineMetrics metrics = new CarmineMetrics("client");
+ * metrics.addListener(new CarmineJmxExporter());
+ * cm.setMetrics(metrics);
+ * </code></pre></dd>
+ * </dl>
+ */
+public class CarmineMetrics {
+
+    private static final CarmineMetricsListener[] NO_LISTENERS
+            = new CarmineMetricsListener[0];
+
+    private final String name;
+    private final ConcurrentMap<Object, CarmineMethodMetrics> methods
+            = new ConcurrentHashMap<Object, CarmineMethodMetrics>();
+    private volatile CarmineMetricsListener[] listeners = NO_LISTENERS;
+
+    /**
+     * Constructs new instance with the given name, distinguishing the metrics
+     * (e.g. of more managers) in the exported data.
+     *
+     * @param name name of the metrics
+     */
+    public CarmineMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of the metrics.
+     *
+     * @return name of the metrics
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the metrics of all the remote methods called so far.
+     *
+     * @return unmodifiable collection of method metrics
+     */
+    public Collection<CarmineMethodMetrics> getMethods() {
+        return Collections.unmodifiableCollection(
+                new ArrayList<CarmineMethodMetrics>(methods.values()));
+    }
+
+    /**
+     * Adds the listener notified about the recorded metrics. The listener is
+     * immediately notified about all the methods called so far (see
+     * {@link CarmineMetricsListener#methodAdded(CarmineMethodMetrics)}).
+     *
+     * @param listener metrics listener
+     */
+    public void addListener(CarmineMetricsListener listener) {
+        synchronized (this) {
+            CarmineMetricsListener[] current = listeners;
+            CarmineMetricsListener[] updated
+                    = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = listener;
+            listeners = updated;
+        }
+        for (CarmineMethodMetrics method : methods.values()) {
+            listener.methodAdded(method);
+        }
+    }
+
+    /**
+     * Removes the previously added listener.
+     *
+     * @param listener metrics listener
+     */
+    public synchronized void removeListener(CarmineMetricsListener listener) {
+        CarmineMetricsListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                CarmineMetricsListener[] updated
+                        = new CarmineMetricsListener[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i,
+                        current.length - i - 1);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the metrics of the given method, called on the given interface.
+     *
+     * @param interfaceName fully qualified name of the interface
+     * @param method        called method (either the interface method, or
+     *                      the method of the implementation class)
+     * @return method metrics
+     */
+    CarmineMethodMetrics get(String interfaceName, Method method) {
+        CarmineMethodMetrics metrics = methods.get(method);
+        return (metrics != null) ? metrics
+                : add(method, interfaceName, signature(method));
+    }
+
+    /**
+     * Returns the metrics of the method of the given name, used for calls
+     * which failed before the method was resolved.
+     *
+     * @param interfaceName fully qualified name of the interface
+     * @param methodName    name of the method
+     * @return method metrics
+     */
+    CarmineMethodMetrics get(String interfaceName, String methodName) {
+        String key = interfaceName + "#" + methodName;
+        CarmineMethodMetrics metrics = methods.get(key);
+        return (metrics != null) ? metrics
+                : add(key, interfaceName, methodName);
+    }
+
+    private CarmineMethodMetrics add(Object key, String interfaceName,
+                                     String methodName) {
+        CarmineMethodMetrics metrics
+                = new CarmineMethodMetrics(this, interfaceName, methodName);
+        CarmineMethodMetrics existing = methods.putIfAbsent(key, metrics);
+        if (existing != null) return existing;
+
+        CarmineMetricsListener[] listeners = this.listeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].methodAdded(metrics);
+        }
+        return metrics;
+    }
+
+    void recorded(CarmineMethodMetrics method, CarminePhase phase,
+                  long nanos) {
+        CarmineMetricsListener[] listeners = this.listeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].recorded(method, phase, nanos);
+        }
+    }
+
+    void completed(CarmineMethodMetrics method, long nanos,
+                   boolean successful) {
+        CarmineMetricsListener[] listeners = this.listeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].completed(method, nanos, successful);
+        }
+    }
+
+    private static String signature(Method method) {
+        StringBuilder signature = new StringBuilder(method.getName());
+        signature.append('(');
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) signature.append(',');
+            signature.append(parameterTypes[i].getName());
+        }
+        return signature.append(')').toString();
+    }
+
+    @Override
+    public String toString() {
+        return "CarmineMetrics[" + name + "]";
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+/**
+ * Listener notified by the {@link CarmineMetrics} about the recorded
+ * metrics, allowing to export them to the monitoring system (see
+ * {@link CarmineJmxExporter}) or to trace particular calls. Methods are
+ * called synchronously by the thread performing the call, therefore must be
+ * fast, thread safe and should not allocate memory. All the methods do
+ * nothing by default.
+ */
+public interface CarmineMetricsListener {
+
+    /**
+     * Called when the remote method is called for the first time (or when
+     * this listener is added, for methods called before).
+     *
+     * @param method metrics of the method
+     */
+    default void methodAdded(CarmineMethodMetrics method) {
+    }
+
+    /**
+     * Called when the latency of the phase of the call is recorded (except
+     * the {@link CarminePhase#TOTAL} phase, see
+     * {@link #completed(CarmineMethodMetrics, long, boolean)}).
+     *
+     * @param method metrics of the called method
+     * @param phase  phase of the call
+     * @param nanos  latency of the phase in nanoseconds
+     */
+    default void recorded(CarmineMethodMetrics method, CarminePhase phase,
+                          long nanos) {
+    }
+
+    /**
+     * Called when the call is completed.
+     *
+     * @param method     metrics of the called method
+     * @param nanos      total latency of the call in nanoseconds
+     * @param successful {@code false} if the call failed
+     */
+    default void completed(CarmineMethodMetrics method, long nanos,
+                           boolean successful) {
+    }
+}
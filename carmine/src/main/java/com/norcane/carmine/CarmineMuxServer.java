@@ -0,0 +1,426 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Standalone <i>Carmine</i> remote service endpoint serving the clients
+ * using the {@link CarmineMuxTransport}, i.e. the framed protocol multiplexing
+ * many concurrent calls over the single TCP connection (see
+ * {@link CarmineFrame}). Each received request is executed by the executor
+ * (see {@link #setExecutor(Executor)}) and its response is sent as soon as it
+ * is ready, regardless of the order of the requests.
+ * <p/>
+ * The number of requests in progress per connection is limited (see
+ * {@link #setMaxConcurrentRequests(int)}): once the limit is reached, the
+ * connection is not read until some of its responses are sent, so the client
+ * sending faster than the server can process is slowed down by the
+ * <i>TCP</i> flow control. Requests longer than the maximum frame length
+ * (see {@link #setMaxFrameLength(int)}) are skipped and answered by the
+ * failure.
+ * <p/>
+ * Each response is written as the single frame, so the elements of the
+ * streamed results ({@link java.util.Iterator} or
+ * {@link java.util.stream.Stream}) are all collected in the memory before the
+ * response is sent. Services streaming large results should be served by the
+ * {@link CarmineServer} instead.
+ * <p/>
+ * <dl>
+ * <dt><b>Example of usage:</b></dt>
+ * <dd><pre><code>
+ * CarmineMuxServer server = new CarmineMuxServer(7070);
+ * server.addImplementation(RemoteClass.class, new RemoteClassImpl());
+ * server.start();
+ * ...
+ * server.close();
+ * </code></pre></dd>
+ * </dl>
+ */
+public class CarmineMuxServer implements Closeable {
+
+    /**
+     * Default maximum number of requests in progress per connection.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 64;
+
+    private static final ThreadFactory THREADS
+            = new CarmineThreadFactory("carmine-mux-server");
+
+    private final InetSocketAddress address;
+    private final CarmineInvoker invoker;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private int backlog;
+    private volatile int maxFrameLength = CarmineFrame.DEFAULT_MAX_LENGTH;
+    private volatile int maxConcurrentRequests
+            = DEFAULT_MAX_CONCURRENT_REQUESTS;
+    private Executor executor;
+    private ExecutorService defaultExecutor;
+    private ServerSocket serverSocket;
+
+    /**
+     * Constructs new server listening on the given port of all the local
+     * addresses, using new {@link CarmineInvoker}.
+     *
+     * @param port port to listen on ({@code 0} for any free port)
+     */
+    public CarmineMuxServer(int port) {
+        this(new InetSocketAddress(port), new CarmineInvoker());
+    }
+
+    /**
+     * Constructs new server listening on the given address, using the given
+     * invoker to process the requests.
+     *
+     * @param address address to listen on
+     * @param invoker invoker processing the requests
+     */
+    public CarmineMuxServer(InetSocketAddress address,
+                            CarmineInvoker invoker) {
+        this.address = address;
+        this.invoker = invoker;
+    }
+
+    /**
+     * Returns the invoker processing the requests.
+     *
+     * @return invoker processing the requests
+     */
+    public CarmineInvoker getInvoker() {
+        return invoker;
+    }
+
+    /**
+     * Registers the provider of the implementations of the given remote
+     * interface (see {@link CarmineInvoker#addProvider(Class,
+     * CarmineProvider)}).
+     *
+     * @param theInterface remote interface
+     * @param provider     provider of the implementation instances
+     */
+    public void addProvider(Class<?> theInterface, CarmineProvider provider) {
+        invoker.addProvider(theInterface, provider);
+    }
+
+    /**
+     * Registers the single thread safe implementation of the given remote
+     * interface (see {@link CarmineSingletonProvider}).
+     *
+     * @param theInterface   remote interface
+     * @param implementation implementation of the remote interface
+     * @param <T>            type of the remote interface
+     */
+    public <T> void addImplementation(Class<T> theInterface, T implementation) {
+        invoker.addProvider(theInterface,
+                new CarmineSingletonProvider(implementation));
+    }
+
+    /**
+     * Sets the maximum number of queued incoming connections (by default
+     * {@code 0}, i.e. the system default). Must be set before the server is
+     * started.
+     *
+     * @param backlog maximum number of queued connections
+     */
+    public void setBacklog(int backlog) {
+        this.backlog = backlog;
+    }
+
+    /**
+     * Returns the maximum length of the request frame in bytes.
+     *
+     * @return maximum frame length in bytes
+     */
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    /**
+     * Sets the maximum length of the request frame in bytes (by default
+     * 16 MB). Longer requests are skipped without being read into the memory
+     * and fail on the client side.
+     *
+     * @param maxFrameLength maximum frame length in bytes
+     */
+    public void setMaxFrameLength(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * Returns the maximum number of requests in progress per connection.
+     *
+     * @return maximum number of requests in progress per connection
+     */
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    /**
+     * Sets the maximum number of requests in progress per connection (by
+     * default {@link #DEFAULT_MAX_CONCURRENT_REQUESTS}). Once reached, no more
+     * requests are read from the connection until some response is sent.
+     * Applies to the connections accepted afterwards.
+     *
+     * @param maxConcurrentRequests maximum number of requests in progress
+     */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException(
+                    "Invalid number of requests: " + maxConcurrentRequests);
+        }
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    /**
+     * Returns the executor of the remote method calls.
+     *
+     * @return executor or {@code null} if the default one is used
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor of the remote method calls (by default virtual thread
+     * per call on Java 21+, or the cached thread pool). The given executor is
+     * not shut down when the server is closed. Must be set before the server
+     * is started.
+     *
+     * @param executor executor of the remote method calls
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the address the server listens on, which contains the actual
+     * port if the server was constructed with the port {@code 0}.
+     *
+     * @return address of the started server
+     * @throws IllegalStateException thrown if the server is not started
+     */
+    public synchronized InetSocketAddress getAddress() {
+        if (serverSocket == null) {
+            throw new IllegalStateException("Server is not started");
+        }
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    /**
+     * Starts the server.
+     *
+     * @throws IOException           thrown if the server cannot be bound to
+     *                               its address
+     * @throws IllegalStateException thrown if the server is already started
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            throw new IllegalStateException("Server is already started");
+        }
+        final ServerSocket socket = new ServerSocket();
+        try {
+            socket.setReuseAddress(true);
+            socket.bind(address, backlog);
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+        if (executor == null) {
+            defaultExecutor
+                    = CarmineServer.createDefaultExecutor("carmine-mux-call");
+        }
+        final Executor callExecutor
+                = (executor != null) ? executor : defaultExecutor;
+        serverSocket = socket;
+
+        THREADS.newThread(new Runnable() {
+            @Override
+            public void run() {
+                accept(socket, callExecutor);
+            }
+        }).start();
+    }
+
+    /**
+     * Stops the server, closing all the connections (the calls in progress
+     * are not waited for).
+     */
+    @Override
+    public synchronized void close() {
+        if (serverSocket == null) return;
+        closeQuietly(serverSocket);
+        serverSocket = null;
+        for (Socket connection : connections) {
+            closeQuietly(connection);
+        }
+        if (defaultExecutor != null) {
+            defaultExecutor.shutdown();
+            defaultExecutor = null;
+        }
+    }
+
+    private void accept(ServerSocket serverSocket, final Executor executor) {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+            } catch (IOException ex) {
+                if (!serverSocket.isClosed()) {
+                    Logger.getLogger(getClass().getName()).log(Level.WARNING,
+                            "Cannot accept the connection", ex);
+                }
+                continue;
+            }
+            connections.add(socket);
+            THREADS.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket, executor);
+                }
+            }).start();
+        }
+    }
+
+    private void serve(Socket socket, Executor executor) {
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+            // the lock does not pin the virtual thread to its carrier while
+            // blocked in the socket write, unlike the monitor before Java 24
+            final Lock writeLock = new ReentrantLock();
+            CarmineSymbols symbols = new CarmineSymbols();
+            final Semaphore permits = new Semaphore(maxConcurrentRequests);
+            while (true) {
+                // the next request is not read until there is a free permit
+                permits.acquire();
+                CarmineFrame frame
+                        = CarmineFrame.read(in, symbols, maxFrameLength);
+                if (frame == null) break;
+                if (frame.isTooLarge()) {
+                    permits.release();
+                    writeFailure(out, writeLock, frame.getId(),
+                            "Request too large");
+                    continue;
+                }
+
+                final CarmineFrame request = frame;
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                process(request, out, writeLock);
+                            } finally {
+                                permits.release();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    permits.release();
+                    writeFailure(out, writeLock, request.getId(),
+                            "Request rejected");
+                }
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(getClass().getName()).log(Level.FINE,
+                    "Connection failed", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connections.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private void writeFailure(DataOutputStream out, Lock writeLock, long id,
+                              String message) throws IOException {
+        writeLock.lock();
+        try {
+            CarmineFrame.writeFailure(out, id, message);
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void process(CarmineFrame request, DataOutputStream out,
+                         Lock writeLock) {
+        CarmineByteArrayOutputStream body = new CarmineByteArrayOutputStream();
+        String contentType = null;
+        String failure = null;
+        try {
+            CarmineEncodedResponse response = invoker.processRequest(
+                    request.getBody(), request.getContentType(),
+                    request.getSymbols());
+            contentType = response.getContentType();
+            response.writeTo(body);
+        } catch (Exception ex) {
+            Logger.getLogger(getClass().getName()).log(Level.SEVERE,
+                    "Cannot process the request", ex);
+            failure = String.valueOf(ex);
+        }
+
+        writeLock.lock();
+        try {
+            if (failure != null) {
+                CarmineFrame.writeFailure(out, request.getId(), failure);
+            } else {
+                request.getSymbols().writeDefinitions(out);
+                CarmineFrame.write(out, request.getId(), contentType,
+                        body.buffer(), body.size());
+            }
+            out.flush();
+        } catch (IOException ex) {
+            // the connection is closed by its reader thread
+            Logger.getLogger(getClass().getName()).log(Level.FINE,
+                    "Cannot send the response", ex);
+        } finally {
+            writeLock.unlock();
+            body.release();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // nothing to do
+        }
+    }
+}
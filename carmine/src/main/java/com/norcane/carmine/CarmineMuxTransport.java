@@ -0,0 +1,511 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Transport multiplexing any number of concurrent calls over the single
+ * persistent TCP connection to the {@link CarmineMuxServer}. Each request is
+ * sent as the frame identified by the unique correlation identifier, and the
+ * responses, which may arrive in any order, are matched back to the waiting
+ * calls by the reader thread of the connection. Unlike the HTTP/1.1
+ * transports, the number of calls in progress is therefore not limited by the
+ * number of open connections. The connection is opened on the first request
+ * and reopened once it fails.
+ * <p/>
+ * <dl>
+ * <dt><b>Example of usage:</b></dt>
+ * <dd><pre><code>
+ * CarmineManager cm = new CarmineManager(REMOTE_SERVICE_URL);
+ * cm.setTransport(new CarmineMuxTransport(
+ *         new InetSocketAddress("localhost", 7070)));
+ * </code></pre></dd>
+ * </dl>
+ * <p/>
+ * The requests and the responses are neither compressed nor streamed: the
+ * content of the {@link java.io.InputStream} arguments and the elements of
+ * the streamed results are sent within the single frame, whose length is
+ * limited on the receiving side (see {@link #setMaxFrameLength(int)} and
+ * {@link CarmineMuxServer#setMaxFrameLength(int)}). With the
+ * {@link CarmineBinaryCodec}, the names of classes, remote interfaces,
+ * methods and properties are sent in full only once per connection, so the
+ * small calls are considerably smaller than when sent over the HTTP.
+ */
+public class CarmineMuxTransport implements CarmineTransport {
+
+    private static final ThreadFactory READERS
+            = new CarmineThreadFactory("carmine-mux-reader");
+
+    private final InetSocketAddress address;
+    private final AtomicLong ids = new AtomicLong();
+    private volatile int connectTimeout;
+    private volatile int readTimeout;
+    private volatile int maxFrameLength = CarmineFrame.DEFAULT_MAX_LENGTH;
+    private Connection connection;
+    private boolean closed;
+
+    /**
+     * Constructs new instance sending requests to the
+     * {@link CarmineMuxServer} listening on the given address.
+     *
+     * @param address address of the remote side
+     */
+    public CarmineMuxTransport(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * Returns the address of the remote side.
+     *
+     * @return address of the remote side
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Returns the connect timeout in milliseconds ({@code 0} for no timeout).
+     *
+     * @return connect timeout in milliseconds
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Sets the connect timeout in milliseconds (by default {@code 0}, i.e. no
+     * timeout).
+     *
+     * @param connectTimeout connect timeout in milliseconds
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Returns the timeout of the synchronous calls in milliseconds
+     * ({@code 0} for no timeout).
+     *
+     * @return read timeout in milliseconds
+     */
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Sets the maximum time to wait for the response of the synchronous call
+     * in milliseconds (by default {@code 0}, i.e. no timeout). Timeouts of
+     * the asynchronous calls are set by
+     * {@link CarmineManager#setTimeout(long)}.
+     *
+     * @param readTimeout read timeout in milliseconds
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Returns the maximum length of the response frame in bytes.
+     *
+     * @return maximum frame length in bytes
+     */
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    /**
+     * Sets the maximum length of the response frame in bytes (by default
+     * 16 MB). Longer responses are skipped without being read into the
+     * memory and their calls fail. Applies to the connections opened
+     * afterwards.
+     *
+     * @param maxFrameLength maximum frame length in bytes
+     */
+    public void setMaxFrameLength(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    public CarmineResponse send(CarmineRequest request, CarmineCodec codec)
+            throws IOException, ClassNotFoundException {
+
+        CarmineMethodMetrics metrics = request.getMetrics();
+        long time = (metrics != null) ? System.nanoTime() : 0L;
+        int timeout = CarmineHttpTransport.timeout(readTimeout, request);
+        long id = ids.incrementAndGet();
+        Connection connection = connection();
+        if (metrics != null) {
+            time = CarmineHttpTransport.record(
+                    metrics, CarminePhase.CONNECT, time);
+        }
+
+        // the names are written using the dictionary of the connection
+        CarmineByteArrayOutputStream body = serialize(
+                request, connection.symbols.bind(codec));
+        int length = body.size();
+        if (metrics != null) {
+            time = CarmineHttpTransport.record(
+                    metrics, CarminePhase.SERIALIZE, time);
+        }
+        CompletableFuture<CarmineFrame> future
+                = send(connection, id, request, codec, body);
+
+        CarmineFrame frame;
+        try {
+            frame = (timeout > 0)
+                    ? future.get(timeout, TimeUnit.MILLISECONDS)
+                    : future.get();
+        } catch (TimeoutException ex) {
+            connection.pending.remove(id);
+            throw new SocketTimeoutException("Read timed out");
+        } catch (InterruptedException ex) {
+            connection.pending.remove(id);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for "
+                    + "the response");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+        if (metrics != null) {
+            time = CarmineHttpTransport.record(
+                    metrics, CarminePhase.NETWORK, time);
+            metrics.transferred(frame.getLength(), length);
+        }
+        return read(frame, codec, metrics, time);
+    }
+
+    @Override
+    public CompletableFuture<CarmineResponse> sendAsync(
+            final CarmineRequest request, final CarmineCodec codec,
+            final Executor executor) {
+
+        final CompletableFuture<CarmineResponse> result
+                = new CompletableFuture<>();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (result.isDone()) return;
+                    try {
+                        sendAsync(request, codec, executor, result);
+                    } catch (Throwable t) {
+                        result.completeExceptionally(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
+    private void sendAsync(final CarmineRequest request,
+                           final CarmineCodec codec, final Executor executor,
+                           final CompletableFuture<CarmineResponse> result)
+            throws IOException {
+
+        final CarmineMethodMetrics metrics = request.getMetrics();
+        long time = (metrics != null) ? System.nanoTime() : 0L;
+        final long id = ids.incrementAndGet();
+        final Connection connection = connection();
+        if (metrics != null) {
+            time = CarmineHttpTransport.record(
+                    metrics, CarminePhase.CONNECT, time);
+        }
+
+        CarmineByteArrayOutputStream body = serialize(
+                request, connection.symbols.bind(codec));
+        final int length = body.size();
+        if (metrics != null) {
+            time = CarmineHttpTransport.record(
+                    metrics, CarminePhase.SERIALIZE, time);
+        }
+        final long sent = time;
+        CompletableFuture<CarmineFrame> future
+                = send(connection, id, request, codec, body);
+
+        // the response is deserialized by the executor, not by the reader
+        // thread of the connection, which must keep reading other responses
+        future.whenComplete(new BiConsumer<CarmineFrame, Throwable>() {
+            @Override
+            public void accept(final CarmineFrame frame, Throwable error) {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                    return;
+                }
+                final long received = (metrics != null)
+                        ? CarmineHttpTransport.record(
+                        metrics, CarminePhase.NETWORK, sent) : 0L;
+                if (metrics != null) {
+                    metrics.transferred(frame.getLength(), length);
+                }
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                result.complete(
+                                        read(frame, codec, metrics, received));
+                            } catch (Throwable t) {
+                                result.completeExceptionally(t);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    result.completeExceptionally(ex);
+                }
+            }
+        });
+
+        // the response of the cancelled call is discarded once it arrives
+        result.whenComplete(new BiConsumer<CarmineResponse, Throwable>() {
+            @Override
+            public void accept(CarmineResponse response, Throwable error) {
+                if (error instanceof CancellationException) {
+                    connection.pending.remove(id);
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the connection, failing all the calls in progress.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (connection != null) {
+            connection.fail(new IOException("Transport has been closed"));
+            connection = null;
+        }
+    }
+
+    private static CarmineByteArrayOutputStream serialize(
+            CarmineRequest request, CarmineCodec codec) throws IOException {
+        CarmineByteArrayOutputStream body = new CarmineByteArrayOutputStream();
+        ObjectOutput out = codec.createOutput(body);
+        CarmineStreams.writeRequest(request, out);
+        out.close();
+        return body;
+    }
+
+    private CompletableFuture<CarmineFrame> send(
+            Connection connection, long id, CarmineRequest request,
+            CarmineCodec codec, CarmineByteArrayOutputStream body)
+            throws IOException {
+        try {
+            return connection.send(id, codec.getContentType(), body);
+        } catch (IOException ex) {
+            // the frame has not been written completely, so the remote side
+            // cannot process it and it is safe to resend it (the connection
+            // might have been closed by the remote side in the meantime),
+            // serialized again using the dictionary of the new connection
+            Connection reopened = connection(connection);
+            body.release();
+            body = serialize(request, reopened.symbols.bind(codec));
+            return reopened.send(id, codec.getContentType(), body);
+        } finally {
+            // the frame is written synchronously, so the pooled buffer is
+            // not needed anymore
+            body.release();
+        }
+    }
+
+    private CarmineResponse read(CarmineFrame frame, CarmineCodec codec,
+                                 CarmineMethodMetrics metrics, long time)
+            throws IOException, ClassNotFoundException {
+        if (frame.getContentType().isEmpty()) {
+            throw new IOException("Remote side failed: "
+                    + frame.getFailure());
+        }
+        CarmineCodec responseCodec = frame.getSymbols().bind(
+                CarmineHttpTransport.responseCodec(
+                        codec, frame.getContentType()));
+        InputStream body = frame.getBody();
+        ObjectInput in = responseCodec.createInput(body);
+        CarmineResponse result = CarmineStreams.resolveSegment(
+                (CarmineResponse) in.readObject(), in);
+        if (metrics != null) {
+            CarmineHttpTransport.record(
+                    metrics, CarminePhase.DESERIALIZE, time);
+        }
+        if (result.isSuccessful()
+                && CarmineStreams.isMarker(result.getResult())) {
+            return new CarmineResponse(new CarmineRemoteIterator<Object>(
+                    in, body), result.getProperties());
+        }
+        in.close();
+        return result;
+    }
+
+    private Connection connection() throws IOException {
+        return connection(null);
+    }
+
+    /**
+     * Returns the open connection, opening the new one if there is none or
+     * if the current one is the given failed connection.
+     */
+    private synchronized Connection connection(Connection failed)
+            throws IOException {
+        if (closed) throw new IOException("Transport has been closed");
+        if (connection != null && connection != failed && connection.isOpen()) {
+            return connection;
+        }
+        if (connection != null) {
+            connection.fail(new IOException("Connection has been reopened"));
+        }
+
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(address, connectTimeout);
+            connection = new Connection(socket, maxFrameLength);
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+        READERS.newThread(connection).start();
+        return connection;
+    }
+
+    /**
+     * Connection to the remote side, whose reader thread completes the calls
+     * in progress with the received responses.
+     */
+    private static final class Connection implements Runnable {
+
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final ConcurrentMap<Long, CompletableFuture<CarmineFrame>>
+                pending = new ConcurrentHashMap<>();
+        private final CarmineSymbols symbols = new CarmineSymbols();
+        private final Lock writeLock = new ReentrantLock();
+        private final int maxFrameLength;
+        private volatile IOException failure;
+
+        private Connection(Socket socket, int maxFrameLength)
+                throws IOException {
+            this.socket = socket;
+            this.maxFrameLength = maxFrameLength;
+            this.in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        private boolean isOpen() {
+            return failure == null;
+        }
+
+        private CompletableFuture<CarmineFrame> send(
+                long id, String contentType,
+                CarmineByteArrayOutputStream body) throws IOException {
+            CompletableFuture<CarmineFrame> future = new CompletableFuture<>();
+            pending.put(id, future);
+            IOException failure = this.failure;
+            if (failure != null) {
+                pending.remove(id);
+                throw failure;
+            }
+            writeLock.lock();
+            try {
+                symbols.writeDefinitions(out);
+                CarmineFrame.write(out, id, contentType,
+                        body.buffer(), body.size());
+                out.flush();
+            } catch (IOException ex) {
+                pending.remove(id);
+                fail(ex);
+                throw ex;
+            } finally {
+                writeLock.unlock();
+            }
+            return future;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    CarmineFrame frame
+                            = CarmineFrame.read(in, symbols, maxFrameLength);
+                    if (frame == null) {
+                        throw new EOFException(
+                                "Connection closed by the remote side");
+                    }
+                    CompletableFuture<CarmineFrame> future
+                            = pending.remove(frame.getId());
+                    if (future == null) continue;
+                    if (frame.isTooLarge()) {
+                        future.completeExceptionally(
+                                new IOException("Response too large"));
+                    } else {
+                        future.complete(frame);
+                    }
+                }
+            } catch (IOException ex) {
+                fail(ex);
+            }
+        }
+
+        private void fail(IOException ex) {
+            if (failure == null) failure = ex;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // nothing to do
+            }
+            for (Long id : pending.keySet()) {
+                CompletableFuture<CarmineFrame> future = pending.remove(id);
+                if (future != null) future.completeExceptionally(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+/**
+ * Thrown by the remote method call rejected by the remote side, because the
+ * concurrency limit of the called interface or method (see
+ * {@link CarmineInvoker#setLimiter(Class, CarmineLimiter)}) was reached and
+ * the call could not be queued. The rejected method has not been invoked, so
+ * the call can be safely repeated later (the {@link CarmineBalancedTransport}
+ * repeats it on another endpoint, if available).
+ */
+public class CarmineOverloadException extends RuntimeException {
+
+    /**
+     * Constructs new instance with the given detail message.
+     *
+     * @param message detail message
+     */
+    public CarmineOverloadException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+/**
+ * Phases of the remote method call, whose latencies are recorded by the
+ * {@link CarmineMetrics}. The local side records the {@link #TOTAL},
+ * {@link #SERIALIZE}, {@link #CONNECT}, {@link #NETWORK} and
+ * {@link #DESERIALIZE} phases, the remote side records the {@link #TOTAL},
+ * {@link #DESERIALIZE}, {@link #DISPATCH} and {@link #SERIALIZE} phases.
+ */
+public enum CarminePhase {
+
+    /**
+     * Whole call, from the invocation of the proxy method to its result on
+     * the local side, or from reading the request to writing the response on
+     * the remote side.
+     */
+    TOTAL,
+
+    /**
+     * Serialization of the request (including its compression) on the local
+     * side, or of the response on the remote side.
+     */
+    SERIALIZE,
+
+    /**
+     * Acquiring the connection to the remote side, including the <i>TCP</i>
+     * (and <i>TLS</i>) handshake if no idle connection is available.
+     */
+    CONNECT,
+
+    /**
+     * Sending the request and waiting for the response, i.e. the round trip
+     * including the time spent by the remote side.
+     */
+    NETWORK,
+
+    /**
+     * Deserialization of the response on the local side, or of the request
+     * on the remote side.
+     */
+    DESERIALIZE,
+
+    /**
+     * Execution of the remote method implementation on the remote side,
+     * including acquiring the implementation instance.
+     */
+    DISPATCH
+}
@@ -0,0 +1,152 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Implementation of the {@link CarmineProvider}, providing instances from
+ * the bounded pool, so every instance is used by a single request at a time
+ * (suitable for implementations which are not thread safe). Instances are
+ * created by the factory on demand, up to the maximum pool size; if all of
+ * them are used, the request waits for any instance to be released, at most
+ * for the acquire timeout.
+ * <p/>
+ * The instance returning the streamed result is not released until all the
+ * elements have been written (see {@link CarmineProvider}), so the slow
+ * client reading the stream holds the instance for the whole time.
+ */
+public class CarminePoolProvider implements CarmineProvider {
+
+    private final CarmineFactory<?> factory;
+    private final int maxSize;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<Object> idle
+            = new ConcurrentLinkedDeque<Object>();
+    private final AtomicLong createdCount = new AtomicLong();
+    private volatile long acquireTimeout;
+
+    /**
+     * Constructs new instance with the given factory and maximum pool size.
+     *
+     * @param factory factory of the implementation instances
+     * @param maxSize maximum number of instances (either used or idle)
+     */
+    public CarminePoolProvider(CarmineFactory<?> factory, int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+        this.factory = factory;
+        this.maxSize = maxSize;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Returns the maximum number of instances (either used or idle).
+     *
+     * @return maximum pool size
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the maximum time in milliseconds to wait for an instance, if
+     * all instances are used ({@code 0} to wait indefinitely).
+     *
+     * @return acquire timeout in milliseconds
+     */
+    public long getAcquireTimeout() {
+        return acquireTimeout;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds to wait for an instance, if all
+     * instances are used (by default {@code 0}, i.e. wait indefinitely).
+     *
+     * @param acquireTimeout acquire timeout in milliseconds
+     */
+    public void setAcquireTimeout(long acquireTimeout) {
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    /**
+     * Returns the total number of instances created by this pool.
+     *
+     * @return number of created instances
+     */
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * Returns the number of instances currently used by requests.
+     *
+     * @return number of used instances
+     */
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    /**
+     * Returns the number of idle instances.
+     *
+     * @return number of idle instances
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    @Override
+    public Object acquire(Map<String, Object> properties) throws Exception {
+        if (acquireTimeout <= 0) {
+            permits.acquire();
+        } else if (!permits.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("Timeout waiting for instance (all "
+                    + maxSize + " instances are used)");
+        }
+
+        Object instance = idle.pollFirst();
+        if (instance != null) return instance;
+
+        try {
+            instance = factory.create(properties);
+            if (instance == null) {
+                throw new IllegalStateException("Factory returned null");
+            }
+            createdCount.incrementAndGet();
+            return instance;
+        } catch (Exception ex) {
+            permits.release();
+            throw ex;
+        } catch (Error err) {
+            permits.release();
+            throw err;
+        }
+    }
+
+    @Override
+    public void release(Object instance, Map<String, Object> properties) {
+        idle.addFirst(instance);
+        permits.release();
+    }
+}
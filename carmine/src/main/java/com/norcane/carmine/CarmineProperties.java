@@ -0,0 +1,110 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Computes and applies the changes of the properties shared within the
+ * connection. The remote side sends back only the properties changed by the
+ * invoked method (removed properties having the {@link Marker#REMOVED}
+ * value), and the local side applies them to its current properties, so
+ * concurrent calls do not overwrite changes made by each other. Values of
+ * types other than strings, primitive wrappers and enums are always
+ * considered changed, as they could have been modified in place.
+ * <p/>
+ * The responses carrying only the changes are not compatible with the
+ * earlier versions, whose local side replaces all its properties by the
+ * properties of the response, therefore the local and the remote side must
+ * be upgraded together.
+ */
+final class CarmineProperties {
+
+    private CarmineProperties() {
+    }
+
+    /**
+     * Returns the changes between the given properties.
+     *
+     * @param before properties of the request
+     * @param after  properties after the invocation
+     * @return changed properties, with {@link Marker#REMOVED} value for the
+     * removed ones (empty map if nothing has changed)
+     */
+    static Map<String, Object> delta(Map<String, Object> before,
+                                     Map<String, Object> after) {
+        Map<String, Object> delta = null;
+        int retained = 0;
+        for (Map.Entry<String, Object> entry : after.entrySet()) {
+            Object value = entry.getValue();
+            boolean existing = before.containsKey(entry.getKey());
+            if (existing) retained++;
+            if (!existing || !unchanged(before.get(entry.getKey()), value)) {
+                if (delta == null) delta = new HashMap<String, Object>();
+                delta.put(entry.getKey(), value);
+            }
+        }
+        if (retained < before.size()) {
+            for (String key : before.keySet()) {
+                if (!after.containsKey(key)) {
+                    if (delta == null) delta = new HashMap<String, Object>();
+                    delta.put(key, Marker.REMOVED);
+                }
+            }
+        }
+        return (delta != null) ? delta : Collections.<String, Object>emptyMap();
+    }
+
+    /**
+     * Applies the changes to the given properties.
+     *
+     * @param properties immutable properties
+     * @param delta      changes of the properties (see
+     *                   {@link #delta(Map, Map)})
+     * @return new immutable properties, or the same properties if there are
+     * no changes
+     */
+    static Map<String, Object> apply(Map<String, Object> properties,
+                                     Map<String, Object> delta) {
+        if (delta.isEmpty()) return properties;
+        Map<String, Object> result = new HashMap<String, Object>(properties);
+        for (Map.Entry<String, Object> entry : delta.entrySet()) {
+            if (entry.getValue() == Marker.REMOVED) {
+                result.remove(entry.getKey());
+            } else {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static boolean unchanged(Object before, Object after) {
+        if (before == null || after == null) return before == after;
+        return (after instanceof String || after instanceof Number
+                || after instanceof Boolean || after instanceof Character
+                || after instanceof Enum) && after.equals(before);
+    }
+
+    /**
+     * Marker of the removed property.
+     */
+    enum Marker {
+        REMOVED
+    }
+}
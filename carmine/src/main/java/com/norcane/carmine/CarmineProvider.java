@@ -0,0 +1,64 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.util.Map;
+
+/**
+ * Service provider interface of the implementation instance lifecycle, used
+ * by the {@link CarmineInvoker} to obtain the instance on which the remote
+ * method is executed (see
+ * {@link CarmineInvoker#addProvider(Class, CarmineProvider)}). Every acquired
+ * instance is released once the method execution completes, i.e. once the
+ * future returned by the asynchronous method completes, and for the streamed
+ * results ({@link java.util.Iterator} or {@link java.util.stream.Stream}) once
+ * all the elements have been written and the result closed. Local callers
+ * using the {@link CarmineLocalTransport} receive the streamed result itself,
+ * so the instance is released once they read all the elements or close the
+ * result. Available implementations are:
+ * <ul>
+ * <li>{@link CarmineSingletonProvider} - single (thread safe) instance shared
+ * by all requests</li>
+ * <li>{@link CarminePoolProvider} - bounded pool of instances, each used by
+ * a single request at a time</li>
+ * <li>{@link CarmineSessionProvider} - instance per session, identified by
+ * the property value</li>
+ * </ul>
+ * Implementations must be thread safe.
+ */
+public interface CarmineProvider {
+
+    /**
+     * Returns the implementation instance, on which the remote method will be
+     * executed.
+     *
+     * @param properties properties map shared within the communication
+     * @return implementation instance
+     * @throws Exception thrown if the instance cannot be obtained
+     */
+    Object acquire(Map<String, Object> properties) throws Exception;
+
+    /**
+     * Releases the instance returned by the {@link #acquire(Map)}, once the
+     * remote method execution completes (see above). May be called by other
+     * thread than the one that acquired the instance.
+     *
+     * @param instance   implementation instance
+     * @param properties properties map shared within the communication
+     */
+    void release(Object instance, Map<String, Object> properties);
+}
@@ -0,0 +1,119 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.UncheckedIOException;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over the elements of the streamed result of the remote method
+ * (i.e. method returning the {@link Iterator} or
+ * {@link java.util.stream.Stream}), reading the elements from the response
+ * as they are produced by the remote side. The response is held open until
+ * all the elements are read, therefore the iterator should be closed if not
+ * consumed completely. Exception thrown by the remote side while producing
+ * the elements is rethrown by {@link #hasNext()} (checked exceptions wrapped
+ * into the {@link UndeclaredThrowableException}), communication failure is
+ * thrown as the {@link UncheckedIOException}.
+ *
+ * @param <E> type of elements
+ */
+public class CarmineRemoteIterator<E> implements Iterator<E>, Closeable {
+
+    private final ObjectInput in;
+    private final Closeable body;
+    private Object next;
+    private boolean hasNext;
+    private boolean done;
+
+    /**
+     * Constructs new instance reading the elements from the given input.
+     *
+     * @param in   input of the response, positioned after the response
+     * @param body response body, closed when all elements are read
+     */
+    CarmineRemoteIterator(ObjectInput in, Closeable body) {
+        this.in = in;
+        this.body = body;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (hasNext) return true;
+        if (done) return false;
+
+        try {
+            int tag = in.readByte();
+            if (tag == CarmineStreams.ELEMENT) {
+                next = in.readObject();
+                hasNext = true;
+                return true;
+            }
+            Object error = (tag == CarmineStreams.ERROR)
+                    ? in.readObject() : null;
+            close();
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            } else if (error instanceof Error) {
+                throw (Error) error;
+            } else if (error instanceof Throwable) {
+                throw new UndeclaredThrowableException((Throwable) error);
+            }
+            if (tag != CarmineStreams.END) {
+                throw new IOException("Invalid stream tag: " + tag);
+            }
+            return false;
+        } catch (IOException ex) {
+            close();
+            throw new UncheckedIOException(ex);
+        } catch (ClassNotFoundException ex) {
+            close();
+            throw new UncheckedIOException(new IOException(ex));
+        }
+    }
+
+    @Override
+    public E next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        @SuppressWarnings("unchecked")
+        E element = (E) next;
+        next = null;
+        hasNext = false;
+        return element;
+    }
+
+    /**
+     * Closes the response. Remaining elements are discarded.
+     */
+    @Override
+    public void close() {
+        if (done) return;
+        done = true;
+        hasNext = false;
+        next = null;
+        try {
+            body.close();
+        } catch (IOException ex) {
+            // nothing to do here
+        }
+    }
+}
@@ -16,13 +16,23 @@
  */
 package com.norcane.carmine;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents the request to be sent to the remote side, encapsulating the
- * caller interface and method name, arguments and properties map.
+ * caller interface and method name (together with the compact identifier of
+ * the invoked method), arguments and properties map.
+ * <p/>
+ * The request may have the deadline, after which the local side is no longer
+ * waiting for the response (see {@link CarmineTimeout}). The deadline is
+ * sent as the remaining time, so the clocks of the local and the remote
+ * side need not be synchronized (the network latency is not accounted).
  *
  * @author Vaclav Svejcar (v.svejcar@norcane.cz)
  */
@@ -30,8 +40,13 @@ public class CarmineRequest implements Serializable {
 
     private final String interfaceName;
     private final String methodName;
+    private final long methodId;
     private final Object[] methodArguments;
     private final Map<String, Object> properties;
+    private transient CarmineMethodMetrics metrics;
+    private transient boolean idempotent;
+    private transient boolean timed;
+    private transient long deadline;
 
     /**
      * Constructs new immutable instance with given interface name, method name,
@@ -46,8 +61,31 @@ public class CarmineRequest implements Serializable {
     public CarmineRequest(String interfaceName, String methodName,
                           Object[] methodArguments,
                           Map<String, Object> properties) {
+        this(interfaceName, methodName, CarmineMethodId.UNKNOWN,
+                methodArguments, properties);
+    }
+
+    /**
+     * Constructs new immutable instance with given interface name, method name
+     * and identifier, method arguments and properties map. The method
+     * identifier allows the remote side to find the invoked method exactly
+     * (even if overloaded) with a single lookup.
+     *
+     * @param interfaceName   fully qualified name of the interface where the
+     *                        method was invoked
+     * @param methodName      name of the invoked method
+     * @param methodId        identifier of the invoked method, computed from
+     *                        the method name and its declared parameter types
+     *                        ({@code 0} if not known)
+     * @param methodArguments arguments passed to the invoked method
+     * @param properties      properties map shared within the connection
+     */
+    public CarmineRequest(String interfaceName, String methodName,
+                          long methodId, Object[] methodArguments,
+                          Map<String, Object> properties) {
         this.interfaceName = interfaceName;
         this.methodName = methodName;
+        this.methodId = methodId;
         this.methodArguments = methodArguments;
         this.properties = properties;
     }
@@ -71,6 +109,16 @@ public class CarmineRequest implements Serializable {
         return methodName;
     }
 
+    /**
+     * Returns the identifier of the invoked method, computed from the method
+     * name and its declared parameter types, or {@code 0} if not known.
+     *
+     * @return identifier of the invoked method
+     */
+    public long getMethodId() {
+        return methodId;
+    }
+
     /**
      * Returns the arguments passed to the invoked method.
      *
@@ -88,4 +136,91 @@ public class CarmineRequest implements Serializable {
     public Map<String, Object> getProperties() {
         return Collections.unmodifiableMap(properties);
     }
+
+    /**
+     * Returns the metrics of the invoked method, to which the latencies of
+     * particular phases of the call should be recorded.
+     *
+     * @return method metrics or {@code null} if the metrics are disabled
+     */
+    CarmineMethodMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics of the invoked method (not serialized).
+     *
+     * @param metrics method metrics or {@code null}
+     */
+    void setMetrics(CarmineMethodMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns {@code true} if the invoked method is idempotent (see
+     * {@link CarmineIdempotent}), so the request can be safely sent again if
+     * it fails. For the batch request, all the batched methods must be
+     * idempotent.
+     *
+     * @return {@code true} if the request can be sent again
+     */
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+
+    /**
+     * Sets whether the invoked method is idempotent (not serialized).
+     *
+     * @param idempotent {@code true} if the request can be sent again
+     */
+    void setIdempotent(boolean idempotent) {
+        this.idempotent = idempotent;
+    }
+
+    /**
+     * Returns the time remaining until the deadline of the request in
+     * milliseconds.
+     *
+     * @return remaining time (zero or negative if the deadline has passed),
+     * or {@link Long#MAX_VALUE} if the request has no deadline
+     */
+    public long getRemainingTime() {
+        if (!timed) return Long.MAX_VALUE;
+        return TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+    }
+
+    /**
+     * Returns {@code true} if the deadline of the request has passed, i.e.
+     * the local side no longer waits for the response.
+     *
+     * @return {@code true} if the request has expired
+     */
+    public boolean isExpired() {
+        return timed && deadline - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Sets the deadline of the request to the given time from now (not
+     * serialized directly, the remaining time is sent instead).
+     *
+     * @param timeout time remaining until the deadline in milliseconds (zero
+     *                or negative if already expired), or
+     *                {@link Long#MAX_VALUE} for no deadline
+     */
+    void setTimeout(long timeout) {
+        timed = (timeout != Long.MAX_VALUE);
+        deadline = timed ? System.nanoTime() + Math.min(Long.MAX_VALUE / 2,
+                TimeUnit.MILLISECONDS.toNanos(timeout)) : 0L;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeLong(getRemainingTime());
+    }
+
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        setTimeout(in.readLong());
+    }
 }
@@ -90,11 +90,11 @@ public class CarmineResponse implements Serializable {
 
     /**
      * Returns {@code true} if method invocation was successful and result
-     * object is available.
+     * object (possibly {@code null}) is available.
      *
      * @return {@code true} if method invocation was successful
      */
     public boolean isSuccessful() {
-        return (result != null);
+        return (exception == null);
     }
 }
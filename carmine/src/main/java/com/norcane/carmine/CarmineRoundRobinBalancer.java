@@ -0,0 +1,35 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Balancer choosing the endpoints in turn, spreading the requests evenly
+ * across all the available endpoints.
+ */
+public class CarmineRoundRobinBalancer implements CarmineBalancer {
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public CarmineEndpoint select(List<CarmineEndpoint> candidates) {
+        int index = counter.getAndIncrement() & Integer.MAX_VALUE;
+        return candidates.get(index % candidates.size());
+    }
+}
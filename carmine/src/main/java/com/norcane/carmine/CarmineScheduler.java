@@ -0,0 +1,52 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Shared scheduler for the short periodic or delayed tasks of <i>Carmine</i>
+ * (e.g. timeouts of asynchronous calls or eviction of idle connections),
+ * running in a single daemon thread.
+ */
+final class CarmineScheduler {
+
+    private static final ScheduledExecutorService SCHEDULER
+            = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "carmine-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private CarmineScheduler() {
+    }
+
+    /**
+     * Returns the shared scheduler. Scheduled tasks must be short and must
+     * not block.
+     *
+     * @return shared scheduler
+     */
+    static ScheduledExecutorService get() {
+        return SCHEDULER;
+    }
+}
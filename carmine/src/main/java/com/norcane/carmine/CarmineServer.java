@@ -0,0 +1,321 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Standalone <i>Carmine</i> remote service endpoint, built on the HTTP server
+ * of the JDK, so no servlet container is needed. The server passes the
+ * requests posted to its path to the {@link CarmineInvoker}, which executes
+ * the remote methods on the registered implementations. The server starts in
+ * milliseconds and has no dependencies, which makes it suitable for small
+ * services and sidecars.
+ * <p/>
+ * <dl>
+ * <dt><b>Example of usage:</b></dt>
+ * <dd><pre><code>
+ * CarmineServer server = new CarmineServer(8080);
+ * server.addImplementation(RemoteClass.class, new RemoteClassImpl());
+ * server.start();
+ * ...
+ * server.close();
+ * </code></pre></dd>
+ * </dl>
+ * <p/>
+ * Requests are handled by the executor set by {@link #setExecutor(Executor)},
+ * by default using virtual threads on Java 21+, or the cached thread pool of
+ * daemon threads on older JVMs.
+ * <p/>
+ * The HTTP server of the JDK leaves the Nagle's algorithm enabled on its
+ * connections, which may delay small responses, unless the
+ * {@value #NODELAY_PROPERTY} system property is {@code true}. The property is
+ * read only once per JVM and affects all the HTTP servers of the JDK, so the
+ * server does not set it itself, it should be set on the command line
+ * ({@code -Dsun.net.httpserver.nodelay=true}).
+ */
+public class CarmineServer implements Closeable {
+
+    /**
+     * Default path of the remote service endpoint.
+     */
+    public static final String DEFAULT_PATH = "/carmine";
+
+    /**
+     * System property of the JDK HTTP server enabling the TCP no delay
+     * option of its connections.
+     */
+    public static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+    private final InetSocketAddress address;
+    private final CarmineInvoker invoker;
+    private String path = DEFAULT_PATH;
+    private int backlog;
+    private Executor executor;
+    private ExecutorService defaultExecutor;
+    private HttpServer server;
+
+    /**
+     * Constructs new server listening on the given port of all the local
+     * addresses, using new {@link CarmineInvoker}.
+     *
+     * @param port port to listen on ({@code 0} for any free port)
+     */
+    public CarmineServer(int port) {
+        this(new InetSocketAddress(port), new CarmineInvoker());
+    }
+
+    /**
+     * Constructs new server listening on the given address, using the given
+     * invoker to process the requests.
+     *
+     * @param address address to listen on
+     * @param invoker invoker processing the requests
+     */
+    public CarmineServer(InetSocketAddress address, CarmineInvoker invoker) {
+        this.address = address;
+        this.invoker = invoker;
+    }
+
+    /**
+     * Returns the invoker processing the requests, which can be used to
+     * configure codecs, compressions, metrics etc.
+     *
+     * @return invoker processing the requests
+     */
+    public CarmineInvoker getInvoker() {
+        return invoker;
+    }
+
+    /**
+     * Registers the provider of the implementations of the given remote
+     * interface (see {@link CarmineInvoker#addProvider(Class,
+     * CarmineProvider)}).
+     *
+     * @param theInterface remote interface
+     * @param provider     provider of the implementation instances
+     */
+    public void addProvider(Class<?> theInterface, CarmineProvider provider) {
+        invoker.addProvider(theInterface, provider);
+    }
+
+    /**
+     * Registers the single thread safe implementation of the given remote
+     * interface (see {@link CarmineSingletonProvider}).
+     *
+     * @param theInterface   remote interface
+     * @param implementation implementation of the remote interface
+     * @param <T>            type of the remote interface
+     */
+    public <T> void addImplementation(Class<T> theInterface, T implementation) {
+        invoker.addProvider(theInterface,
+                new CarmineSingletonProvider(implementation));
+    }
+
+    /**
+     * Returns the path of the remote service endpoint.
+     *
+     * @return path of the endpoint
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Sets the path of the remote service endpoint (by default
+     * {@value #DEFAULT_PATH}). Must be set before the server is started.
+     *
+     * @param path path of the endpoint
+     */
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    /**
+     * Sets the maximum number of queued incoming connections (by default
+     * {@code 0}, i.e. the system default). Must be set before the server is
+     * started.
+     *
+     * @param backlog maximum number of queued connections
+     */
+    public void setBacklog(int backlog) {
+        this.backlog = backlog;
+    }
+
+    /**
+     * Returns the executor handling the requests.
+     *
+     * @return executor or {@code null} if the default one is used
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor handling the requests (by default virtual thread per
+     * request on Java 21+, or the cached thread pool). The given executor is
+     * not shut down when the server is closed. Must be set before the server
+     * is started.
+     *
+     * @param executor executor handling the requests
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the address the server listens on, which contains the actual
+     * port if the server was constructed with the port {@code 0}.
+     *
+     * @return address of the started server
+     * @throws IllegalStateException thrown if the server is not started
+     */
+    public synchronized InetSocketAddress getAddress() {
+        if (server == null) {
+            throw new IllegalStateException("Server is not started");
+        }
+        return server.getAddress();
+    }
+
+    /**
+     * Starts the server.
+     *
+     * @throws IOException           thrown if the server cannot be bound to
+     *                               its address
+     * @throws IllegalStateException thrown if the server is already started
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Server is already started");
+        }
+        HttpServer httpServer = HttpServer.create(address, backlog);
+        httpServer.createContext(path, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                CarmineServer.this.handle(exchange);
+            }
+        });
+        if (executor == null) {
+            defaultExecutor = createDefaultExecutor("carmine-server");
+        }
+        httpServer.setExecutor(
+                (executor != null) ? executor : defaultExecutor);
+        httpServer.start();
+        server = httpServer;
+    }
+
+    /**
+     * Stops the server, waiting at most given number of seconds for the
+     * requests in progress to complete.
+     *
+     * @param delay maximum time to wait, in seconds
+     */
+    public synchronized void stop(int delay) {
+        if (server == null) return;
+        server.stop(delay);
+        server = null;
+        if (defaultExecutor != null) {
+            defaultExecutor.shutdown();
+            defaultExecutor = null;
+        }
+    }
+
+    /**
+     * Stops the server immediately.
+     */
+    @Override
+    public void close() {
+        stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            InputStream in = exchange.getRequestBody();
+            CarmineEncodedResponse result = invoker.processRequest(in,
+                    exchange.getRequestHeaders().getFirst(
+                            CarmineHeaders.CONTENT_TYPE),
+                    exchange.getRequestHeaders().getFirst(
+                            CarmineHeaders.CONTENT_ENCODING),
+                    exchange.getRequestHeaders().getFirst(
+                            CarmineHeaders.ACCEPT_ENCODING));
+
+            exchange.getResponseHeaders().set(
+                    CarmineHeaders.CONTENT_TYPE, result.getContentType());
+            if (result.getContentEncoding() != null) {
+                exchange.getResponseHeaders().set(
+                        CarmineHeaders.CONTENT_ENCODING,
+                        result.getContentEncoding());
+            }
+
+            // length 0 means chunked encoding (used by streamed results) and
+            // -1 means no body at all for the JDK HTTP server
+            int length = result.getContentLength();
+            exchange.sendResponseHeaders(200,
+                    (length > 0) ? length : (length == 0) ? -1 : 0);
+            OutputStream out = exchange.getResponseBody();
+            result.writeTo(out);
+            out.close();
+        } catch (IOException ex) {
+            // the client disconnected or failed while reading the response
+            Logger.getLogger(getClass().getName()).log(Level.FINE,
+                    "Cannot process the request", ex);
+            throw ex;
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Creates the default executor of the remote method calls, using virtual
+     * threads if supported by the running JVM, or the cached thread pool of
+     * daemon threads.
+     *
+     * @param prefix name prefix of the threads of the pool
+     * @return default executor
+     */
+    static ExecutorService createDefaultExecutor(String prefix) {
+        try {
+            // virtual threads are available on Java 21+ only
+            Method factory = Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newCachedThreadPool(
+                    new CarmineThreadFactory(prefix));
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implementation of the {@link CarmineProvider}, providing instance per
+ * session, where the session is identified by the value of the given
+ * property (e.g. the session token set by the local side). The instance is
+ * created by the factory on the first request of the session, and is evicted
+ * once the session is idle for longer than the idle timeout, or once the
+ * maximum number of sessions is exceeded (the least recently used session is
+ * evicted first). Evicted instances implementing {@link AutoCloseable} are
+ * closed.
+ * <p/>
+ * Note that the instance of the session is shared by all concurrent requests
+ * of the same session.
+ */
+public class CarmineSessionProvider implements CarmineProvider {
+
+    /**
+     * Default maximum number of sessions.
+     */
+    public static final int DEFAULT_MAX_SESSIONS = 10000;
+
+    /**
+     * Default session idle timeout in milliseconds.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 30 * 60 * 1000L;
+
+    private final CarmineFactory<?> factory;
+    private final String propertyKey;
+    private final LinkedHashMap<Object, Session> sessions
+            = new LinkedHashMap<Object, Session>(16, 0.75f, true);
+    private volatile int maxSessions = DEFAULT_MAX_SESSIONS;
+    private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private long evictedCount;
+    private ScheduledFuture<?> evictionTask;
+
+    /**
+     * Constructs new instance with the given factory, creating instances per
+     * session identified by the value of the given property.
+     *
+     * @param factory     factory of the implementation instances
+     * @param propertyKey key of the property identifying the session
+     */
+    public CarmineSessionProvider(CarmineFactory<?> factory,
+                                  String propertyKey) {
+        this.factory = factory;
+        this.propertyKey = propertyKey;
+    }
+
+    /**
+     * Returns the key of the property identifying the session.
+     *
+     * @return property key
+     */
+    public String getPropertyKey() {
+        return propertyKey;
+    }
+
+    /**
+     * Returns the maximum number of sessions.
+     *
+     * @return maximum number of sessions
+     */
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    /**
+     * Sets the maximum number of sessions (by default
+     * {@value #DEFAULT_MAX_SESSIONS}). Once exceeded, the least recently used
+     * session is evicted.
+     *
+     * @param maxSessions maximum number of sessions
+     */
+    public void setMaxSessions(int maxSessions) {
+        if (maxSessions < 1) {
+            throw new IllegalArgumentException(
+                    "Maximum number of sessions must be positive");
+        }
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * Returns the time in milliseconds after which the idle session is
+     * evicted.
+     *
+     * @return idle timeout in milliseconds
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds after which the idle session is evicted
+     * (by default {@value #DEFAULT_IDLE_TIMEOUT}).
+     *
+     * @param idleTimeout idle timeout in milliseconds
+     */
+    public synchronized void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        if (evictionTask != null) {
+            evictionTask.cancel(false);
+            evictionTask = null;
+            scheduleEviction();
+        }
+    }
+
+    /**
+     * Returns the number of current sessions.
+     *
+     * @return number of sessions
+     */
+    public synchronized int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Returns the total number of evicted (or invalidated) sessions.
+     *
+     * @return number of evicted sessions
+     */
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    @Override
+    public Object acquire(Map<String, Object> properties) throws Exception {
+        Object key = properties.get(propertyKey);
+        if (key == null) {
+            throw new IllegalStateException(
+                    "Missing session property: " + propertyKey);
+        }
+
+        Session session;
+        List<Session> evicted = null;
+        synchronized (this) {
+            session = sessions.get(key);
+            if (session == null) {
+                session = new Session(key);
+                sessions.put(key, session);
+                scheduleEviction();
+                if (sessions.size() > maxSessions) {
+                    evicted = evictLeastRecentlyUsed();
+                }
+            }
+            session.active++;
+            session.lastUsed = System.currentTimeMillis();
+        }
+        if (evicted != null) close(evicted);
+
+        try {
+            return session.instance(properties);
+        } catch (Exception ex) {
+            release(session);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void release(Object instance, Map<String, Object> properties) {
+        Object key = properties.get(propertyKey);
+        Session session = null;
+        synchronized (this) {
+            if (key != null) session = sessions.get(key);
+            if (session == null || session.instance != instance) {
+                // the session property has been changed by the method
+                session = null;
+                for (Session candidate : sessions.values()) {
+                    if (candidate.instance == instance) {
+                        session = candidate;
+                        break;
+                    }
+                }
+            }
+        }
+        if (session != null) release(session);
+    }
+
+    /**
+     * Invalidates the session identified by the given property value,
+     * evicting its instance.
+     *
+     * @param key property value identifying the session
+     */
+    public void invalidate(Object key) {
+        Session session;
+        synchronized (this) {
+            session = sessions.remove(key);
+            if (session != null) evictedCount++;
+        }
+        if (session != null) close(Collections.singletonList(session));
+    }
+
+    /**
+     * Evicts all the sessions whose idle timeout has expired.
+     */
+    public void evictExpired() {
+        List<Session> evicted = new ArrayList<Session>();
+        synchronized (this) {
+            long expiredBefore = System.currentTimeMillis() - idleTimeout;
+            Iterator<Session> it = sessions.values().iterator();
+            while (it.hasNext()) {
+                Session session = it.next();
+                // sessions are ordered from the least recently used
+                if (session.lastUsed >= expiredBefore) break;
+                if (session.active == 0) {
+                    evicted.add(session);
+                    it.remove();
+                }
+            }
+            evictedCount += evicted.size();
+        }
+        close(evicted);
+    }
+
+    private List<Session> evictLeastRecentlyUsed() {
+        List<Session> evicted = new ArrayList<Session>();
+        Iterator<Session> it = sessions.values().iterator();
+        while (sessions.size() > maxSessions && it.hasNext()) {
+            Session session = it.next();
+            // sessions used by running requests are evicted later
+            if (session.active == 0 && session.instance != null) {
+                evicted.add(session);
+                it.remove();
+            }
+        }
+        evictedCount += evicted.size();
+        return evicted;
+    }
+
+    private synchronized void release(Session session) {
+        session.active--;
+        session.lastUsed = System.currentTimeMillis();
+        // moves the session to the end of the access order, so the sessions
+        // stay ordered by the last use for the eviction
+        sessions.get(session.key);
+    }
+
+    private void close(List<Session> evicted) {
+        for (Session session : evicted) {
+            Object instance = session.instance;
+            if (instance instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) instance).close();
+                } catch (Exception ex) {
+                    Logger.getLogger(getClass().getName()).log(Level.WARNING,
+                            "Failed to close evicted session instance", ex);
+                }
+            }
+        }
+    }
+
+    private synchronized void scheduleEviction() {
+        if (evictionTask != null) return;
+
+        final WeakReference<CarmineSessionProvider> providerRef
+                = new WeakReference<CarmineSessionProvider>(this);
+        long period = Math.min(Math.max(idleTimeout / 2, 100L), 60000L);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                CarmineSessionProvider provider = providerRef.get();
+                if (provider == null) {
+                    throw new IllegalStateException("Provider collected");
+                }
+                provider.evictExpired();
+            }
+        };
+        evictionTask = CarmineScheduler.get().scheduleWithFixedDelay(
+                task, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Instance of the session, created on first use.
+     */
+    private final class Session {
+
+        private final Object key;
+        private volatile Object instance;
+        private int active;
+        private long lastUsed;
+
+        Session(Object key) {
+            this.key = key;
+        }
+
+        Object instance(Map<String, Object> properties) throws Exception {
+            Object result = instance;
+            if (result == null) {
+                synchronized (this) {
+                    result = instance;
+                    if (result == null) {
+                        result = factory.create(properties);
+                        instance = result;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}
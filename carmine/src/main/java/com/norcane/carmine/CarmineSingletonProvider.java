@@ -0,0 +1,71 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.util.Map;
+
+/**
+ * Implementation of the {@link CarmineProvider}, providing single instance
+ * shared by all requests (therefore the instance must be thread safe). The
+ * instance is either given, or created by the factory on first use.
+ */
+public class CarmineSingletonProvider implements CarmineProvider {
+
+    private final CarmineFactory<?> factory;
+    private volatile Object instance;
+
+    /**
+     * Constructs new instance providing the given implementation instance.
+     *
+     * @param instance implementation instance
+     */
+    public CarmineSingletonProvider(Object instance) {
+        if (instance == null) throw new NullPointerException("instance");
+        this.factory = null;
+        this.instance = instance;
+    }
+
+    /**
+     * Constructs new instance providing the implementation instance created
+     * by the given factory on first use.
+     *
+     * @param factory factory of the implementation instance
+     */
+    public CarmineSingletonProvider(CarmineFactory<?> factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public Object acquire(Map<String, Object> properties) throws Exception {
+        Object result = instance;
+        if (result == null) {
+            synchronized (this) {
+                result = instance;
+                if (result == null) {
+                    result = factory.create(properties);
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void release(Object instance, Map<String, Object> properties) {
+        // the instance is shared, nothing to do here
+    }
+}
@@ -0,0 +1,651 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.BaseStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Transfers the streamed results and arguments of the remote methods. The
+ * {@link Iterator} or {@link Stream} returned by the remote method is not
+ * serialized as a whole: the response contains only the
+ * {@link Marker#STREAM} in place of the result, followed by the elements,
+ * each preceded by the tag, written (and flushed in chunks) while the
+ * iterator is consumed on the remote side, and read on demand by the
+ * {@link CarmineRemoteIterator} on the local side. Similarly, each
+ * {@link InputStream} argument is replaced by the marker within the request,
+ * and its content follows the request as the sequence of raw chunks, each
+ * preceded by its length, terminated by the zero length.
+ * <p/>
+ * Binary arguments and results ({@link ByteBuffer}s, including the
+ * memory-mapped ones, and byte arrays of at least {@link #SEGMENT_SIZE}
+ * bytes) are not serialized by the codec either: they are replaced by the
+ * marker and their content follows the request or the response as the raw
+ * segment, written directly from the array or the buffer and read into the
+ * single array of the exact size.
+ */
+final class CarmineStreams {
+
+    /**
+     * Tag of the end of the streamed result.
+     */
+    static final int END = 0;
+
+    /**
+     * Tag of the element of the streamed result.
+     */
+    static final int ELEMENT = 1;
+
+    /**
+     * Tag of the exception thrown while producing the streamed result.
+     */
+    static final int ERROR = 2;
+
+    /**
+     * Size of the chunks of the streamed arguments.
+     */
+    static final int CHUNK_SIZE = 8192;
+
+    /**
+     * Minimum size of the byte array sent as the raw segment.
+     */
+    static final int SEGMENT_SIZE = 8192;
+
+    private CarmineStreams() {
+    }
+
+    /**
+     * Returns {@code true} if the given result of the remote method is
+     * transferred as the stream of elements.
+     *
+     * @param result result of the remote method
+     * @return {@code true} for {@link Iterator} and {@link BaseStream}
+     */
+    static boolean isStreamed(Object result) {
+        return result instanceof Iterator || result instanceof BaseStream;
+    }
+
+    /**
+     * Returns {@code true} if the given result is the marker of the streamed
+     * result.
+     *
+     * @param result result read from the response
+     * @return {@code true} if the elements follow the response
+     */
+    static boolean isMarker(Object result) {
+        return result == Marker.STREAM;
+    }
+
+    /**
+     * Returns {@code true} if the given argument or result is sent as the raw
+     * segment.
+     *
+     * @param value argument or result of the remote method
+     * @return {@code true} for {@link ByteBuffer} and large byte array
+     */
+    static boolean isSegment(Object value) {
+        return value instanceof ByteBuffer || (value instanceof byte[]
+                && ((byte[]) value).length >= SEGMENT_SIZE);
+    }
+
+    /**
+     * Returns the response with the result sent as the raw segment (see
+     * {@link #isSegment(Object)}) replaced by the marker, to be serialized.
+     *
+     * @param response response with the segment result
+     * @return response to be serialized
+     */
+    static CarmineResponse withMarker(CarmineResponse response) {
+        return new CarmineResponse(
+                marker(response.getResult()), response.getProperties());
+    }
+
+    /**
+     * Writes the content of the given byte array or {@link ByteBuffer} as the
+     * raw segment. The position of the buffer is not changed.
+     *
+     * @param value byte array or buffer
+     * @param out   output to write the segment to
+     * @throws IOException thrown if writing fails
+     */
+    static void writeSegment(Object value, ObjectOutput out)
+            throws IOException {
+        if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            return;
+        }
+
+        ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+        out.writeInt(buffer.remaining());
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                    buffer.remaining());
+            return;
+        }
+        // direct and memory-mapped buffers are copied in chunks
+        byte[] chunk = CarmineBufferPool.getInstance().acquire(CHUNK_SIZE);
+        try {
+            while (buffer.hasRemaining()) {
+                int length = Math.min(buffer.remaining(), CHUNK_SIZE);
+                buffer.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        } finally {
+            CarmineBufferPool.getInstance().release(chunk);
+        }
+    }
+
+    /**
+     * Replaces the marker of the result sent as the raw segment by its
+     * content, which follows the response.
+     *
+     * @param response received response
+     * @param in       input the response has been read from
+     * @return response with the segment result or the given response
+     * @throws IOException thrown if reading fails
+     */
+    static CarmineResponse resolveSegment(CarmineResponse response,
+                                          ObjectInput in) throws IOException {
+        if (!response.isSuccessful()) return response;
+        Object result = response.getResult();
+        if (result != Marker.BYTES && result != Marker.BUFFER) return response;
+        return new CarmineResponse(readSegment((Marker) result, in),
+                response.getProperties());
+    }
+
+    /**
+     * Writes all the elements of the streamed result, flushing the output
+     * after every given number of elements, and closes the result (if
+     * {@link AutoCloseable}). Exception thrown while iterating is written to
+     * the output and terminates the stream. The output is reset before every
+     * flush (see {@link #reset(ObjectOutput)}), so neither side holds the
+     * elements already sent.
+     *
+     * @param result    streamed result (see {@link #isStreamed(Object)})
+     * @param out       output to write the elements to
+     * @param chunkSize number of elements written between flushes
+     * @throws IOException thrown if writing fails
+     */
+    static void writeElements(Object result, ObjectOutput out, int chunkSize)
+            throws IOException {
+        try {
+            Iterator<?> iterator = iterator(result);
+            int written = 0;
+            while (true) {
+                Object element;
+                try {
+                    if (!iterator.hasNext()) break;
+                    element = iterator.next();
+                } catch (Throwable t) {
+                    out.writeByte(ERROR);
+                    out.writeObject(t);
+                    out.flush();
+                    return;
+                }
+                out.writeByte(ELEMENT);
+                out.writeObject(element);
+                if (++written >= chunkSize) {
+                    reset(out);
+                    out.flush();
+                    written = 0;
+                }
+            }
+            out.writeByte(END);
+            out.flush();
+        } finally {
+            close(result);
+        }
+    }
+
+    /**
+     * Returns the streamed result running the given action once the result
+     * is closed, or (for the {@link Iterator}) once all its elements have
+     * been read.
+     *
+     * @param result streamed result (see {@link #isStreamed(Object)})
+     * @param action action to run once (e.g. releasing the implementation
+     *               instance producing the elements)
+     * @return streamed result of the same type
+     */
+    static Object onClose(Object result, Runnable action) {
+        final Runnable once = new OnceRunnable(action);
+        if (result instanceof BaseStream) {
+            return ((BaseStream<?, ?>) result).onClose(once);
+        }
+        return new ClosingIterator((Iterator<?>) result, once);
+    }
+
+    /**
+     * Resets the output of the codec, so it forgets the objects written so
+     * far (and tells the input to forget them too). Both the
+     * {@link ObjectOutputStream} and the {@link CarmineBinaryOutput} would
+     * otherwise hold every object written, to be able to write the reference
+     * to it. Outputs of other codecs are not reset.
+     *
+     * @param out output to reset
+     * @throws IOException thrown if writing fails
+     */
+    static void reset(ObjectOutput out) throws IOException {
+        if (out instanceof ObjectOutputStream) {
+            ((ObjectOutputStream) out).reset();
+        } else if (out instanceof CarmineBinaryOutput) {
+            ((CarmineBinaryOutput) out).reset();
+        }
+    }
+
+    /**
+     * Reads all the elements of the streamed result and closes it, used when
+     * the result cannot be streamed (e.g. within the batch).
+     *
+     * @param result streamed result (see {@link #isStreamed(Object)})
+     * @return list of all elements
+     */
+    static List<Object> materialize(Object result) {
+        try {
+            List<Object> elements = new ArrayList<Object>();
+            Iterator<?> iterator = iterator(result);
+            while (iterator.hasNext()) elements.add(iterator.next());
+            return elements;
+        } finally {
+            close(result);
+        }
+    }
+
+    /**
+     * Adapts the result received by the local side to the return type of the
+     * remote method, i.e. converts the iterator (or the materialized
+     * collection of elements) to the {@link Stream} or {@link Iterator}, and
+     * the byte array to the {@link ByteBuffer}.
+     *
+     * @param result     received result
+     * @param returnType return type of the remote method
+     * @return adapted result
+     */
+    static Object adapt(Object result, Class<?> returnType) {
+        if (returnType == Stream.class) {
+            if (result instanceof CarmineRemoteIterator) {
+                final CarmineRemoteIterator<?> iterator
+                        = (CarmineRemoteIterator<?>) result;
+                return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                        iterator, Spliterator.ORDERED), false)
+                        .onClose(new Runnable() {
+                            @Override
+                            public void run() {
+                                iterator.close();
+                            }
+                        });
+            } else if (result instanceof Collection) {
+                return ((Collection<?>) result).stream();
+            }
+        } else if (returnType == Iterator.class
+                && result instanceof Collection) {
+            return ((Collection<?>) result).iterator();
+        } else if (returnType == ByteBuffer.class && result instanceof byte[]) {
+            return ByteBuffer.wrap((byte[]) result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns {@code true} if any of the given arguments is the
+     * {@link InputStream}, which must be streamed.
+     *
+     * @param args method arguments (may be {@code null})
+     * @return {@code true} if there are streamed arguments
+     */
+    static boolean hasStreams(Object[] args) {
+        if (args == null) return false;
+        for (Object arg : args) {
+            if (arg instanceof InputStream) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns {@code true} if any of the given arguments is the
+     * {@link InputStream} or is sent as the raw segment (see
+     * {@link #isSegment(Object)}), so the request cannot be batched.
+     *
+     * @param args method arguments (may be {@code null})
+     * @return {@code true} if there are arguments following the request
+     */
+    static boolean hasMarkers(Object[] args) {
+        if (args == null) return false;
+        for (Object arg : args) {
+            if (arg instanceof InputStream || isSegment(arg)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the request, followed by the content of its streamed arguments
+     * and the raw segments (if any).
+     *
+     * @param request request to write
+     * @param out     output to write the request to
+     * @throws IOException thrown if reading the streams or writing fails
+     */
+    static void writeRequest(CarmineRequest request, ObjectOutput out)
+            throws IOException {
+        Object[] args = request.getMethodArguments();
+        if (hasMarkers(args)) {
+            out.writeObject(withMarkers(request));
+            writeStreams(args, out);
+        } else {
+            out.writeObject(request);
+        }
+    }
+
+    /**
+     * Returns the copy of the request with all the {@link InputStream}
+     * arguments and the arguments sent as the raw segments replaced by the
+     * marker, to be serialized.
+     *
+     * @param request request with streamed arguments
+     * @return request to be serialized
+     */
+    static CarmineRequest withMarkers(CarmineRequest request) {
+        Object[] args = request.getMethodArguments().clone();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] instanceof InputStream) {
+                args[i] = Marker.STREAM;
+            } else if (isSegment(args[i])) {
+                args[i] = marker(args[i]);
+            }
+        }
+        CarmineRequest result = new CarmineRequest(request.getInterfaceName(),
+                request.getMethodName(), request.getMethodId(), args,
+                request.getProperties());
+        result.setMetrics(request.getMetrics());
+        result.setTimeout(request.getRemainingTime());
+        return result;
+    }
+
+    /**
+     * Writes the raw segments of the arguments, followed by the content of
+     * all the {@link InputStream} arguments, in the order of arguments.
+     * Streams are not closed.
+     *
+     * @param args method arguments
+     * @param out  output to write the content to
+     * @throws IOException thrown if reading or writing fails
+     */
+    static void writeStreams(Object[] args, ObjectOutput out)
+            throws IOException {
+        for (Object arg : args) {
+            if (isSegment(arg)) writeSegment(arg, out);
+        }
+
+        // chunks are written as raw data, so they are neither copied nor
+        // tracked by the codec as the shared references
+        CarmineBufferPool pool = CarmineBufferPool.getInstance();
+        byte[] buffer = pool.acquire(CHUNK_SIZE);
+        try {
+            for (Object arg : args) {
+                if (!(arg instanceof InputStream)) continue;
+                InputStream in = (InputStream) arg;
+                int read;
+                while ((read = in.read(buffer, 0, CHUNK_SIZE)) != -1) {
+                    if (read == 0) continue;
+                    out.writeInt(read);
+                    out.write(buffer, 0, read);
+                }
+                out.writeInt(0);
+            }
+        } finally {
+            pool.release(buffer);
+        }
+        out.flush();
+    }
+
+    /**
+     * Replaces the segment markers within the arguments of the received
+     * request by the content of the segments, and the stream markers by the
+     * input streams reading the content following the request. The streams
+     * must be read in the order of arguments, reading any of them buffers the
+     * unread content of the previous ones.
+     *
+     * @param args method arguments (may be {@code null})
+     * @param in   input the request has been read from
+     * @throws IOException thrown if reading the segments fails
+     */
+    static void resolveStreams(Object[] args, ObjectInput in)
+            throws IOException {
+        if (args == null) return;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] == Marker.BYTES || args[i] == Marker.BUFFER) {
+                args[i] = readSegment((Marker) args[i], in);
+            }
+        }
+
+        ArgumentStream previous = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] == Marker.STREAM) {
+                previous = new ArgumentStream(in, previous);
+                args[i] = previous;
+            }
+        }
+    }
+
+    private static Marker marker(Object value) {
+        return (value instanceof ByteBuffer) ? Marker.BUFFER : Marker.BYTES;
+    }
+
+    private static Object readSegment(Marker marker, ObjectInput in)
+            throws IOException {
+        // the same limit as of the binary codec, the memory is allocated as
+        // the segment is read, not by the length declared by the remote side
+        int length = in.readInt();
+        int maxLength = (in instanceof CarmineBinaryInput)
+                ? ((CarmineBinaryInput) in).getMaxLength()
+                : CarmineBinaryCodec.DEFAULT_MAX_LENGTH;
+        if (length < 0 || length > maxLength) {
+            throw new StreamCorruptedException("Invalid segment length: "
+                    + length + " (maximum " + maxLength + ")");
+        }
+        byte[] bytes = CarmineBinaryInput.readBytes(in, length);
+        return (marker == Marker.BUFFER) ? ByteBuffer.wrap(bytes) : bytes;
+    }
+
+    private static Iterator<?> iterator(Object result) {
+        return (result instanceof BaseStream)
+                ? ((BaseStream<?, ?>) result).iterator()
+                : (Iterator<?>) result;
+    }
+
+    /**
+     * Closes the streamed result (if {@link AutoCloseable}), ignoring any
+     * exception.
+     *
+     * @param result streamed result
+     */
+    static void close(Object result) {
+        if (result instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) result).close();
+            } catch (Exception ex) {
+                // nothing to do here
+            }
+        }
+    }
+
+    /**
+     * Runnable running its action only once.
+     */
+    private static final class OnceRunnable implements Runnable {
+
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final Runnable action;
+
+        OnceRunnable(Runnable action) {
+            this.action = action;
+        }
+
+        @Override
+        public void run() {
+            if (done.compareAndSet(false, true)) action.run();
+        }
+    }
+
+    /**
+     * Iterator running the action once closed or exhausted, closing the
+     * iterator it delegates to (if {@link AutoCloseable}) as well.
+     */
+    private static final class ClosingIterator
+            implements Iterator<Object>, AutoCloseable {
+
+        private final Iterator<?> iterator;
+        private final Runnable action;
+
+        ClosingIterator(Iterator<?> iterator, Runnable action) {
+            this.iterator = iterator;
+            this.action = action;
+        }
+
+        @Override
+        public boolean hasNext() {
+            boolean hasNext = iterator.hasNext();
+            if (!hasNext) action.run();
+            return hasNext;
+        }
+
+        @Override
+        public Object next() {
+            return iterator.next();
+        }
+
+        @Override
+        public void remove() {
+            iterator.remove();
+        }
+
+        @Override
+        public void close() throws Exception {
+            try {
+                if (iterator instanceof AutoCloseable) {
+                    ((AutoCloseable) iterator).close();
+                }
+            } finally {
+                action.run();
+            }
+        }
+    }
+
+    /**
+     * Marker of the streamed result or argument, or of the raw segment.
+     */
+    enum Marker {
+        STREAM, BYTES, BUFFER
+    }
+
+    /**
+     * Input stream of the streamed argument, reading the chunks from the
+     * request input.
+     */
+    private static final class ArgumentStream extends InputStream {
+
+        private final ObjectInput in;
+        private final ArgumentStream previous;
+        private InputStream buffered;
+        private int remaining;
+        private boolean eof;
+
+        ArgumentStream(ObjectInput in, ArgumentStream previous) {
+            this.in = in;
+            this.previous = previous;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (buffered != null) return buffered.read(b, off, len);
+            while (remaining == 0) {
+                if (eof) return -1;
+                nextChunk();
+            }
+            // read directly from the request, without copying the chunk
+            int read = in.read(b, off, Math.min(len, remaining));
+            if (read < 0) throw new EOFException("Stream ended within chunk");
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (buffered != null) return buffered.available();
+            return Math.min(remaining, in.available());
+        }
+
+        /**
+         * Reads the length of the next chunk, buffering the rest of the
+         * previous streams first.
+         */
+        private void nextChunk() throws IOException {
+            if (previous != null) previous.buffer();
+            int length = in.readInt();
+            if (length < 0) {
+                throw new StreamCorruptedException("Invalid chunk length: "
+                        + length);
+            }
+            if (length == 0) {
+                eof = true;
+            } else {
+                remaining = length;
+            }
+        }
+
+        /**
+         * Reads the rest of this stream into the memory.
+         */
+        private void buffer() throws IOException {
+            if (eof || buffered != null) return;
+            ByteArrayOutputStream rest = new ByteArrayOutputStream();
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int read;
+            while ((read = read(buffer, 0, buffer.length)) != -1) {
+                rest.write(buffer, 0, read);
+            }
+            buffered = new ByteArrayInputStream(rest.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Dictionary of the frequently repeated names (class names, names of the
+ * remote interfaces and methods, enum constants and keys of the properties),
+ * shared by all the messages sent over the single persistent connection
+ * between the {@link CarmineMuxTransport} and the {@link CarmineMuxServer}.
+ * The {@link CarmineBinaryOutput} sends each name in full only once per
+ * connection, later it is written as its small integer index. Each side of
+ * the connection keeps the names it has assigned the indexes to, and the
+ * names assigned by the remote side.
+ * <p/>
+ * The messages are serialized and deserialized concurrently, so the new
+ * names are not defined within the messages themselves, but by the separate
+ * frame written just before the first frame that may refer to them (see
+ * {@link #writeDefinitions(DataOutputStream)}), and registered by the
+ * reader thread of the connection before the frames are dispatched. The
+ * dictionary is bounded, names not fitting into it are written in full.
+ */
+final class CarmineSymbols {
+
+    /**
+     * Maximum number of names assigned by one side of the connection.
+     */
+    static final int MAX_SYMBOLS = 4096;
+
+    /**
+     * Maximum length of the name kept in the dictionary.
+     */
+    static final int MAX_LENGTH = 256;
+
+    private final ConcurrentMap<String, Integer> indexes
+            = new ConcurrentHashMap<String, Integer>();
+    private final List<String> assigned = new ArrayList<String>();
+    private final List<String> received = new CopyOnWriteArrayList<String>();
+    private volatile boolean full;
+    private int defined;
+
+    /**
+     * Returns the given codec writing and reading the names using this
+     * dictionary, if supported by the codec.
+     *
+     * @param codec codec of the messages
+     * @return codec using this dictionary or the given codec
+     */
+    CarmineCodec bind(CarmineCodec codec) {
+        // subclasses may customize the inputs and the outputs
+        if (codec.getClass() != CarmineBinaryCodec.class) return codec;
+        return ((CarmineBinaryCodec) codec).withSymbols(this);
+    }
+
+    /**
+     * Returns the index of the given name sent to the remote side, assigning
+     * the new one if the name has not been sent yet.
+     *
+     * @param name name to send
+     * @return index of the name or {@code -1} if the name must be sent in full
+     */
+    int index(String name) {
+        Integer index = indexes.get(name);
+        if (index != null) return index;
+        if (full || name.length() > MAX_LENGTH) return -1;
+
+        synchronized (this) {
+            index = indexes.get(name);
+            if (index != null) return index;
+            if (assigned.size() >= MAX_SYMBOLS) {
+                full = true;
+                return -1;
+            }
+            index = assigned.size();
+            assigned.add(name);
+            indexes.put(name, index);
+            return index;
+        }
+    }
+
+    /**
+     * Returns the name received from the remote side.
+     *
+     * @param index index of the name
+     * @return name
+     * @throws StreamCorruptedException thrown if the name is not defined
+     */
+    String name(int index) throws StreamCorruptedException {
+        if (index >= received.size()) {
+            throw new StreamCorruptedException("Unknown symbol: " + index);
+        }
+        return received.get(index);
+    }
+
+    /**
+     * Writes the frame defining the names whose indexes have been assigned
+     * since the last call (if any). Must be called while holding the write
+     * lock of the connection, just before writing the frame that may refer
+     * to them.
+     *
+     * @param out output stream of the connection
+     * @throws IOException thrown if writing fails
+     */
+    void writeDefinitions(DataOutputStream out) throws IOException {
+        int first;
+        List<String> names;
+        synchronized (this) {
+            first = defined;
+            if (first == assigned.size()) return;
+            names = new ArrayList<String>(
+                    assigned.subList(first, assigned.size()));
+            defined = assigned.size();
+        }
+        CarmineFrame.writeSymbols(out, first, names);
+    }
+
+    /**
+     * Registers the names defined by the remote side.
+     *
+     * @param data   data of the frame
+     * @param offset offset of the definitions within the data
+     * @throws IOException thrown if the definitions are corrupted
+     */
+    void define(byte[] data, int offset) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                data, offset, data.length - offset));
+        int first = in.readInt();
+        if (first != received.size()) {
+            throw new StreamCorruptedException("Unexpected symbol: " + first);
+        }
+        List<String> names = new ArrayList<String>();
+        while (in.available() > 0) {
+            names.add(in.readUTF());
+        }
+        if (received.size() + names.size() > MAX_SYMBOLS) {
+            throw new StreamCorruptedException("Too many symbols");
+        }
+        received.addAll(names);
+    }
+}
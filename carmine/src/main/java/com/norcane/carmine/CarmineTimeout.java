@@ -0,0 +1,70 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Specifies the timeout of the remote method, overriding the default timeout
+ * set by {@link CarmineManager#setTimeout(long)}. If the asynchronous remote
+ * method (i.e. method returning {@link java.util.concurrent.Future} or
+ * {@link java.util.concurrent.CompletionStage}) does not complete within the
+ * timeout, the returned future completes with the
+ * {@link java.util.concurrent.TimeoutException} and the request is aborted.
+ * The synchronous remote method throws the
+ * {@link java.net.SocketTimeoutException} if the response is not received
+ * within the timeout.
+ * <p/>
+ * The deadline given by the timeout is sent to the remote side, which does
+ * not invoke the method once the deadline has passed, and provides the
+ * remaining time to the implementation (see
+ * {@link CarmineInvoker#getRemainingTime()}).
+ * <p/>
+ * <dl>
+ * <dt><b>Example of usage:</b></dt>
+ * <dd><pre><code>
+ * public interface RemoteClass {
+ *     &#64;CarmineTimeout(500)
+ *     CompletableFuture&lt;String&gt; remoteMethod();
+ * }
+ * </code></pre></dd>
+ * </dl>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface CarmineTimeout {
+
+    /**
+     * Timeout value ({@code 0} for no timeout).
+     *
+     * @return timeout value
+     */
+    long value();
+
+    /**
+     * Unit of the timeout value (by default milliseconds).
+     *
+     * @return timeout unit
+     */
+    TimeUnit unit() default TimeUnit.MILLISECONDS;
+}
@@ -0,0 +1,95 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Transport used by the local side to deliver the {@link CarmineRequest} to
+ * the remote side and to receive the {@link CarmineResponse}. The default
+ * transport of the {@link CarmineManager} is {@link CarmineHttpTransport},
+ * other implementations can be set using
+ * {@link CarmineManager#setTransport(CarmineTransport)}. Implementations must
+ * be thread safe.
+ */
+public interface CarmineTransport extends Closeable {
+
+    /**
+     * Sends the request to the remote side and returns its response.
+     *
+     * @param request request to send
+     * @param codec   codec used to serialize the request (the response is
+     *                expected to be serialized by the same codec, or by the
+     *                fallback {@link CarmineJavaCodec})
+     * @return response received from the remote side
+     * @throws IOException            thrown if communication with the remote
+     *                                side fails
+     * @throws ClassNotFoundException thrown if the class of any object in the
+     *                                response cannot be found
+     */
+    CarmineResponse send(CarmineRequest request, CarmineCodec codec)
+            throws IOException, ClassNotFoundException;
+
+    /**
+     * Sends the request to the remote side asynchronously. The default
+     * implementation calls the {@link #send(CarmineRequest, CarmineCodec)}
+     * using the given executor, so the executor thread is blocked for the
+     * whole request. Implementations may override this method to avoid
+     * blocking the executor thread while waiting for the response, and to
+     * abort the request when the returned future is cancelled.
+     *
+     * @param request  request to send
+     * @param codec    codec used to serialize the request
+     * @param executor executor used to perform the blocking operations
+     * @return future completed with the response received from the remote
+     * side, or exceptionally with the communication error
+     */
+    default CompletableFuture<CarmineResponse> sendAsync(
+            final CarmineRequest request, final CarmineCodec codec,
+            Executor executor) {
+
+        final CompletableFuture<CarmineResponse> future
+                = new CompletableFuture<>();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.isDone()) return;
+                    try {
+                        future.complete(send(request, codec));
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * Releases all the resources held by this transport (e.g. open
+     * connections).
+     */
+    @Override
+    void close();
+}
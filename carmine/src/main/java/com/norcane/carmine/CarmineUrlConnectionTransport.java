@@ -0,0 +1,194 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * Implementation of the {@link CarmineTransport} using the standard
+ * {@link URLConnection}, i.e. connection handling (including the keep-alive
+ * connections cache and proxy settings) is driven by the <i>Java</i>
+ * networking properties. Unlike the {@link CarmineHttpTransport}, the number
+ * of connections kept alive cannot be configured per transport.
+ */
+public class CarmineUrlConnectionTransport implements CarmineTransport {
+
+    private final URL remoteUrl;
+    private volatile CarmineCompression compression;
+    private volatile int compressionThreshold
+            = CarmineHttpTransport.DEFAULT_COMPRESSION_THRESHOLD;
+
+    /**
+     * Constructs new instance sending requests to the given remote service
+     * URL.
+     *
+     * @param remoteUrl remote service URL
+     */
+    public CarmineUrlConnectionTransport(URL remoteUrl) {
+        this.remoteUrl = remoteUrl;
+    }
+
+    /**
+     * Returns the compression of request bodies, or {@code null} if the
+     * compression is disabled.
+     *
+     * @return compression or {@code null}
+     */
+    public CarmineCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Sets the compression of request bodies (by default {@code null}, i.e.
+     * disabled). See
+     * {@link CarmineHttpTransport#setCompression(CarmineCompression)}.
+     *
+     * @param compression compression or {@code null} to disable
+     */
+    public void setCompression(CarmineCompression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Returns the minimum size of the request body in bytes to be compressed.
+     *
+     * @return compression threshold in bytes
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Sets the minimum size of the request body in bytes to be compressed (by
+     * default {@value CarmineHttpTransport#DEFAULT_COMPRESSION_THRESHOLD}).
+     *
+     * @param compressionThreshold compression threshold in bytes
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public CarmineResponse send(CarmineRequest request, CarmineCodec codec)
+            throws IOException, ClassNotFoundException {
+
+        CarmineMethodMetrics metrics = request.getMetrics();
+        long time = (metrics != null) ? System.nanoTime() : 0L;
+
+        // setup connection to remote side
+        URLConnection connection = remoteUrl.openConnection();
+        connection.setDoInput(true);
+        connection.setDoOutput(true);
+        if (request.getRemainingTime() != Long.MAX_VALUE) {
+            connection.setConnectTimeout(CarmineHttpTransport.timeout(
+                    connection.getConnectTimeout(), request));
+            connection.setReadTimeout(CarmineHttpTransport.timeout(
+                    connection.getReadTimeout(), request));
+        }
+        connection.setRequestProperty(
+                CarmineHeaders.CONTENT_TYPE, codec.getContentType());
+
+        CarmineCompression compression = this.compression;
+        if (compression != null) {
+            connection.setRequestProperty(CarmineHeaders.ACCEPT_ENCODING,
+                    compression.getEncoding());
+        }
+
+        // serialize the request object (and compress, if large enough),
+        // unless it has streamed arguments
+        Object[] args = request.getMethodArguments();
+        CarmineByteArrayOutputStream body = null;
+        if (!CarmineStreams.hasStreams(args)) {
+            body = new CarmineByteArrayOutputStream();
+            ObjectOutput out = codec.createOutput(body);
+            CarmineStreams.writeRequest(request, out);
+            out.close();
+
+            if (compression != null && body.size() >= compressionThreshold) {
+                body = CarmineHttpTransport.compress(compression, body);
+                connection.setRequestProperty(CarmineHeaders.CONTENT_ENCODING,
+                        compression.getEncoding());
+            }
+        } else if (connection instanceof HttpURLConnection) {
+            ((HttpURLConnection) connection).setChunkedStreamingMode(
+                    CarmineStreams.CHUNK_SIZE);
+        }
+
+        if (metrics != null) {
+            time = CarmineHttpTransport.record(
+                    metrics, CarminePhase.SERIALIZE, time);
+            connection.connect();
+            time = CarmineHttpTransport.record(
+                    metrics, CarminePhase.CONNECT, time);
+        }
+
+        // send the request object to the remote side
+        OutputStream requestBody = connection.getOutputStream();
+        int length = -1;
+        if (body != null) {
+            body.writeTo(requestBody);
+            length = body.size();
+            body.release();
+        } else {
+            ObjectOutput out = codec.createOutput(requestBody);
+            CarmineStreams.writeRequest(request, out);
+            out.flush();
+        }
+        requestBody.close();
+
+        // read the response object from the remote side
+        InputStream responseBody = connection.getInputStream();
+        if (metrics != null) {
+            time = CarmineHttpTransport.record(
+                    metrics, CarminePhase.NETWORK, time);
+            metrics.transferred(connection.getContentLengthLong(), length);
+        }
+        codec = CarmineHttpTransport.responseCodec(
+                codec, connection.getContentType());
+        ObjectInput in = codec.createInput(CarmineHttpTransport.decompress(
+                responseBody, compression, connection.getContentEncoding()));
+        boolean streamed = false;
+        try {
+            CarmineResponse response = CarmineStreams.resolveSegment(
+                    (CarmineResponse) in.readObject(), in);
+            if (metrics != null) {
+                CarmineHttpTransport.record(
+                        metrics, CarminePhase.DESERIALIZE, time);
+            }
+            // the streamed result is read on demand, keeping the input open
+            streamed = response.isSuccessful()
+                    && CarmineStreams.isMarker(response.getResult());
+            return streamed ? new CarmineResponse(
+                    new CarmineRemoteIterator<Object>(in, responseBody),
+                    response.getProperties()) : response;
+        } finally {
+            if (!streamed) in.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        // connections are managed by the URLConnection itself
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the batched calls, sent by the {@link CarmineBatch} or coalesced
+ * by the {@link CarmineManager} within the batch window.
+ */
+public class CarmineBatchTest {
+
+    /**
+     * Service with the asynchronous and synchronous methods.
+     */
+    public interface GreetingService {
+
+        CompletableFuture<String> hello(String name);
+
+        CompletableFuture<String> fail(String message);
+
+        CompletableFuture<Boolean> meet(long timeout);
+
+        String greet(String name);
+    }
+
+    /**
+     * Implementation of the {@link GreetingService}, counting its calls.
+     */
+    public static class GreetingServiceImpl implements GreetingService {
+
+        private final AtomicInteger calls = new AtomicInteger();
+        private final CountDownLatch meeting = new CountDownLatch(2);
+
+        @Override
+        public CompletableFuture<String> hello(String name) {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("Hello " + name);
+        }
+
+        @Override
+        public CompletableFuture<String> fail(String message) {
+            calls.incrementAndGet();
+            CompletableFuture<String> result = new CompletableFuture<String>();
+            result.completeExceptionally(new IllegalStateException(message));
+            return result;
+        }
+
+        @Override
+        public CompletableFuture<Boolean> meet(long timeout) {
+            calls.incrementAndGet();
+            meeting.countDown();
+            try {
+                return CompletableFuture.completedFuture(
+                        meeting.await(timeout, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        @Override
+        public String greet(String name) {
+            calls.incrementAndGet();
+            return "Greetings " + name;
+        }
+    }
+
+    /**
+     * Transport counting the requests passed to the local transport.
+     */
+    private static class CountingTransport implements CarmineTransport {
+
+        private final CarmineTransport transport;
+        private final AtomicInteger requests = new AtomicInteger();
+
+        CountingTransport(CarmineTransport transport) {
+            this.transport = transport;
+        }
+
+        @Override
+        public CarmineResponse send(CarmineRequest request, CarmineCodec codec)
+                throws IOException, ClassNotFoundException {
+            requests.incrementAndGet();
+            return transport.send(request, codec);
+        }
+
+        @Override
+        public CompletableFuture<CarmineResponse> sendAsync(
+                CarmineRequest request, CarmineCodec codec,
+                Executor executor) {
+            requests.incrementAndGet();
+            return transport.sendAsync(request, codec, executor);
+        }
+
+        @Override
+        public void close() {
+            // nothing to close
+        }
+    }
+
+    private final GreetingServiceImpl implementation
+            = new GreetingServiceImpl();
+    private ExecutorService executor;
+    private CarmineManager cm;
+    private CountingTransport transport;
+    private GreetingService service;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+        CarmineInvoker invoker = new CarmineInvoker();
+        invoker.addProvider(GreetingService.class,
+                new CarmineSingletonProvider(implementation));
+        invoker.setExecutor(executor);
+        cm = new CarmineManager(invoker);
+        transport = new CountingTransport(cm.getTransport());
+        cm.setTransport(transport);
+        service = cm.getRemote(GreetingService.class);
+    }
+
+    @After
+    public void tearDown() {
+        cm.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void sendsQueuedCallsTogetherOnClose() throws Exception {
+        CompletableFuture<String> first;
+        CompletableFuture<String> second;
+        CarmineBatch batch = cm.startBatch();
+        try {
+            first = service.hello("first");
+            second = service.hello("second");
+            assertEquals(2, batch.size());
+            assertEquals(0, transport.requests.get());
+            assertEquals(0, implementation.calls.get());
+        } finally {
+            batch.close();
+        }
+        assertEquals("Hello first", first.get(5, TimeUnit.SECONDS));
+        assertEquals("Hello second", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, transport.requests.get());
+    }
+
+    @Test
+    public void synchronousCallSendsQueuedCalls() throws Exception {
+        CompletableFuture<String> queued;
+        CarmineBatch batch = cm.startBatch();
+        try {
+            queued = service.hello("queued");
+            assertEquals("Greetings sync", service.greet("sync"));
+            assertTrue(queued.isDone());
+        } finally {
+            batch.close();
+        }
+        assertEquals("Hello queued", queued.get());
+        assertEquals(1, transport.requests.get());
+    }
+
+    @Test
+    public void failureCompletesOnlyItsOwnCall() throws Exception {
+        CompletableFuture<String> before;
+        CompletableFuture<String> failed;
+        CompletableFuture<String> after;
+        CarmineBatch batch = cm.startBatch();
+        try {
+            before = service.hello("before");
+            failed = service.fail("broken");
+            after = service.hello("after");
+        } finally {
+            batch.close();
+        }
+        assertEquals("Hello before", before.get(5, TimeUnit.SECONDS));
+        assertEquals("Hello after", after.get(5, TimeUnit.SECONDS));
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            fail("Failed call completed normally");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+            assertEquals("broken", ex.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void executesIndependentCallsInParallel() throws Exception {
+        CompletableFuture<Boolean> first;
+        CompletableFuture<Boolean> second;
+        CarmineBatch batch = cm.startBatch();
+        try {
+            batch.setIndependent(true);
+            first = service.meet(5000);
+            second = service.meet(5000);
+        } finally {
+            batch.close();
+        }
+        // each call waits for the other one, so they must run in parallel
+        assertTrue(first.get(10, TimeUnit.SECONDS));
+        assertTrue(second.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void executesDependentCallsInOrder() throws Exception {
+        CompletableFuture<Boolean> first;
+        CompletableFuture<Boolean> second;
+        CarmineBatch batch = cm.startBatch();
+        try {
+            first = service.meet(50);
+            second = service.meet(50);
+        } finally {
+            batch.close();
+        }
+        assertFalse(first.get(10, TimeUnit.SECONDS));
+        assertTrue(second.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void coalescesCallsWithinBatchWindow() throws Exception {
+        cm.setBatchWindow(10000);
+        cm.setMaxBatchSize(2);
+        Future<String> first = executor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return service.greet("first");
+            }
+        });
+        Future<String> second = executor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return service.greet("second");
+            }
+        });
+        // the window is long, so the calls are sent once both are queued
+        assertEquals("Greetings first", first.get(5, TimeUnit.SECONDS));
+        assertEquals("Greetings second", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, transport.requests.get());
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the round trips of the values written and read by the
+ * {@link CarmineBinaryCodec}, and of the limits applied to the read data.
+ */
+public class CarmineBinaryCodecTest {
+
+    /**
+     * Serializable object with the default constructor.
+     */
+    public static class Node implements Serializable {
+
+        String name;
+        Node next;
+        List<Node> children = new ArrayList<Node>();
+    }
+
+    /**
+     * Serializable object without the no-arg constructor.
+     */
+    public static class Point implements Serializable {
+
+        private final int x;
+        private final int y;
+
+        public Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private final CarmineBinaryCodec codec = new CarmineBinaryCodec();
+
+    @Test
+    public void roundTripsSimpleValues() throws Exception {
+        assertNull(roundTrip(null));
+        assertEquals(42, roundTrip(42));
+        assertEquals(-7L, roundTrip(-7L));
+        assertEquals(3.5d, roundTrip(3.5d));
+        assertEquals('c', roundTrip('c'));
+        assertEquals(Boolean.TRUE, roundTrip(Boolean.TRUE));
+        assertEquals("text", roundTrip("text"));
+        assertEquals(TimeUnit.SECONDS, roundTrip(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void roundTripsLongStrings() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            sb.append((char) ('a' + i % 26)).append('\u010d');
+        }
+        assertEquals(sb.toString(), roundTrip(sb.toString()));
+    }
+
+    @Test
+    public void roundTripsArraysAndCollections() throws Exception {
+        assertArrayEquals(new int[]{1, 2, 3},
+                (int[]) roundTrip(new int[]{1, 2, 3}));
+        assertArrayEquals(new byte[100000],
+                (byte[]) roundTrip(new byte[100000]));
+        assertArrayEquals(new String[]{"a", null, "c"},
+                (String[]) roundTrip(new String[]{"a", null, "c"}));
+
+        List<Object> list = new ArrayList<Object>(
+                Arrays.<Object>asList(1, "two", 3L, null));
+        assertEquals(list, roundTrip(list));
+
+        Map<String, Integer> map = new LinkedHashMap<String, Integer>();
+        map.put("z", 1);
+        map.put("a", 2);
+        @SuppressWarnings("unchecked")
+        Map<String, Integer> readMap = (Map<String, Integer>) roundTrip(map);
+        assertEquals(Arrays.asList("z", "a"),
+                new ArrayList<String>(readMap.keySet()));
+
+        assertEquals(new HashSet<String>(Arrays.asList("x", "y")),
+                roundTrip(new HashSet<String>(Arrays.asList("x", "y"))));
+        assertEquals(Collections.singletonMap("k", 1),
+                roundTrip(new HashMap<String, Integer>(
+                        Collections.singletonMap("k", 1))));
+    }
+
+    @Test
+    public void preservesSharedAndCyclicReferences() throws Exception {
+        Node root = new Node();
+        root.name = "root";
+        Node child = new Node();
+        child.name = "child";
+        child.next = root;
+        root.children.add(child);
+        root.children.add(child);
+
+        Node read = (Node) roundTrip(root);
+        assertEquals("root", read.name);
+        assertEquals(2, read.children.size());
+        assertSame(read.children.get(0), read.children.get(1));
+        assertSame(read, read.children.get(0).next);
+    }
+
+    @Test
+    public void createsObjectsWithoutNoArgConstructor() throws Exception {
+        Point point = (Point) roundTrip(new Point(3, -4));
+        assertEquals(3, point.x);
+        assertEquals(-4, point.y);
+    }
+
+    @Test
+    public void rejectsValuesLongerThanMaxLength() throws Exception {
+        byte[] data = write(Arrays.asList(1, 2, 3, 4, 5));
+        codec.setMaxLength(4);
+        try {
+            read(data);
+            fail("List longer than the maximum length read");
+        } catch (StreamCorruptedException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void rejectsClassesRefusedByFilter() throws Exception {
+        byte[] data = write(new Point(1, 2));
+        codec.setClassFilter(new CarmineClassFilter() {
+            @Override
+            public boolean accept(Class<?> type) {
+                return type != Point.class;
+            }
+        });
+        try {
+            read(data);
+            fail("Rejected class instantiated");
+        } catch (InvalidClassException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void failsOnTruncatedInput() throws Exception {
+        byte[] data = write(Arrays.asList("first", "second", "third"));
+        try {
+            read(Arrays.copyOf(data, data.length - 3));
+            fail("Truncated input read");
+        } catch (EOFException expected) {
+            // expected
+        }
+    }
+
+    private Object roundTrip(Object value) throws Exception {
+        return read(write(value));
+    }
+
+    private byte[] write(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutput out = codec.createOutput(bytes);
+        out.writeObject(value);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private Object read(byte[] data) throws Exception {
+        ObjectInput in = codec.createInput(new ByteArrayInputStream(data));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+}
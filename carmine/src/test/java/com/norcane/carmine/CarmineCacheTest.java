@@ -0,0 +1,196 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests of the {@link CarmineCache} of results of the cacheable methods.
+ */
+public class CarmineCacheTest {
+
+    /**
+     * Base service with the inherited cacheable method.
+     */
+    public interface BaseService {
+
+        @CarmineCacheable
+        String describe(String name);
+    }
+
+    /**
+     * Service with the cacheable and not cacheable methods.
+     */
+    public interface CatalogService extends BaseService {
+
+        @CarmineCacheable
+        List<String> items(String category);
+
+        String touch();
+    }
+
+    /**
+     * Implementation of the {@link CatalogService}, counting its calls.
+     */
+    public static class CatalogServiceImpl implements CatalogService {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public String describe(String name) {
+            return "Description " + name + " #" + calls.incrementAndGet();
+        }
+
+        @Override
+        public List<String> items(String category) {
+            calls.incrementAndGet();
+            List<String> items = new ArrayList<String>();
+            items.add(category + "-1");
+            items.add(category + "-2");
+            return items;
+        }
+
+        @Override
+        public String touch() {
+            return "touched #" + calls.incrementAndGet();
+        }
+    }
+
+    private final CatalogServiceImpl implementation = new CatalogServiceImpl();
+    private CarmineInvoker invoker;
+    private CarmineManager cm;
+    private CatalogService service;
+
+    @Before
+    public void setUp() {
+        invoker = new CarmineInvoker();
+        CarmineSingletonProvider provider
+                = new CarmineSingletonProvider(implementation);
+        invoker.addProvider(CatalogService.class, provider);
+        invoker.addProvider(BaseService.class, provider);
+        cm = new CarmineManager(invoker);
+        service = cm.getRemote(CatalogService.class);
+    }
+
+    @After
+    public void tearDown() {
+        cm.close();
+    }
+
+    @Test
+    public void answersRepeatedCallsFromCache() {
+        assertEquals("Description a #1", service.describe("a"));
+        assertEquals("Description a #1", service.describe("a"));
+        assertEquals("Description b #2", service.describe("b"));
+        assertEquals(1, cm.getCache().getHits());
+        assertEquals(2, cm.getCache().getMisses());
+        assertEquals(2, implementation.calls.get());
+    }
+
+    @Test
+    public void returnsCopyOfCachedResult() {
+        List<String> first = service.items("x");
+        first.clear();
+        List<String> second = service.items("x");
+        assertNotSame(first, second);
+        assertEquals(2, second.size());
+        assertEquals(1, implementation.calls.get());
+    }
+
+    @Test
+    public void sharesCachedResultIfCopyingDisabled() {
+        cm.getCache().setCopyResults(false);
+        assertSame(service.items("x"), service.items("x"));
+    }
+
+    @Test
+    public void separatesCallsWithDifferentProperties() {
+        CarmineManager other = new CarmineManager(invoker);
+        try {
+            other.setCache(cm.getCache());
+            cm.setProperties(Collections.<String, Object>singletonMap(
+                    "user", "alice"));
+            other.setProperties(Collections.<String, Object>singletonMap(
+                    "user", "bob"));
+            CatalogService otherService = other.getRemote(CatalogService.class);
+            assertEquals("Description a #1", service.describe("a"));
+            assertEquals("Description a #2", otherService.describe("a"));
+            assertEquals("Description a #1", service.describe("a"));
+            assertEquals("Description a #2", otherService.describe("a"));
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void ignoresPropertiesNotInKey() {
+        cm.getCache().setKeyProperties("user");
+        cm.setProperties(Collections.<String, Object>singletonMap(
+                "trace", "1"));
+        assertEquals("Description a #1", service.describe("a"));
+        cm.setProperties(Collections.<String, Object>singletonMap(
+                "trace", "2"));
+        assertEquals("Description a #1", service.describe("a"));
+        cm.setProperties(Collections.<String, Object>singletonMap(
+                "user", "alice"));
+        assertEquals("Description a #2", service.describe("a"));
+    }
+
+    @Test
+    public void invalidatesInheritedMethodsByInterface() {
+        assertEquals("Description a #1", service.describe("a"));
+        cm.getCache().invalidate(CatalogService.class);
+        assertEquals("Description a #2", service.describe("a"));
+        cm.getCache().invalidate(BaseService.class);
+        assertEquals("Description a #3", service.describe("a"));
+    }
+
+    @Test
+    public void invalidatesByRemoteSide() {
+        assertEquals("Description a #1", service.describe("a"));
+        invoker.invalidateCache(CatalogService.class);
+        // the invalidation is received with the next response
+        assertEquals("touched #2", service.touch());
+        assertEquals("Description a #3", service.describe("a"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedResults() {
+        CarmineCache cache = new CarmineCache(2, 60000);
+        cm.setCache(cache);
+        service.describe("a");
+        service.describe("b");
+        service.describe("a");
+        service.describe("c");
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals("Description a #1", service.describe("a"));
+        assertEquals("Description b #4", service.describe("b"));
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the deadlines of the remote method calls, given by the
+ * {@link CarmineTimeout} or the timeout of the {@link CarmineManager}.
+ */
+public class CarmineDeadlineTest {
+
+    /**
+     * Service with the timed methods.
+     */
+    public interface TimedService {
+
+        long remaining();
+
+        @CarmineTimeout(value = 5, unit = TimeUnit.SECONDS)
+        long remainingTimed();
+
+        @CarmineTimeout(100)
+        String quick() throws TimeoutException;
+
+        @CarmineTimeout(100)
+        CompletableFuture<String> never();
+
+        String hold();
+    }
+
+    /**
+     * Implementation of the {@link TimedService}.
+     */
+    public static class TimedServiceImpl implements TimedService {
+
+        private final AtomicInteger quickCalls = new AtomicInteger();
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+        private final CompletableFuture<String> pending
+                = new CompletableFuture<String>();
+
+        @Override
+        public long remaining() {
+            return CarmineInvoker.getRemainingTime();
+        }
+
+        @Override
+        public long remainingTimed() {
+            return CarmineInvoker.getRemainingTime();
+        }
+
+        @Override
+        public String quick() {
+            quickCalls.incrementAndGet();
+            return "quick";
+        }
+
+        @Override
+        public CompletableFuture<String> never() {
+            return pending;
+        }
+
+        @Override
+        public String hold() {
+            started.countDown();
+            try {
+                released.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+            return "held";
+        }
+    }
+
+    private final TimedServiceImpl implementation = new TimedServiceImpl();
+    private ExecutorService executor;
+    private CarmineInvoker invoker;
+    private CarmineManager cm;
+    private TimedService service;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+        invoker = new CarmineInvoker();
+        invoker.addProvider(TimedService.class,
+                new CarmineSingletonProvider(implementation));
+        cm = new CarmineManager(invoker);
+        service = cm.getRemote(TimedService.class);
+    }
+
+    @After
+    public void tearDown() {
+        implementation.released.countDown();
+        cm.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void untimedCallHasNoDeadline() {
+        assertEquals(Long.MAX_VALUE, service.remaining());
+    }
+
+    @Test
+    public void passesRemainingTimeToImplementation() {
+        long remaining = service.remainingTimed();
+        assertTrue(remaining > 0 && remaining <= 5000);
+    }
+
+    @Test
+    public void sendsManagerTimeoutAsDeadline() {
+        cm.setTimeout(3000);
+        long remaining = service.remaining();
+        assertTrue(remaining > 0 && remaining <= 3000);
+    }
+
+    @Test
+    public void doesNotInvokeCallExpiredInQueue() throws Exception {
+        invoker.setLimiter(TimedService.class,
+                new CarmineLimiter(1, 1, 10000));
+        Future<String> held = executor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return service.hold();
+            }
+        });
+        assertTrue(implementation.started.await(5, TimeUnit.SECONDS));
+        Future<String> queued = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws TimeoutException {
+                return service.quick();
+            }
+        });
+        // the queued call outlives its deadline before the permit is free
+        Thread.sleep(300);
+        implementation.released.countDown();
+        assertEquals("held", held.get(5, TimeUnit.SECONDS));
+        try {
+            queued.get(5, TimeUnit.SECONDS);
+            fail("Expired call completed normally");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof TimeoutException);
+            assertEquals("Deadline of the call passed",
+                    ex.getCause().getMessage());
+        }
+        assertEquals(0, implementation.quickCalls.get());
+    }
+
+    @Test
+    public void asyncCallTimesOut() throws Exception {
+        CompletableFuture<String> result = service.never();
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            fail("Timed out call completed normally");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+        // the remote side stops waiting for the result too
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!implementation.pending.isCancelled()) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the {@link CarmineLimiter}, used alone and by the
+ * {@link CarmineInvoker}.
+ */
+public class CarmineLimiterTest {
+
+    /**
+     * Service whose calls can be held in progress.
+     */
+    public interface SlowService {
+
+        String hold(String name);
+
+        String fail(String message);
+
+        String ping();
+    }
+
+    /**
+     * Implementation of the {@link SlowService}, holding the calls until
+     * released.
+     */
+    public static class SlowServiceImpl implements SlowService {
+
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        public String hold(String name) {
+            started.countDown();
+            try {
+                released.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+            return "Held " + name;
+        }
+
+        @Override
+        public String fail(String message) {
+            throw new IllegalStateException(message);
+        }
+
+        @Override
+        public String ping() {
+            return "pong";
+        }
+    }
+
+    private final SlowServiceImpl implementation = new SlowServiceImpl();
+    private ExecutorService executor;
+    private CarmineInvoker invoker;
+    private CarmineManager cm;
+    private SlowService service;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+        invoker = new CarmineInvoker();
+        invoker.addProvider(SlowService.class,
+                new CarmineSingletonProvider(implementation));
+        cm = new CarmineManager(invoker);
+        service = cm.getRemote(SlowService.class);
+    }
+
+    @After
+    public void tearDown() {
+        implementation.released.countDown();
+        cm.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void rejectsCallsOverLimitImmediately() {
+        CarmineLimiter limiter = new CarmineLimiter(1);
+        assertTrue(limiter.acquire());
+        assertFalse(limiter.acquire());
+        assertEquals(1, limiter.getRejected());
+        limiter.release(-1);
+        assertTrue(limiter.acquire());
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    public void queuedCallGetsReleasedPermit() throws Exception {
+        final CarmineLimiter limiter = new CarmineLimiter(1, 1, 10000);
+        assertTrue(limiter.acquire());
+        Future<Boolean> queued = executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return limiter.acquire();
+            }
+        });
+        awaitQueued(limiter, 1);
+        // the queue is full, so the next call is rejected immediately
+        assertFalse(limiter.acquire());
+        limiter.release(1000);
+        assertTrue(queued.get(5, TimeUnit.SECONDS));
+        assertEquals(1, limiter.getInFlight());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    public void queuedCallTimesOut() {
+        CarmineLimiter limiter = new CarmineLimiter(1, 1, 50);
+        assertTrue(limiter.acquire());
+        long start = System.nanoTime();
+        assertFalse(limiter.acquire());
+        assertTrue(System.nanoTime() - start
+                >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertEquals(1, limiter.getRejected());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    public void rejectsRemoteCallsOverLimit() throws Exception {
+        CarmineLimiter limiter = new CarmineLimiter(1);
+        invoker.setLimiter(SlowService.class, limiter);
+        Future<String> held = hold();
+        try {
+            service.ping();
+            fail("Call over the limit not rejected");
+        } catch (CarmineOverloadException ex) {
+            assertEquals(1, limiter.getRejected());
+        }
+        implementation.released.countDown();
+        assertEquals("Held first", held.get(5, TimeUnit.SECONDS));
+        assertEquals(0, limiter.getInFlight());
+        assertEquals("pong", service.ping());
+    }
+
+    @Test
+    public void limitsOnlyTheGivenMethod() throws Exception {
+        CarmineLimiter limiter = new CarmineLimiter(1);
+        invoker.setLimiter(SlowService.class, "hold", limiter);
+        Future<String> held = hold();
+        assertEquals("pong", service.ping());
+        try {
+            service.hold("second");
+            fail("Call over the limit not rejected");
+        } catch (CarmineOverloadException ex) {
+            assertEquals(1, limiter.getRejected());
+        }
+        implementation.released.countDown();
+        assertEquals("Held first", held.get(5, TimeUnit.SECONDS));
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void releasesPermitsOfFailedCalls() {
+        CarmineLimiter limiter = new CarmineLimiter(1);
+        CarmineLimiter methodLimiter = new CarmineLimiter(1);
+        invoker.setLimiter(SlowService.class, limiter);
+        invoker.setLimiter(SlowService.class, "fail", methodLimiter);
+        for (int i = 0; i < 3; i++) {
+            try {
+                service.fail("broken");
+                fail("Failing call completed normally");
+            } catch (IllegalStateException ex) {
+                assertEquals("broken", ex.getMessage());
+            }
+        }
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(0, methodLimiter.getInFlight());
+        assertEquals(0, limiter.getRejected());
+    }
+
+    private Future<String> hold() throws InterruptedException {
+        Future<String> result = executor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return service.hold("first");
+            }
+        });
+        assertTrue(implementation.started.await(5, TimeUnit.SECONDS));
+        return result;
+    }
+
+    private static void awaitQueued(CarmineLimiter limiter, int queued)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (limiter.getQueued() < queued) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
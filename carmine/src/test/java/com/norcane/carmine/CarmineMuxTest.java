@@ -0,0 +1,192 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the {@link CarmineMuxTransport} calling the
+ * {@link CarmineMuxServer} over the multiplexed connection.
+ */
+public class CarmineMuxTest {
+
+    /**
+     * Service with the slow and fast methods.
+     */
+    public interface EchoService {
+
+        int length(byte[] data) throws IOException;
+
+        CompletableFuture<String> slow(String text);
+
+        CompletableFuture<String> fast(String text);
+
+        CompletableFuture<Integer> busy(int value);
+    }
+
+    /**
+     * Implementation of the {@link EchoService}, tracking the calls in
+     * progress.
+     */
+    public static class EchoServiceImpl implements EchoService {
+
+        private final CountDownLatch released = new CountDownLatch(1);
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger peak = new AtomicInteger();
+
+        @Override
+        public int length(byte[] data) {
+            return data.length;
+        }
+
+        @Override
+        public CompletableFuture<String> slow(String text) {
+            try {
+                released.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+            return CompletableFuture.completedFuture("slow " + text);
+        }
+
+        @Override
+        public CompletableFuture<String> fast(String text) {
+            return CompletableFuture.completedFuture("fast " + text);
+        }
+
+        @Override
+        public CompletableFuture<Integer> busy(int value) {
+            int current = active.incrementAndGet();
+            int previous;
+            do {
+                previous = peak.get();
+            } while (current > previous
+                    && !peak.compareAndSet(previous, current));
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            } finally {
+                active.decrementAndGet();
+            }
+            return CompletableFuture.completedFuture(value);
+        }
+    }
+
+    private final EchoServiceImpl implementation = new EchoServiceImpl();
+    private CarmineMuxServer server;
+    private CarmineMuxTransport transport;
+    private CarmineManager cm;
+    private EchoService service;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CarmineMuxServer(new InetSocketAddress("localhost", 0),
+                new CarmineInvoker());
+        server.addImplementation(EchoService.class, implementation);
+        server.start();
+        transport = new CarmineMuxTransport(new InetSocketAddress(
+                "localhost", server.getAddress().getPort()));
+        cm = new CarmineManager(new URL("http://localhost/carmine"));
+        cm.setTransport(transport);
+        service = cm.getRemote(EchoService.class);
+    }
+
+    @After
+    public void tearDown() {
+        implementation.released.countDown();
+        cm.close();
+        server.close();
+    }
+
+    @Test
+    public void answersCallsOutOfOrder() throws Exception {
+        CompletableFuture<String> slow = service.slow("first");
+        CompletableFuture<String> fast = service.fast("second");
+        assertEquals("fast second", fast.get(5, TimeUnit.SECONDS));
+        assertFalse(slow.isDone());
+        implementation.released.countDown();
+        assertEquals("slow first", slow.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void limitsRequestsInProgressPerConnection() throws Exception {
+        server.setMaxConcurrentRequests(3);
+        List<CompletableFuture<Integer>> results
+                = new ArrayList<CompletableFuture<Integer>>();
+        for (int i = 0; i < 30; i++) results.add(service.busy(i));
+        for (int i = 0; i < 30; i++) {
+            assertEquals(i, results.get(i).get(10, TimeUnit.SECONDS)
+                    .intValue());
+        }
+        assertTrue(implementation.peak.get() <= 3);
+    }
+
+    @Test
+    public void rejectsRequestOverMaxFrameLength() throws Exception {
+        server.setMaxFrameLength(64 * 1024);
+        try {
+            service.length(new byte[128 * 1024]);
+            fail("Request over the maximum frame length not rejected");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("Request too large"));
+        }
+        // only the oversized call fails, the connection is still usable
+        assertEquals(1000, service.length(new byte[1000]));
+    }
+
+    @Test
+    public void failsResponseOverMaxFrameLength() throws Exception {
+        transport.setMaxFrameLength(1024);
+        assertEquals(100 * 1024, service.length(new byte[100 * 1024]));
+        try {
+            service.fast(new String(new char[4096])).get(5, TimeUnit.SECONDS);
+            fail("Response over the maximum frame length not rejected");
+        } catch (Exception ex) {
+            assertTrue(String.valueOf(ex.getCause()).contains(
+                    "Response too large"));
+        }
+        assertEquals("fast ok", service.fast("ok").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void usesBinaryCodecAcrossCalls() throws Exception {
+        cm.setCodec(new CarmineBinaryCodec());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("fast " + i,
+                    service.fast(String.valueOf(i)).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(10, service.length(new byte[10]));
+    }
+}
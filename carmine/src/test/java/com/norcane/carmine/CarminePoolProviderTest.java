@@ -0,0 +1,213 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the {@link CarminePoolProvider}, called directly and through the
+ * {@link CarmineInvoker}.
+ */
+public class CarminePoolProviderTest {
+
+    private static final Map<String, Object> NO_PROPERTIES
+            = Collections.emptyMap();
+
+    /**
+     * Service whose implementation is not thread safe.
+     */
+    public interface CountingService {
+
+        int next();
+
+        Iterator<Integer> range(int count);
+    }
+
+    /**
+     * Implementation of the {@link CountingService}, detecting the concurrent
+     * use of the same instance.
+     */
+    public static class CountingServiceImpl implements CountingService {
+
+        private final AtomicBoolean used = new AtomicBoolean();
+        private final AtomicBoolean sharedUse;
+        private int count;
+
+        public CountingServiceImpl(AtomicBoolean sharedUse) {
+            this.sharedUse = sharedUse;
+        }
+
+        @Override
+        public int next() {
+            if (!used.compareAndSet(false, true)) sharedUse.set(true);
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            used.set(false);
+            return ++count;
+        }
+
+        @Override
+        public Iterator<Integer> range(final int count) {
+            return new Iterator<Integer>() {
+                private int index;
+
+                @Override
+                public boolean hasNext() {
+                    return index < count;
+                }
+
+                @Override
+                public Integer next() {
+                    return index++;
+                }
+            };
+        }
+    }
+
+    private final AtomicBoolean sharedUse = new AtomicBoolean();
+    private final AtomicInteger created = new AtomicInteger();
+
+    private CarminePoolProvider pool(int maxSize) {
+        return new CarminePoolProvider(new CarmineFactory<CountingService>() {
+            @Override
+            public CountingService create(Map<String, Object> properties) {
+                created.incrementAndGet();
+                return new CountingServiceImpl(sharedUse);
+            }
+        }, maxSize);
+    }
+
+    @Test
+    public void reusesReleasedInstances() throws Exception {
+        CarminePoolProvider pool = pool(2);
+        Object first = pool.acquire(NO_PROPERTIES);
+        pool.release(first, NO_PROPERTIES);
+        assertSame(first, pool.acquire(NO_PROPERTIES));
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(1, pool.getActiveCount());
+    }
+
+    @Test
+    public void waitsForInstanceAtMostAcquireTimeout() throws Exception {
+        CarminePoolProvider pool = pool(1);
+        pool.setAcquireTimeout(50);
+        Object instance = pool.acquire(NO_PROPERTIES);
+        long start = System.nanoTime();
+        try {
+            pool.acquire(NO_PROPERTIES);
+            fail("Instance acquired over the maximum size");
+        } catch (TimeoutException expected) {
+            assertTrue(System.nanoTime() - start >= 40000000L);
+        }
+        pool.release(instance, NO_PROPERTIES);
+        pool.release(pool.acquire(NO_PROPERTIES), NO_PROPERTIES);
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    public void releasesPermitWhenFactoryFails() throws Exception {
+        final AtomicBoolean fail = new AtomicBoolean(true);
+        CarminePoolProvider pool = new CarminePoolProvider(
+                new CarmineFactory<Object>() {
+                    @Override
+                    public Object create(Map<String, Object> properties) {
+                        if (fail.getAndSet(false)) {
+                            throw new IllegalStateException("failed");
+                        }
+                        return new Object();
+                    }
+                }, 1);
+        pool.setAcquireTimeout(50);
+        try {
+            pool.acquire(NO_PROPERTIES);
+            fail("Failure of the factory not propagated");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        assertEquals(0, pool.getActiveCount());
+        pool.acquire(NO_PROPERTIES);
+    }
+
+    @Test
+    public void neverSharesInstanceBetweenConcurrentCalls() throws Exception {
+        CarmineInvoker invoker = new CarmineInvoker();
+        CarminePoolProvider pool = pool(3);
+        invoker.addProvider(CountingService.class, pool);
+        final CountingService service = new CarmineManager(invoker)
+                .getRemote(CountingService.class);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int j = 0; j < 50; j++) service.next();
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) future.get();
+        } finally {
+            executor.shutdown();
+        }
+        assertFalse("Instance used by concurrent calls", sharedUse.get());
+        assertTrue(pool.getCreatedCount() <= 3);
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    public void holdsInstanceUntilStreamedResultIsRead() throws Exception {
+        CarmineInvoker invoker = new CarmineInvoker();
+        CarminePoolProvider pool = pool(1);
+        invoker.addProvider(CountingService.class, pool);
+        CountingService service = new CarmineManager(invoker)
+                .getRemote(CountingService.class);
+
+        Iterator<Integer> range = service.range(3);
+        assertEquals(1, pool.getActiveCount());
+        int count = 0;
+        while (range.hasNext()) {
+            assertEquals(count++, (int) range.next());
+        }
+        assertEquals(3, count);
+        assertEquals(0, pool.getActiveCount());
+    }
+}
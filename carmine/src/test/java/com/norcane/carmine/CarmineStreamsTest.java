@@ -0,0 +1,113 @@
+/*
+ * Carmine :: Lightweight Java remoting library using HTTP(S)
+ * Copyright (c) 2013-2015 norcane
+ * http://norcane.com
+ * All Rights Reserved
+ *
+ * This software and the accompanying materials are made available under the
+ * terms of the GNU Lesser General Public License (LGPL) version 3 which
+ * accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-3.0.html
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ */
+package com.norcane.carmine;
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests of the streamed results, run with the heap smaller than the streamed
+ * data (see the {@code streams-test} execution of the surefire plugin).
+ */
+public class CarmineStreamsTest {
+
+    private static final int ELEMENT_SIZE = 1024;
+    private static final int ELEMENTS = 200000;
+
+    /**
+     * Service streaming the given number of distinct elements.
+     */
+    public interface StreamingService {
+
+        Iterator<byte[]> stream(int count);
+    }
+
+    /**
+     * Implementation of the {@link StreamingService}, creating the elements
+     * as they are read.
+     */
+    public static class StreamingServiceImpl implements StreamingService {
+
+        @Override
+        public Iterator<byte[]> stream(final int count) {
+            return new Iterator<byte[]>() {
+                private int index;
+
+                @Override
+                public boolean hasNext() {
+                    return index < count;
+                }
+
+                @Override
+                public byte[] next() {
+                    if (index >= count) throw new NoSuchElementException();
+                    byte[] element = new byte[ELEMENT_SIZE];
+                    element[0] = (byte) index;
+                    element[ELEMENT_SIZE - 1] = (byte) (index++ >>> 8);
+                    return element;
+                }
+            };
+        }
+    }
+
+    @Test
+    public void streamsMoreThanHeapUsingJavaCodec() throws Exception {
+        streamMoreThanHeap(new CarmineJavaCodec());
+    }
+
+    @Test
+    public void streamsMoreThanHeapUsingBinaryCodec() throws Exception {
+        streamMoreThanHeap(new CarmineBinaryCodec());
+    }
+
+    private void streamMoreThanHeap(CarmineCodec codec) throws Exception {
+        long streamed = (long) ELEMENTS * ELEMENT_SIZE;
+        assertFalse("Heap must be smaller than the streamed data",
+                Runtime.getRuntime().maxMemory() > streamed);
+
+        CarmineServer server = new CarmineServer(0);
+        server.addImplementation(
+                StreamingService.class, new StreamingServiceImpl());
+        server.start();
+        CarmineManager cm = new CarmineManager(new URL("http://localhost:"
+                + server.getAddress().getPort() + CarmineServer.DEFAULT_PATH));
+        cm.setCodec(codec);
+        try {
+            StreamingService service
+                    = cm.getRemote(StreamingService.class);
+            Iterator<byte[]> elements = service.stream(ELEMENTS);
+            int count = 0;
+            while (elements.hasNext()) {
+                byte[] element = elements.next();
+                assertEquals(ELEMENT_SIZE, element.length);
+                assertEquals((byte) count, element[0]);
+                assertEquals((byte) (count >>> 8), element[ELEMENT_SIZE - 1]);
+                count++;
+            }
+            assertEquals(ELEMENTS, count);
+        } finally {
+            cm.close();
+            server.close();
+        }
+    }
+}